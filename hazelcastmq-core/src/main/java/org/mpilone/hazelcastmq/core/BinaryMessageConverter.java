@@ -0,0 +1,547 @@
+package org.mpilone.hazelcastmq.core;
+
+import static java.lang.String.format;
+import static org.mpilone.hazelcastmq.core.HazelcastMQConstants.UTF_8;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * <p>
+ * A message converter that uses a compact binary format. The converted message
+ * is written into a single, exactly sized byte array and the headers of a
+ * received message are only decoded when they are first accessed. A single
+ * header, such as the expiration, is read in place without decoding the
+ * others. Standard header names defined in {@link Headers} are written as a
+ * single byte dictionary index rather than as text. This converter is a good
+ * choice when messages have a large number of headers or when the wire format
+ * must be independent of Java serialization.
+ * </p>
+ * <p>
+ * The format is:
+ * </p>
+ * <pre>
+ * magic (1 byte) version (1 byte)
+ * header section length (varint)
+ * header entry*:
+ *   name index (1 byte, 0 for a literal name)
+ *   [literal name length (varint) literal name (UTF-8)]
+ *   value length + 1 (varint, 0 for null) value (UTF-8)
+ * body length + 1 (varint, 0 for null) body
+ * </pre>
+ * <p>
+ * The dictionary of standard header names is part of the format. Names may
+ * only be appended to the dictionary to remain compatible with previously
+ * converted messages.
+ * </p>
+ *
+ * @author mpilone
+ */
+public class BinaryMessageConverter implements MessageConverter {
+
+  /**
+   * The first byte of every converted message.
+   */
+  private static final byte MAGIC = (byte) 0xB3;
+
+  /**
+   * The format version.
+   */
+  private static final byte VERSION = 1;
+
+  /**
+   * The name index indicating that a literal name follows.
+   */
+  private static final int LITERAL_NAME = 0;
+
+  /**
+   * The dictionary of standard header names. Index 0 is reserved to indicate a
+   * literal name.
+   */
+  private static final String[] NAME_DICTIONARY = {
+    null,
+    Headers.CONTENT_TYPE,
+    Headers.CONTENT_LENGTH,
+    Headers.MESSAGE_ID,
+    Headers.DESTINATION,
+    Headers.REPLY_TO,
+    Headers.CORRELATION_ID,
+    Headers.EXPIRATION
+  };
+
+  /**
+   * The map of standard header names to dictionary index.
+   */
+  private static final Map<String, Integer> NAME_INDEX;
+
+  static {
+    Map<String, Integer> nameIndex = new HashMap<>();
+    for (int i = 1; i < NAME_DICTIONARY.length; ++i) {
+      nameIndex.put(NAME_DICTIONARY[i], i);
+    }
+    NAME_INDEX = nameIndex;
+  }
+
+  @Override
+  public Object fromMessage(HazelcastMQMessage message) throws
+      HazelcastMQException {
+
+    Headers headers = message.getHeaders();
+    ByteBuffer body = message.getBodyBuffer();
+
+    // Size everything up front so we only allocate once.
+    int headerLength = 0;
+    for (String name : headers.getHeaderNames()) {
+      if (!NAME_INDEX.containsKey(name)) {
+        int nameLength = utf8Length(name);
+        headerLength += varintLength(nameLength) + nameLength;
+      }
+      headerLength += 1;
+
+      String value = headers.get(name);
+      int valueLength = value == null ? 0 : utf8Length(value);
+      headerLength += varintLength(value == null ? 0 : valueLength + 1)
+          + valueLength;
+    }
+
+    int bodyLength = body == null ? 0 : body.remaining();
+    int totalLength = 2 + varintLength(headerLength) + headerLength
+        + varintLength(body == null ? 0 : bodyLength + 1) + bodyLength;
+
+    byte[] data = new byte[totalLength];
+    int pos = 0;
+
+    data[pos++] = MAGIC;
+    data[pos++] = VERSION;
+    pos = writeVarint(headerLength, data, pos);
+
+    for (String name : headers.getHeaderNames()) {
+      Integer index = NAME_INDEX.get(name);
+      if (index != null) {
+        data[pos++] = index.byteValue();
+      }
+      else {
+        data[pos++] = LITERAL_NAME;
+        pos = writeVarint(utf8Length(name), data, pos);
+        pos = writeUtf8(name, data, pos);
+      }
+
+      String value = headers.get(name);
+      if (value == null) {
+        pos = writeVarint(0, data, pos);
+      }
+      else {
+        pos = writeVarint(utf8Length(value) + 1, data, pos);
+        pos = writeUtf8(value, data, pos);
+      }
+    }
+
+    if (body == null) {
+      pos = writeVarint(0, data, pos);
+    }
+    else {
+      pos = writeVarint(bodyLength + 1, data, pos);
+      body.get(data, pos, bodyLength);
+    }
+
+    return data;
+  }
+
+  @Override
+  public HazelcastMQMessage toMessage(Object data) throws HazelcastMQException {
+
+    byte[] msgData = (byte[]) data;
+
+    if (msgData.length < 2 || msgData[0] != MAGIC) {
+      throw new HazelcastMQException(
+          "Invalid HazelcastMQ message. The message does not start with "
+          + "the binary converter magic byte.");
+    }
+    if (msgData[1] != VERSION) {
+      throw new HazelcastMQException(format(
+          "Unsupported binary message version [%d].", msgData[1]));
+    }
+
+    Cursor cursor = new Cursor(msgData, 2);
+    int headerLength = cursor.readVarint();
+    int headerOffset = cursor.pos;
+    cursor.pos += headerLength;
+
+    int bodyLength = cursor.readVarint() - 1;
+    HazelcastMQMessage msg = new HazelcastMQMessage(new LazyHeaders(msgData,
+        headerOffset, headerLength), null);
+
+    // The body is a slice of the converted data rather than a copy.
+    if (bodyLength >= 0) {
+      msg.setBody(ByteBuffer.wrap(msgData, cursor.pos, bodyLength));
+    }
+
+    return msg;
+  }
+
+  /**
+   * Decodes the header section of a converted message into the given headers.
+   *
+   * @param data the converted message data
+   * @param offset the offset of the first header entry
+   * @param length the length of the header section
+   * @param headers the headers to populate
+   */
+  private static void decodeHeaders(byte[] data, int offset, int length,
+      Headers headers) {
+
+    Cursor cursor = new Cursor(data, offset);
+    int end = offset + length;
+
+    while (cursor.pos < end) {
+      int index = data[cursor.pos++] & 0xFF;
+
+      String name;
+      if (index == LITERAL_NAME) {
+        name = cursor.readUtf8(cursor.readVarint());
+      }
+      else if (index < NAME_DICTIONARY.length) {
+        name = NAME_DICTIONARY[index];
+      }
+      else {
+        throw new HazelcastMQException(format(
+            "Invalid HazelcastMQ message. Unknown header name index [%d].",
+            index));
+      }
+
+      int valueLength = cursor.readVarint() - 1;
+      String value = valueLength < 0 ? null : cursor.readUtf8(valueLength);
+
+      headers.put(name, value);
+    }
+  }
+
+  /**
+   * Finds the value of the header with the given name in the header section
+   * of a converted message without decoding any other header values.
+   *
+   * @param data the converted message data
+   * @param offset the offset of the first header entry
+   * @param length the length of the header section
+   * @param headerName the name of the header to find
+   *
+   * @return the header value or null if the header isn't present
+   */
+  private static String findHeader(byte[] data, int offset, int length,
+      String headerName) {
+
+    // A standard name is always written as its dictionary index so it can
+    // never match a literal name and vice versa.
+    Integer nameIndex = NAME_INDEX.get(headerName);
+    byte[] nameBytes = nameIndex == null ? headerName.getBytes(UTF_8) : null;
+
+    Cursor cursor = new Cursor(data, offset);
+    int end = offset + length;
+
+    while (cursor.pos < end) {
+      int index = data[cursor.pos++] & 0xFF;
+
+      boolean match;
+      if (index == LITERAL_NAME) {
+        int nameLength = cursor.readVarint();
+        match = nameBytes != null && cursor.matches(nameBytes, nameLength);
+        cursor.pos += nameLength;
+      }
+      else if (index < NAME_DICTIONARY.length) {
+        match = nameIndex != null && index == nameIndex;
+      }
+      else {
+        throw new HazelcastMQException(format(
+            "Invalid HazelcastMQ message. Unknown header name index [%d].",
+            index));
+      }
+
+      int valueLength = cursor.readVarint() - 1;
+      if (match) {
+        return valueLength < 0 ? null : cursor.readUtf8(valueLength);
+      }
+      else if (valueLength > 0) {
+        cursor.pos += valueLength;
+      }
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns the number of bytes needed to encode the given value as a varint.
+   *
+   * @param value the non-negative value
+   *
+   * @return the number of bytes
+   */
+  private static int varintLength(int value) {
+    int length = 1;
+    while ((value & ~0x7F) != 0) {
+      value >>>= 7;
+      length++;
+    }
+    return length;
+  }
+
+  /**
+   * Writes the given value as a varint.
+   *
+   * @param value the non-negative value to write
+   * @param data the output array
+   * @param pos the position to write at
+   *
+   * @return the position after the written bytes
+   */
+  private static int writeVarint(int value, byte[] data, int pos) {
+    while ((value & ~0x7F) != 0) {
+      data[pos++] = (byte) ((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    data[pos++] = (byte) value;
+    return pos;
+  }
+
+  /**
+   * Returns the number of bytes needed to encode the given string as UTF-8.
+   * Unpaired surrogates are counted as a single replacement byte to match
+   * {@link String#getBytes(java.nio.charset.Charset)}.
+   *
+   * @param value the string to measure
+   *
+   * @return the number of bytes
+   */
+  private static int utf8Length(String value) {
+    int length = value.length();
+    int bytes = length;
+
+    for (int i = 0; i < length; ++i) {
+      char c = value.charAt(i);
+      if (c >= 0x80 && c < 0x800) {
+        bytes += 1;
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < length && Character.
+          isLowSurrogate(value.charAt(i + 1))) {
+        // Two chars become four bytes.
+        bytes += 2;
+        i++;
+      }
+      else if (c >= 0x800 && !Character.isSurrogate(c)) {
+        bytes += 2;
+      }
+    }
+
+    return bytes;
+  }
+
+  /**
+   * Writes the given string as UTF-8 into the output array. The array must
+   * have room for {@link #utf8Length(java.lang.String)} bytes.
+   *
+   * @param value the string to write
+   * @param data the output array
+   * @param pos the position to write at
+   *
+   * @return the position after the written bytes
+   */
+  private static int writeUtf8(String value, byte[] data, int pos) {
+    int length = value.length();
+
+    for (int i = 0; i < length; ++i) {
+      char c = value.charAt(i);
+      if (c < 0x80) {
+        data[pos++] = (byte) c;
+      }
+      else if (c < 0x800) {
+        data[pos++] = (byte) (0xC0 | (c >> 6));
+        data[pos++] = (byte) (0x80 | (c & 0x3F));
+      }
+      else if (Character.isHighSurrogate(c) && i + 1 < length && Character.
+          isLowSurrogate(value.charAt(i + 1))) {
+        int cp = Character.toCodePoint(c, value.charAt(++i));
+        data[pos++] = (byte) (0xF0 | (cp >> 18));
+        data[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+        data[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+        data[pos++] = (byte) (0x80 | (cp & 0x3F));
+      }
+      else if (Character.isSurrogate(c)) {
+        data[pos++] = (byte) '?';
+      }
+      else {
+        data[pos++] = (byte) (0xE0 | (c >> 12));
+        data[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+        data[pos++] = (byte) (0x80 | (c & 0x3F));
+      }
+    }
+
+    return pos;
+  }
+
+  /**
+   * A simple read position in a byte array.
+   */
+  private static class Cursor {
+
+    private final byte[] data;
+    private int pos;
+
+    /**
+     * Constructs the cursor.
+     *
+     * @param data the data to read
+     * @param pos the initial read position
+     */
+    public Cursor(byte[] data, int pos) {
+      this.data = data;
+      this.pos = pos;
+    }
+
+    /**
+     * Reads a varint.
+     *
+     * @return the value read
+     */
+    public int readVarint() {
+      int value = 0;
+      int shift = 0;
+      byte b;
+
+      do {
+        if (shift > 28) {
+          throw new HazelcastMQException(
+              "Invalid HazelcastMQ message. Malformed varint.");
+        }
+
+        b = data[pos++];
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+
+      return value;
+    }
+
+    /**
+     * Returns true if the given number of bytes at the current position are
+     * equal to the given bytes. The position is not changed.
+     *
+     * @param bytes the bytes to compare to
+     * @param length the number of bytes at the current position
+     *
+     * @return true if the bytes are equal
+     */
+    public boolean matches(byte[] bytes, int length) {
+      if (length != bytes.length) {
+        return false;
+      }
+
+      for (int i = 0; i < length; ++i) {
+        if (data[pos + i] != bytes[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    /**
+     * Reads a UTF-8 string of the given length.
+     *
+     * @param length the length in bytes
+     *
+     * @return the string read
+     */
+    public String readUtf8(int length) {
+      String value = new String(data, pos, length, UTF_8);
+      pos += length;
+      return value;
+    }
+  }
+
+  /**
+   * Headers that are decoded from the converted message data on first access.
+   * Until the headers are modified or all of them are requested, a single
+   * header is found in place so messages that are only routed, expired, or
+   * filtered on a few headers never pay for decoding the rest. When
+   * serialized, the decoded {@link DefaultHeaders} are written instead.
+   */
+  private static class LazyHeaders implements Headers, java.io.Serializable {
+
+    /**
+     * Serialization ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    private transient byte[] data;
+    private transient int offset;
+    private transient int length;
+    private DefaultHeaders headers;
+
+    /**
+     * Constructs the headers.
+     *
+     * @param data the converted message data
+     * @param offset the offset of the header section
+     * @param length the length of the header section
+     */
+    public LazyHeaders(byte[] data, int offset, int length) {
+      this.data = data;
+      this.offset = offset;
+      this.length = length;
+    }
+
+    /**
+     * Returns the decoded headers, decoding them if needed.
+     *
+     * @return the decoded headers
+     */
+    private DefaultHeaders decoded() {
+      if (headers == null) {
+        headers = new DefaultHeaders();
+        decodeHeaders(data, offset, length, headers);
+        data = null;
+      }
+      return headers;
+    }
+
+    @Override
+    public String get(String headerName) {
+      if (headers == null && headerName != null) {
+        return findHeader(data, offset, length, headerName);
+      }
+      return decoded().get(headerName);
+    }
+
+    @Override
+    public Collection<String> getHeaderNames() {
+      return decoded().getHeaderNames();
+    }
+
+    @Override
+    public Map<String, String> getHeaderMap() {
+      return decoded().getHeaderMap();
+    }
+
+    @Override
+    public String put(String headerName, String headerValue) {
+      return decoded().put(headerName, headerValue);
+    }
+
+    @Override
+    public void remove(String headerName) {
+      decoded().remove(headerName);
+    }
+
+    /**
+     * Replaces this instance with the decoded headers during serialization.
+     *
+     * @return the decoded headers
+     */
+    private Object writeReplace() {
+      return decoded();
+    }
+
+    @Override
+    public String toString() {
+      return decoded().toString();
+    }
+  }
+}
@@ -0,0 +1,238 @@
+package org.mpilone.hazelcastmq.core;
+
+import static java.lang.String.format;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * A message converter that compresses message bodies before passing the
+ * message to another converter and decompresses them after the other converter
+ * has converted the data back into a message. Only bodies at or above the
+ * configured threshold are compressed and a body is left alone if compression
+ * doesn't make it smaller. Compressed messages are marked with the
+ * {@link Headers#COMPRESSION} header and the original body length is recorded
+ * in the {@link Headers#COMPRESSION_LENGTH} header. Both are removed again on
+ * decompression so compression is transparent to producers and consumers. The
+ * body is decompressed into an array of exactly the recorded length and a body
+ * that claims to be longer than the configured maximum or that decompresses to
+ * a different length is rejected, so a small, highly compressed body can't
+ * exhaust the memory of a consumer.
+ *
+ * @author mpilone
+ */
+class CompressingMessageConverter implements MessageConverter {
+
+  /**
+   * The converter to delegate to.
+   */
+  private final MessageConverter delegate;
+
+  /**
+   * The codec used to compress and decompress bodies.
+   */
+  private final CompressionCodec codec;
+
+  /**
+   * The minimum body length in bytes that will be compressed.
+   */
+  private final int threshold;
+
+  /**
+   * The maximum length in bytes of a decompressed body.
+   */
+  private final int maxBodyLength;
+
+  /**
+   * Constructs the converter.
+   *
+   * @param delegate the converter to delegate to
+   * @param codec the codec used to compress and decompress bodies
+   * @param threshold the minimum body length in bytes that will be compressed
+   * @param maxBodyLength the maximum length in bytes of a decompressed body
+   */
+  public CompressingMessageConverter(MessageConverter delegate,
+      CompressionCodec codec, int threshold, int maxBodyLength) {
+    this.delegate = delegate;
+    this.codec = codec;
+    this.threshold = threshold;
+    this.maxBodyLength = maxBodyLength;
+  }
+
+  @Override
+  public Object fromMessage(HazelcastMQMessage message) throws
+      HazelcastMQException {
+
+    int bodyLength = message.getBodyLength();
+    if (bodyLength >= threshold && bodyLength > 0
+        && message.getHeaders().get(Headers.COMPRESSION) == null) {
+      message = compress(message, bodyLength);
+    }
+
+    return delegate.fromMessage(message);
+  }
+
+  @Override
+  public HazelcastMQMessage toMessage(Object data) throws HazelcastMQException {
+    HazelcastMQMessage message = delegate.toMessage(data);
+
+    String codecName = message.getHeaders().get(Headers.COMPRESSION);
+    if (codecName != null) {
+      if (!codecName.equals(codec.getName())) {
+        throw new HazelcastMQException(format(
+            "Message body compressed with unknown codec [%s].", codecName));
+      }
+
+      decompress(message);
+    }
+
+    return message;
+  }
+
+  /**
+   * Compresses the body of the given message. The given message is not
+   * modified; a new message is returned with a copy of the headers and the
+   * compressed body so the caller can continue to use the original message.
+   *
+   * @param message the message to compress
+   * @param bodyLength the length of the message body
+   *
+   * @return the compressed message or the original message if compression
+   * didn't reduce the size of the body
+   */
+  private HazelcastMQMessage compress(HazelcastMQMessage message,
+      int bodyLength) {
+
+    ExposedByteArrayOutputStream compressed = new ExposedByteArrayOutputStream(
+        Math.max(32, bodyLength / 2));
+
+    try (OutputStream out = codec.compress(compressed)) {
+      message.writeBody(new DataOutputStream(out));
+    }
+    catch (IOException ex) {
+      throw new HazelcastMQException(format(
+          "Unable to compress message body with codec [%s].", codec.getName()),
+          ex);
+    }
+
+    if (compressed.size() >= bodyLength) {
+      return message;
+    }
+
+    Headers headers = new DefaultHeaders();
+    for (Map.Entry<String, String> entry : message.getHeaders().getHeaderMap().
+        entrySet()) {
+      headers.put(entry.getKey(), entry.getValue());
+    }
+    headers.put(Headers.COMPRESSION, codec.getName());
+    headers.put(Headers.COMPRESSION_LENGTH, String.valueOf(bodyLength));
+
+    HazelcastMQMessage compressedMessage = new HazelcastMQMessage(headers, null);
+    compressedMessage.setBody(compressed.toByteBuffer());
+    return compressedMessage;
+  }
+
+  /**
+   * Decompresses the body of the given message in place and removes the
+   * {@link Headers#COMPRESSION} and {@link Headers#COMPRESSION_LENGTH}
+   * headers. The body is decompressed into an array of exactly the recorded
+   * length.
+   *
+   * @param message the message to decompress
+   *
+   * @throws HazelcastMQException if the recorded length is missing, invalid,
+   * or over the maximum or if the body doesn't decompress to exactly the
+   * recorded length
+   */
+  private void decompress(HazelcastMQMessage message) {
+
+    int bodyLength = getCompressionLength(message);
+    byte[] body = new byte[bodyLength];
+    int count = 0;
+
+    try (InputStream in = codec.decompress(message.getBodyAsStream())) {
+      int length;
+      while (count < bodyLength && (length = in.read(body, count, bodyLength
+          - count)) != -1) {
+        count += length;
+      }
+
+      if (count < bodyLength || in.read() != -1) {
+        throw new HazelcastMQException(format("Message body compressed with "
+            + "codec [%s] doesn't decompress to the recorded length of [%d] "
+            + "bytes.", codec.getName(), bodyLength));
+      }
+    }
+    catch (IOException ex) {
+      throw new HazelcastMQException(format(
+          "Unable to decompress message body with codec [%s].", codec.
+          getName()), ex);
+    }
+
+    message.getHeaders().remove(Headers.COMPRESSION);
+    message.getHeaders().remove(Headers.COMPRESSION_LENGTH);
+    message.setBody(body);
+  }
+
+  /**
+   * Returns the original body length recorded in the
+   * {@link Headers#COMPRESSION_LENGTH} header of the given message.
+   *
+   * @param message the compressed message
+   *
+   * @return the original body length
+   *
+   * @throws HazelcastMQException if the length is missing, invalid, or over
+   * the maximum
+   */
+  private int getCompressionLength(HazelcastMQMessage message) {
+    String value = message.getHeaders().get(Headers.COMPRESSION_LENGTH);
+
+    long bodyLength;
+    try {
+      bodyLength = value == null ? -1 : Long.parseLong(value);
+    }
+    catch (NumberFormatException ex) {
+      bodyLength = -1;
+    }
+
+    if (bodyLength < 0) {
+      throw new HazelcastMQException(format("Compressed message body has a "
+          + "missing or invalid length [%s].", value));
+    }
+    else if (bodyLength > maxBodyLength) {
+      throw new HazelcastMQException(format("Compressed message body length "
+          + "[%d] exceeds the maximum of [%d] bytes.", bodyLength,
+          maxBodyLength));
+    }
+
+    return (int) bodyLength;
+  }
+
+  /**
+   * A byte array output stream that exposes its buffer so the written bytes
+   * can be used without copying them.
+   */
+  private static class ExposedByteArrayOutputStream extends
+      ByteArrayOutputStream {
+
+    /**
+     * Constructs the stream with the given initial capacity.
+     *
+     * @param size the initial capacity
+     */
+    public ExposedByteArrayOutputStream(int size) {
+      super(size);
+    }
+
+    /**
+     * Returns a buffer wrapping the bytes written to the stream.
+     *
+     * @return the buffer of written bytes
+     */
+    public ByteBuffer toByteBuffer() {
+      return ByteBuffer.wrap(buf, 0, count);
+    }
+  }
+}
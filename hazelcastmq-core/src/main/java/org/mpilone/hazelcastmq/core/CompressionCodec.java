@@ -0,0 +1,48 @@
+package org.mpilone.hazelcastmq.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A codec used to compress message bodies before they are written to
+ * Hazelcast and to decompress them when they are received. The name of the
+ * codec is written to the {@link Headers#COMPRESSION} header of each
+ * compressed message so the same codec must be configured on both the
+ * producing and consuming side. Implementations must be thread-safe.
+ *
+ * @author mpilone
+ */
+public interface CompressionCodec {
+
+  /**
+   * Returns the name of the codec which identifies the codec in the
+   * {@link Headers#COMPRESSION} header.
+   *
+   * @return the name of the codec
+   */
+  String getName();
+
+  /**
+   * Returns a stream that compresses all bytes written to it into the given
+   * stream. Closing the returned stream must finish the compression but
+   * should not release any resources of the given stream.
+   *
+   * @param out the stream to write the compressed bytes to
+   *
+   * @return the compressing stream
+   * @throws IOException if there is an error creating the stream
+   */
+  OutputStream compress(OutputStream out) throws IOException;
+
+  /**
+   * Returns a stream that decompresses the bytes read from the given stream.
+   *
+   * @param in the stream to read the compressed bytes from
+   *
+   * @return the decompressing stream
+   * @throws IOException if there is an error creating the stream
+   */
+  InputStream decompress(InputStream in) throws IOException;
+
+}
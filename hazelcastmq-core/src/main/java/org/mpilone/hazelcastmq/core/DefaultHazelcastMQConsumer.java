@@ -2,8 +2,9 @@ package org.mpilone.hazelcastmq.core;
 
 import static java.lang.String.format;
 
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.*;
 
 import com.hazelcast.core.*;
@@ -12,8 +13,9 @@ import com.hazelcast.logging.*;
 /**
  * The default and primary implementation of a HazelcastMQ consumer. This
  * consumer uses the converter returned by
- * {@link HazelcastMQConfig#getMessageConverter()} to convert messages from the
- * raw Hazelcast object representation to a {@link HazelcastMQMessage}.
+ * {@link HazelcastMQConfig#getMessageConverter()}, including any compression
+ * stage, to convert messages from the raw Hazelcast object representation to a
+ * {@link HazelcastMQMessage}.
  *
  * @author mpilone
  */
@@ -25,6 +27,12 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
   private final static ILogger log = Logger.getLogger(
       DefaultHazelcastMQConsumer.class);
 
+  /**
+   * The generator of unique IDs for instances of this class.
+   */
+  private final static MessageIdGenerator idGenerator =
+      new NodeLocalMessageIdGenerator("hzmqconsumer-");
+
   /**
    * The parent context of this consumer.
    */
@@ -36,8 +44,9 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
   private final HazelcastMQConfig config;
 
   /**
-   * The unique ID of this consumer. The ID is generated using a Hazelcast
-   * {@link IdGenerator} so the ID will be unique across the entire cluster.
+   * The unique ID of this consumer. The ID is generated using a
+   * {@link NodeLocalMessageIdGenerator} so the ID is unique across the
+   * cluster with high probability.
    */
   private final String id;
 
@@ -64,68 +73,128 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
   private HzQueueListener queueListener;
 
   /**
-   * The lock used for thread safety around all receive and shutdown operations.
+   * The selector that messages must match to be received or null to receive
+   * all messages.
+   */
+  private final MessageSelector selector;
+
+  /**
+   * The indexes of matching messages in each raw Hazelcast queue when
+   * consuming from a queue with a selector, ordered from the highest priority
+   * level to the lowest, or null if messages are simply polled.
+   */
+  private List<HzSelectorIndex> selectorIndexes;
+
+  /**
+   * The flag which indicates if the destination is a queue. Only messages
+   * received from a queue are tracked in flight in a client acknowledge mode.
+   */
+  private final boolean queueDestination;
+
+  /**
+   * The lock used for thread safety around the receive, dispatch, and close
+   * operations of this consumer. The lock is never held while waiting for a
+   * message so other consumers in the context and a concurrent close are not
+   * blocked by a waiting receiver.
    */
-  private final ReentrantLock contextLock;
+  private final ReentrantLock consumerLock;
 
   /**
    * The flag which indicates if the consumer has been closed.
    */
-  private boolean closed;
+  private volatile boolean closed;
+
+  /**
+   * The flag which indicates if the consumer has signaled that a message may be
+   * ready for dispatch and is waiting in the context's ready queue.
+   */
+  private final AtomicBoolean dispatchReady;
 
   /**
    * Constructs the consumer which will read from the given destination and is a
    * child of the given context.
    *
    * @param destination the destination that this consumer will read from
+   * @param selector the selector that messages must match or null to receive
+   * all messages
    * @param hazelcastMQContext the parent context of this consumer
    */
-  DefaultHazelcastMQConsumer(String destination,
+  DefaultHazelcastMQConsumer(String destination, MessageSelector selector,
       DefaultHazelcastMQContext hazelcastMQContext) {
     super();
 
     this.destination = destination;
+    this.selector = selector;
     this.closed = false;
+    this.dispatchReady = new AtomicBoolean(false);
     this.hazelcastMQContext = hazelcastMQContext;
     this.config = hazelcastMQContext.getHazelcastMQInstance().getConfig();
-    this.contextLock = hazelcastMQContext.getContextLock();
-    this.id = "hzmqconsumer-" + UUID.randomUUID().toString();
+    this.consumerLock = new ReentrantLock();
+    this.id = idGenerator.newId();
 
     // Start listening for events. We currently always listen for events even
     // if we don't have a message listener. If this has a performance impact
     // on Hazelcast we may want to only listen if there is a registered
     // message listener that we need to notify.
-    IQueue<Object> queue = hazelcastMQContext.resolveQueue(destination);
+    QueueAdapter queue = hazelcastMQContext.resolveQueue(destination);
+    queueDestination = queue != null;
     if (queue != null) {
-      // Get the raw queue outside of any transactional context so we can add
-      // an item listener.
-      queue = config.getHazelcastInstance().getQueue(queue.getName());
-      queueListener = new HzQueueListener(queue);
+      // Get the raw queues outside of any transactional context so we can add
+      // an item listener. A priority queue has a raw queue per level.
+      List<String> queueNames = queue instanceof PriorityQueueAdapter
+          ? ((PriorityQueueAdapter) queue).getLevelNames()
+          : Collections.singletonList(queue.getName());
+
+      List<IQueue<Object>> queues = new ArrayList<>(queueNames.size());
+      for (String queueName : queueNames) {
+        queues.add(config.getHazelcastInstance().<Object>getQueue(queueName));
+      }
+
+      if (selector != null) {
+        // Selecting from a queue requires removing the items in place which
+        // can't be done through a transactional queue.
+        if (hazelcastMQContext.isTransacted()) {
+          throw new HazelcastMQException(format("Message selectors on queues "
+              + "are not supported in a transacted context [%s].",
+              destination));
+        }
+
+        // The indexes replace the plain queue listener so the consumer is
+        // only signaled when a matching message arrives.
+        selectorIndexes = new ArrayList<>(queues.size());
+        for (int i = queues.size() - 1; i >= 0; --i) {
+          selectorIndexes.add(new HzSelectorIndex(queues.get(i)));
+        }
+      }
+      else {
+        queueListener = new HzQueueListener(queues);
+      }
     }
 
     // If we are a consumer on a topic, immediately start listening for events
     // so we can buffer them for (a)synchronous consumption.
-    ITopic<Object> topic = hazelcastMQContext.resolveTopic(destination);
+    TopicAdapter topic = hazelcastMQContext.resolveTopic(destination);
     if (topic != null) {
-      topicListener = new HzTopicListener(topic);
+      topicListener = new HzTopicListener(config.getHazelcastInstance().
+          <Object>getTopic(topic.getName()));
     }
   }
 
   @Override
   public void setMessageListener(HazelcastMQMessageListener messageListener) {
 
-    contextLock.lock();
+    consumerLock.lock();
     try {
       this.messageListener = messageListener;
 
       if (messageListener != null) {
         // Signal that we're dispatch ready so the context will drain the queue if
         // there are pending messages.
-        hazelcastMQContext.signalDispatchReady();
+        hazelcastMQContext.signalDispatchReady(this);
       }
     }
     finally {
-      contextLock.unlock();
+      consumerLock.unlock();
     }
   }
 
@@ -138,29 +207,122 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
     return id;
   }
 
+  /**
+   * Marks the consumer as ready for dispatch.
+   *
+   * @return true if the consumer was not already marked as ready and therefore
+   * must be added to the context's ready queue
+   */
+  boolean markDispatchReady() {
+    return dispatchReady.compareAndSet(false, true);
+  }
+
+  /**
+   * Clears the dispatch ready mark on the consumer. This method is called by
+   * the context when the consumer is removed from the ready queue.
+   */
+  void clearDispatchReady() {
+    dispatchReady.set(false);
+  }
+
   /**
    * Attempts to receive a message from the destination and dispatch (i.e. push)
-   * it to the current message listener. This method must be called from within
-   * the context lock.
+   * it to the current message listener. The consumer lock is held while the
+   * listener is called so the consumer cannot be closed during dispatch. If
+   * the listener throws an exception, the message is handed to the context's
+   * redelivery policy.
    *
    * @return true if a message was dispatched, false otherwise
    */
   boolean receiveAndDispatch() {
     boolean dispatched = false;
 
-    if (messageListener != null) {
-      HazelcastMQMessage msg = doReceive(-1);
+    consumerLock.lock();
+    try {
+      if (messageListener != null && !closed) {
+        HazelcastMQMessage msg = doReceive(-1);
 
-      if (msg != null) {
-        // TODO: better error handling.
-        messageListener.onMessage(msg);
-        dispatched = true;
+        if (msg != null) {
+          try {
+            messageListener.onMessage(msg);
+          }
+          catch (RuntimeException ex) {
+            // Don't let the failure escape to the dispatcher which would stop
+            // delivery to every other consumer of the context.
+            log.warning(format("Message listener failed to process message "
+                + "[%s] from [%s].", msg.getId(), destination), ex);
+            hazelcastMQContext.onDeliveryFailed(this, msg);
+          }
+          dispatched = true;
+        }
       }
     }
+    finally {
+      consumerLock.unlock();
+    }
 
     return dispatched;
   }
 
+  /**
+   * Returns the destination that this consumer reads messages from.
+   *
+   * @return the destination
+   */
+  String getDestination() {
+    return destination;
+  }
+
+  /**
+   * Returns true if the destination of this consumer is a queue.
+   *
+   * @return true if the destination is a queue, false if it is a topic
+   */
+  boolean isQueueDestination() {
+    return queueDestination;
+  }
+
+  /**
+   * Returns the given raw message data to this consumer's topic buffer after
+   * the given delay so a failed topic message is redelivered to this
+   * subscriber only rather than published to every subscriber again. The
+   * message is offered to the buffer using the normal overflow policy and is
+   * dropped if the consumer has been closed in the meantime.
+   *
+   * @param msgData the raw message data to redeliver
+   * @param delay the redelivery delay in milliseconds
+   */
+  void redeliverTopicMessage(final Object msgData, long delay) {
+    Runnable redelivery = new Runnable() {
+      @Override
+      public void run() {
+        // Drop the message if the consumer was closed during the delay.
+        HzTopicListener listener = closed ? null : topicListener;
+        if (listener != null && listener.getBuffer().offer(msgData)) {
+          hazelcastMQContext.signalDispatchReady(
+              DefaultHazelcastMQConsumer.this);
+        }
+      }
+    };
+
+    try {
+      hazelcastMQContext.getHazelcastMQInstance().
+          getTopicRedeliveryScheduler().schedule(redelivery, delay,
+              TimeUnit.MILLISECONDS);
+    }
+    catch (HazelcastMQException | RejectedExecutionException ex) {
+      // The instance is shutting down so the consumer is about to be closed.
+      log.warning(format("Dropping failed message from [%s] because the "
+          + "instance has been shutdown.", destination));
+    }
+  }
+
+  @Override
+  public TopicBufferStats getTopicBufferStats() {
+    HzTopicListener listener = topicListener;
+    return listener == null ? null : listener.getBuffer();
+  }
+
   @Override
   public HazelcastMQMessageListener getMessageListener() {
     return messageListener;
@@ -168,8 +330,11 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
 
   @Override
   public void close() {
-    contextLock.lock();
+    consumerLock.lock();
     try {
+      if (closed) {
+        return;
+      }
       closed = true;
 
       if (topicListener != null) {
@@ -182,13 +347,19 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
         queueListener = null;
       }
 
-      // Wake up any thread blocking on a receive call.
-      hazelcastMQContext.signalDispatchReady();
-      hazelcastMQContext.onConsumerClose(id);
+      if (selectorIndexes != null) {
+        for (HzSelectorIndex index : selectorIndexes) {
+          index.close();
+        }
+      }
     }
     finally {
-      contextLock.unlock();
+      consumerLock.unlock();
     }
+
+    // Wake up any thread blocking on a receive call.
+    hazelcastMQContext.onConsumerClose(id);
+    hazelcastMQContext.signalReceiveReady();
   }
 
   /**
@@ -202,48 +373,61 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
    * @return the message or null if no message was received
    */
   private HazelcastMQMessage doReceive(long timeout) {
+    List<HazelcastMQMessage> msgs = doReceive(1, timeout);
 
-    HazelcastMQMessage msg = null;
+    return msgs.isEmpty() ? null : msgs.get(0);
+  }
+
+  /**
+   * Attempts to receive up to the given number of messages, potentially
+   * waiting up to the given timeout for the first message before returning.
+   * Once at least one message is available, all available messages up to the
+   * maximum are received without waiting. The method returns immediately if
+   * the consumer is closed. Expired messages are removed from the destination
+   * and passed to the context rather than being returned.
+   *
+   * @param max the maximum number of messages to receive
+   * @param timeout the maximum amount of time to wait in milliseconds. A value
+   * less than 0 indicates no wait, 0 indicates indefinite wait, and greater
+   * than 0 is the time in milliseconds.
+   *
+   * @return the messages received which may be empty but never null
+   */
+  private List<HazelcastMQMessage> doReceive(int max, long timeout) {
+
+    List<HazelcastMQMessage> msgs = new ArrayList<>(Math.min(max, 64));
     boolean expired = false;
 
-    contextLock.lock();
     try {
-      while (msg == null && !expired && !closed) {
-
-        IQueue<Object> queue = hazelcastMQContext.resolveQueue(destination);
+      while (msgs.isEmpty() && !expired && !closed) {
 
-        if (queue == null && topicListener == null) {
-          throw new HazelcastMQException(format(
-              "Destination cannot be resolved [%s].", destination));
-        }
-        else if (queue == null) {
-          queue = topicListener.getQueue();
-        }
+        // Capture the signal sequence before polling so a message that
+        // arrives after the poll but before the wait isn't missed.
+        long signalSequence = hazelcastMQContext.getReceiveReadySequence();
 
+        boolean polled = false;
         if (hazelcastMQContext.isStarted()) {
-          Object msgData = queue.poll();
-          if (msgData != null) {
-            msg = config.getMessageConverter().toMessage(msgData);
-          }
+          polled = selectorIndexes != null ? pollSelected(max, msgs)
+              : pollAndConvert(max, msgs);
         }
 
-        if (msg == null) {
-          if (timeout == 0) {
-            // Indefinite wait.
-            hazelcastMQContext.getReceiveReadyCondition().await();
-          }
-          else if (timeout < 0) {
+        // If everything we polled had expired or didn't match the selector,
+        // poll again immediately because there may be more messages waiting.
+        if (msgs.isEmpty() && !polled) {
+          if (timeout < 0) {
             // No wait.
             expired = true;
           }
           else {
-            // Timed wait.
             long waitStart = System.currentTimeMillis();
-            expired = !hazelcastMQContext.getReceiveReadyCondition().
-                await(timeout, TimeUnit.MILLISECONDS);
-
-            long waitEnd = System.currentTimeMillis();
-            timeout -= (waitEnd - waitStart);
+            expired = !awaitReceiveReady(signalSequence, timeout);
+
+            if (timeout > 0) {
+              // Timed wait. Make one final poll if the time is up.
+              long waitEnd = System.currentTimeMillis();
+              timeout -= (waitEnd - waitStart);
+              timeout = timeout <= 0 ? -1 : timeout;
+            }
           }
         }
       }
@@ -251,11 +435,255 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
     catch (InterruptedException ex) {
       log.warning("Interrupted while waiting on doReceive await.", ex);
     }
+
+    return msgs;
+  }
+
+  /**
+   * Polls up to the given number of messages from the destination without
+   * waiting and converts them. Expired messages are passed to the context. In
+   * a client acknowledge mode, the messages are held in the context's
+   * in-flight map and the {@link Headers#ACKNOWLEDGE_ID} header is set on each
+   * message so it can be acknowledged.
+   *
+   * @param max the maximum number of messages to poll
+   * @param msgs the list to add the received messages to
+   *
+   * @return true if any data was polled from the destination, even if none of
+   * it was added to the list
+   */
+  private boolean pollAndConvert(int max, List<HazelcastMQMessage> msgs) {
+    List<String> keys = isClientAcknowledge() ? new ArrayList<String>() : null;
+    List<Object> data = pollData(max, keys);
+    MessageConverter converter = hazelcastMQContext.getHazelcastMQInstance().
+        getMessageConverter();
+
+    // Conversion happens outside of any lock.
+    long now = System.currentTimeMillis();
+    for (int i = 0; i < data.size(); ++i) {
+      HazelcastMQMessage msg = converter.toMessage(data.get(i));
+
+      if (msg.isExpired(now)) {
+        hazelcastMQContext.onMessageExpired(destination, msg);
+
+        if (keys != null) {
+          hazelcastMQContext.removeInFlight(keys.get(i));
+        }
+      }
+      else {
+        msgs.add(msg);
+
+        if (keys != null) {
+          msg.getHeaders().put(Headers.ACKNOWLEDGE_ID, keys.get(i));
+        }
+      }
+    }
+
+    return !data.isEmpty();
+  }
+
+  /**
+   * Returns true if received messages must be tracked in flight until they
+   * are acknowledged.
+   *
+   * @return true if the destination is a queue and the context is using a
+   * client acknowledge mode
+   */
+  private boolean isClientAcknowledge() {
+    return queueDestination && hazelcastMQContext.isClientAcknowledge();
+  }
+
+  /**
+   * Takes up to the given number of matching messages from the selector
+   * indexes, highest priority level first, and removes them from the raw
+   * queues. Messages that don't match are never indexed so they are left in
+   * place for other consumers without being read. Expired messages taken from
+   * the indexes are removed and passed to the context. A message is only
+   * fully converted, including decompression, once it has been removed from
+   * the queue. In a client acknowledge mode, a matching message is put into
+   * the context's in-flight map before it is removed from the queue.
+   *
+   * @param max the maximum number of messages to receive
+   * @param msgs the list to add the received messages to
+   *
+   * @return true if any indexed messages were taken but not received,
+   * indicating that the poll may be retried immediately
+   */
+  private boolean pollSelected(int max, List<HazelcastMQMessage> msgs) {
+    List<HazelcastMQMessage> expiredMsgs = null;
+    boolean clientAcknowledge = isClientAcknowledge();
+    boolean missed = false;
+    MessageConverter headerConverter = config.getMessageConverter();
+    MessageConverter converter = hazelcastMQContext.getHazelcastMQInstance().
+        getMessageConverter();
+    long now = System.currentTimeMillis();
+
+    for (HzSelectorIndex index : selectorIndexes) {
+      Object msgData;
+
+      while (!closed && msgs.size() < max && (msgData = index.poll())
+          != null) {
+        IQueue<Object> queue = index.getQueue();
+
+        // Removing an item is a scan on the partition owner which stops at
+        // the first match but no items are copied to this member.
+        if (headerConverter.toMessage(msgData).isExpired(now)) {
+          if (queue.remove(msgData)) {
+            if (expiredMsgs == null) {
+              expiredMsgs = new ArrayList<>();
+            }
+            expiredMsgs.add(converter.toMessage(msgData));
+          }
+          else {
+            missed = true;
+          }
+        }
+        else {
+          // The message is held in flight before it is removed so it can't
+          // be lost if this member fails.
+          String key = clientAcknowledge ? hazelcastMQContext.putInFlight(
+              destination, msgData) : null;
+
+          // The remove fails if another consumer took the message first.
+          if (queue.remove(msgData)) {
+            HazelcastMQMessage msg = converter.toMessage(msgData);
+            if (key != null) {
+              msg.getHeaders().put(Headers.ACKNOWLEDGE_ID, key);
+            }
+            msgs.add(msg);
+          }
+          else {
+            missed = true;
+            if (key != null) {
+              hazelcastMQContext.removeInFlight(key);
+            }
+          }
+        }
+      }
+    }
+
+    if (expiredMsgs != null) {
+      for (HazelcastMQMessage msg : expiredMsgs) {
+        hazelcastMQContext.onMessageExpired(destination, msg);
+      }
+      return true;
+    }
+
+    return missed;
+  }
+
+  /**
+   * Waits for the context to signal that a message may be ready for receive.
+   * The wait returns immediately if the context has signaled since the given
+   * sequence was read or if the consumer is closed.
+   *
+   * @param signalSequence the signal sequence read before the last poll
+   * @param timeout the maximum amount of time to wait in milliseconds or 0 to
+   * wait indefinitely
+   *
+   * @return false if the wait timed out, true otherwise
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private boolean awaitReceiveReady(long signalSequence, long timeout) throws
+      InterruptedException {
+    ReentrantLock contextLock = hazelcastMQContext.getContextLock();
+
+    contextLock.lock();
+    try {
+      if (closed || signalSequence != hazelcastMQContext.
+          getReceiveReadySequence()) {
+        return true;
+      }
+      else if (timeout == 0) {
+        hazelcastMQContext.getReceiveReadyCondition().await();
+        return true;
+      }
+      else {
+        return hazelcastMQContext.getReceiveReadyCondition().await(timeout,
+            TimeUnit.MILLISECONDS);
+      }
+    }
     finally {
       contextLock.unlock();
     }
+  }
 
-    return msg;
+  /**
+   * Polls up to the given number of raw message objects from the destination
+   * without waiting. The consumer lock is held during the poll so the consumer
+   * cannot be closed mid-poll. In a transacted context the context lock is
+   * also held because the Hazelcast transaction context is not thread-safe
+   * and may be rotated by a commit or rollback. If in-flight keys are
+   * requested, the items are polled and put into the context's in-flight map
+   * as described by
+   * {@link DefaultHazelcastMQContext#pollInFlight(String, int, List)}.
+   *
+   * @param max the maximum number of items to poll
+   * @param keys the list to add the in-flight keys of the items to or null if
+   * the items are not held in flight
+   *
+   * @return the items polled which may be empty but never null
+   */
+  private List<Object> pollData(int max, List<String> keys) {
+    ReentrantLock txnLock = hazelcastMQContext.isTransacted()
+        ? hazelcastMQContext.getContextLock() : null;
+
+    consumerLock.lock();
+    if (txnLock != null) {
+      txnLock.lock();
+    }
+    try {
+      if (closed) {
+        return Collections.emptyList();
+      }
+
+      if (keys != null) {
+        return hazelcastMQContext.pollInFlight(destination, max, keys);
+      }
+
+      QueueAdapter queue = hazelcastMQContext.resolveQueue(destination);
+
+      if (queue != null) {
+        return pollData(queue, max);
+      }
+      else if (topicListener != null) {
+        return topicListener.poll(max);
+      }
+      else {
+        throw new HazelcastMQException(format(
+            "Destination cannot be resolved [%s].", destination));
+      }
+    }
+    finally {
+      if (txnLock != null) {
+        txnLock.unlock();
+      }
+      consumerLock.unlock();
+    }
+  }
+
+  /**
+   * Polls up to the given number of raw message objects from the queue without
+   * waiting. A single item is read with a simple poll. Multiple items are read
+   * with {@link QueueAdapter#drainTo(java.util.Collection, int)}.
+   *
+   * @param queue the queue to poll
+   * @param max the maximum number of items to poll
+   *
+   * @return the items polled which may be empty but never null
+   */
+  private List<Object> pollData(QueueAdapter queue, int max) {
+    if (max == 1) {
+      Object msgData = queue.poll();
+      return msgData == null ? Collections.emptyList() : Collections.
+          singletonList(msgData);
+    }
+
+    List<Object> data = new ArrayList<>(Math.min(max, 64));
+    queue.drainTo(data, max);
+
+    return data;
   }
 
   @Override
@@ -283,6 +711,32 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
     return doReceive(-1);
   }
 
+  @Override
+  public List<HazelcastMQMessage> receiveBatch(int max, long timeout,
+      TimeUnit unit) {
+    assertMessageListenerNull();
+
+    if (max < 1) {
+      throw new IllegalArgumentException("Max must be >= 1.");
+    }
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Timeout must be >= 0.");
+    }
+
+    return doReceive(max, TimeUnit.MILLISECONDS.convert(timeout, unit));
+  }
+
+  @Override
+  public List<HazelcastMQMessage> receiveBatchNoWait(int max) {
+    assertMessageListenerNull();
+
+    if (max < 1) {
+      throw new IllegalArgumentException("Max must be >= 1.");
+    }
+
+    return doReceive(max, -1);
+  }
+
   @Override
   public byte[] receiveBody(long timeout, TimeUnit unit) {
     HazelcastMQMessage msg = receive(timeout, unit);
@@ -328,27 +782,33 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
    */
   private class HzQueueListener implements ItemListener<Object>, AutoCloseable {
 
-    private final String registrationId;
-    private final IQueue<Object> queue;
+    private final List<String> registrationIds;
+    private final List<IQueue<Object>> queues;
 
     /**
-     * Constructs the listener which will listen on the given queue.
+     * Constructs the listener which will listen on the given queues.
      *
-     * @param queue the queue to listen to
+     * @param queues the queues to listen to
      */
-    public HzQueueListener(IQueue<Object> queue) {
-      this.queue = queue;
-      registrationId = this.queue.addItemListener(this, false);
+    public HzQueueListener(List<IQueue<Object>> queues) {
+      this.queues = queues;
+      this.registrationIds = new ArrayList<>(queues.size());
+
+      for (IQueue<Object> queue : queues) {
+        registrationIds.add(queue.addItemListener(this, false));
+      }
     }
 
     @Override
     public void close() {
-      queue.removeItemListener(registrationId);
+      for (int i = 0; i < queues.size(); ++i) {
+        queues.get(i).removeItemListener(registrationIds.get(i));
+      }
     }
 
     @Override
     public void itemAdded(ItemEvent<Object> arg0) {
-      hazelcastMQContext.signalDispatchReady();
+      hazelcastMQContext.signalDispatchReady(DefaultHazelcastMQConsumer.this);
     }
 
     @Override
@@ -358,18 +818,241 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
 
   }
 
+  /**
+   * <p>
+   * A local index of the messages in a raw Hazelcast queue that match the
+   * consumer's selector. Iterating a Hazelcast queue copies the entire queue
+   * from the partition owner so the queue is only scanned to build the index
+   * when the consumer is created and again if the index overflowed. Otherwise
+   * the index is fed by an {@link ItemListener} that includes the value of
+   * each added message, so each message is copied to the member once and
+   * only matching messages are held. The consumer is only signaled when a
+   * matching message arrives.
+   * </p>
+   * <p>
+   * The index holds at most
+   * {@link HazelcastMQConfig#getSelectorIndexCapacity()} messages. Matches that arrive while the index is full are not indexed and
+   * the index is marked stale. Once a stale index has been drained, the queue
+   * is scanned again to find them so a matching message is never starved by
+   * the messages ahead of it. Indexed messages may be taken by other
+   * consumers; the consumer discovers this when its remove fails.
+   * </p>
+   *
+   * @author mpilone
+   */
+  private class HzSelectorIndex implements ItemListener<Object>,
+      AutoCloseable {
+
+    private final IQueue<Object> queue;
+    private final String registrationId;
+    private final int capacity;
+
+    /**
+     * The indexed matching messages in queue order.
+     */
+    private final Deque<Object> candidates;
+
+    /**
+     * The matching messages that arrived while the queue was being scanned or
+     * null if no scan is in progress.
+     */
+    private List<Object> pending;
+
+    /**
+     * The flag which indicates if matching messages weren't indexed because
+     * the index was full.
+     */
+    private boolean stale;
+
+    /**
+     * Constructs the index which listens to the given queue and scans it to
+     * build the initial index.
+     *
+     * @param queue the raw queue to index
+     */
+    public HzSelectorIndex(IQueue<Object> queue) {
+      this.queue = queue;
+      this.capacity = config.getSelectorIndexCapacity() > 0 ? config.
+          getSelectorIndexCapacity() : Integer.MAX_VALUE;
+      this.candidates = new ArrayDeque<>();
+
+      // Listen before scanning so no message added during the scan is missed.
+      this.pending = new ArrayList<>();
+      this.registrationId = queue.addItemListener(this, true);
+      try {
+        rebuild();
+      }
+      catch (RuntimeException ex) {
+        queue.removeItemListener(registrationId);
+        throw ex;
+      }
+    }
+
+    /**
+     * Returns the raw queue being indexed.
+     *
+     * @return the raw queue
+     */
+    public IQueue<Object> getQueue() {
+      return queue;
+    }
+
+    /**
+     * Removes and returns the oldest indexed message, scanning the queue
+     * first if the index is empty and stale.
+     *
+     * @return the raw message data or null if no matching messages are known
+     */
+    public Object poll() {
+      boolean rescan;
+      synchronized (this) {
+        Object msgData = candidates.poll();
+        if (msgData != null) {
+          return msgData;
+        }
+
+        rescan = stale && pending == null;
+        if (rescan) {
+          stale = false;
+          pending = new ArrayList<>();
+        }
+      }
+
+      if (rescan) {
+        rebuild();
+
+        synchronized (this) {
+          return candidates.poll();
+        }
+      }
+
+      return null;
+    }
+
+    /**
+     * Scans the entire queue for matching messages and replaces the index
+     * with the matches followed by the matches that arrived during the scan.
+     * The caller must have set {@link #pending} so arrivals are held during
+     * the scan. Messages that arrived during the scan may be indexed twice;
+     * the second remove simply fails.
+     */
+    private void rebuild() {
+      List<Object> matches = new ArrayList<>();
+      boolean full = false;
+
+      try {
+        for (Object msgData : queue) {
+          if (matches(msgData)) {
+            if (matches.size() == capacity) {
+              full = true;
+              break;
+            }
+            matches.add(msgData);
+          }
+        }
+      }
+      finally {
+        synchronized (this) {
+          List<Object> arrived = pending;
+          pending = null;
+
+          candidates.clear();
+          candidates.addAll(matches);
+          stale = full;
+
+          for (Object msgData : arrived) {
+            index(msgData);
+          }
+        }
+      }
+    }
+
+    /**
+     * Adds the given matching message to the index if there is room or marks
+     * the index stale. Once the index is stale, new matches are left for the
+     * next scan so they aren't received ahead of older matches that weren't
+     * indexed. The caller must hold the index lock.
+     *
+     * @param msgData the raw message data
+     */
+    private void index(Object msgData) {
+      if (pending != null) {
+        pending.add(msgData);
+      }
+      else if (!stale && candidates.size() < capacity) {
+        candidates.offer(msgData);
+      }
+      else {
+        stale = true;
+      }
+    }
+
+    /**
+     * Returns true if the given message matches the selector. Only the
+     * configured converter is applied so the headers can be matched without
+     * decompressing the body.
+     *
+     * @param msgData the raw message data
+     *
+     * @return true if the message matches
+     */
+    private boolean matches(Object msgData) {
+      try {
+        return selector.matches(config.getMessageConverter().toMessage(
+            msgData));
+      }
+      catch (RuntimeException ex) {
+        log.warning(format("Unable to match message on [%s] against the "
+            + "selector. The message will be ignored by this consumer.",
+            destination), ex);
+        return false;
+      }
+    }
+
+    @Override
+    public void close() {
+      queue.removeItemListener(registrationId);
+
+      synchronized (this) {
+        candidates.clear();
+      }
+    }
+
+    @Override
+    public void itemAdded(ItemEvent<Object> event) {
+      Object msgData = event.getItem();
+
+      if (msgData != null && matches(msgData)) {
+        synchronized (this) {
+          index(msgData);
+        }
+        hazelcastMQContext.signalDispatchReady(
+            DefaultHazelcastMQConsumer.this);
+      }
+    }
+
+    @Override
+    public void itemRemoved(ItemEvent<Object> event) {
+      // no op
+    }
+  }
+
   /**
    * A Hazelcast {@link MessageListener} that queues topic messages into an
-   * internal buffer queue for consumption. The number of topic messages queued
-   * is controlled by the {@link HazelcastMQConfig#getTopicMaxMessageCount()}
-   * value.
+   * internal {@link TopicBuffer} for consumption. The number of topic messages
+   * queued is controlled by the
+   * {@link HazelcastMQConfig#getTopicMaxMessageCount()} value and the
+   * behavior when the buffer is full is controlled by the
+   * {@link HazelcastMQConfig.TopicOverflowPolicy}. If the consumer has a
+   * selector, messages that don't match are filtered in the listener callback
+   * and never buffered.
    *
    * @author mpilone
    */
   private class HzTopicListener implements MessageListener<Object>,
       AutoCloseable {
 
-    private final IQueue<Object> queue;
+    private final TopicBuffer buffer;
     private final ITopic<Object> msgTopic;
     private final String registrationId;
 
@@ -380,22 +1063,53 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
      */
     public HzTopicListener(ITopic<Object> topic) {
 
-      this.queue = QueueTopicProxyFactory
-          .createQueueProxy(new ArrayBlockingQueue<>(config
-                  .getTopicMaxMessageCount()));
+      HazelcastMQConfig.TopicOverflowPolicy overflowPolicy = config.
+          getTopicOverflowPolicies().get(destination);
+      if (overflowPolicy == null) {
+        overflowPolicy = config.getTopicOverflowPolicy();
+      }
+
+      IQueue<Object> spillQueue = null;
+      if (overflowPolicy == HazelcastMQConfig.TopicOverflowPolicy.SPILL) {
+        spillQueue = config.getHazelcastInstance().getQueue(
+            "hazelcastmq.topic-spill." + id);
+      }
+
+      this.buffer = new TopicBuffer(topic.getName(), config.
+          getTopicMaxMessageCount(), overflowPolicy, config.
+          getTopicOverflowBlockTimeout(), spillQueue);
       this.msgTopic = topic;
 
       registrationId = topic.addMessageListener(this);
     }
 
     /**
-     * Returns the internal buffer queue that all topic messages will be placed
-     * into.
+     * Returns the internal buffer that all topic messages will be placed into.
      *
-     * @return the internal buffer queue
+     * @return the internal buffer
      */
-    public IQueue<Object> getQueue() {
-      return queue;
+    public TopicBuffer getBuffer() {
+      return buffer;
+    }
+
+    /**
+     * Polls up to the given number of raw message objects from the buffer
+     * without waiting.
+     *
+     * @param max the maximum number of items to poll
+     *
+     * @return the items polled which may be empty but never null
+     */
+    public List<Object> poll(int max) {
+      if (max == 1) {
+        Object msgData = buffer.poll();
+        return msgData == null ? Collections.emptyList() : Collections.
+            singletonList(msgData);
+      }
+
+      List<Object> data = new ArrayList<>(Math.min(max, 64));
+      buffer.drainTo(data, max);
+      return data;
     }
 
     /*
@@ -406,24 +1120,43 @@ class DefaultHazelcastMQConsumer implements HazelcastMQConsumer {
      */
     @Override
     public void onMessage(Message<Object> hzMsg) {
+      Object msgData = hzMsg.getMessageObject();
+
+      // Filter before buffering so messages this consumer isn't interested in
+      // don't take up buffer space or wake the dispatcher. Hazelcast topics
+      // deliver every message to every member so the filter can only be
+      // applied here on the receiving member. Only the configured converter
+      // is applied so the headers can be matched without decompressing the
+      // body. The raw data is buffered and fully converted on receive.
+      if (selector != null) {
+        HazelcastMQMessage msg = config.getMessageConverter().toMessage(
+            msgData);
+
+        if (!selector.matches(msg)) {
+          buffer.onFiltered();
+
+          if (log.isFinestEnabled()) {
+            log.finest(format("Filtered message [%s] on [%s] that doesn't "
+                + "match selector [%s].", msg.getId(), destination, selector.
+                getExpression()));
+          }
+          return;
+        }
+      }
+
       // We always queue the message even if we have a message listener. We'll
       // immediately pull it out of the queue and dispatch in a separate thread.
       // This is important to prevent slow message handlers from blocking topic
       // distribution in Hazelcast.
-      if (!queue.offer(hzMsg.getMessageObject())) {
-        log.warning(format("In-memory message buffer full for topic [%s]. "
-            + "Messages will be lost. Consider increaing the speed of "
-            + "the consumer or the message buffer.", msgTopic.getName()));
-        return;
+      if (buffer.offer(msgData)) {
+        hazelcastMQContext.signalDispatchReady(DefaultHazelcastMQConsumer.this);
       }
-
-      hazelcastMQContext.signalDispatchReady();
     }
 
     @Override
     public void close() {
       msgTopic.removeMessageListener(registrationId);
-      queue.clear();
+      buffer.close();
     }
   }
 }
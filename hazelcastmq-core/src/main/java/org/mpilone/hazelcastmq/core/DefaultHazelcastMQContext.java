@@ -4,11 +4,14 @@ import static java.lang.String.format;
 
 import java.io.Closeable;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import java.util.concurrent.locks.*;
 
 import com.hazelcast.core.*;
 import com.hazelcast.logging.*;
 import com.hazelcast.transaction.TransactionContext;
+import com.hazelcast.transaction.TransactionOptions;
 
 /**
  * Default and primary implementation of the HazelcastMQ context.
@@ -23,6 +26,12 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
   private final static ILogger log = Logger.getLogger(
       DefaultHazelcastMQContext.class);
 
+  /**
+   * The generator of unique IDs for instances of this class.
+   */
+  private final static MessageIdGenerator idGenerator =
+      new NodeLocalMessageIdGenerator("hzmqcontext-");
+
   /**
    * The set of active temporary queues.
    */
@@ -37,7 +46,7 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
    * The flag which indicates if the context is active, that is, if the context
    * has been started.
    */
-  private boolean started;
+  private volatile boolean started;
 
   /**
    * The flag that indicates if the context will be auto started when the first
@@ -48,7 +57,7 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
   /**
    * The flag that indicates if the context has been closed.
    */
-  private boolean closed = false;
+  private volatile boolean closed = false;
 
   /**
    * The HazelcastMQ configuration for this context.
@@ -56,8 +65,9 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
   protected final HazelcastMQConfig config;
 
   /**
-   * The unique ID of this context. The ID is generated using a Hazelcast
-   * {@link IdGenerator} so the ID will be unique across the entire cluster.
+   * The unique ID of this context. The ID is generated using a
+   * {@link NodeLocalMessageIdGenerator} so the ID is unique across the
+   * cluster with high probability.
    */
   private final String id;
 
@@ -66,6 +76,14 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
    */
   private final Map<String, DefaultHazelcastMQConsumer> consumerMap;
 
+  /**
+   * The queue of consumers that have signaled that a message may be ready for
+   * dispatch. Only these consumers will be polled during dispatch. A consumer
+   * will only appear in the queue once at a time based on the consumer's
+   * dispatch ready flag.
+   */
+  private final Queue<DefaultHazelcastMQConsumer> readyConsumers;
+
   /**
    * The parent HazelcastMQ instance that owns this topic.
    */
@@ -79,10 +97,18 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
 
   /**
    * The main lock in the context which is used to synchronize thread access to
-   * the start, stop, and close operations during message dispatch.
+   * the start, stop, and close operations and to the transaction context. The
+   * lock is only held briefly and never while waiting for a message or while
+   * dispatching to a message listener.
    */
   protected final ReentrantLock contextLock;
 
+  /**
+   * The lock which serializes dispatch passes so only one thread pushes
+   * messages to the listeners in this context at a time.
+   */
+  private final ReentrantLock dispatchLock;
+
   /**
    * The condition that signals that a message may be ready for synchronous
    * (i.e. polling) receive calls. This condition is managed by the {@link #getContextLock()
@@ -90,12 +116,53 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
    */
   private final Condition receiveReadyCondition;
 
+  /**
+   * The sequence number incremented each time the
+   * {@link #receiveReadyCondition} is signaled. A receiver reads the sequence
+   * before polling and only waits if it is unchanged, so a signal that arrives
+   * between the poll and the wait isn't missed.
+   */
+  private volatile long receiveReadySequence;
+
   /**
    * The Hazelcast transaction context if this context is transactional,
    * otherwise null.
    */
   protected TransactionContext txnContext;
 
+  /**
+   * The maximum number of destinations to cache. The cache is cleared if it
+   * grows beyond this size, which may happen if the context is used to send
+   * to a large number of unique destinations such as temporary reply queues.
+   */
+  private static final int MAX_DESTINATION_CACHE_SIZE = 1024;
+
+  /**
+   * The remaining queue capacity above which a queue is considered unbounded
+   * and therefore safe for bulk writes.
+   */
+  private static final int UNBOUNDED_CAPACITY_THRESHOLD =
+      Integer.MAX_VALUE / 2;
+
+  /**
+   * The cache of resolved destinations from the destination string to the
+   * resolved queue or topic.
+   */
+  private final Map<String, ResolvedDestination> destinationCache;
+
+  /**
+   * The acknowledge mode applied to messages received by consumers of this
+   * context.
+   */
+  private volatile HazelcastMQConfig.AcknowledgeMode acknowledgeMode;
+
+  /**
+   * The in-flight keys of the messages received by consumers of this context
+   * that have not been acknowledged. The keys start with the acknowledge
+   * deadline so the set is ordered by the time the messages were received.
+   */
+  private final Set<String> unacknowledged;
+
   @Override
   public boolean isTransacted() {
     return txnContext != null;
@@ -123,12 +190,19 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
 
     this.hazelcastMQInstance = hazelcastMQInstance;
     this.config = this.hazelcastMQInstance.getConfig();
-    this.consumerMap = new HashMap<>();
-    this.temporaryQueues = new HashSet<>();
-    this.temporaryTopics = new HashSet<>();
-    this.id = "hzmqcontext-" + UUID.randomUUID().toString();
+    this.consumerMap = new ConcurrentHashMap<>();
+    this.readyConsumers = new ConcurrentLinkedQueue<>();
+    this.destinationCache = new ConcurrentHashMap<>();
+    this.temporaryQueues = Collections.newSetFromMap(
+        new ConcurrentHashMap<String, Boolean>());
+    this.temporaryTopics = Collections.newSetFromMap(
+        new ConcurrentHashMap<String, Boolean>());
+    this.id = idGenerator.newId();
     this.contextLock = new ReentrantLock();
     this.receiveReadyCondition = this.contextLock.newCondition();
+    this.dispatchLock = new ReentrantLock();
+    this.acknowledgeMode = config.getAcknowledgeMode();
+    this.unacknowledged = new ConcurrentSkipListSet<>();
 
     switch (config.getContextDispatchStrategy()) {
       case DEDICATED_THREAD:
@@ -139,6 +213,10 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
         messageDispatcher = new ReactorThreadDispatcher();
         break;
 
+      case POOLED_THREAD:
+        messageDispatcher = new PooledThreadDispatcher();
+        break;
+
       default:
         throw new IllegalArgumentException(format(
             "Unknown context dispatch strategy [%s]", config.
@@ -166,6 +244,33 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
     return receiveReadyCondition;
   }
 
+  /**
+   * Returns the number of times the receive ready condition has been signaled.
+   * A receiver should read the sequence before polling and only wait on the
+   * {@link #getReceiveReadyCondition()} if the sequence is unchanged.
+   *
+   * @return the receive ready sequence
+   */
+  long getReceiveReadySequence() {
+    return receiveReadySequence;
+  }
+
+  /**
+   * Signals any thread doing a polling receive that a message may be ready.
+   * This method obtains the context lock and must not be called while holding
+   * a consumer lock.
+   */
+  void signalReceiveReady() {
+    contextLock.lock();
+    try {
+      receiveReadySequence++;
+      receiveReadyCondition.signalAll();
+    }
+    finally {
+      contextLock.unlock();
+    }
+  }
+
   /**
    * Signals that a message may be ready for asynchronous (i.e. push) dispatch.
    * This method can be used outside of a lock by any number of threads. Once
@@ -177,6 +282,30 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
     messageDispatcher.signalDispatchReady();
   }
 
+  /**
+   * Signals that a message may be ready for asynchronous (i.e. push) dispatch
+   * on the given consumer. The consumer will be included in the next dispatch
+   * operation. This method can be used outside of a lock by any number of
+   * threads.
+   *
+   * @param consumer the consumer that may have a message ready
+   */
+  void signalDispatchReady(DefaultHazelcastMQConsumer consumer) {
+    enqueueReadyConsumer(consumer);
+    messageDispatcher.signalDispatchReady();
+  }
+
+  /**
+   * Adds the given consumer to the ready queue if it is not already queued.
+   *
+   * @param consumer the consumer that may have a message ready
+   */
+  private void enqueueReadyConsumer(DefaultHazelcastMQConsumer consumer) {
+    if (consumer.markDispatchReady()) {
+      readyConsumers.offer(consumer);
+    }
+  }
+
   /**
    * Called by child consumers when the consumer is closed.
    *
@@ -188,8 +317,21 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
 
   @Override
   public HazelcastMQConsumer createConsumer(String destination) {
+    return createConsumer(destination, (MessageSelector) null);
+  }
+
+  @Override
+  public HazelcastMQConsumer createConsumer(String destination,
+      String selector) {
+    return createConsumer(destination, selector == null ? null
+        : MessageSelector.compile(selector));
+  }
+
+  @Override
+  public HazelcastMQConsumer createConsumer(String destination,
+      MessageSelector selector) {
     DefaultHazelcastMQConsumer consumer = new DefaultHazelcastMQConsumer(
-        destination, this);
+        destination, selector, this);
 
     consumerMap.put(consumer.getId(), consumer);
 
@@ -228,33 +370,40 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
 
     contextLock.lock();
     try {
+      if (closed) {
+        return;
+      }
       this.closed = true;
+    }
+    finally {
+      contextLock.unlock();
+    }
 
-      // Stop dispatching.
-      stop();
+    // Stop dispatching.
+    stop();
 
-      // Close the message dispatcher.
-      messageDispatcher.close();
+    // Close the message dispatcher.
+    messageDispatcher.close();
 
-      // Close all consumers
-      List<DefaultHazelcastMQConsumer> consumers = new ArrayList<>(
-          consumerMap.values());
-      for (HazelcastMQConsumer consumer : consumers) {
-        consumer.close();
-      }
+    // Close all consumers. This is done outside of the context lock because
+    // each consumer obtains its own lock and wakes up any waiting receivers.
+    List<DefaultHazelcastMQConsumer> consumers = new ArrayList<>(
+        consumerMap.values());
+    for (HazelcastMQConsumer consumer : consumers) {
+      consumer.close();
+    }
 
-      // Destroy all temporary queues
-      for (String destination : temporaryQueues) {
-        destroyTemporaryDestination(destination);
-      }
+    // Return any unacknowledged messages for redelivery.
+    recover();
 
-      // Destroy all temporary topics
-      for (String destination : temporaryTopics) {
-        destroyTemporaryDestination(destination);
-      }
+    // Destroy all temporary queues
+    for (String destination : new ArrayList<>(temporaryQueues)) {
+      destroyTemporaryDestination(destination);
     }
-    finally {
-      contextLock.unlock();
+
+    // Destroy all temporary topics
+    for (String destination : new ArrayList<>(temporaryTopics)) {
+      destroyTemporaryDestination(destination);
     }
   }
 
@@ -267,6 +416,12 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
     contextLock.lock();
     try {
       started = true;
+
+      // Consumers may have dropped out of the ready queue while stopped so
+      // give them all a chance to drain any pending messages.
+      for (DefaultHazelcastMQConsumer consumer : consumerMap.values()) {
+        signalDispatchReady(consumer);
+      }
     }
     finally {
       contextLock.unlock();
@@ -286,22 +441,31 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
     finally {
       contextLock.unlock();
     }
+
+    // Wait for any dispatch pass in progress so no listener is called once
+    // stop returns.
+    dispatchLock.lock();
+    dispatchLock.unlock();
   }
 
   @Override
   public void destroyTemporaryDestination(String destination
   ) {
     if (temporaryQueues.remove(destination)) {
-      IQueue<Object> queue = resolveQueue(destination);
+      hazelcastMQInstance.onQueueDestroyed(destination);
+
+      QueueAdapter queue = resolveQueue(destination);
       if (queue != null) {
         queue.destroy();
       }
+      destinationCache.remove(destination);
     }
     else if (temporaryTopics.remove(destination)) {
-      ITopic<Object> topic = resolveTopic(destination);
+      TopicAdapter topic = resolveTopic(destination);
       if (topic != null) {
         topic.destroy();
       }
+      destinationCache.remove(destination);
     }
   }
 
@@ -333,6 +497,432 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
     return destination;
   }
 
+  @Override
+  public HazelcastMQConfig.AcknowledgeMode getAcknowledgeMode() {
+    return acknowledgeMode;
+  }
+
+  @Override
+  public void setAcknowledgeMode(
+      HazelcastMQConfig.AcknowledgeMode acknowledgeMode) {
+    this.acknowledgeMode = acknowledgeMode;
+
+    if (acknowledgeMode != HazelcastMQConfig.AcknowledgeMode.AUTO) {
+      hazelcastMQInstance.startInFlightSweeper();
+    }
+  }
+
+  /**
+   * Returns true if messages received from queues by consumers of this
+   * context must be tracked in flight until they are acknowledged.
+   *
+   * @return true if a client acknowledge mode is in use
+   */
+  boolean isClientAcknowledge() {
+    return txnContext == null && acknowledgeMode
+        != HazelcastMQConfig.AcknowledgeMode.AUTO;
+  }
+
+  /**
+   * Returns the distributed map that holds unacknowledged messages.
+   *
+   * @return the in-flight map
+   */
+  IMap<String, Object> getInFlightMap() {
+    return config.getHazelcastInstance().getMap(
+        InFlightMessageSweeper.IN_FLIGHT_MAP_NAME);
+  }
+
+  /**
+   * <p>
+   * Polls up to the given number of raw messages from the given queue
+   * destination without waiting and puts them into the in-flight map where
+   * they will wait to be acknowledged.
+   * </p>
+   * <p>
+   * A single message, as polled for each dispatch to a message listener, is
+   * polled and then put into the in-flight map without a transaction so a
+   * receive costs two operations. If this member fails between the poll and
+   * the put, the message is lost. If the put fails, the message is written
+   * back to the destination. Multiple messages are drained and put in a
+   * single one-phase ({@link TransactionOptions.TransactionType#LOCAL})
+   * Hazelcast transaction so the cost of the transaction is shared by the
+   * batch. A one-phase commit can only be partially applied if a member fails
+   * during the commit itself.
+   * </p>
+   *
+   * @param destination the queue destination to poll
+   * @param max the maximum number of messages to poll
+   * @param keys the list to add the in-flight keys of the messages to, in the
+   * same order as the returned data
+   *
+   * @return the raw message data polled which may be empty but never null
+   */
+  List<Object> pollInFlight(String destination, int max, List<String> keys) {
+    if (max == 1) {
+      Object msgData = resolveQueue(destination).poll();
+      if (msgData == null) {
+        return Collections.emptyList();
+      }
+
+      String key = InFlightMessageSweeper.newKey(destination, System.
+          currentTimeMillis() + config.getAcknowledgeTimeout());
+      try {
+        getInFlightMap().set(key, msgData);
+      }
+      catch (RuntimeException ex) {
+        writeMessage(destination, msgData, config.getMessageConverter().
+            toMessage(msgData).getPriority());
+        throw ex;
+      }
+
+      unacknowledged.add(key);
+      keys.add(key);
+      return Collections.singletonList(msgData);
+    }
+
+    List<Object> data = new ArrayList<>(Math.min(max, 64));
+    int first = keys.size();
+
+    TransactionContext txn = config.getHazelcastInstance().
+        newTransactionContext(new TransactionOptions().setTransactionType(
+            TransactionOptions.TransactionType.LOCAL));
+    txn.beginTransaction();
+    try {
+      resolveDestination(destination).createQueue(txn).drainTo(data, max);
+
+      if (!data.isEmpty()) {
+        long deadline = System.currentTimeMillis() + config.
+            getAcknowledgeTimeout();
+        TransactionalMap<String, Object> inFlightMap = txn.getMap(
+            InFlightMessageSweeper.IN_FLIGHT_MAP_NAME);
+
+        for (Object msgData : data) {
+          String key = InFlightMessageSweeper.newKey(destination, deadline);
+          inFlightMap.set(key, msgData);
+          keys.add(key);
+        }
+      }
+
+      txn.commitTransaction();
+    }
+    catch (RuntimeException ex) {
+      keys.subList(first, keys.size()).clear();
+      txn.rollbackTransaction();
+      throw ex;
+    }
+
+    unacknowledged.addAll(keys.subList(first, keys.size()));
+    return data;
+  }
+
+  /**
+   * Puts the given raw message data, about to be removed from the given queue
+   * destination, into the in-flight map where it will wait to be
+   * acknowledged. The entry must be put before the message is removed from
+   * the queue so the message can't be lost if this member fails. If the
+   * message can't be removed, the entry must be removed with
+   * {@link #removeInFlight(java.lang.String)}.
+   *
+   * @param destination the queue destination the message is received from
+   * @param msgData the raw message data
+   *
+   * @return the in-flight key of the message
+   */
+  String putInFlight(String destination, Object msgData) {
+    String key = InFlightMessageSweeper.newKey(destination, System.
+        currentTimeMillis() + config.getAcknowledgeTimeout());
+
+    getInFlightMap().set(key, msgData);
+    unacknowledged.add(key);
+
+    return key;
+  }
+
+  /**
+   * Removes the in-flight entry with the given key without redelivering the
+   * message. This is used when a message held in flight was never delivered
+   * to the application, such as when it expired or was taken by another
+   * consumer.
+   *
+   * @param key the in-flight key of the message
+   */
+  void removeInFlight(String key) {
+    if (unacknowledged.remove(key)) {
+      getInFlightMap().delete(key);
+    }
+  }
+
+  @Override
+  public void acknowledge() {
+    if (unacknowledged.isEmpty()) {
+      return;
+    }
+
+    // Remove all the entries in parallel.
+    IMap<String, Object> inFlightMap = getInFlightMap();
+    List<Future<Object>> futures = new ArrayList<>();
+    for (Iterator<String> iter = unacknowledged.iterator(); iter.hasNext();) {
+      futures.add(inFlightMap.removeAsync(iter.next()));
+      iter.remove();
+    }
+
+    try {
+      for (Future<Object> future : futures) {
+        future.get();
+      }
+    }
+    catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new HazelcastMQException("Interrupted while acknowledging "
+          + "messages.", ex);
+    }
+    catch (ExecutionException ex) {
+      throw new HazelcastMQException("Failed to acknowledge messages.", ex.
+          getCause());
+    }
+  }
+
+  @Override
+  public void acknowledge(HazelcastMQMessage msg) {
+    String key = msg.getHeaders().get(Headers.ACKNOWLEDGE_ID);
+
+    if (key == null) {
+      return;
+    }
+
+    if (acknowledgeMode == HazelcastMQConfig.AcknowledgeMode.INDIVIDUAL) {
+      if (unacknowledged.remove(key)) {
+        getInFlightMap().delete(key);
+      }
+    }
+    else {
+      acknowledge();
+    }
+  }
+
+  @Override
+  public void recover() {
+    for (Iterator<String> iter = unacknowledged.iterator(); iter.hasNext();) {
+      String key = iter.next();
+      iter.remove();
+
+      try {
+        redeliver(key);
+      }
+      catch (RuntimeException ex) {
+        log.warning(format("Failed to recover unacknowledged message [%s]. "
+            + "It will be redelivered after the acknowledge timeout.", key),
+            ex);
+      }
+    }
+  }
+
+  /**
+   * Removes the message with the given in-flight key from the in-flight map
+   * and writes it back to the queue it was received from, marked as
+   * redelivered. If the message has been delivered the maximum number of times
+   * allowed by the destination's {@link RedeliveryPolicy}, it is moved to the
+   * dead letter destination instead. If the message has already been
+   * acknowledged or redelivered, this method does nothing. Only the headers
+   * are updated so a compressed body is written back as is. The removal and
+   * the write are performed in a single Hazelcast transaction so the message
+   * is never lost and is redelivered only once even if it is recovered and
+   * swept at the same time.
+   *
+   * @param key the in-flight key of the message
+   *
+   * @return true if the message was redelivered
+   */
+  boolean redeliver(String key) {
+    TransactionContext txn = config.getHazelcastInstance().
+        newTransactionContext();
+    txn.beginTransaction();
+    try {
+      TransactionalMap<String, Object> inFlightMap = txn.getMap(
+          InFlightMessageSweeper.IN_FLIGHT_MAP_NAME);
+      Object msgData = inFlightMap.remove(key);
+      if (msgData == null) {
+        txn.rollbackTransaction();
+        return false;
+      }
+
+      String destination = InFlightMessageSweeper.getDestination(key);
+      MessageConverter converter = config.getMessageConverter();
+      HazelcastMQMessage msg = converter.toMessage(msgData);
+
+      int deliveryCount = getDeliveryCount(msg);
+
+      if (!getRedeliveryPolicy(destination).isRedeliverable(deliveryCount)) {
+        deadLetter(destination, msg, converter, txn);
+      }
+      else {
+        msg.getHeaders().put(Headers.REDELIVERED, "true");
+        msg.getHeaders().put(Headers.DELIVERY_COUNT, String.valueOf(
+            deliveryCount + 1));
+
+        if (log.isFinestEnabled()) {
+          log.finest(format("Redelivering message [%s] to [%s] with delivery "
+              + "count [%d].", msg.getId(), destination, deliveryCount + 1));
+        }
+
+        writeMessage(destination, converter.fromMessage(msg), msg.
+            getPriority(), txn);
+      }
+
+      txn.commitTransaction();
+      return true;
+    }
+    catch (RuntimeException ex) {
+      txn.rollbackTransaction();
+      throw ex;
+    }
+  }
+
+  /**
+   * Called by a consumer when its message listener fails to process a message.
+   * A queue message is held in the in-flight map for the redelivery delay of
+   * the destination's {@link RedeliveryPolicy} and then returned to the queue
+   * by the in-flight sweeper. A topic message is returned to the failing
+   * consumer's topic buffer after the same delay so it is only redelivered to
+   * that subscriber. A message that has been delivered the maximum number of
+   * times is moved to the dead letter destination. In a transacted context
+   * the failure is only logged because the message is returned to the queue
+   * when the application rolls back the transaction.
+   *
+   * @param consumer the consumer whose listener failed
+   * @param msg the message that failed
+   */
+  void onDeliveryFailed(DefaultHazelcastMQConsumer consumer,
+      HazelcastMQMessage msg) {
+    if (txnContext != null) {
+      return;
+    }
+
+    String destination = consumer.getDestination();
+    MessageConverter converter = hazelcastMQInstance.getMessageConverter();
+    RedeliveryPolicy policy = getRedeliveryPolicy(destination);
+    int deliveryCount = getDeliveryCount(msg);
+    String key = msg.getHeaders().get(Headers.ACKNOWLEDGE_ID);
+    msg.getHeaders().remove(Headers.ACKNOWLEDGE_ID);
+
+    if (!policy.isRedeliverable(deliveryCount)) {
+      deadLetter(destination, msg, converter, txnContext);
+    }
+    else if (!consumer.isQueueDestination()) {
+      long delay = policy.getRedeliveryDelay(deliveryCount);
+
+      if (log.isFinestEnabled()) {
+        log.finest(format("Delaying redelivery of failed message [%s] from "
+            + "[%s] to consumer [%s] for [%d] ms.", msg.getId(), destination,
+            consumer.getId(), delay));
+      }
+
+      msg.getHeaders().put(Headers.REDELIVERED, "true");
+      msg.getHeaders().put(Headers.DELIVERY_COUNT, String.valueOf(
+          deliveryCount + 1));
+      consumer.redeliverTopicMessage(converter.fromMessage(msg), delay);
+    }
+    else {
+      long delay = policy.getRedeliveryDelay(deliveryCount);
+
+      if (log.isFinestEnabled()) {
+        log.finest(format("Delaying redelivery of failed message [%s] to [%s] "
+            + "for [%d] ms.", msg.getId(), destination, delay));
+      }
+
+      getInFlightMap().set(InFlightMessageSweeper.newKey(destination, System.
+          currentTimeMillis() + delay), converter.fromMessage(msg));
+      hazelcastMQInstance.startInFlightSweeper();
+    }
+
+    // The message is now held for redelivery under a new key so the original
+    // in-flight entry in a client acknowledge mode is no longer needed.
+    if (key != null && unacknowledged.remove(key)) {
+      getInFlightMap().delete(key);
+    }
+  }
+
+  /**
+   * Returns the redelivery policy for the given destination. This is the
+   * policy in {@link HazelcastMQConfig#getRedeliveryPolicies()} if there is
+   * one, otherwise the default {@link HazelcastMQConfig#getRedeliveryPolicy()}.
+   *
+   * @param destination the destination
+   *
+   * @return the redelivery policy
+   */
+  RedeliveryPolicy getRedeliveryPolicy(String destination) {
+    RedeliveryPolicy policy = config.getRedeliveryPolicies().get(destination);
+    return policy == null ? config.getRedeliveryPolicy() : policy;
+  }
+
+  /**
+   * Returns the number of times the given message has been delivered
+   * according to the {@link Headers#DELIVERY_COUNT} header. A message without
+   * the header is on its first delivery.
+   *
+   * @param msg the message
+   *
+   * @return the delivery count, starting at 1
+   */
+  private static int getDeliveryCount(HazelcastMQMessage msg) {
+    String value = msg.getHeaders().get(Headers.DELIVERY_COUNT);
+    if (value != null) {
+      try {
+        return Integer.parseInt(value);
+      }
+      catch (NumberFormatException ex) {
+        // Treat as the first delivery.
+      }
+    }
+    return 1;
+  }
+
+  /**
+   * Moves the given message, which can no longer be redelivered, to the dead
+   * letter destination of the redelivery policy for the destination it was
+   * received from. If the policy has no dead letter destination, the message
+   * is discarded.
+   *
+   * @param destination the destination the message was received from
+   * @param msg the message
+   * @param converter the converter used to write the message
+   * @param txn the transaction context to write the message in or null if not
+   * transacted
+   */
+  private void deadLetter(String destination, HazelcastMQMessage msg,
+      MessageConverter converter, TransactionContext txn) {
+    String deadLetterDestination = getRedeliveryPolicy(destination).
+        getDeadLetterDestination();
+
+    if (deadLetterDestination == null) {
+      log.warning(format("Discarding message [%s] from [%s] after [%d] "
+          + "deliveries.", msg.getId(), destination, getDeliveryCount(msg)));
+      return;
+    }
+
+    if (log.isFinestEnabled()) {
+      log.finest(format("Moving message [%s] from [%s] to dead letter "
+          + "destination [%s].", msg.getId(), destination,
+          deadLetterDestination));
+    }
+
+    msg.getHeaders().remove(Headers.ACKNOWLEDGE_ID);
+    msg.getHeaders().put(Headers.ORIGINAL_DESTINATION, destination);
+    msg.setDestination(deadLetterDestination);
+
+    try {
+      writeMessage(deadLetterDestination, converter.fromMessage(msg), msg.
+          getPriority(), txn);
+    }
+    catch (HazelcastMQException ex) {
+      log.warning(format("Failed to move message [%s] to dead letter "
+          + "destination [%s]. The message will be discarded.", msg.getId(),
+          deadLetterDestination), ex);
+    }
+  }
+
   /**
    * Returns the unique ID of this context.
    *
@@ -361,73 +951,194 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
    *
    * @return the resolved queue or null
    */
-  public IQueue<Object> resolveQueue(String destination) {
-    String queueName = null;
+  QueueAdapter resolveQueue(String destination) {
+    return resolveDestination(destination).getQueue(txnContext);
+  }
 
-    if (destination.startsWith(Headers.DESTINATION_QUEUE_PREFIX)) {
-      queueName = destination.substring(Headers.DESTINATION_QUEUE_PREFIX
-          .length());
+  /**
+   * Resolves the given destination if the destination represents a topic. If
+   * the destination is not a topic, null is returned. This method takes into
+   * account the transactional status of the context, returning a transactional
+   * topic if necessary.
+   *
+   * @param destination the destination to be resolved
+   *
+   * @return the resolved topic or null
+   */
+  TopicAdapter resolveTopic(String destination) {
+    return resolveDestination(destination).getTopic(txnContext);
+  }
 
-    }
-    else if (destination.startsWith(Headers.DESTINATION_TEMPORARY_QUEUE_PREFIX)) {
-      queueName = destination
-          .substring(Headers.DESTINATION_TEMPORARY_QUEUE_PREFIX.length());
+  /**
+   * Returns true if the given destination is a queue that is effectively
+   * unbounded and therefore safe for bulk writes. The remaining capacity of
+   * the queue is only read from the cluster the first time because the
+   * maximum size of a queue is fixed by its configuration. Priority queues are
+   * never considered unbounded because they don't support bulk writes.
+   *
+   * @param destination the destination
+   *
+   * @return true if the destination is an unbounded queue
+   */
+  boolean isUnboundedQueue(String destination) {
+    ResolvedDestination resolved = resolveDestination(destination);
+
+    Boolean unbounded = resolved.unbounded;
+    if (unbounded == null) {
+      QueueAdapter queue = resolved.createQueue(null);
+      unbounded = queue != null && queue.remainingCapacity()
+          > UNBOUNDED_CAPACITY_THRESHOLD;
+      resolved.unbounded = unbounded;
     }
 
-    if (queueName == null) {
-      return null;
-    }
+    return unbounded;
+  }
 
-    else if (txnContext != null) {
-      TransactionalQueue<Object> txnQueue = txnContext.getQueue(queueName);
-      return QueueTopicProxyFactory.createQueueProxy(txnQueue);
-    }
+  /**
+   * Returns the cached resolution of the given destination, parsing the
+   * destination if it isn't cached.
+   *
+   * @param destination the destination to be resolved
+   *
+   * @return the resolved destination
+   */
+  private ResolvedDestination resolveDestination(String destination) {
+    ResolvedDestination resolved = destinationCache.get(destination);
 
-    else {
-      return config.getHazelcastInstance().getQueue(queueName);
+    if (resolved == null) {
+      resolved = new ResolvedDestination(destination);
+
+      if (destinationCache.size() >= MAX_DESTINATION_CACHE_SIZE) {
+        destinationCache.clear();
+      }
+      destinationCache.put(destination, resolved);
+
+      if (resolved.queueName != null) {
+        hazelcastMQInstance.onQueueResolved(destination);
+      }
     }
+
+    return resolved;
   }
 
   /**
-   * Resolves the given destination if the destination represents a topic. If
-   * the destination is not a topic, null is returned. This method takes into
-   * account the transactional status of the context, returning a transactional
-   * topic if necessary.
+   * Writes the converted message data to the given destination. This method
+   * takes into account the transactional status of the context.
    *
-   * @param destination the destination to be resolved
+   * @param destination the destination to write to
+   * @param msgData the converted message data
    *
-   * @return the resolved topic or null
+   * @throws HazelcastMQException if the destination cannot be resolved or the
+   * queue is full
+   */
+  void writeMessage(String destination, Object msgData) {
+    writeMessage(destination, msgData, 0);
+  }
+
+  /**
+   * Writes the converted message data to the given destination. This method
+   * takes into account the transactional status of the context. The priority
+   * is used to route the message if the destination is a priority queue and is
+   * ignored otherwise.
+   *
+   * @param destination the destination to write to
+   * @param msgData the converted message data
+   * @param priority the priority of the message
+   *
+   * @throws HazelcastMQException if the destination cannot be resolved or the
+   * queue is full
+   */
+  void writeMessage(String destination, Object msgData, int priority) {
+    writeMessage(destination, msgData, priority, txnContext);
+  }
+
+  /**
+   * Writes the converted message data to the given destination in the given
+   * transaction context. Adapters for a transaction context other than the
+   * context's own are created for the write and not cached.
+   *
+   * @param destination the destination to write to
+   * @param msgData the converted message data
+   * @param priority the priority of the message
+   * @param txn the transaction context to write in or null if not transacted
+   *
+   * @throws HazelcastMQException if the destination cannot be resolved or the
+   * queue is full
    */
-  public ITopic<Object> resolveTopic(String destination) {
-    String topicName = null;
+  private void writeMessage(String destination, Object msgData, int priority,
+      TransactionContext txn) {
+
+    ResolvedDestination resolved = resolveDestination(destination);
+    boolean cached = txn == txnContext;
+    QueueAdapter queue = cached ? resolved.getQueue(txn) : resolved.
+        createQueue(txn);
+    TopicAdapter topic = null;
+
+    // Only resolve the topic if we couldn't resolve it as a queue. This is a
+    // minor optimization.
+    if (queue == null) {
+      topic = cached ? resolved.getTopic(txn) : resolved.createTopic(txn);
+    }
 
-    if (destination.startsWith(Headers.DESTINATION_TOPIC_PREFIX)) {
-      topicName = destination.substring(Headers.DESTINATION_TOPIC_PREFIX
-          .length());
+    if (queue != null) {
+      boolean added = queue instanceof PriorityQueueAdapter
+          ? ((PriorityQueueAdapter) queue).offer(msgData, priority)
+          : queue.offer(msgData);
 
+      if (!added) {
+        throw new HazelcastMQException(format(
+            "Failed to send to queue destination [%s]. Queue is full.",
+            destination));
+      }
+    }
+    else if (topic != null) {
+      topic.publish(msgData);
+    }
+    else {
+      throw new HazelcastMQException(format(
+          "Destination cannot be resolved [%s].", destination));
     }
-    else if (destination.startsWith(Headers.DESTINATION_TEMPORARY_TOPIC_PREFIX)) {
-      topicName = destination
-          .substring(Headers.DESTINATION_TEMPORARY_TOPIC_PREFIX.length());
+  }
+
+  /**
+   * Called when a message read from the given destination is found to be
+   * expired. If an expiry destination is configured for the destination in
+   * {@link HazelcastMQConfig#getExpiryDestinations()}, the message is written
+   * to the expiry destination, otherwise it is discarded.
+   *
+   * @param destination the destination the message was read from
+   * @param msg the expired message
+   */
+  void onMessageExpired(String destination, HazelcastMQMessage msg) {
+    String expiryDestination = config.getExpiryDestinations().get(destination);
+
+    if (expiryDestination == null) {
+      if (log.isFinestEnabled()) {
+        log.finest(format("Discarding expired message [%s] from [%s].", msg.
+            getId(), destination));
+      }
+      return;
     }
 
-    if (topicName == null) {
-      return null;
+    if (log.isFinestEnabled()) {
+      log.finest(format("Moving expired message [%s] from [%s] to [%s].", msg.
+          getId(), destination, expiryDestination));
     }
 
-    ITopic<Object> topic = config.getHazelcastInstance().getTopic(topicName);
-    if (txnContext != null) {
-      // Hazelcast as of v3.0 doesn't support transactional topics.
-      // Therefore we fake it by writing to a transactional queue and on
-      // commit, relaying all the messages in the queue to the correct
-      // topic. This has the overhead of an extra serialization round
-      // trip, but it is better than no topic transactions.
-      TransactionalQueue<Object> txnQueue = txnContext
-          .getQueue(DefaultHazelcastMQInstance.TXN_TOPIC_QUEUE_NAME);
-      return QueueTopicProxyFactory.createTopicProxy(txnQueue, topic);
+    // Remove the expiration so the message isn't expired again at the expiry
+    // destination.
+    msg.getHeaders().remove(Headers.EXPIRATION);
+    msg.getHeaders().put(Headers.ORIGINAL_DESTINATION, destination);
+    msg.setDestination(expiryDestination);
+
+    try {
+      writeMessage(expiryDestination, hazelcastMQInstance.getMessageConverter().
+          fromMessage(msg), msg.getPriority());
     }
-    else {
-      return topic;
+    catch (HazelcastMQException ex) {
+      log.warning(format("Failed to move expired message [%s] to expiry "
+          + "destination [%s]. The message will be discarded.", msg.getId(),
+          expiryDestination), ex);
     }
   }
 
@@ -458,32 +1169,69 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
     protected volatile boolean closed;
 
     /**
-     * Performs a dispatch operation on each child consumer. The consumer is
-     * responsible for determining if dispatch, that is, message push is
-     * appropriate. This method does not check if the dispatch has been closed
-     * so subclasses should perform appropriate checks before calling this
-     * method.
+     * Performs a dispatch operation on each ready child consumer until all
+     * ready consumers are drained. The consumer is responsible for determining
+     * if dispatch, that is, message push is appropriate. This method does not
+     * check if the dispatch has been closed so subclasses should perform
+     * appropriate checks before calling this method.
      */
     protected void doDispatch() {
-      boolean dispatched;
+      doDispatch(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Performs up to the given number of dispatch passes over the ready child
+     * consumers. Each pass dispatches at most one message per ready consumer.
+     * A consumer that dispatches a message remains ready for the next pass
+     * while a consumer that has nothing to dispatch is dropped until it signals
+     * again. This method does not check if the dispatch has been closed so
+     * subclasses should perform appropriate checks before calling this method.
+     *
+     * @param maxPasses the maximum number of passes to perform
+     *
+     * @return true if the pass limit was reached while consumers were still
+     * ready and therefore more messages may be pending
+     */
+    protected boolean doDispatch(int maxPasses) {
+      List<DefaultHazelcastMQConsumer> consumers = new ArrayList<>();
+      int passes = 0;
 
       // Perform all push receives to message listeners. We'll keep
-      // dispatching as long as one consumer had a successful push in
-      // order to drain all queues and topics.
-      do {
+      // dispatching as long as one consumer is ready in order to drain all
+      // queues and topics.
+      while (!readyConsumers.isEmpty() && passes < maxPasses && !closed) {
+
+        // Snapshot the ready consumers so consumers signaled during this
+        // pass are picked up in the next pass.
+        DefaultHazelcastMQConsumer consumer;
+        while ((consumer = readyConsumers.poll()) != null) {
+          consumers.add(consumer);
+        }
+
         if (log.isFinestEnabled()) {
           log.finest(format("Initiating receive and dispatch on "
-              + "[%d] consumers.", consumerMap.size()));
+              + "[%d] of [%d] consumers.", consumers.size(), consumerMap.
+              size()));
         }
 
-        dispatched = false;
-        for (DefaultHazelcastMQConsumer consumer : consumerMap.values()) {
-          dispatched = consumer.receiveAndDispatch() || dispatched;
+        for (DefaultHazelcastMQConsumer c : consumers) {
+          // Clear the ready flag before receiving so a signal that arrives
+          // during the receive isn't lost.
+          c.clearDispatchReady();
+
+          if (c.receiveAndDispatch()) {
+            enqueueReadyConsumer(c);
+          }
         }
-      } while (dispatched);
+
+        consumers.clear();
+        passes++;
+      }
 
       // Notify any thread doing a polling receive.
-      receiveReadyCondition.signalAll();
+      signalReceiveReady();
+
+      return !readyConsumers.isEmpty();
     }
 
     /**
@@ -512,14 +1260,14 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
     @Override
     public void run() {
 
-      contextLock.lock();
+      dispatchLock.lock();
       try {
         if (!closed) {
           doDispatch();
         }
       }
       finally {
-        contextLock.unlock();
+        dispatchLock.unlock();
       }
     }
   }
@@ -564,16 +1312,316 @@ abstract class DefaultHazelcastMQContext implements HazelcastMQContext {
           // ignore
         }
 
-        contextLock.lock();
+        dispatchLock.lock();
         try {
           if (!closed) {
             doDispatch();
           }
         }
         finally {
-          contextLock.unlock();
+          dispatchLock.unlock();
+        }
+      }
+    }
+  }
+
+  /**
+   * A dispatcher that runs on a thread from the {@link DispatcherPool} shared
+   * by all contexts in the instance. Refer to
+   * {@link HazelcastMQConfig.ContextDispatchStrategy#POOLED_THREAD}.
+   */
+  private class PooledThreadDispatcher extends AbstractMessageDispatcher
+      implements MessageDispatcher,
+      Runnable {
+
+    /**
+     * The maximum number of dispatch passes to perform before yielding the
+     * pool thread to the next ready context.
+     */
+    private static final int MAX_DISPATCH_PASSES = 16;
+
+    /**
+     * The pool worker that this dispatcher is assigned to.
+     */
+    private final DispatcherPool.Worker worker;
+
+    /**
+     * The flag which indicates if the dispatcher is already scheduled to run on
+     * the worker. This prevents the dispatcher from being queued multiple times
+     * when it is signalled repeatedly.
+     */
+    private final AtomicBoolean scheduled;
+
+    /**
+     * Constructs the dispatcher and assigns it to a pool worker.
+     */
+    public PooledThreadDispatcher() {
+      this.scheduled = new AtomicBoolean(false);
+      this.worker = hazelcastMQInstance.getDispatcherPool().acquire();
+    }
+
+    @Override
+    public void signalDispatchReady() {
+      if (!closed && scheduled.compareAndSet(false, true)) {
+        worker.schedule(this);
+      }
+    }
+
+    @Override
+    public void run() {
+      // Clear the flag before dispatching so a signal that arrives during
+      // dispatch will schedule another run.
+      scheduled.set(false);
+
+      boolean pending = false;
+      dispatchLock.lock();
+      try {
+        if (!closed) {
+          pending = doDispatch(MAX_DISPATCH_PASSES);
+        }
+      }
+      finally {
+        dispatchLock.unlock();
+      }
+
+      // If we yielded with messages still pending, go to the back of the line.
+      if (pending) {
+        signalDispatchReady();
+      }
+    }
+
+    @Override
+    public void close() {
+      if (!closed) {
+        super.close();
+        worker.release();
+      }
+    }
+  }
+
+  /**
+   * A destination parsed into a queue or topic name along with the adapter
+   * used to access it. Transactional adapters are bound to the transaction
+   * context that created them so the adapter is replaced when the context's
+   * transaction context changes, such as after a commit or rollback.
+   */
+  private class ResolvedDestination {
+
+    /**
+     * The queue name or null if the destination isn't a queue.
+     */
+    private final String queueName;
+
+    /**
+     * The topic name or null if the destination isn't a topic.
+     */
+    private final String topicName;
+
+    /**
+     * The number of priority levels of the queue or 1 if the queue isn't a
+     * priority queue.
+     */
+    private final int priorityLevels;
+
+    /**
+     * True if the queue is effectively unbounded, false if it isn't, or null
+     * if it hasn't been checked yet.
+     */
+    private volatile Boolean unbounded;
+
+    /**
+     * The number of polls of the priority queue, shared by all of its
+     * adapters.
+     */
+    private final AtomicInteger priorityPollCount = new AtomicInteger();
+
+    /**
+     * The most recently created queue adapter or null.
+     */
+    private volatile BoundAdapter<QueueAdapter> queue;
+
+    /**
+     * The most recently created topic adapter or null.
+     */
+    private volatile BoundAdapter<TopicAdapter> topic;
+
+    /**
+     * Constructs the resolved destination by parsing the given destination.
+     *
+     * @param destination the destination to parse
+     */
+    public ResolvedDestination(String destination) {
+      String queueName = null;
+      String topicName = null;
+
+      if (destination.startsWith(Headers.DESTINATION_QUEUE_PREFIX)) {
+        queueName = destination.substring(Headers.DESTINATION_QUEUE_PREFIX
+            .length());
+      }
+      else if (destination.startsWith(
+          Headers.DESTINATION_TEMPORARY_QUEUE_PREFIX)) {
+        queueName = destination
+            .substring(Headers.DESTINATION_TEMPORARY_QUEUE_PREFIX.length());
+      }
+      else if (destination.startsWith(Headers.DESTINATION_TOPIC_PREFIX)) {
+        topicName = destination.substring(Headers.DESTINATION_TOPIC_PREFIX
+            .length());
+      }
+      else if (destination.startsWith(
+          Headers.DESTINATION_TEMPORARY_TOPIC_PREFIX)) {
+        topicName = destination
+            .substring(Headers.DESTINATION_TEMPORARY_TOPIC_PREFIX.length());
+      }
+
+      Integer levels = queueName == null ? null : config.getPriorityLevels().
+          get(destination);
+
+      this.queueName = queueName;
+      this.topicName = topicName;
+      this.priorityLevels = levels == null ? 1 : Math.max(1, levels);
+    }
+
+    /**
+     * Returns the queue adapter for the given transaction context, creating
+     * it if needed.
+     *
+     * @param txn the current transaction context or null if not transacted
+     *
+     * @return the queue adapter or null if the destination isn't a queue
+     */
+    public QueueAdapter getQueue(TransactionContext txn) {
+      if (queueName == null) {
+        return null;
+      }
+
+      BoundAdapter<QueueAdapter> bound = queue;
+      if (bound == null || bound.txnContext != txn) {
+        bound = new BoundAdapter<>(txn, createQueue(txn));
+        queue = bound;
+      }
+
+      return bound.adapter;
+    }
+
+    /**
+     * Creates a new queue adapter for the given transaction context without
+     * caching it. Priority queue adapters share the poll count of the
+     * destination so fairness polls are still scheduled.
+     *
+     * @param txn the transaction context or null if not transacted
+     *
+     * @return the new queue adapter or null if the destination isn't a queue
+     */
+    public QueueAdapter createQueue(TransactionContext txn) {
+      if (queueName == null) {
+        return null;
+      }
+      else if (priorityLevels > 1) {
+        List<QueueAdapter> levels = new ArrayList<>(priorityLevels);
+        for (int i = 0; i < priorityLevels; ++i) {
+          levels.add(createQueue(PriorityQueueAdapter.getLevelQueueName(
+              queueName, i), txn));
         }
+        return new PriorityQueueAdapter(levels, priorityPollCount);
+      }
+      else {
+        return createQueue(queueName, txn);
+      }
+    }
+
+    /**
+     * Creates a queue adapter for the Hazelcast queue with the given name.
+     *
+     * @param name the name of the Hazelcast queue
+     * @param txn the current transaction context or null if not transacted
+     *
+     * @return the new queue adapter
+     */
+    private QueueAdapter createQueue(String name, TransactionContext txn) {
+      if (txn != null) {
+        TransactionalQueue<Object> txnQueue = txn.getQueue(name);
+        return new TransactionalQueueAdapter(txnQueue);
       }
+      else {
+        return new HazelcastQueueAdapter(config.getHazelcastInstance().
+            <Object>getQueue(name));
+      }
+    }
+
+    /**
+     * Returns the topic adapter for the given transaction context, creating
+     * it if needed.
+     *
+     * @param txn the current transaction context or null if not transacted
+     *
+     * @return the topic adapter or null if the destination isn't a topic
+     */
+    public TopicAdapter getTopic(TransactionContext txn) {
+      if (topicName == null) {
+        return null;
+      }
+
+      BoundAdapter<TopicAdapter> bound = topic;
+      if (bound == null || bound.txnContext != txn) {
+        bound = new BoundAdapter<>(txn, createTopic(txn));
+        topic = bound;
+      }
+
+      return bound.adapter;
+    }
+
+    /**
+     * Creates a new topic adapter for the given transaction context without
+     * caching it.
+     *
+     * @param txn the transaction context or null if not transacted
+     *
+     * @return the new topic adapter or null if the destination isn't a topic
+     */
+    public TopicAdapter createTopic(TransactionContext txn) {
+      if (topicName == null) {
+        return null;
+      }
+
+      ITopic<Object> hzTopic = config.getHazelcastInstance().getTopic(
+          topicName);
+
+      if (txn != null) {
+        // Hazelcast as of v3.0 doesn't support transactional topics.
+        // Therefore we fake it by writing to a transactional queue and on
+        // commit, relaying all the messages in the queue to the correct
+        // topic. This has the overhead of an extra serialization round
+        // trip, but it is better than no topic transactions.
+        TransactionalQueue<Object> txnQueue = txn
+            .getQueue(DefaultHazelcastMQInstance.TXN_TOPIC_QUEUE_NAME);
+        return new TransactionalTopicAdapter(txnQueue, hzTopic);
+      }
+      else {
+        return new HazelcastTopicAdapter(hzTopic);
+      }
+    }
+  }
+
+  /**
+   * An adapter along with the transaction context it was created in.
+   *
+   * @param <A> the type of the adapter
+   */
+  private static class BoundAdapter<A> {
+
+    private final TransactionContext txnContext;
+    private final A adapter;
+
+    /**
+     * Constructs the bound adapter.
+     *
+     * @param txnContext the transaction context the adapter was created in or
+     * null if not transacted
+     * @param adapter the adapter
+     */
+    public BoundAdapter(TransactionContext txnContext, A adapter) {
+      this.txnContext = txnContext;
+      this.adapter = adapter;
     }
   }
 }
@@ -4,6 +4,10 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Default implementation of the {@link HazelcastMQInstance}.
@@ -28,6 +32,50 @@ class DefaultHazelcastMQInstance implements HazelcastMQInstance {
    */
   private final TopicMessageRelayer topicRelayer;
 
+  /**
+   * The dispatch thread pool shared by all contexts when using the
+   * {@link HazelcastMQConfig.ContextDispatchStrategy#POOLED_THREAD} strategy.
+   * The pool is lazy initialized.
+   */
+  private DispatcherPool dispatcherPool;
+
+  /**
+   * The permits limiting the number of in-flight asynchronous sends or null if
+   * there is no limit.
+   */
+  private final Semaphore asyncSendPermits;
+
+  /**
+   * The reaper that removes expired messages from idle queues or null if the
+   * reaper is disabled.
+   */
+  private final ExpiredMessageReaper expiryReaper;
+
+  /**
+   * The sweeper that redelivers unacknowledged messages whose acknowledge
+   * timeout has passed. The sweeper is lazy initialized when a client
+   * acknowledge mode is first used.
+   */
+  private InFlightMessageSweeper inFlightSweeper;
+
+  /**
+   * The scheduler that returns failed topic messages to their subscriber's
+   * buffer after the redelivery delay. The scheduler is lazy initialized when
+   * a topic message first fails.
+   */
+  private ScheduledExecutorService topicRedeliveryScheduler;
+
+  /**
+   * The flag that indicates if the instance has been shutdown.
+   */
+  private boolean shutdown;
+
+  /**
+   * The converter used to convert messages into and out of Hazelcast which
+   * includes the compression stage if compression is enabled.
+   */
+  private final MessageConverter messageConverter;
+
   /**
    * The name of the transactional queue used for buffering transactional topic
    * messages.
@@ -49,15 +97,56 @@ class DefaultHazelcastMQInstance implements HazelcastMQInstance {
   public DefaultHazelcastMQInstance(HazelcastMQConfig config) {
     this.config = config;
 
+    messageConverter = config.getCompressionCodec() == null ? config.
+        getMessageConverter() : new CompressingMessageConverter(config.
+            getMessageConverter(), config.getCompressionCodec(), config.
+            getCompressionThreshold(), config.getCompressionMaxBodyLength());
+
     contextMap = new ConcurrentHashMap<>();
+    asyncSendPermits = config.getMaxAsyncSendsInFlight() > 0 ? new Semaphore(
+        config.getMaxAsyncSendsInFlight()) : null;
 
     // Setup a subscription to the transactional topic queue.
     topicRelayer = new TopicMessageRelayer();
+
+    // Start the expired message reaper if enabled.
+    if (config.getExpiryReaperPeriod() > 0) {
+      expiryReaper = new ExpiredMessageReaper(
+          (DefaultHazelcastMQContext) createContext(), config.
+          getExpiryReaperPeriod());
+      expiryReaper.addQueue(TXN_TOPIC_QUEUE_DESTINATION);
+      config.getExecutor().execute(expiryReaper);
+    }
+    else {
+      expiryReaper = null;
+    }
+
+    // Start the in-flight sweeper immediately if client acknowledgment is the
+    // default so messages from failed members are redelivered.
+    if (config.getAcknowledgeMode() != HazelcastMQConfig.AcknowledgeMode.AUTO) {
+      startInFlightSweeper();
+    }
   }
 
   @Override
   public void shutdown() {
 
+    // Stop the reaper and sweeper before their contexts are closed.
+    if (expiryReaper != null) {
+      expiryReaper.shutdown();
+    }
+    synchronized (this) {
+      shutdown = true;
+      if (inFlightSweeper != null) {
+        inFlightSweeper.shutdown();
+        inFlightSweeper = null;
+      }
+      if (topicRedeliveryScheduler != null) {
+        topicRedeliveryScheduler.shutdownNow();
+        topicRedeliveryScheduler = null;
+      }
+    }
+
     // Stop all the contexts. The list of contexts is duplicated because they
     // will report being closed and removed from the map during this operation.
     List<HazelcastMQContext> contexts = new ArrayList<>(contextMap.values());
@@ -73,6 +162,14 @@ class DefaultHazelcastMQInstance implements HazelcastMQInstance {
 
     // Stop the topic relayer.
     topicRelayer.shutdown();
+
+    // Stop the shared dispatch threads.
+    synchronized (this) {
+      if (dispatcherPool != null) {
+        dispatcherPool.shutdown();
+        dispatcherPool = null;
+      }
+    }
   }
 
   @Override
@@ -80,6 +177,119 @@ class DefaultHazelcastMQInstance implements HazelcastMQInstance {
     return config;
   }
 
+  /**
+   * Returns the converter used to convert messages into and out of Hazelcast.
+   * This is the configured {@link HazelcastMQConfig#getMessageConverter()}
+   * wrapped with a compression stage if a
+   * {@link HazelcastMQConfig#getCompressionCodec() compression codec} is
+   * configured.
+   *
+   * @return the message converter
+   */
+  MessageConverter getMessageConverter() {
+    return messageConverter;
+  }
+
+  /**
+   * Returns the permits limiting the number of in-flight asynchronous sends
+   * across all producers in this instance.
+   *
+   * @return the permits or null if there is no limit
+   */
+  Semaphore getAsyncSendPermits() {
+    return asyncSendPermits;
+  }
+
+  /**
+   * Returns the dispatch thread pool shared by all contexts in this instance,
+   * creating it if needed. The pool is never recreated once the instance has
+   * been shutdown.
+   *
+   * @return the shared dispatcher pool
+   *
+   * @throws HazelcastMQException if the instance has been shutdown
+   */
+  synchronized DispatcherPool getDispatcherPool() {
+    if (shutdown) {
+      throw new HazelcastMQException("The HazelcastMQ instance has been "
+          + "shutdown.");
+    }
+    else if (dispatcherPool == null) {
+      dispatcherPool = new DispatcherPool(config.getDispatchPoolSize(),
+          config.getExecutor());
+    }
+
+    return dispatcherPool;
+  }
+
+  /**
+   * Starts the sweeper that redelivers unacknowledged messages if it isn't
+   * already running. This method is called by a context when a client
+   * acknowledge mode is enabled or a failed message is held for redelivery.
+   */
+  synchronized void startInFlightSweeper() {
+    if (inFlightSweeper == null && !shutdown) {
+      inFlightSweeper = new InFlightMessageSweeper(
+          (DefaultHazelcastMQContext) createContext(false), config.
+          getAcknowledgeTimeout());
+      config.getExecutor().execute(inFlightSweeper);
+    }
+  }
+
+  /**
+   * Returns the scheduler used to return failed topic messages to their
+   * subscriber's buffer after the redelivery delay, creating it if needed.
+   * The scheduler uses a single daemon thread that only moves messages into
+   * buffers so it never runs a message listener.
+   *
+   * @return the topic redelivery scheduler
+   *
+   * @throws HazelcastMQException if the instance has been shutdown
+   */
+  synchronized ScheduledExecutorService getTopicRedeliveryScheduler() {
+    if (shutdown) {
+      throw new HazelcastMQException("The HazelcastMQ instance has been "
+          + "shutdown.");
+    }
+    else if (topicRedeliveryScheduler == null) {
+      topicRedeliveryScheduler = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+              Thread t = new Thread(r, "hazelcastmq-topic-redelivery");
+              t.setDaemon(true);
+              return t;
+            }
+          });
+    }
+
+    return topicRedeliveryScheduler;
+  }
+
+  /**
+   * Called by a context when a queue destination is resolved so the queue can
+   * be scanned by the expired message reaper.
+   *
+   * @param destination the queue destination
+   */
+  void onQueueResolved(String destination) {
+    if (expiryReaper != null) {
+      expiryReaper.addQueue(destination);
+    }
+  }
+
+  /**
+   * Called by a context when a temporary queue destination is destroyed so the
+   * queue is no longer scanned by the expired message reaper.
+   *
+   * @param destination the queue destination
+   */
+  void onQueueDestroyed(String destination) {
+    if (expiryReaper != null) {
+      expiryReaper.removeQueue(destination);
+    }
+  }
+
   /**
    * Called by a context when it is closed so it can be properly removed from
    * the list of active contexts.
@@ -116,6 +326,10 @@ class DefaultHazelcastMQInstance implements HazelcastMQInstance {
     public TopicMessageRelayer() {
       context = createContext();
 
+      // Relayed messages are consumed as soon as they are published regardless
+      // of the configured default acknowledge mode.
+      context.setAcknowledgeMode(HazelcastMQConfig.AcknowledgeMode.AUTO);
+
       consumer = context.createConsumer(TXN_TOPIC_QUEUE_DESTINATION);
       consumer.setMessageListener(this);
     }
@@ -2,6 +2,10 @@ package org.mpilone.hazelcastmq.core;
 
 import static java.lang.String.format;
 
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
 import com.hazelcast.core.*;
 import com.hazelcast.logging.ILogger;
 import com.hazelcast.logging.Logger;
@@ -19,6 +23,12 @@ class DefaultHazelcastMQProducer implements HazelcastMQProducer {
   private final static ILogger log = Logger.getLogger(
       DefaultHazelcastMQProducer.class);
 
+  /**
+   * The maximum number of messages written to a queue in a single bulk
+   * operation during a batch send.
+   */
+  private static final int MAX_BATCH_CHUNK_SIZE = 500;
+
   /**
    * The context that this producer belongs to.
    */
@@ -29,11 +39,6 @@ class DefaultHazelcastMQProducer implements HazelcastMQProducer {
    */
   private final HazelcastMQConfig config;
 
-  /**
-   * The ID generator used to generate unique message IDs.
-   */
-  private final IdGenerator idGenerator;
-
   /**
    * The destination to use for send operations that don't specify a
    * destination.
@@ -46,6 +51,22 @@ class DefaultHazelcastMQProducer implements HazelcastMQProducer {
    */
   private long timeToLive = 0;
 
+  /**
+   * The asynchronous sends waiting to be written in the order they were made.
+   */
+  private final Queue<SendFuture> pendingSends;
+
+  /**
+   * The flag which indicates if the drainer of the pending sends is scheduled
+   * or running. Only one drainer runs at a time so sends are written in order.
+   */
+  private final AtomicBoolean sendDrainScheduled;
+
+  /**
+   * The task that writes the pending asynchronous sends.
+   */
+  private final Runnable sendDrainer;
+
   /**
    * Constructs the producer.
    *
@@ -58,9 +79,9 @@ class DefaultHazelcastMQProducer implements HazelcastMQProducer {
     this.destination = destination;
     this.hazelcastMQContext = hazelcastMQContext;
     this.config = hazelcastMQContext.getHazelcastMQInstance().getConfig();
-    
-    this.idGenerator = config.getHazelcastInstance().getIdGenerator(
-        "hazelcastmqproducer");
+    this.pendingSends = new ConcurrentLinkedQueue<>();
+    this.sendDrainScheduled = new AtomicBoolean(false);
+    this.sendDrainer = new SendDrainer();
   }
   
   @Override
@@ -129,14 +150,32 @@ class DefaultHazelcastMQProducer implements HazelcastMQProducer {
     doSend(destination, msg, timeToLive);
   }
 
+  @Override
+  public void send(Collection<HazelcastMQMessage> msgs) {
+    doSend(destination, msgs, timeToLive);
+  }
+
+  @Override
+  public void send(String destination, Collection<HazelcastMQMessage> msgs) {
+    if (this.destination != null) {
+      throw new HazelcastMQException(
+          "Cannot override producer specified destination.");
+    }
+
+    doSend(destination, msgs, timeToLive);
+  }
+
   /**
-   * Common send implementation that sends the message to the given destination.
+   * Prepares the message for sending by applying the producer headers and
+   * converting it to the raw object to be written to Hazelcast.
    *
    * @param destination the destination to send to
    * @param msg the message to send
    * @param timeToLive the time to live for the message in milliseconds
+   *
+   * @return the converted message data
    */
-  protected void doSend(String destination, HazelcastMQMessage msg,
+  private Object prepareMessage(String destination, HazelcastMQMessage msg,
       long timeToLive) {
 
     // Apply any producer specific overrides.
@@ -144,23 +183,201 @@ class DefaultHazelcastMQProducer implements HazelcastMQProducer {
       msg.getHeaders().put(Headers.EXPIRATION,
           String.valueOf(System.currentTimeMillis() + timeToLive));
     }
-    
+
+    msg.setId(config.getMessageIdGenerator().newId());
+    msg.setDestination(destination);
+
+    if (log.isFinestEnabled()) {
+      log.finest(format("Producer sending message %s", msg));
+    }
+
+    return hazelcastMQContext.getHazelcastMQInstance().getMessageConverter().
+        fromMessage(msg);
+  }
+
+  /**
+   * Common send implementation that sends the message to the given destination.
+   *
+   * @param destination the destination to send to
+   * @param msg the message to send
+   * @param timeToLive the time to live for the message in milliseconds
+   */
+  protected void doSend(String destination, HazelcastMQMessage msg,
+      long timeToLive) {
+
     if (destination == null) {
       throw new HazelcastMQException("Destination is required when "
           + "sending a message.");
     }
-    
-    msg.setId("hazelcastmq-" + idGenerator.newId());
-    msg.setDestination(destination);
 
-    if (log.isFinestEnabled()) {
-      log.finest(format("Producer sending message %s", msg));
+    Object msgData = prepareMessage(destination, msg, timeToLive);
+    hazelcastMQContext.writeMessage(destination, msgData, msg.getPriority());
+  }
+
+  @Override
+  public ICompletableFuture<Void> sendAsync(HazelcastMQMessage msg) {
+    return doSendAsync(destination, msg, timeToLive);
+  }
+
+  @Override
+  public ICompletableFuture<Void> sendAsync(HazelcastMQMessage msg,
+      long timeToLive) {
+    return doSendAsync(destination, msg, timeToLive);
+  }
+
+  @Override
+  public ICompletableFuture<Void> sendAsync(String destination,
+      HazelcastMQMessage msg) {
+    if (this.destination != null) {
+      throw new HazelcastMQException(
+          "Cannot override producer specified destination.");
     }
 
-    Object msgData = config.getMessageConverter().fromMessage(msg);
-    
-    IQueue<Object> queue = hazelcastMQContext.resolveQueue(destination);
-    ITopic<Object> topic = null;
+    return doSendAsync(destination, msg, timeToLive);
+  }
+
+  @Override
+  public ICompletableFuture<Void> sendAsync(String destination,
+      HazelcastMQMessage msg, long timeToLive) {
+    if (this.destination != null) {
+      throw new HazelcastMQException(
+          "Cannot override producer specified destination.");
+    }
+
+    return doSendAsync(destination, msg, timeToLive);
+  }
+
+  /**
+   * Common asynchronous send implementation. The message is prepared and
+   * converted in the calling thread and then queued to be written to the
+   * destination using the configured
+   * {@link HazelcastMQConfig#getExecutor() executor} because Hazelcast doesn't
+   * offer asynchronous queue or topic writes. The queued sends of the producer
+   * are written one at a time by a single task so they complete in the order
+   * they were made. Hazelcast transactions are bound to the thread that
+   * started them so the write is performed in the calling thread for a
+   * transacted context and a completed future is returned. If the
+   * instance's optional limit on in-flight sends has been reached, a failed
+   * future is returned rather than blocking the caller, which may be an I/O
+   * or listener thread.
+   *
+   * @param destination the destination to send to
+   * @param msg the message to send
+   * @param timeToLive the time to live for the message in milliseconds
+   *
+   * @return the future that completes when the send completes
+   */
+  protected ICompletableFuture<Void> doSendAsync(final String destination,
+      HazelcastMQMessage msg, long timeToLive) {
+
+    if (destination == null) {
+      throw new HazelcastMQException("Destination is required when "
+          + "sending a message.");
+    }
+
+    final Object msgData = prepareMessage(destination, msg, timeToLive);
+    final int priority = msg.getPriority();
+
+    Callable<Void> sendTask = new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        hazelcastMQContext.writeMessage(destination, msgData, priority);
+        return null;
+      }
+    };
+
+    if (hazelcastMQContext.isTransacted()) {
+      SendFuture future = new SendFuture(sendTask, config.getExecutor(), null);
+      future.run();
+      return future;
+    }
+
+    Semaphore permits = hazelcastMQContext.getHazelcastMQInstance().
+        getAsyncSendPermits();
+    if (permits != null && !permits.tryAcquire()) {
+      SendFuture future = new SendFuture(sendTask, config.getExecutor(), null);
+      future.fail(new HazelcastMQException(format("Unable to send "
+          + "asynchronously to destination [%s]. The maximum of [%d] "
+          + "asynchronous sends are in flight.", destination, config.
+          getMaxAsyncSendsInFlight())));
+      return future;
+    }
+
+    SendFuture future = new SendFuture(sendTask, config.getExecutor(),
+        permits);
+    pendingSends.offer(future);
+    scheduleSendDrain();
+
+    return future;
+  }
+
+  /**
+   * Schedules the drainer of the pending asynchronous sends on the executor if
+   * it isn't already scheduled or running. If the executor rejects the
+   * drainer, all the pending sends fail.
+   */
+  private void scheduleSendDrain() {
+    if (!sendDrainScheduled.compareAndSet(false, true)) {
+      return;
+    }
+
+    try {
+      config.getExecutor().execute(sendDrainer);
+    }
+    catch (RuntimeException ex) {
+      sendDrainScheduled.set(false);
+
+      HazelcastMQException failure = new HazelcastMQException(
+          "Unable to schedule asynchronous send.", ex);
+      SendFuture future;
+      while ((future = pendingSends.poll()) != null) {
+        future.fail(failure);
+      }
+    }
+  }
+
+  /**
+   * Common batch send implementation that sends the messages to the given
+   * destination. Messages are converted up front and then written to a queue
+   * in chunks with {@link QueueAdapter#addAll(java.util.Collection)}. Bounded,
+   * transactional, and priority queues as well as topics have no reliable
+   * bulk write operation so each message is written individually. A failure
+   * to prepare or write a message does not prevent the remaining messages
+   * from being sent; all failures are reported together once the batch is
+   * complete.
+   *
+   * @param destination the destination to send to
+   * @param msgs the messages to send
+   * @param timeToLive the time to live for the messages in milliseconds
+   *
+   * @throws HazelcastMQException.BatchSendException if one or more messages
+   * could not be sent
+   */
+  protected void doSend(String destination, Collection<HazelcastMQMessage> msgs,
+      long timeToLive) {
+
+    if (destination == null) {
+      throw new HazelcastMQException("Destination is required when "
+          + "sending a message.");
+    }
+
+    Map<HazelcastMQMessage, HazelcastMQException> failures =
+        new LinkedHashMap<>();
+    List<HazelcastMQMessage> preparedMsgs = new ArrayList<>(msgs.size());
+    List<Object> preparedData = new ArrayList<>(msgs.size());
+
+    for (HazelcastMQMessage msg : msgs) {
+      try {
+        preparedData.add(prepareMessage(destination, msg, timeToLive));
+        preparedMsgs.add(msg);
+      }
+      catch (HazelcastMQException ex) {
+        failures.put(msg, ex);
+      }
+    }
+
+    QueueAdapter queue = hazelcastMQContext.resolveQueue(destination);
+    TopicAdapter topic = null;
 
     // Only resolve the topic if we couldn't resolve it as a queue. This is a
     // minor optimization.
@@ -168,23 +385,80 @@ class DefaultHazelcastMQProducer implements HazelcastMQProducer {
       topic = hazelcastMQContext.resolveTopic(destination);
     }
 
-    if (queue != null) {
-      if (!queue.offer(msgData)) {
-        throw new HazelcastMQException(format(
-            "Failed to send to queue destination [%s]. Queue is full.",
-            destination));
+    // Hazelcast's addAll on a bounded queue silently adds only as many items
+    // as will fit and still reports success so bulk writes are only used when
+    // the queue is effectively unbounded.
+    if (queue != null && !hazelcastMQContext.isTransacted()
+        && hazelcastMQContext.isUnboundedQueue(destination)) {
+      for (int i = 0; i < preparedData.size(); i += MAX_BATCH_CHUNK_SIZE) {
+        int end = Math.min(i + MAX_BATCH_CHUNK_SIZE, preparedData.size());
+
+        HazelcastMQException failure = null;
+        try {
+          if (!queue.addAll(preparedData.subList(i, end))) {
+            failure = new HazelcastMQException(format(
+                "Failed to send to queue destination [%s]. Queue is full.",
+                destination));
+          }
+        }
+        catch (RuntimeException ex) {
+          failure = new HazelcastMQException(format(
+              "Failed to send to queue destination [%s].", destination), ex);
+        }
+
+        if (failure != null) {
+          for (HazelcastMQMessage msg : preparedMsgs.subList(i, end)) {
+            failures.put(msg, failure);
+          }
+        }
+      }
+    }
+    else if (queue != null) {
+      PriorityQueueAdapter priorityQueue = queue instanceof PriorityQueueAdapter
+          ? (PriorityQueueAdapter) queue : null;
+
+      for (int i = 0; i < preparedData.size(); ++i) {
+        HazelcastMQMessage msg = preparedMsgs.get(i);
+        try {
+          boolean added = priorityQueue != null ? priorityQueue.offer(
+              preparedData.get(i), msg.getPriority()) : queue.offer(
+                  preparedData.get(i));
+
+          if (!added) {
+            failures.put(msg, new HazelcastMQException(format(
+                "Failed to send to queue destination [%s]. Queue is full.",
+                destination)));
+          }
+        }
+        catch (RuntimeException ex) {
+          failures.put(msg, new HazelcastMQException(format(
+              "Failed to send to queue destination [%s].", destination), ex));
+        }
       }
     }
     else if (topic != null) {
-      topic.publish(msgData);
+      for (int i = 0; i < preparedData.size(); ++i) {
+        try {
+          topic.publish(preparedData.get(i));
+        }
+        catch (RuntimeException ex) {
+          failures.put(preparedMsgs.get(i), new HazelcastMQException(format(
+              "Failed to send to topic destination [%s].", destination), ex));
+        }
+      }
     }
     else {
       throw new HazelcastMQException(format(
           "Destination cannot be resolved [%s].", destination));
     }
-    
+
+    if (!failures.isEmpty()) {
+      throw new HazelcastMQException.BatchSendException(format(
+          "Failed to send [%d] of [%d] messages to destination [%s].",
+          failures.size(), msgs.size(), destination), failures);
+    }
   }
-  
+
   @Override
   public void setTimeToLive(long millis) {
     this.timeToLive = millis;
@@ -194,4 +468,27 @@ class DefaultHazelcastMQProducer implements HazelcastMQProducer {
   public long getTimeToLive() {
     return timeToLive;
   }
+
+  /**
+   * The task that writes the pending asynchronous sends one at a time until
+   * none remain.
+   */
+  private class SendDrainer implements Runnable {
+
+    @Override
+    public void run() {
+      do {
+        SendFuture future;
+        while ((future = pendingSends.poll()) != null) {
+          future.run();
+        }
+
+        sendDrainScheduled.set(false);
+
+        // A send may have been queued after the last poll but before the flag
+        // was cleared so check again before stopping.
+      } while (!pendingSends.isEmpty() && sendDrainScheduled.compareAndSet(
+          false, true));
+    }
+  }
 }
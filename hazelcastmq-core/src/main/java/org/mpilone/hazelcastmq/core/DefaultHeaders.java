@@ -1,15 +1,22 @@
 package org.mpilone.hazelcastmq.core;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.*;
 
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.IdentifiedDataSerializable;
+
 /**
- * Default implementation of HazelcastMQ message headers.
+ * Default implementation of HazelcastMQ message headers. The headers implement
+ * {@link IdentifiedDataSerializable} to avoid the overhead of Java
+ * serialization when written to Hazelcast.
  *
  * @author mpilone
  */
 class DefaultHeaders extends HashMap<String, String> implements Headers,
-    Serializable {
+    Serializable, IdentifiedDataSerializable {
 
   /**
    * Serialization ID.
@@ -36,4 +43,64 @@ class DefaultHeaders extends HashMap<String, String> implements Headers,
     super.remove(headerName);
   }
 
+  @Override
+  public int getFactoryId() {
+    return HazelcastMQDataSerializerHook.F_ID;
+  }
+
+  @Override
+  public int getId() {
+    return HazelcastMQDataSerializerHook.HEADERS;
+  }
+
+  @Override
+  public void writeData(ObjectDataOutput out) throws IOException {
+    writeHeaders(this, out);
+  }
+
+  @Override
+  public void readData(ObjectDataInput in) throws IOException {
+    readHeaders(this, in);
+  }
+
+  /**
+   * Writes the given headers to the output. The headers may be any
+   * implementation and can be read back with
+   * {@link #readHeaders(org.mpilone.hazelcastmq.core.Headers, com.hazelcast.nio.ObjectDataInput)}.
+   *
+   * @param headers the headers to write
+   * @param out the output to write to
+   *
+   * @throws IOException if there is an error writing
+   */
+  static void writeHeaders(Headers headers, ObjectDataOutput out) throws
+      IOException {
+    Collection<String> names = headers.getHeaderNames();
+
+    out.writeInt(names.size());
+    for (String name : names) {
+      out.writeUTF(name);
+      out.writeUTF(headers.get(name));
+    }
+  }
+
+  /**
+   * Reads headers written with
+   * {@link #writeHeaders(org.mpilone.hazelcastmq.core.Headers, com.hazelcast.nio.ObjectDataOutput)}
+   * into the given headers.
+   *
+   * @param headers the headers to populate
+   * @param in the input to read from
+   *
+   * @throws IOException if there is an error reading
+   */
+  static void readHeaders(Headers headers, ObjectDataInput in) throws
+      IOException {
+    int count = in.readInt();
+
+    for (int i = 0; i < count; ++i) {
+      headers.put(in.readUTF(), in.readUTF());
+    }
+  }
+
 }
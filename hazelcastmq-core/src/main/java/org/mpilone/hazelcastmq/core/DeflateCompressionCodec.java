@@ -0,0 +1,82 @@
+package org.mpilone.hazelcastmq.core;
+
+import java.io.*;
+import java.util.zip.*;
+
+/**
+ * A {@link CompressionCodec} that uses the JDK's deflate implementation. The
+ * default compression level is {@link Deflater#BEST_SPEED} which trades some
+ * compression ratio for throughput because compression is performed on every
+ * send.
+ *
+ * @author mpilone
+ */
+public class DeflateCompressionCodec implements CompressionCodec {
+
+  /**
+   * The name of the codec.
+   */
+  public static final String NAME = "deflate";
+
+  /**
+   * The compression level passed to the {@link Deflater}.
+   */
+  private final int level;
+
+  /**
+   * Constructs the codec with the {@link Deflater#BEST_SPEED} compression
+   * level.
+   */
+  public DeflateCompressionCodec() {
+    this(Deflater.BEST_SPEED);
+  }
+
+  /**
+   * Constructs the codec with the given compression level.
+   *
+   * @param level the compression level between 0 and 9
+   */
+  public DeflateCompressionCodec(int level) {
+    this.level = level;
+  }
+
+  @Override
+  public String getName() {
+    return NAME;
+  }
+
+  @Override
+  public OutputStream compress(OutputStream out) throws IOException {
+    final Deflater deflater = new Deflater(level);
+
+    return new DeflaterOutputStream(out, deflater) {
+      @Override
+      public void close() throws IOException {
+        try {
+          finish();
+        }
+        finally {
+          deflater.end();
+        }
+      }
+    };
+  }
+
+  @Override
+  public InputStream decompress(InputStream in) throws IOException {
+    final Inflater inflater = new Inflater();
+
+    return new InflaterInputStream(in, inflater) {
+      @Override
+      public void close() throws IOException {
+        try {
+          super.close();
+        }
+        finally {
+          inflater.end();
+        }
+      }
+    };
+  }
+
+}
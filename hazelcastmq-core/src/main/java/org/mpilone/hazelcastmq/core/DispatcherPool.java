@@ -0,0 +1,150 @@
+package org.mpilone.hazelcastmq.core;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.hazelcast.logging.ILogger;
+import com.hazelcast.logging.Logger;
+
+/**
+ * <p>
+ * A fixed size pool of dispatch threads shared by all the contexts of a
+ * HazelcastMQ instance. Each context is assigned to a single worker for its
+ * entire life so that dispatch for a context is always serial. A worker
+ * services its contexts in FIFO order as they signal that they are ready which
+ * provides fairness between contexts on the same worker.
+ * </p>
+ * <p>
+ * Refer to {@link HazelcastMQConfig.ContextDispatchStrategy#POOLED_THREAD}.
+ * </p>
+ *
+ * @author mpilone
+ */
+class DispatcherPool {
+
+  /**
+   * The log for this class.
+   */
+  private final static ILogger log = Logger.getLogger(DispatcherPool.class);
+
+  /**
+   * The task queued to a worker to stop it.
+   */
+  private static final Runnable SHUTDOWN_TASK = new Runnable() {
+    @Override
+    public void run() {
+      // no op
+    }
+  };
+
+  /**
+   * The workers in the pool.
+   */
+  private final Worker[] workers;
+
+  /**
+   * Constructs the pool and immediately starts all the worker threads using
+   * the given executor.
+   *
+   * @param size the number of worker threads
+   * @param executor the executor used to allocate the worker threads
+   */
+  public DispatcherPool(int size, Executor executor) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Dispatch pool size must be >= 1.");
+    }
+
+    workers = new Worker[size];
+    for (int i = 0; i < size; ++i) {
+      workers[i] = new Worker();
+      executor.execute(workers[i]);
+    }
+  }
+
+  /**
+   * Assigns a worker to a new dispatcher. The worker with the fewest assigned
+   * dispatchers is selected. The worker must be released with
+   * {@link Worker#release()} when the dispatcher is closed.
+   *
+   * @return the assigned worker
+   */
+  public Worker acquire() {
+    Worker selected = workers[0];
+    for (Worker worker : workers) {
+      if (worker.assignedCount.get() < selected.assignedCount.get()) {
+        selected = worker;
+      }
+    }
+
+    selected.assignedCount.incrementAndGet();
+    return selected;
+  }
+
+  /**
+   * Shuts down all the workers. Tasks already queued will be run before the
+   * worker stops.
+   */
+  public void shutdown() {
+    for (Worker worker : workers) {
+      worker.schedule(SHUTDOWN_TASK);
+    }
+  }
+
+  /**
+   * A single worker thread in the pool that runs dispatch tasks in the order
+   * they are scheduled.
+   */
+  class Worker implements Runnable {
+
+    /**
+     * The queue of dispatch tasks ready to run.
+     */
+    private final BlockingQueue<Runnable> readyQueue =
+        new LinkedBlockingQueue<>();
+
+    /**
+     * The number of dispatchers assigned to this worker.
+     */
+    private final AtomicInteger assignedCount = new AtomicInteger();
+
+    /**
+     * Schedules the given task to run on this worker. The caller is
+     * responsible for making sure that a task is not scheduled more than once
+     * at a time.
+     *
+     * @param task the task to run
+     */
+    public void schedule(Runnable task) {
+      readyQueue.offer(task);
+    }
+
+    /**
+     * Releases a dispatcher assignment previously obtained with
+     * {@link DispatcherPool#acquire()}.
+     */
+    public void release() {
+      assignedCount.decrementAndGet();
+    }
+
+    @Override
+    public void run() {
+      Runnable task = null;
+
+      while (task != SHUTDOWN_TASK) {
+        try {
+          task = readyQueue.take();
+          task.run();
+        }
+        catch (InterruptedException ex) {
+          // The executor is shutting down. Restore the interrupt and stop.
+          Thread.currentThread().interrupt();
+          log.warning("Dispatch worker interrupted. Stopping.");
+          return;
+        }
+        catch (RuntimeException ex) {
+          log.warning("Dispatch task raised an exception.", ex);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,203 @@
+package org.mpilone.hazelcastmq.core;
+
+import static java.lang.String.format;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.hazelcast.core.IQueue;
+import com.hazelcast.logging.ILogger;
+import com.hazelcast.logging.Logger;
+
+/**
+ * <p>
+ * A background task that periodically removes expired messages from the queues
+ * used by a HazelcastMQ instance. Consumers drop expired messages as they are
+ * received but a queue with no active consumers would otherwise hold expired
+ * messages until a consumer returns. The reaper removes expired messages from
+ * the head of each known queue and hands them to the context for delivery to
+ * the configured expiry destination, if any.
+ * </p>
+ * <p>
+ * Iterating a Hazelcast queue copies the entire queue from the partition owner
+ * and removing an arbitrary item is a linear scan on the owner, so the reaper
+ * never iterates the queue. It peeks at the head and removes it while it is
+ * expired, stopping at the first message that hasn't expired or after
+ * {@link #MAX_REAP_COUNT} messages. When all messages on a queue have the same
+ * time to live, the messages behind the first live message haven't expired
+ * either so nothing is missed. Otherwise an expired message behind a live one
+ * is left for a later pass or dropped by the consumer that receives it.
+ * </p>
+ * <p>
+ * Refer to {@link HazelcastMQConfig#getExpiryReaperPeriod()}.
+ * </p>
+ *
+ * @author mpilone
+ */
+class ExpiredMessageReaper implements Runnable {
+
+  /**
+   * The log for this class.
+   */
+  private final static ILogger log = Logger.getLogger(
+      ExpiredMessageReaper.class);
+
+  /**
+   * The maximum number of messages removed from a single queue in a single
+   * pass so one large backlog doesn't delay reaping of the other queues.
+   */
+  static final int MAX_REAP_COUNT = 1000;
+
+  /**
+   * The set of queue destinations to scan.
+   */
+  private final Set<String> queueDestinations;
+
+  /**
+   * The non-transacted context used to read queues and write to expiry
+   * destinations.
+   */
+  private final DefaultHazelcastMQContext context;
+
+  /**
+   * The period in milliseconds between scans.
+   */
+  private final long period;
+
+  /**
+   * The latch released when the reaper should stop.
+   */
+  private final CountDownLatch shutdownLatch;
+
+  /**
+   * Constructs the reaper. The reaper will not run until it is submitted to an
+   * executor.
+   *
+   * @param context the non-transacted context used to read queues and write to
+   * expiry destinations
+   * @param period the period in milliseconds between scans
+   */
+  public ExpiredMessageReaper(DefaultHazelcastMQContext context, long period) {
+    this.context = context;
+    this.period = period;
+    this.queueDestinations = Collections.newSetFromMap(
+        new ConcurrentHashMap<String, Boolean>());
+    this.shutdownLatch = new CountDownLatch(1);
+  }
+
+  /**
+   * Adds a queue destination to be scanned by the reaper.
+   *
+   * @param destination the queue destination
+   */
+  public void addQueue(String destination) {
+    if (!queueDestinations.contains(destination)) {
+      queueDestinations.add(destination);
+    }
+  }
+
+  /**
+   * Removes a queue destination from the set scanned by the reaper.
+   *
+   * @param destination the queue destination
+   */
+  public void removeQueue(String destination) {
+    queueDestinations.remove(destination);
+  }
+
+  /**
+   * Stops the reaper. A scan in progress will be completed.
+   */
+  public void shutdown() {
+    shutdownLatch.countDown();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!shutdownLatch.await(period, TimeUnit.MILLISECONDS)) {
+        for (String destination : queueDestinations) {
+          try {
+            reap(destination);
+          }
+          catch (RuntimeException ex) {
+            log.warning(format("Failed to reap expired messages from queue "
+                + "[%s].", destination), ex);
+          }
+        }
+      }
+    }
+    catch (InterruptedException ex) {
+      // Stop reaping.
+    }
+  }
+
+  /**
+   * Removes the expired messages from the head of the given queue
+   * destination.
+   *
+   * @param destination the queue destination
+   */
+  private void reap(String destination) {
+    QueueAdapter adapter = context.resolveQueue(destination);
+    if (adapter == null) {
+      return;
+    }
+
+    // A priority queue has a raw queue per level.
+    List<String> queueNames = adapter instanceof PriorityQueueAdapter
+        ? ((PriorityQueueAdapter) adapter).getLevelNames()
+        : Collections.singletonList(adapter.getName());
+
+    for (String queueName : queueNames) {
+      reap(destination, context.getHazelcastMQInstance().getConfig().
+          getHazelcastInstance().<Object>getQueue(queueName));
+    }
+  }
+
+  /**
+   * Removes the expired messages from the head of the given raw queue which
+   * backs the given queue destination.
+   *
+   * @param destination the queue destination
+   * @param queue the raw queue to reap
+   */
+  private void reap(String destination, IQueue<Object> queue) {
+
+    // Only the expiration header is needed so the body is left compressed.
+    // An expired message keeps its compression header so it is written to
+    // the expiry destination as is.
+    MessageConverter converter = context.getHazelcastMQInstance().getConfig().
+        getMessageConverter();
+    long now = System.currentTimeMillis();
+    int count = 0;
+
+    for (int i = 0; i < MAX_REAP_COUNT; ++i) {
+      Object msgData = queue.peek();
+      if (msgData == null) {
+        break;
+      }
+
+      HazelcastMQMessage msg = converter.toMessage(msgData);
+      if (!msg.isExpired(now)) {
+        break;
+      }
+
+      // The head may be consumed between the peek and the remove. Removing
+      // the head is cheap because the owner's scan stops at the first match
+      // and we only move the message to the expiry destination if we
+      // actually removed it.
+      if (queue.remove(msgData)) {
+        context.onMessageExpired(destination, msg);
+        count++;
+      }
+    }
+
+    if (count > 0 && log.isFinestEnabled()) {
+      log.finest(format("Reaped [%d] expired messages from queue [%s].", count,
+          destination));
+    }
+  }
+}
@@ -1,5 +1,7 @@
 package org.mpilone.hazelcastmq.core;
 
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
@@ -17,21 +19,59 @@ public class HazelcastMQConfig {
 
   private HazelcastInstance hazelcastInstance;
   private MessageConverter messageConverter = new NoOpMessageConverter();
+  private MessageIdGenerator messageIdGenerator =
+      new NodeLocalMessageIdGenerator();
+  private CompressionCodec compressionCodec;
+  private int compressionThreshold = 1024;
+  private int compressionMaxBodyLength = 64 * 1024 * 1024;
   private int topicMaxMessageCount = 1000;
+  private TopicOverflowPolicy topicOverflowPolicy =
+      TopicOverflowPolicy.DROP_NEWEST;
+  private Map<String, TopicOverflowPolicy> topicOverflowPolicies =
+      new ConcurrentHashMap<>();
+  private long topicOverflowBlockTimeout = 1000;
   private ExecutorService executor;
   private ContextDispatchStrategy contextDispatchStrategy =
       ContextDispatchStrategy.DEDICATED_THREAD;
+  private int dispatchPoolSize = Runtime.getRuntime().availableProcessors();
+  private int maxAsyncSendsInFlight = 0;
+  private Map<String, String> expiryDestinations = new ConcurrentHashMap<>();
+  private long expiryReaperPeriod = 0;
+  private Map<String, Integer> priorityLevels = new ConcurrentHashMap<>();
+  private AcknowledgeMode acknowledgeMode = AcknowledgeMode.AUTO;
+  private long acknowledgeTimeout = 30000;
+  private RedeliveryPolicy redeliveryPolicy = new RedeliveryPolicy();
+  private Map<String, RedeliveryPolicy> redeliveryPolicies =
+      new ConcurrentHashMap<>();
+  private int selectorIndexCapacity = 10000;
 
   /**
    * Constructs the configuration with the following defaults:
    * <ul>
    * <li>messageConverter: {@link NoOpMessageConverter}</li>
+   * <li>messageIdGenerator: {@link NodeLocalMessageIdGenerator}</li>
+   * <li>compressionCodec: null (disabled)</li>
+   * <li>compressionThreshold: 1024</li>
+   * <li>compressionMaxBodyLength: 64 MiB</li>
    * <li>topicMaxMessageCount: 1000</li>
+   * <li>topicOverflowPolicy: {@link TopicOverflowPolicy#DROP_NEWEST}</li>
+   * <li>topicOverflowPolicies: empty</li>
+   * <li>topicOverflowBlockTimeout: 1000</li>
    * <li>executor: {@link Executors#newCachedThreadPool()} (lazy initialized)</li>
    * <li>hazelcastInstance: {@link Hazelcast#newHazelcastInstance()} (lazy
    * initialized)</li>
    * <li>contextDispatchStrategy:
    * {@link ContextDispatchStrategy#DEDICATED_THREAD}</li>
+   * <li>dispatchPoolSize: {@link Runtime#availableProcessors()}</li>
+   * <li>maxAsyncSendsInFlight: 0</li>
+   * <li>expiryDestinations: empty (expired messages are discarded)</li>
+   * <li>expiryReaperPeriod: 0 (disabled)</li>
+   * <li>priorityLevels: empty</li>
+   * <li>acknowledgeMode: {@link AcknowledgeMode#AUTO}</li>
+   * <li>acknowledgeTimeout: 30000</li>
+   * <li>redeliveryPolicy: {@link RedeliveryPolicy#RedeliveryPolicy()}</li>
+   * <li>redeliveryPolicies: empty</li>
+   * <li>selectorIndexCapacity: 10000</li>
    * </ul>
    */
   public HazelcastMQConfig() {
@@ -41,11 +81,28 @@ public class HazelcastMQConfig {
    * Constructs the configuration with the following defaults:
    * <ul>
    * <li>messageConverter: {@link NoOpMessageConverter}</li>
+   * <li>messageIdGenerator: {@link NodeLocalMessageIdGenerator}</li>
+   * <li>compressionCodec: null (disabled)</li>
+   * <li>compressionThreshold: 1024</li>
+   * <li>compressionMaxBodyLength: 64 MiB</li>
    * <li>topicMaxMessageCount: 1000</li>
+   * <li>topicOverflowPolicy: {@link TopicOverflowPolicy#DROP_NEWEST}</li>
+   * <li>topicOverflowPolicies: empty</li>
+   * <li>topicOverflowBlockTimeout: 1000</li>
    * <li>executor: {@link Executors#newCachedThreadPool()} (lazy
    * initialized)</li>
    * <li>contextDispatchStrategy:
    * {@link ContextDispatchStrategy#DEDICATED_THREAD}</li>
+   * <li>dispatchPoolSize: {@link Runtime#availableProcessors()}</li>
+   * <li>maxAsyncSendsInFlight: 0</li>
+   * <li>expiryDestinations: empty (expired messages are discarded)</li>
+   * <li>expiryReaperPeriod: 0 (disabled)</li>
+   * <li>priorityLevels: empty</li>
+   * <li>acknowledgeMode: {@link AcknowledgeMode#AUTO}</li>
+   * <li>acknowledgeTimeout: 30000</li>
+   * <li>redeliveryPolicy: {@link RedeliveryPolicy#RedeliveryPolicy()}</li>
+   * <li>redeliveryPolicies: empty</li>
+   * <li>selectorIndexCapacity: 10000</li>
    * </ul>
    *
    * @param hzInstance the Hazelcast instances to use for all queues and topic
@@ -83,6 +140,255 @@ public class HazelcastMQConfig {
     return contextDispatchStrategy;
   }
 
+  /**
+   * Sets the number of dispatch threads shared by all contexts when the
+   * {@link ContextDispatchStrategy#POOLED_THREAD} strategy is used. The
+   * default is the number of available processors.
+   *
+   * @param dispatchPoolSize the number of shared dispatch threads
+   */
+  public void setDispatchPoolSize(int dispatchPoolSize) {
+    this.dispatchPoolSize = dispatchPoolSize;
+  }
+
+  /**
+   * Returns the number of dispatch threads shared by all contexts when the
+   * {@link ContextDispatchStrategy#POOLED_THREAD} strategy is used.
+   *
+   * @return the number of shared dispatch threads
+   */
+  public int getDispatchPoolSize() {
+    return dispatchPoolSize;
+  }
+
+  /**
+   * Sets the maximum number of asynchronous sends that may be in flight across
+   * all producers in the instance. When the limit is reached, further calls to
+   * {@link HazelcastMQProducer#sendAsync(HazelcastMQMessage)} return a future
+   * that has already failed rather than blocking the caller. A value of 0 or
+   * less means there is no limit. The default is 0.
+   *
+   * @param maxAsyncSendsInFlight the maximum number of in-flight asynchronous
+   * sends or 0 for no limit
+   */
+  public void setMaxAsyncSendsInFlight(int maxAsyncSendsInFlight) {
+    this.maxAsyncSendsInFlight = maxAsyncSendsInFlight;
+  }
+
+  /**
+   * Returns the maximum number of asynchronous sends that may be in flight
+   * across all producers in the instance.
+   *
+   * @return the maximum number of in-flight asynchronous sends or 0 for no
+   * limit
+   */
+  public int getMaxAsyncSendsInFlight() {
+    return maxAsyncSendsInFlight;
+  }
+
+  /**
+   * Sets the map of destinations to expiry destinations. When a message on a
+   * destination in the map expires before it is consumed, the message is sent
+   * to the mapped expiry destination rather than discarded. The expiration
+   * header is removed from the message and the original destination is
+   * recorded in the {@link Headers#ORIGINAL_DESTINATION} header. Destinations
+   * not in the map discard expired messages. The default is an empty map.
+   *
+   * @param expiryDestinations the map of destinations to expiry destinations
+   */
+  public void setExpiryDestinations(Map<String, String> expiryDestinations) {
+    this.expiryDestinations = expiryDestinations;
+  }
+
+  /**
+   * Returns the map of destinations to expiry destinations. The map may be
+   * modified directly to add expiry destinations.
+   *
+   * @return the map of destinations to expiry destinations
+   */
+  public Map<String, String> getExpiryDestinations() {
+    return expiryDestinations;
+  }
+
+  /**
+   * Sets the period in milliseconds between passes of the expired message
+   * reaper. Expired messages are always dropped when they are received by a
+   * consumer, but a queue with no active consumers will hold expired messages
+   * indefinitely. When enabled, the reaper periodically checks the head of
+   * every queue that has been used by the instance and removes expired
+   * messages until it finds one that hasn't expired. Messages are only read
+   * from the head of the queue so an expired message behind a message with a
+   * longer time to live is left until it reaches the head or is received. A
+   * value of 0 or less disables the reaper. The default is 0.
+   *
+   * @param expiryReaperPeriod the reaper period in milliseconds or 0 to
+   * disable the reaper
+   */
+  public void setExpiryReaperPeriod(long expiryReaperPeriod) {
+    this.expiryReaperPeriod = expiryReaperPeriod;
+  }
+
+  /**
+   * Returns the period in milliseconds between passes of the expired message
+   * reaper.
+   *
+   * @return the reaper period in milliseconds or 0 if the reaper is disabled
+   */
+  public long getExpiryReaperPeriod() {
+    return expiryReaperPeriod;
+  }
+
+  /**
+   * Sets the map of queue destinations to the number of priority levels of the
+   * queue. A queue with more than one level is backed by one Hazelcast queue
+   * per level and messages are routed by their
+   * {@link HazelcastMQMessage#getPriority() priority}. Consumers receive
+   * messages from the highest level first while periodically favoring the
+   * lowest level so low priority messages are not starved. Messages with a
+   * priority outside of the range of levels are stored in the nearest level.
+   * Each additional level adds a Hazelcast operation to a poll of an empty
+   * queue so the number of levels should be kept small.
+   *
+   * @param priorityLevels the map of queue destinations to priority levels
+   */
+  public void setPriorityLevels(Map<String, Integer> priorityLevels) {
+    this.priorityLevels = priorityLevels;
+  }
+
+  /**
+   * Returns the map of queue destinations to the number of priority levels of
+   * the queue. The default is an empty map so all queues are FIFO.
+   *
+   * @return the map of queue destinations to priority levels
+   */
+  public Map<String, Integer> getPriorityLevels() {
+    return priorityLevels;
+  }
+
+  /**
+   * Sets the default acknowledge mode of new non-transacted contexts. The
+   * mode can be changed on each context with
+   * {@link HazelcastMQContext#setAcknowledgeMode(org.mpilone.hazelcastmq.core.HazelcastMQConfig.AcknowledgeMode)}.
+   * If the default mode is not {@link AcknowledgeMode#AUTO}, the instance
+   * starts monitoring unacknowledged messages immediately so messages
+   * received by a failed member are redelivered even if no context on this
+   * member has acknowledgment enabled yet. The default is
+   * {@link AcknowledgeMode#AUTO}.
+   *
+   * @param acknowledgeMode the default acknowledge mode
+   */
+  public void setAcknowledgeMode(AcknowledgeMode acknowledgeMode) {
+    this.acknowledgeMode = acknowledgeMode;
+  }
+
+  /**
+   * Returns the default acknowledge mode of new non-transacted contexts.
+   *
+   * @return the default acknowledge mode
+   */
+  public AcknowledgeMode getAcknowledgeMode() {
+    return acknowledgeMode;
+  }
+
+  /**
+   * Sets the time in milliseconds that a message received in a client
+   * acknowledge mode stays invisible to other consumers while it waits to be
+   * acknowledged. If the message isn't acknowledged before the timeout, it is
+   * returned to its queue and redelivered. The timeout should be longer than
+   * the longest expected processing time of a message or it may be delivered
+   * more than once. Timed out messages are detected periodically so a message
+   * may be redelivered up to a second late. The default is 30000.
+   *
+   * @param acknowledgeTimeout the acknowledge timeout in milliseconds
+   */
+  public void setAcknowledgeTimeout(long acknowledgeTimeout) {
+    this.acknowledgeTimeout = acknowledgeTimeout;
+  }
+
+  /**
+   * Returns the time in milliseconds that a message received in a client
+   * acknowledge mode waits to be acknowledged before it is redelivered.
+   *
+   * @return the acknowledge timeout in milliseconds
+   */
+  public long getAcknowledgeTimeout() {
+    return acknowledgeTimeout;
+  }
+
+  /**
+   * Sets the default policy applied when a message listener fails to process
+   * a message or a message is redelivered. The policy can be overridden for
+   * individual destinations with {@link #getRedeliveryPolicies()}. The default
+   * is a {@link RedeliveryPolicy} with its default values.
+   *
+   * @param redeliveryPolicy the default redelivery policy
+   */
+  public void setRedeliveryPolicy(RedeliveryPolicy redeliveryPolicy) {
+    this.redeliveryPolicy = redeliveryPolicy;
+  }
+
+  /**
+   * Returns the default policy applied when a message listener fails to
+   * process a message or a message is redelivered.
+   *
+   * @return the default redelivery policy
+   */
+  public RedeliveryPolicy getRedeliveryPolicy() {
+    return redeliveryPolicy;
+  }
+
+  /**
+   * Sets the map of destinations to redelivery policies. Destinations not in
+   * the map use the default {@link #getRedeliveryPolicy()}. The default is an
+   * empty map.
+   *
+   * @param redeliveryPolicies the map of destinations to redelivery policies
+   */
+  public void setRedeliveryPolicies(
+      Map<String, RedeliveryPolicy> redeliveryPolicies) {
+    this.redeliveryPolicies = redeliveryPolicies;
+  }
+
+  /**
+   * Returns the map of destinations to redelivery policies. The map may be
+   * modified directly to add policies.
+   *
+   * @return the map of destinations to redelivery policies
+   */
+  public Map<String, RedeliveryPolicy> getRedeliveryPolicies() {
+    return redeliveryPolicies;
+  }
+
+  /**
+   * Sets the maximum number of matching messages a consumer with a selector
+   * indexes for each queue. A queue consumer with a selector keeps a local
+   * index of the messages that match its selector. The index is built with a
+   * single scan of the queue when the consumer is created and is then fed by
+   * a Hazelcast item listener that includes the value of each added message,
+   * so polls never copy the queue. When the index is full, further matches
+   * aren't indexed and the queue is scanned again once the index has been
+   * drained, so matching messages are never starved regardless of how many
+   * non-matching messages are ahead of them. Each scan copies the entire
+   * queue from the partition owner. A value of 0 or less is unlimited. The
+   * default is 10000.
+   *
+   * @param selectorIndexCapacity the maximum number of matching messages
+   * indexed per queue
+   */
+  public void setSelectorIndexCapacity(int selectorIndexCapacity) {
+    this.selectorIndexCapacity = selectorIndexCapacity;
+  }
+
+  /**
+   * Returns the maximum number of matching messages a consumer with a
+   * selector indexes for each queue.
+   *
+   * @return the maximum number of matching messages indexed per queue
+   */
+  public int getSelectorIndexCapacity() {
+    return selectorIndexCapacity;
+  }
+
   /**
    * Returns the message converter to use for converter HazelcastMQ messages
    * into and out of the objects/data sent into Hazelcast. The default is the
@@ -105,6 +411,94 @@ public class HazelcastMQConfig {
     this.messageConverter = messageConverter;
   }
 
+  /**
+   * Returns the generator used by producers to assign an ID to each message
+   * sent. The default is the {@link NodeLocalMessageIdGenerator} which
+   * generates IDs that are unique across the cluster with high probability
+   * without any cluster coordination.
+   *
+   * @return the message ID generator
+   */
+  public MessageIdGenerator getMessageIdGenerator() {
+    return messageIdGenerator;
+  }
+
+  /**
+   * Sets the generator used by producers to assign an ID to each message sent.
+   *
+   * @param messageIdGenerator the message ID generator
+   */
+  public void setMessageIdGenerator(MessageIdGenerator messageIdGenerator) {
+    this.messageIdGenerator = messageIdGenerator;
+  }
+
+  /**
+   * Sets the codec used to compress message bodies before they are passed to
+   * the {@link #getMessageConverter() message converter}. Compressed bodies are
+   * decompressed transparently on receive so the same codec must be configured
+   * on all producing and consuming instances. The default is null which
+   * disables compression.
+   *
+   * @param compressionCodec the compression codec or null to disable
+   * compression
+   */
+  public void setCompressionCodec(CompressionCodec compressionCodec) {
+    this.compressionCodec = compressionCodec;
+  }
+
+  /**
+   * Returns the codec used to compress message bodies.
+   *
+   * @return the compression codec or null if compression is disabled
+   */
+  public CompressionCodec getCompressionCodec() {
+    return compressionCodec;
+  }
+
+  /**
+   * Sets the minimum body length in bytes for a message body to be compressed.
+   * Small bodies rarely compress well so they are left alone. The default is
+   * 1024.
+   *
+   * @param compressionThreshold the minimum body length to compress
+   */
+  public void setCompressionThreshold(int compressionThreshold) {
+    this.compressionThreshold = compressionThreshold;
+  }
+
+  /**
+   * Returns the minimum body length in bytes for a message body to be
+   * compressed.
+   *
+   * @return the minimum body length to compress
+   */
+  public int getCompressionThreshold() {
+    return compressionThreshold;
+  }
+
+  /**
+   * Sets the maximum length in bytes of a decompressed message body. The
+   * original length of a body is recorded when it is compressed and the body
+   * is decompressed into an array of exactly that length. A message that
+   * claims a longer body, or whose body decompresses to more bytes than it
+   * claims, is rejected with a {@link HazelcastMQException} rather than
+   * exhausting the memory of the consumer. The default is 64 MiB.
+   *
+   * @param compressionMaxBodyLength the maximum decompressed body length
+   */
+  public void setCompressionMaxBodyLength(int compressionMaxBodyLength) {
+    this.compressionMaxBodyLength = compressionMaxBodyLength;
+  }
+
+  /**
+   * Returns the maximum length in bytes of a decompressed message body.
+   *
+   * @return the maximum decompressed body length
+   */
+  public int getCompressionMaxBodyLength() {
+    return compressionMaxBodyLength;
+  }
+
   /**
    * Returns the maximum number of messages to buffer during topic reception
    * before messages start getting dropped. Choose a value that is a balance
@@ -125,6 +519,74 @@ public class HazelcastMQConfig {
     this.topicMaxMessageCount = topicMaxMessageCount;
   }
 
+  /**
+   * Sets the default policy applied when the topic message buffer of a
+   * consumer is full. The policy can be overridden for individual
+   * destinations with {@link #getTopicOverflowPolicies()}. The default is
+   * {@link TopicOverflowPolicy#DROP_NEWEST}.
+   *
+   * @param topicOverflowPolicy the default topic overflow policy
+   */
+  public void setTopicOverflowPolicy(TopicOverflowPolicy topicOverflowPolicy) {
+    this.topicOverflowPolicy = topicOverflowPolicy;
+  }
+
+  /**
+   * Returns the default policy applied when the topic message buffer of a
+   * consumer is full.
+   *
+   * @return the default topic overflow policy
+   */
+  public TopicOverflowPolicy getTopicOverflowPolicy() {
+    return topicOverflowPolicy;
+  }
+
+  /**
+   * Sets the map of topic destinations to overflow policies. Destinations not
+   * in the map use the default {@link #getTopicOverflowPolicy()}. The default
+   * is an empty map.
+   *
+   * @param topicOverflowPolicies the map of topic destinations to overflow
+   * policies
+   */
+  public void setTopicOverflowPolicies(
+      Map<String, TopicOverflowPolicy> topicOverflowPolicies) {
+    this.topicOverflowPolicies = topicOverflowPolicies;
+  }
+
+  /**
+   * Returns the map of topic destinations to overflow policies. The map may be
+   * modified directly to add policies.
+   *
+   * @return the map of topic destinations to overflow policies
+   */
+  public Map<String, TopicOverflowPolicy> getTopicOverflowPolicies() {
+    return topicOverflowPolicies;
+  }
+
+  /**
+   * Sets the maximum time in milliseconds to wait for room in the topic
+   * message buffer when using the {@link TopicOverflowPolicy#BLOCK} policy.
+   * The message is dropped if the timeout expires. The wait happens on a
+   * Hazelcast event thread so the timeout should be kept short. The default
+   * is 1000.
+   *
+   * @param topicOverflowBlockTimeout the maximum time to block in milliseconds
+   */
+  public void setTopicOverflowBlockTimeout(long topicOverflowBlockTimeout) {
+    this.topicOverflowBlockTimeout = topicOverflowBlockTimeout;
+  }
+
+  /**
+   * Returns the maximum time in milliseconds to wait for room in the topic
+   * message buffer when using the {@link TopicOverflowPolicy#BLOCK} policy.
+   *
+   * @return the maximum time to block in milliseconds
+   */
+  public long getTopicOverflowBlockTimeout() {
+    return topicOverflowBlockTimeout;
+  }
+
   /**
    * Returns the executor that will be used to create message consumer threads
    * when a message listener is active.
@@ -211,7 +673,99 @@ public class HazelcastMQConfig {
      * contexts (and therefore the number of concurrent consumers across
      * contexts) will be limited by the thread pool configuration.
      */
-    REACTOR
+    REACTOR,
+    /**
+     * A pooled thread dispatcher that uses a fixed number of threads, defined
+     * by {@link HazelcastMQConfig#getDispatchPoolSize()}, shared by all the
+     * contexts in the instance. Each context is assigned to a single pool
+     * thread so messages are still dispatched serially within a context. A
+     * pool thread services its contexts in the order that they become ready and
+     * a context yields the thread after a short drain so a busy context cannot
+     * starve the others. This has the benefit of a thread count that follows
+     * the pool size rather than the number of contexts and a lower latency than
+     * the {@link #REACTOR} strategy; however a slow message listener will delay
+     * dispatch to all the other contexts assigned to the same thread.
+     */
+    POOLED_THREAD
+  }
+
+  /**
+   * The acknowledge mode of a non-transacted {@link HazelcastMQContext}. The
+   * mode controls when a message received from a queue is considered
+   * consumed. Messages received from topics are always acknowledged
+   * automatically.
+   */
+  public enum AcknowledgeMode {
+
+    /**
+     * Messages are consumed as soon as they are received. This is the cheapest
+     * mode but a message is lost if the receiver fails before processing it.
+     */
+    AUTO,
+    /**
+     * Received messages are held in a distributed in-flight map until the
+     * application calls {@link HazelcastMQContext#acknowledge()}, which
+     * acknowledges every message received by the context. Messages that are
+     * not acknowledged within
+     * {@link HazelcastMQConfig#getAcknowledgeTimeout()}, or that are
+     * recovered, are returned to their queue and redelivered with the
+     * {@link Headers#REDELIVERED} and {@link Headers#DELIVERY_COUNT} headers.
+     * This gives at-least-once delivery for the cost of an in-flight map put
+     * and remove per message rather than a Hazelcast transaction.
+     */
+    CLIENT,
+    /**
+     * The same as {@link #CLIENT} except that
+     * {@link HazelcastMQContext#acknowledge(org.mpilone.hazelcastmq.core.HazelcastMQMessage)}
+     * acknowledges only the given message.
+     */
+    INDIVIDUAL
+  }
+
+  /**
+   * The policy applied when a message arrives for a topic consumer whose
+   * message buffer is full. Refer to {@link TopicBufferStats} for monitoring
+   * the buffer.
+   */
+  public enum TopicOverflowPolicy {
+
+    /**
+     * The newly arrived message is dropped. This is the cheapest policy and
+     * favors older messages.
+     */
+    DROP_NEWEST,
+    /**
+     * The oldest buffered message is dropped to make room for the newly
+     * arrived message. This policy favors the most recent messages which is
+     * useful for topics that publish state or prices.
+     */
+    DROP_OLDEST,
+    /**
+     * The Hazelcast event thread delivering the message waits up to
+     * {@link HazelcastMQConfig#getTopicOverflowBlockTimeout()} for room in the
+     * buffer and drops the message if the timeout expires. Hazelcast topic
+     * publishing is asynchronous so this doesn't block the publisher directly,
+     * but the wait happens on a Hazelcast event thread which is shared with
+     * every other topic, entry, and item listener striped to it on the member.
+     * Those listeners are delayed for as long as the consumer is slow, so the
+     * block timeout should be kept short and this policy should only be used
+     * when the consumer is expected to catch up quickly.
+     */
+    BLOCK,
+    /**
+     * Messages that don't fit in the buffer are written to a distributed
+     * Hazelcast queue owned by the consumer and read back once the buffer has
+     * been drained. No messages are lost unless the spill queue is full, but
+     * spilled messages cost a cluster round trip to write and read. The spill
+     * queue is named "hazelcastmq.topic-spill." followed by the consumer ID
+     * and can be limited with a Hazelcast queue configuration. The queue is
+     * destroyed when the consumer is closed, but if the member dies first the
+     * queue and any spilled messages are left in the cluster. No other
+     * consumer will ever read it, so orphaned spill queues must be found by
+     * prefix and destroyed manually. A max size on the queue configuration
+     * limits how much an orphaned queue can hold.
+     */
+    SPILL
   }
 
 }
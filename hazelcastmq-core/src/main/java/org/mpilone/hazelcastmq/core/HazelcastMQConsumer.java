@@ -1,6 +1,7 @@
 package org.mpilone.hazelcastmq.core;
 
 import java.io.Closeable;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -91,6 +92,34 @@ public interface HazelcastMQConsumer extends Closeable {
    */
    HazelcastMQMessage receiveNoWait();
 
+  /**
+   * Receives up to {@code max} messages, blocking until at least one message
+   * becomes available, the timeout expires, or the consumer is closed. Once a
+   * message is available, any additional messages that are immediately
+   * available are received in the same call up to the maximum. This is more
+   * efficient than repeated calls to {@link #receive(long, TimeUnit)} when
+   * consuming a large number of messages.
+   *
+   * @param max the maximum number of messages to receive (must be &gt;= 1)
+   * @param timeout the amount of time to block for the first message
+   * @param unit the unit of the time value
+   *
+   * @return the messages received which will be empty if the timeout expired
+   * or the consumer was closed
+   */
+   List<HazelcastMQMessage> receiveBatch(int max, long timeout, TimeUnit unit);
+
+  /**
+   * Receives up to {@code max} messages that are immediately available,
+   * returning immediately if no message is available.
+   *
+   * @param max the maximum number of messages to receive (must be &gt;= 1)
+   *
+   * @return the messages received which will be empty if no message was
+   * available
+   */
+   List<HazelcastMQMessage> receiveBatchNoWait(int max);
+
   /**
    * A convenience method that calls
    * {@link #receive(long, java.util.concurrent.TimeUnit)} and then extracts the
@@ -132,4 +161,14 @@ public interface HazelcastMQConsumer extends Closeable {
    */
    void setMessageListener(HazelcastMQMessageListener listener);
 
+  /**
+   * Returns the statistics of the message buffer if this consumer is reading
+   * from a topic. The statistics are live and reflect the current state of the
+   * buffer.
+   *
+   * @return the topic buffer statistics or null if the consumer is not reading
+   * from a topic
+   */
+  TopicBufferStats getTopicBufferStats();
+
 }
@@ -84,6 +84,46 @@ public interface HazelcastMQContext extends Closeable {
    */
    HazelcastMQConsumer createConsumer(String destination);
 
+  /**
+   * <p>
+   * Creates a consumer for the specified destination that only receives
+   * messages with headers that match the given selector expression. The
+   * expression syntax is described in {@link MessageSelector}.</p>
+   * <p>
+   * Messages on a queue that don't match the selector remain on the queue for
+   * other consumers. A queue consumer with a selector scans the queue once
+   * when it is created and then indexes matching messages as they arrive so
+   * receives don't scan the queue. Refer to
+   * {@link HazelcastMQConfig#setSelectorIndexCapacity(int)}. Messages on a
+   * topic that don't match the selector are filtered as they arrive, before
+   * they are buffered, and are counted in
+   * {@link TopicBufferStats#getFilteredCount()}. Selectors on queues are not
+   * supported in a transacted context.</p>
+   *
+   * @param destination the destination to access
+   * @param selector the message selector expression or null to receive all
+   * messages
+   *
+   * @return a new consumer instance
+   * @throws HazelcastMQException.InvalidSelectorException if the selector is
+   * invalid
+   */
+  HazelcastMQConsumer createConsumer(String destination, String selector);
+
+  /**
+   * Creates a consumer for the specified destination that only receives
+   * messages with headers that match the given compiled selector. See
+   * {@link #createConsumer(java.lang.String, java.lang.String)}.
+   *
+   * @param destination the destination to access
+   * @param selector the compiled message selector or null to receive all
+   * messages
+   *
+   * @return a new consumer instance
+   */
+  HazelcastMQConsumer createConsumer(String destination,
+      MessageSelector selector);
+
   /**
    * Creates a new producer which can be used to configure and send message.
    * This is identical to calling {@link #createProducer(java.lang.String) }
@@ -118,6 +158,53 @@ public interface HazelcastMQContext extends Closeable {
    */
    void rollback();
 
+  /**
+   * Acknowledges all unacknowledged messages received by consumers of this
+   * context. This method does nothing if the acknowledge mode is
+   * {@link HazelcastMQConfig.AcknowledgeMode#AUTO} or the context is
+   * transacted.
+   */
+  void acknowledge();
+
+  /**
+   * Acknowledges the given message received by a consumer of this context. If
+   * the acknowledge mode is {@link HazelcastMQConfig.AcknowledgeMode#CLIENT},
+   * all unacknowledged messages received by the context are acknowledged as
+   * in {@link #acknowledge()}. This method does nothing if the message was
+   * not received in a client acknowledge mode.
+   *
+   * @param msg the message to acknowledge
+   */
+  void acknowledge(HazelcastMQMessage msg);
+
+  /**
+   * Stops delivery of unacknowledged messages and immediately returns them to
+   * their queues for redelivery. Redelivered messages are marked with the
+   * {@link Headers#REDELIVERED} and {@link Headers#DELIVERY_COUNT} headers.
+   * Unacknowledged messages are also recovered when the context is closed.
+   * This method does nothing if the acknowledge mode is
+   * {@link HazelcastMQConfig.AcknowledgeMode#AUTO} or the context is
+   * transacted.
+   */
+  void recover();
+
+  /**
+   * Returns the acknowledge mode of the context. The default is
+   * {@link HazelcastMQConfig#getAcknowledgeMode()}. The mode is ignored if the
+   * context is transacted.
+   *
+   * @return the acknowledge mode
+   */
+  HazelcastMQConfig.AcknowledgeMode getAcknowledgeMode();
+
+  /**
+   * Sets the acknowledge mode of the context. The mode applies to messages
+   * received after the mode is set.
+   *
+   * @param acknowledgeMode the acknowledge mode
+   */
+  void setAcknowledgeMode(HazelcastMQConfig.AcknowledgeMode acknowledgeMode);
+
   /**
    * Returns true if the context is transacted, that is, if transactions are
    * being used for message production.
@@ -0,0 +1,62 @@
+package org.mpilone.hazelcastmq.core;
+
+import com.hazelcast.nio.serialization.*;
+
+/**
+ * <p>
+ * A Hazelcast {@link DataSerializerHook} that registers the
+ * {@link DataSerializableFactory} for the HazelcastMQ types that implement
+ * {@link IdentifiedDataSerializable}. The hook is discovered automatically by
+ * Hazelcast members and clients through the
+ * {@code META-INF/services/com.hazelcast.DataSerializerHook} file so no
+ * serialization configuration is required.
+ * </p>
+ * <p>
+ * The factory ID can be changed with the {@value #FACTORY_ID_PROPERTY} system
+ * property if it conflicts with an
+ * application factory. The same value must be used on all members and
+ * clients.
+ * </p>
+ *
+ * @author mpilone
+ */
+public class HazelcastMQDataSerializerHook implements DataSerializerHook {
+
+  /**
+   * The system property that can be used to override the factory ID.
+   */
+  public static final String FACTORY_ID_PROPERTY =
+      "hazelcastmq.serialization.factory.id";
+
+  /**
+   * The ID of the HazelcastMQ data serializable factory.
+   */
+  public static final int F_ID = Integer.getInteger(FACTORY_ID_PROPERTY,
+      0x484D51);
+
+  /**
+   * The type ID of {@link DefaultHeaders}.
+   */
+  public static final int HEADERS = 1;
+
+  @Override
+  public int getFactoryId() {
+    return F_ID;
+  }
+
+  @Override
+  public DataSerializableFactory createFactory() {
+    return new DataSerializableFactory() {
+      @Override
+      public IdentifiedDataSerializable create(int typeId) {
+        switch (typeId) {
+          case HEADERS:
+            return new DefaultHeaders();
+
+          default:
+            return null;
+        }
+      }
+    };
+  }
+}
@@ -1,5 +1,8 @@
 package org.mpilone.hazelcastmq.core;
 
+import java.util.Collections;
+import java.util.Map;
+
 /**
  * An exception raised by HazelcastMQ.
  *
@@ -57,4 +60,67 @@ public class HazelcastMQException extends RuntimeException {
     }
   }
 
+  /**
+   * An exception that indicates that a message selector expression is invalid
+   * and cannot be compiled.
+   */
+  public static class InvalidSelectorException extends HazelcastMQException {
+
+    /**
+     * Serialization ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructs the exception.
+     *
+     * @param message the exception message
+     */
+    public InvalidSelectorException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * An exception that indicates that one or more messages in a batch send
+   * operation could not be sent. Messages not reported as failures were sent
+   * successfully.
+   */
+  public static class BatchSendException extends HazelcastMQException {
+
+    /**
+     * Serialization ID.
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The map of failed messages to the cause of the failure.
+     */
+    private final Map<HazelcastMQMessage, HazelcastMQException> failures;
+
+    /**
+     * Constructs the exception.
+     *
+     * @param message the exception message
+     * @param failures the map of failed messages to the cause of each failure
+     */
+    public BatchSendException(String message,
+        Map<HazelcastMQMessage, HazelcastMQException> failures) {
+      super(message);
+
+      this.failures = Collections.unmodifiableMap(failures);
+    }
+
+    /**
+     * Returns the messages that failed to send mapped to the cause of each
+     * failure. The map is in the order the messages were given to the send
+     * operation.
+     *
+     * @return an unmodifiable map of failed messages to failure causes
+     */
+    public Map<HazelcastMQMessage, HazelcastMQException> getFailures() {
+      return failures;
+    }
+  }
+
 }
@@ -2,26 +2,44 @@ package org.mpilone.hazelcastmq.core;
 
 import static org.mpilone.hazelcastmq.core.HazelcastMQConstants.UTF_8;
 
-import java.io.Serializable;
+import java.io.*;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 
 /**
- * A message to be sent over HazelcastMQ containing headers and a body.
+ * A message to be sent over HazelcastMQ containing headers and a body. When
+ * written to Hazelcast the message is serialized by the
+ * {@link HazelcastMQMessageSerializer} rather than Java serialization.
  *
  * @author mpilone
  */
 public class HazelcastMQMessage implements Serializable {
 
   /**
-   * The body of the message.
+   * The body of the message or null if the body is backed by a buffer or there
+   * is no body.
    */
   private byte[] body;
 
+  /**
+   * The buffer backing the body of the message or null if the body is an array
+   * or there is no body. The buffer's position is always zero and it is never
+   * modified by the message.
+   */
+  private transient ByteBuffer bodyBuffer;
+
   /**
    * The headers of the message.
    */
   private Headers headers;
 
+  /**
+   * The size of the array used to copy a body that isn't backed by an
+   * accessible array to an output.
+   */
+  private static final int TRANSFER_CHUNK_SIZE = 8192;
+
   /**
    * Construct a message with no body and empty headers. This method is
    * primarily used by serialization.
@@ -86,10 +104,26 @@ public class HazelcastMQMessage implements Serializable {
 
   /**
    * Returns the body of the message which may be null if no body has been set.
+   * If the body is backed by a buffer that doesn't exactly wrap an accessible
+   * array, the body is copied into a new array on the first call.
    *
    * @return the body of the message
    */
   public byte[] getBody() {
+    if (bodyBuffer != null) {
+      ByteBuffer buf = bodyBuffer;
+
+      if (buf.hasArray() && buf.arrayOffset() == 0 && buf.remaining() == buf.
+          array().length) {
+        body = buf.array();
+      }
+      else {
+        body = new byte[buf.remaining()];
+        buf.duplicate().get(body);
+      }
+      bodyBuffer = null;
+    }
+
     return body;
   }
 
@@ -101,6 +135,103 @@ public class HazelcastMQMessage implements Serializable {
    */
   public void setBody(byte[] content) {
     this.body = content;
+    this.bodyBuffer = null;
+  }
+
+  /**
+   * Sets the body of the message to the remaining bytes of the given buffer.
+   * The bytes are not copied so the content of the buffer must not be modified
+   * while the message is in use. The position and limit of the given buffer
+   * are not changed. This allows a body received in a buffer, such as a
+   * network frame or a slice of a larger converted message, to be passed along
+   * without copying it.
+   *
+   * @param content the body content to set or null to clear the body
+   */
+  public void setBody(ByteBuffer content) {
+    this.body = null;
+    this.bodyBuffer = content == null ? null : content.slice();
+  }
+
+  /**
+   * Returns a read-only view of the body of the message or null if no body has
+   * been set. The view is positioned at the start of the body and can be read
+   * without affecting the message. The body is not copied.
+   *
+   * @return the read-only body buffer or null
+   */
+  public ByteBuffer getBodyBuffer() {
+    if (bodyBuffer != null) {
+      return bodyBuffer.asReadOnlyBuffer();
+    }
+    else if (body != null) {
+      return ByteBuffer.wrap(body).asReadOnlyBuffer();
+    }
+    else {
+      return null;
+    }
+  }
+
+  /**
+   * Returns the length of the body of the message in bytes.
+   *
+   * @return the length of the body or 0 if no body has been set
+   */
+  public int getBodyLength() {
+    if (bodyBuffer != null) {
+      return bodyBuffer.remaining();
+    }
+    else if (body != null) {
+      return body.length;
+    }
+    else {
+      return 0;
+    }
+  }
+
+  /**
+   * Returns a stream that reads the body of the message or null if no body has
+   * been set. The body is not copied.
+   *
+   * @return the body stream or null
+   */
+  public InputStream getBodyAsStream() {
+    ByteBuffer buf = getBodyBuffer();
+    return buf == null ? null : new ByteBufferInputStream(buf);
+  }
+
+  /**
+   * Writes the body of the message to the given output. Nothing is written if
+   * no body has been set. The body is written directly from the backing array
+   * when possible, otherwise it is copied through a small transfer array. An
+   * {@link OutputStream} can be used by wrapping it in a
+   * {@link DataOutputStream}.
+   *
+   * @param out the output to write to
+   *
+   * @throws IOException if there is an error writing to the output
+   */
+  public void writeBody(DataOutput out) throws IOException {
+    if (body != null) {
+      out.write(body);
+    }
+    else if (bodyBuffer != null) {
+      ByteBuffer buf = bodyBuffer;
+
+      if (buf.hasArray()) {
+        out.write(buf.array(), buf.arrayOffset(), buf.remaining());
+      }
+      else {
+        buf = buf.duplicate();
+        byte[] chunk = new byte[Math.min(buf.remaining(),
+            TRANSFER_CHUNK_SIZE)];
+        while (buf.hasRemaining()) {
+          int length = Math.min(chunk.length, buf.remaining());
+          buf.get(chunk, 0, length);
+          out.write(chunk, 0, length);
+        }
+      }
+    }
   }
 
   /**
@@ -156,6 +287,13 @@ public class HazelcastMQMessage implements Serializable {
     if (body != null) {
       return new String(body, charset);
     }
+    else if (bodyBuffer != null && bodyBuffer.hasArray()) {
+      return new String(bodyBuffer.array(), bodyBuffer.arrayOffset(),
+          bodyBuffer.remaining(), charset);
+    }
+    else if (bodyBuffer != null) {
+      return charset.decode(bodyBuffer.duplicate()).toString();
+    }
     else {
       return null;
     }
@@ -232,10 +370,164 @@ public class HazelcastMQMessage implements Serializable {
     return getHeaders().get(Headers.REPLY_TO);
   }
 
+  /**
+   * Returns the priority of the message. This is a convenience method for
+   * getting the {@link Headers#PRIORITY} value. The priority is only used by
+   * queue destinations configured with
+   * {@link HazelcastMQConfig#getPriorityLevels() priority levels}.
+   *
+   * @return the priority of the message or 0 if no priority is set
+   */
+  public int getPriority() {
+    String value = getHeaders().get(Headers.PRIORITY);
+
+    if (value != null) {
+      try {
+        return Integer.parseInt(value);
+      }
+      catch (NumberFormatException ex) {
+        // Treat an invalid value as the lowest priority.
+      }
+    }
+
+    return 0;
+  }
+
+  /**
+   * Sets the priority of the message. This is a convenience method for setting
+   * the {@link Headers#PRIORITY} value.
+   *
+   * @param priority the priority of the message
+   */
+  public void setPriority(int priority) {
+    getHeaders().put(Headers.PRIORITY, String.valueOf(priority));
+  }
+
+  /**
+   * Returns the expiration time of the message in milliseconds since the
+   * epoch. This is a convenience method for getting the
+   * {@link Headers#EXPIRATION} value.
+   *
+   * @return the expiration time or 0 if the message does not expire
+   */
+  public long getExpiration() {
+    String value = getHeaders().get(Headers.EXPIRATION);
+
+    if (value != null) {
+      try {
+        return Long.parseLong(value);
+      }
+      catch (NumberFormatException ex) {
+        // Treat an invalid value as no expiration.
+      }
+    }
+
+    return 0;
+  }
+
+  /**
+   * Returns true if the message has an expiration time and the time has
+   * passed.
+   *
+   * @param now the current time in milliseconds since the epoch
+   *
+   * @return true if the message is expired
+   */
+  public boolean isExpired(long now) {
+    long expiration = getExpiration();
+    return expiration > 0 && expiration <= now;
+  }
+
+  /**
+   * Writes the message using default serialization after moving any buffer
+   * backed body into the body array because buffers are not serializable.
+   *
+   * @param out the stream to write to
+   *
+   * @throws IOException if there is an error writing the message
+   */
+  private void writeObject(ObjectOutputStream out) throws IOException {
+    getBody();
+    out.defaultWriteObject();
+  }
+
   @Override
   public String toString() {
     return "HazelcastMQMessage{" + "headers=" + headers + ", body="
-        + (body != null ? body.length + " bytes" : "null") + '}';
+        + (body != null || bodyBuffer != null ? getBodyLength() + " bytes"
+            : "null") + '}';
+  }
+
+  /**
+   * An input stream that reads the remaining bytes of a buffer. The buffer is
+   * cast to {@link Buffer} before calling the position and mark methods
+   * because JDK 9 and later add covariant overrides to {@link ByteBuffer}
+   * which don't exist on a Java 7 or 8 runtime.
+   */
+  private static class ByteBufferInputStream extends InputStream {
+
+    /**
+     * The buffer to read from.
+     */
+    private final ByteBuffer buf;
+
+    /**
+     * Constructs the stream.
+     *
+     * @param buf the buffer to read from
+     */
+    public ByteBufferInputStream(ByteBuffer buf) {
+      this.buf = buf;
+
+      // Mark the start so reset without a mark returns to the beginning.
+      ((Buffer) this.buf).mark();
+    }
+
+    @Override
+    public int read() {
+      return buf.hasRemaining() ? buf.get() & 0xFF : -1;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+      if (len == 0) {
+        return 0;
+      }
+      else if (!buf.hasRemaining()) {
+        return -1;
+      }
+
+      len = Math.min(len, buf.remaining());
+      buf.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public long skip(long n) {
+      int count = (int) Math.max(0, Math.min(n, buf.remaining()));
+      ((Buffer) buf).position(buf.position() + count);
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return buf.remaining();
+    }
+
+    @Override
+    public boolean markSupported() {
+      return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+      ((Buffer) buf).mark();
+    }
+
+    @Override
+    public synchronized void reset() {
+      ((Buffer) buf).reset();
+    }
   }
 
 }
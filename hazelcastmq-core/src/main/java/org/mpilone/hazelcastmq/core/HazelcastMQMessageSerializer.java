@@ -0,0 +1,102 @@
+package org.mpilone.hazelcastmq.core;
+
+import java.io.IOException;
+
+import com.hazelcast.nio.ObjectDataInput;
+import com.hazelcast.nio.ObjectDataOutput;
+import com.hazelcast.nio.serialization.*;
+
+/**
+ * <p>
+ * A Hazelcast {@link StreamSerializer} for {@link HazelcastMQMessage} that
+ * writes the headers and body directly rather than using Java serialization.
+ * This serializer is used for every queue and topic item when using the
+ * {@link NoOpMessageConverter}. The serializer is registered automatically by
+ * the {@link Hook} which is discovered by Hazelcast members and clients
+ * through the {@code META-INF/services/com.hazelcast.SerializerHook} file.
+ * </p>
+ * <p>
+ * The type ID can be changed with the {@value #TYPE_ID_PROPERTY} system
+ * property if it conflicts with an application serializer. The same value
+ * must be used on all members and clients.
+ * </p>
+ *
+ * @author mpilone
+ */
+public class HazelcastMQMessageSerializer implements
+    StreamSerializer<HazelcastMQMessage> {
+
+  /**
+   * The system property that can be used to override the type ID.
+   */
+  public static final String TYPE_ID_PROPERTY =
+      "hazelcastmq.serialization.message.type.id";
+
+  /**
+   * The type ID of the serializer.
+   */
+  public static final int TYPE_ID = Integer.getInteger(TYPE_ID_PROPERTY,
+      0x484D51);
+
+  @Override
+  public void write(ObjectDataOutput out, HazelcastMQMessage msg) throws
+      IOException {
+    DefaultHeaders.writeHeaders(msg.getHeaders(), out);
+
+    if (msg.getBodyBuffer() == null) {
+      out.writeInt(-1);
+    }
+    else {
+      out.writeInt(msg.getBodyLength());
+      msg.writeBody(out);
+    }
+  }
+
+  @Override
+  public HazelcastMQMessage read(ObjectDataInput in) throws IOException {
+    DefaultHeaders headers = new DefaultHeaders();
+    DefaultHeaders.readHeaders(headers, in);
+
+    byte[] body = null;
+    int length = in.readInt();
+    if (length >= 0) {
+      body = new byte[length];
+      in.readFully(body);
+    }
+
+    return new HazelcastMQMessage(headers, body);
+  }
+
+  @Override
+  public int getTypeId() {
+    return TYPE_ID;
+  }
+
+  @Override
+  public void destroy() {
+    // no op
+  }
+
+  /**
+   * The hook that registers the {@link HazelcastMQMessageSerializer} with
+   * Hazelcast. The serializer can be overridden by an explicit serializer
+   * configuration.
+   */
+  public static class Hook implements SerializerHook<HazelcastMQMessage> {
+
+    @Override
+    public Class<HazelcastMQMessage> getSerializationType() {
+      return HazelcastMQMessage.class;
+    }
+
+    @Override
+    public Serializer createSerializer() {
+      return new HazelcastMQMessageSerializer();
+    }
+
+    @Override
+    public boolean isOverwritable() {
+      return true;
+    }
+  }
+}
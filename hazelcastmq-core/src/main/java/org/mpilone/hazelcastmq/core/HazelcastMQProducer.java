@@ -1,5 +1,9 @@
 package org.mpilone.hazelcastmq.core;
 
+import java.util.Collection;
+
+import com.hazelcast.core.ICompletableFuture;
+
 /**
  * <p>
  * A client uses a message producer to send messages to a destination. A message
@@ -111,6 +115,103 @@ public interface HazelcastMQProducer {
    */
   void send(String destination, HazelcastMQMessage msg, long timeToLive);
 
+  /**
+   * Sends a batch of messages using the producer's destination and default
+   * time to live. This method can only be used if a destination was specified
+   * at producer creation time. Sending a batch is more efficient than
+   * individual sends because the messages are written to the destination in
+   * bulk where possible.
+   *
+   * @param msgs the messages to send
+   *
+   * @throws HazelcastMQException.BatchSendException if one or more messages
+   * could not be sent; all other messages were sent
+   */
+  void send(Collection<HazelcastMQMessage> msgs);
+
+  /**
+   * Sends a batch of messages using the given destination and default time to
+   * live. This method can only be used if a destination was not specified at
+   * producer creation time. Sending a batch is more efficient than individual
+   * sends because the messages are written to the destination in bulk where
+   * possible.
+   *
+   * @param destination the destination to send the messages to
+   * @param msgs the messages to send
+   *
+   * @throws HazelcastMQException.BatchSendException if one or more messages
+   * could not be sent; all other messages were sent
+   */
+  void send(String destination, Collection<HazelcastMQMessage> msgs);
+
+  /**
+   * Sends a message asynchronously using the producer's destination and
+   * default time to live. This method can only be used if a destination was
+   * specified at producer creation time. The message is converted before this
+   * method returns but the write to the destination completes in the
+   * background. Asynchronous sends from the same producer are queued and
+   * written one at a time, in the order they were made, by a single task on
+   * the configured executor. Asynchronous sends therefore free the caller but
+   * add no parallel throughput for a single producer; use multiple producers
+   * to write in parallel. If the optional limit on in-flight sends configured
+   * via {@link HazelcastMQConfig#setMaxAsyncSendsInFlight(int)} has been
+   * reached, this method doesn't block and the returned future has already
+   * failed.
+   *
+   * @param msg the message to send
+   *
+   * @return the future that completes when the message has been accepted by
+   * the destination
+   */
+  ICompletableFuture<Void> sendAsync(HazelcastMQMessage msg);
+
+  /**
+   * Sends a message asynchronously using the producer's destination and the
+   * given time to live. This method can only be used if a destination was
+   * specified at producer creation time.
+   *
+   * @param msg the message to send
+   * @param timeToLive the message's lifetime in milliseconds (0 to never
+   * expire)
+   *
+   * @return the future that completes when the message has been accepted by
+   * the destination
+   * @see #sendAsync(org.mpilone.hazelcastmq.core.HazelcastMQMessage)
+   */
+  ICompletableFuture<Void> sendAsync(HazelcastMQMessage msg, long timeToLive);
+
+  /**
+   * Sends a message asynchronously using the given destination and default
+   * time to live. This method can only be used if a destination was not
+   * specified at producer creation time.
+   *
+   * @param destination the destination to send the message to
+   * @param msg the message to send
+   *
+   * @return the future that completes when the message has been accepted by
+   * the destination
+   * @see #sendAsync(org.mpilone.hazelcastmq.core.HazelcastMQMessage)
+   */
+  ICompletableFuture<Void> sendAsync(String destination,
+      HazelcastMQMessage msg);
+
+  /**
+   * Sends a message asynchronously using the given destination and the given
+   * time to live. This method can only be used if a destination was not
+   * specified at producer creation time.
+   *
+   * @param destination the destination to send the message to
+   * @param msg the message to send
+   * @param timeToLive the message's lifetime in milliseconds (0 to never
+   * expire)
+   *
+   * @return the future that completes when the message has been accepted by
+   * the destination
+   * @see #sendAsync(org.mpilone.hazelcastmq.core.HazelcastMQMessage)
+   */
+  ICompletableFuture<Void> sendAsync(String destination,
+      HazelcastMQMessage msg, long timeToLive);
+
   /**
    * Sets the time to live value used as the default for all messages sent
    * by this producer unless the value is specifically given in the send method.
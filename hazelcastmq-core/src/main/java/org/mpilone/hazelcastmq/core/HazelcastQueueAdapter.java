@@ -0,0 +1,62 @@
+package org.mpilone.hazelcastmq.core;
+
+import java.util.Collection;
+
+import com.hazelcast.core.IQueue;
+
+/**
+ * A {@link QueueAdapter} for a non-transactional Hazelcast {@link IQueue}.
+ *
+ * @author mpilone
+ */
+class HazelcastQueueAdapter implements QueueAdapter {
+
+  /**
+   * The queue being adapted.
+   */
+  private final IQueue<Object> queue;
+
+  /**
+   * Constructs the adapter.
+   *
+   * @param queue the queue to adapt
+   */
+  public HazelcastQueueAdapter(IQueue<Object> queue) {
+    this.queue = queue;
+  }
+
+  @Override
+  public String getName() {
+    return queue.getName();
+  }
+
+  @Override
+  public boolean offer(Object item) {
+    return queue.offer(item);
+  }
+
+  @Override
+  public Object poll() {
+    return queue.poll();
+  }
+
+  @Override
+  public int drainTo(Collection<Object> items, int max) {
+    return queue.drainTo(items, max);
+  }
+
+  @Override
+  public boolean addAll(Collection<Object> items) {
+    return queue.addAll(items);
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return queue.remainingCapacity();
+  }
+
+  @Override
+  public void destroy() {
+    queue.destroy();
+  }
+}
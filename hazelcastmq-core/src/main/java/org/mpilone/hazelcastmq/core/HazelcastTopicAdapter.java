@@ -0,0 +1,41 @@
+package org.mpilone.hazelcastmq.core;
+
+import com.hazelcast.core.ITopic;
+
+/**
+ * A {@link TopicAdapter} that publishes directly to a Hazelcast
+ * {@link ITopic}.
+ *
+ * @author mpilone
+ */
+class HazelcastTopicAdapter implements TopicAdapter {
+
+  /**
+   * The topic being adapted.
+   */
+  private final ITopic<Object> topic;
+
+  /**
+   * Constructs the adapter.
+   *
+   * @param topic the topic to adapt
+   */
+  public HazelcastTopicAdapter(ITopic<Object> topic) {
+    this.topic = topic;
+  }
+
+  @Override
+  public String getName() {
+    return topic.getName();
+  }
+
+  @Override
+  public void publish(Object item) {
+    topic.publish(item);
+  }
+
+  @Override
+  public void destroy() {
+    topic.destroy();
+  }
+}
@@ -24,6 +24,20 @@ public interface Headers {
 
    static final String EXPIRATION = "expiration";
 
+   static final String ORIGINAL_DESTINATION = "original-destination";
+
+   static final String COMPRESSION = "compression";
+
+   static final String COMPRESSION_LENGTH = "compression-length";
+
+   static final String PRIORITY = "priority";
+
+   static final String REDELIVERED = "redelivered";
+
+   static final String DELIVERY_COUNT = "delivery-count";
+
+   static final String ACKNOWLEDGE_ID = "ack-id";
+
    static final String DESTINATION_QUEUE_PREFIX = "/queue/";
 
    static final String DESTINATION_TEMPORARY_QUEUE_PREFIX = "/temp-queue/";
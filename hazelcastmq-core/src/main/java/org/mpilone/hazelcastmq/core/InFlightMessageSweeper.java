@@ -0,0 +1,222 @@
+package org.mpilone.hazelcastmq.core;
+
+import static java.lang.String.format;
+
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.hazelcast.core.IMap;
+import com.hazelcast.logging.ILogger;
+import com.hazelcast.logging.Logger;
+
+/**
+ * <p>
+ * A background task that periodically redelivers unacknowledged messages
+ * whose acknowledge timeout has passed. Messages received in a client
+ * acknowledge mode are held in a distributed in-flight map until they are
+ * acknowledged. If the receiving context or member fails, the entries remain
+ * in the map and the sweeper on any surviving member returns them to their
+ * queues. Messages that failed in a message listener wait in the same map
+ * for their {@link RedeliveryPolicy redelivery delay}.
+ * </p>
+ * <p>
+ * The acknowledge deadline and the destination are encoded in the in-flight
+ * key so a sweep only reads the keys of the map and never deserializes the
+ * message data of entries that haven't timed out. Each member only sweeps the
+ * keys of the entries it owns so the sweep cost doesn't grow with the size of
+ * the cluster. A client instance, which owns no entries, sweeps all keys.
+ * Multiple sweepers can run in the cluster at the same time because a message
+ * is only redelivered by the sweeper that removes it from the map.
+ * </p>
+ * <p>
+ * Refer to {@link HazelcastMQConfig#getAcknowledgeTimeout()} and
+ * {@link HazelcastMQConfig#getRedeliveryPolicy()}.
+ * </p>
+ *
+ * @author mpilone
+ */
+class InFlightMessageSweeper implements Runnable {
+
+  /**
+   * The log for this class.
+   */
+  private final static ILogger log = Logger.getLogger(
+      InFlightMessageSweeper.class);
+
+  /**
+   * The name of the distributed map that holds unacknowledged messages.
+   */
+  static final String IN_FLIGHT_MAP_NAME = "hazelcastmq.in-flight";
+
+  /**
+   * The generator of unique in-flight keys.
+   */
+  private final static MessageIdGenerator idGenerator =
+      new NodeLocalMessageIdGenerator("");
+
+  /**
+   * The separator between the parts of an in-flight key.
+   */
+  private static final char KEY_SEPARATOR = ':';
+
+  /**
+   * The minimum period in milliseconds between sweeps.
+   */
+  private static final long MIN_PERIOD = 100;
+
+  /**
+   * The maximum period in milliseconds between sweeps. The sweeper also
+   * returns failed messages after their redelivery delay so it must run often
+   * enough for short delays.
+   */
+  private static final long MAX_PERIOD = 1000;
+
+  /**
+   * The non-transacted context used to redeliver messages.
+   */
+  private final DefaultHazelcastMQContext context;
+
+  /**
+   * The period in milliseconds between sweeps.
+   */
+  private final long period;
+
+  /**
+   * The latch released when the sweeper should stop.
+   */
+  private final CountDownLatch shutdownLatch;
+
+  /**
+   * True if the in-flight map supports reading the keys of locally owned
+   * entries. This is false on a client instance.
+   */
+  private boolean localKeySetSupported;
+
+  /**
+   * Constructs the sweeper. The sweeper will not run until it is submitted to
+   * an executor. The sweep period is a quarter of the acknowledge timeout but
+   * no more than one second.
+   *
+   * @param context the non-transacted context used to redeliver messages
+   * @param acknowledgeTimeout the acknowledge timeout in milliseconds
+   */
+  public InFlightMessageSweeper(DefaultHazelcastMQContext context,
+      long acknowledgeTimeout) {
+    this.context = context;
+    this.period = Math.max(MIN_PERIOD, Math.min(MAX_PERIOD, acknowledgeTimeout
+        / 4));
+    this.shutdownLatch = new CountDownLatch(1);
+    this.localKeySetSupported = true;
+  }
+
+  /**
+   * Stops the sweeper. A sweep in progress will be completed.
+   */
+  public void shutdown() {
+    shutdownLatch.countDown();
+  }
+
+  @Override
+  public void run() {
+    try {
+      while (!shutdownLatch.await(period, TimeUnit.MILLISECONDS)) {
+        try {
+          sweep();
+        }
+        catch (RuntimeException ex) {
+          log.warning("Failed to sweep unacknowledged messages.", ex);
+        }
+      }
+    }
+    catch (InterruptedException ex) {
+      // Stop sweeping.
+    }
+  }
+
+  /**
+   * Redelivers all the in-flight messages whose acknowledge deadline or
+   * redelivery delay has passed. Only the entries owned by this member are
+   * swept if the map supports it.
+   */
+  private void sweep() {
+    IMap<String, Object> inFlightMap = context.getInFlightMap();
+    long now = System.currentTimeMillis();
+    int count = 0;
+
+    Set<String> keys = null;
+    if (localKeySetSupported) {
+      try {
+        keys = inFlightMap.localKeySet();
+      }
+      catch (UnsupportedOperationException ex) {
+        // A client instance doesn't own any entries.
+        localKeySetSupported = false;
+      }
+    }
+    if (keys == null) {
+      keys = inFlightMap.keySet();
+    }
+
+    for (String key : keys) {
+      if (shutdownLatch.getCount() == 0) {
+        break;
+      }
+
+      if (getDeadline(key) <= now) {
+        try {
+          if (context.redeliver(key)) {
+            count++;
+          }
+        }
+        catch (RuntimeException ex) {
+          log.warning(format("Failed to redeliver unacknowledged message "
+              + "[%s].", key), ex);
+        }
+      }
+    }
+
+    if (count > 0 && log.isFinestEnabled()) {
+      log.finest(format("Redelivered [%d] unacknowledged messages.", count));
+    }
+  }
+
+  /**
+   * Creates a new, unique in-flight key for a message received from the given
+   * destination.
+   *
+   * @param destination the destination the message was received from
+   * @param deadline the time in milliseconds after which the message will be
+   * redelivered if it isn't acknowledged
+   *
+   * @return the new key
+   */
+  static String newKey(String destination, long deadline) {
+    return new StringBuilder(64).append(Long.toHexString(deadline)).append(
+        KEY_SEPARATOR).append(idGenerator.newId()).append(KEY_SEPARATOR).
+        append(destination).toString();
+  }
+
+  /**
+   * Returns the acknowledge deadline encoded in the given in-flight key.
+   *
+   * @param key the in-flight key
+   *
+   * @return the deadline in milliseconds
+   */
+  static long getDeadline(String key) {
+    return Long.parseLong(key.substring(0, key.indexOf(KEY_SEPARATOR)), 16);
+  }
+
+  /**
+   * Returns the destination encoded in the given in-flight key.
+   *
+   * @param key the in-flight key
+   *
+   * @return the destination the message was received from
+   */
+  static String getDestination(String key) {
+    int index = key.indexOf(KEY_SEPARATOR, key.indexOf(KEY_SEPARATOR) + 1);
+    return key.substring(index + 1);
+  }
+}
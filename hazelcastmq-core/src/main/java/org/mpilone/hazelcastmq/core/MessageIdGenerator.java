@@ -0,0 +1,19 @@
+package org.mpilone.hazelcastmq.core;
+
+/**
+ * A generator of message IDs assigned to each message as it is sent by a
+ * producer. Implementations must be thread-safe and must return IDs that are
+ * unique across the entire cluster for the lifetime of the messages.
+ *
+ * @author mpilone
+ */
+public interface MessageIdGenerator {
+
+  /**
+   * Returns a new, unique message ID.
+   *
+   * @return the new message ID
+   */
+  String newId();
+
+}
@@ -0,0 +1,135 @@
+package org.mpilone.hazelcastmq.core;
+
+/**
+ * <p>
+ * A compiled message selector that filters messages by their headers. The
+ * selector syntax is the SQL-92 conditional expression subset defined by the
+ * JMS specification, for example:
+ * </p>
+ * <pre>
+ * type = 'order' AND (region IN ('us', 'ca') OR amount &gt; 1000)
+ * </pre>
+ * <p>
+ * Identifiers are header names. Header values are strings so they are
+ * converted to a number or boolean when compared to a numeric or boolean
+ * value. A comparison with a missing header or a value that can't be converted
+ * is unknown and the message does not match. The expression is compiled once
+ * into a predicate tree and evaluated against the message headers only so the
+ * message body is never read.
+ * </p>
+ * <p>
+ * Selectors are immutable and thread-safe.
+ * </p>
+ *
+ * @author mpilone
+ */
+public class MessageSelector {
+
+  /**
+   * The original selector expression.
+   */
+  private final String expression;
+
+  /**
+   * The root of the compiled predicate tree.
+   */
+  private final SelectorParser.Expression predicate;
+
+  /**
+   * Constructs the selector.
+   *
+   * @param expression the original selector expression
+   * @param predicate the root of the compiled predicate tree
+   */
+  private MessageSelector(String expression,
+      SelectorParser.Expression predicate) {
+    this.expression = expression;
+    this.predicate = predicate;
+  }
+
+  /**
+   * Compiles the given selector expression using the identifiers as header
+   * names.
+   *
+   * @param expression the selector expression
+   *
+   * @return the compiled selector
+   * @throws HazelcastMQException.InvalidSelectorException if the expression is
+   * invalid
+   */
+  public static MessageSelector compile(String expression) {
+    return compile(expression, null);
+  }
+
+  /**
+   * Compiles the given selector expression using the given mapper to map
+   * identifiers to header names. This allows a selector written against
+   * another message model, such as JMS properties, to be evaluated against
+   * the headers that model is stored in.
+   *
+   * @param expression the selector expression
+   * @param mapper the mapper of identifiers to header names or null to use the
+   * identifiers as header names
+   *
+   * @return the compiled selector
+   * @throws HazelcastMQException.InvalidSelectorException if the expression is
+   * invalid
+   */
+  public static MessageSelector compile(String expression,
+      IdentifierMapper mapper) {
+    return new MessageSelector(expression, new SelectorParser(expression,
+        mapper).parse());
+  }
+
+  /**
+   * Returns true if the given message matches the selector.
+   *
+   * @param msg the message to test
+   *
+   * @return true if the message matches
+   */
+  public boolean matches(HazelcastMQMessage msg) {
+    return matches(msg.getHeaders());
+  }
+
+  /**
+   * Returns true if the given headers match the selector.
+   *
+   * @param headers the headers to test
+   *
+   * @return true if the headers match
+   */
+  public boolean matches(Headers headers) {
+    return Boolean.TRUE.equals(predicate.evaluate(headers));
+  }
+
+  /**
+   * Returns the original selector expression.
+   *
+   * @return the selector expression
+   */
+  public String getExpression() {
+    return expression;
+  }
+
+  @Override
+  public String toString() {
+    return "MessageSelector{" + "expression=" + expression + '}';
+  }
+
+  /**
+   * Maps a selector identifier to the name of the header that holds its value.
+   */
+  public interface IdentifierMapper {
+
+    /**
+     * Returns the name of the header that holds the value of the given
+     * identifier.
+     *
+     * @param identifier the identifier in the selector expression
+     *
+     * @return the header name
+     */
+    String toHeaderName(String identifier);
+  }
+}
@@ -0,0 +1,131 @@
+package org.mpilone.hazelcastmq.core;
+
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link MessageIdGenerator} that generates IDs without any cluster
+ * coordination. Each generator picks a random 64 bit node identifier when it
+ * is created and each ID is the node identifier followed by a counter local to
+ * the generator, for example, "hazelcastmq-3f2a9c01d4b7e685-1a". Because the
+ * node identifier is random, IDs are unique across generators with high
+ * probability rather than guaranteed; two generators collide only if they pick
+ * the same 64 bit identifier.
+ *
+ * The counter is striped by handing each thread a block of values so threads
+ * sending concurrently don't contend on a single counter. IDs from a single
+ * generator are therefore unique but not ordered across threads. The prefix and node identifier are
+ * rendered once so building an ID only requires the counter digits to be
+ * rendered.
+ *
+ * @author mpilone
+ */
+public class NodeLocalMessageIdGenerator implements MessageIdGenerator {
+
+  /**
+   * The default prefix of all generated IDs.
+   */
+  public static final String DEFAULT_PREFIX = "hazelcastmq-";
+
+  /**
+   * The number of counter values reserved by a thread at a time.
+   */
+  private static final int BLOCK_SIZE = 1024;
+
+  /**
+   * The hex digits used to render the node identifier and counter.
+   */
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+  /**
+   * The pre-rendered prefix and node identifier, including the trailing
+   * separator.
+   */
+  private final char[] nodePrefix;
+
+  /**
+   * The first counter value of the next block to be reserved by a thread.
+   */
+  private final AtomicLong nextBlock;
+
+  /**
+   * The block of counter values reserved by the current thread as a two
+   * element array of the next value and the end of the block (exclusive).
+   */
+  private final ThreadLocal<long[]> threadBlock;
+
+  /**
+   * Constructs the generator using the {@link #DEFAULT_PREFIX}.
+   */
+  public NodeLocalMessageIdGenerator() {
+    this(DEFAULT_PREFIX);
+  }
+
+  /**
+   * Constructs the generator using the given prefix for all IDs.
+   *
+   * @param prefix the prefix of all generated IDs
+   */
+  public NodeLocalMessageIdGenerator(String prefix) {
+    long nodeId = new SecureRandom().nextLong();
+
+    StringBuilder sb = new StringBuilder(prefix);
+    appendHex(sb, nodeId, 16);
+    sb.append('-');
+
+    this.nodePrefix = sb.toString().toCharArray();
+    this.nextBlock = new AtomicLong();
+    this.threadBlock = new ThreadLocal<long[]>() {
+      @Override
+      protected long[] initialValue() {
+        return new long[2];
+      }
+    };
+  }
+
+  @Override
+  public String newId() {
+    long[] block = threadBlock.get();
+
+    if (block[0] == block[1]) {
+      block[0] = nextBlock.getAndAdd(BLOCK_SIZE);
+      block[1] = block[0] + BLOCK_SIZE;
+    }
+
+    return render(block[0]++);
+  }
+
+  /**
+   * Renders the ID for the given counter value by appending the minimal hex
+   * representation of the value to the node prefix.
+   *
+   * @param value the counter value
+   *
+   * @return the rendered ID
+   */
+  private String render(long value) {
+    int digits = Math.max(1, (67 - Long.numberOfLeadingZeros(value)) / 4);
+
+    char[] chars = Arrays.copyOf(nodePrefix, nodePrefix.length + digits);
+    for (int i = chars.length - 1; i >= nodePrefix.length; --i) {
+      chars[i] = HEX_DIGITS[(int) (value & 0xF)];
+      value >>>= 4;
+    }
+
+    return new String(chars);
+  }
+
+  /**
+   * Appends the given number of hex digits of the value to the builder.
+   *
+   * @param sb the builder to append to
+   * @param value the value to render
+   * @param digits the number of digits to render
+   */
+  private static void appendHex(StringBuilder sb, long value, int digits) {
+    for (int i = digits - 1; i >= 0; --i) {
+      sb.append(HEX_DIGITS[(int) ((value >>> (i * 4)) & 0xF)]);
+    }
+  }
+}
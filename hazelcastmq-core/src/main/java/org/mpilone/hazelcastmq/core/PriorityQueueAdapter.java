@@ -0,0 +1,170 @@
+package org.mpilone.hazelcastmq.core;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link QueueAdapter} for a priority queue destination backed by one
+ * Hazelcast queue per priority level. Level 0 is the queue named by the
+ * destination so messages without a priority are stored exactly as they would
+ * be in a normal queue. Higher levels are stored in queues named with the
+ * {@link #LEVEL_QUEUE_SUFFIX} and the level.
+ *
+ * Polls drain the highest level first. To protect lower levels from
+ * starvation while higher levels have a steady backlog, every
+ * {@link #FAIRNESS_INTERVAL}th poll drains the lowest level first instead.
+ *
+ * @author mpilone
+ */
+class PriorityQueueAdapter implements QueueAdapter {
+
+  /**
+   * The suffix added to the destination queue name, followed by the level, to
+   * name the queue of each priority level above 0.
+   */
+  static final String LEVEL_QUEUE_SUFFIX = ".priority-";
+
+  /**
+   * The number of polls after which the lowest level is drained first to
+   * prevent starvation.
+   */
+  private static final int FAIRNESS_INTERVAL = 10;
+
+  /**
+   * The queue of each priority level indexed by level.
+   */
+  private final List<QueueAdapter> levels;
+
+  /**
+   * The number of polls performed, used to schedule fairness polls.
+   */
+  private final AtomicInteger pollCount;
+
+  /**
+   * Constructs the adapter.
+   *
+   * @param levels the queue of each priority level indexed by level
+   */
+  public PriorityQueueAdapter(List<QueueAdapter> levels) {
+    this(levels, new AtomicInteger());
+  }
+
+  /**
+   * Constructs the adapter with a poll count shared with other adapters of
+   * the same destination.
+   *
+   * @param levels the queue of each priority level indexed by level
+   * @param pollCount the number of polls performed, used to schedule fairness
+   * polls
+   */
+  public PriorityQueueAdapter(List<QueueAdapter> levels,
+      AtomicInteger pollCount) {
+    this.levels = levels;
+    this.pollCount = pollCount;
+  }
+
+  /**
+   * Returns the name of the Hazelcast queue that stores the given level of the
+   * queue with the given name.
+   *
+   * @param queueName the name of the destination queue
+   * @param level the priority level
+   *
+   * @return the name of the level queue
+   */
+  static String getLevelQueueName(String queueName, int level) {
+    return level == 0 ? queueName : queueName + LEVEL_QUEUE_SUFFIX + level;
+  }
+
+  /**
+   * Returns the names of the underlying Hazelcast queues of all levels.
+   *
+   * @return the level queue names indexed by level
+   */
+  List<String> getLevelNames() {
+    List<String> names = new ArrayList<>(levels.size());
+    for (QueueAdapter level : levels) {
+      names.add(level.getName());
+    }
+    return names;
+  }
+
+  /**
+   * Inserts the item into the queue of the given priority. The priority is
+   * limited to the range of configured levels.
+   *
+   * @param item the item to insert
+   * @param priority the priority of the item
+   *
+   * @return true if the item was added, false if the queue is full
+   */
+  public boolean offer(Object item, int priority) {
+    int level = Math.max(0, Math.min(priority, levels.size() - 1));
+    return levels.get(level).offer(item);
+  }
+
+  @Override
+  public String getName() {
+    return levels.get(0).getName();
+  }
+
+  @Override
+  public boolean offer(Object item) {
+    return offer(item, 0);
+  }
+
+  @Override
+  public Object poll() {
+    boolean fair = isFairnessPoll();
+
+    for (int i = 0; i < levels.size(); ++i) {
+      Object item = levels.get(fair ? i : levels.size() - 1 - i).poll();
+      if (item != null) {
+        return item;
+      }
+    }
+
+    return null;
+  }
+
+  @Override
+  public int drainTo(Collection<Object> items, int max) {
+    boolean fair = isFairnessPoll();
+    int count = 0;
+
+    for (int i = 0; i < levels.size() && count < max; ++i) {
+      count += levels.get(fair ? i : levels.size() - 1 - i).drainTo(items, max
+          - count);
+    }
+
+    return count;
+  }
+
+  @Override
+  public boolean addAll(Collection<Object> items) {
+    throw new UnsupportedOperationException(
+        "Priority queues do not support bulk writes.");
+  }
+
+  @Override
+  public int remainingCapacity() {
+    // Bulk writes aren't supported.
+    return 0;
+  }
+
+  @Override
+  public void destroy() {
+    for (QueueAdapter level : levels) {
+      level.destroy();
+    }
+  }
+
+  /**
+   * Returns true if the next poll should drain the lowest level first.
+   *
+   * @return true for a fairness poll
+   */
+  private boolean isFairnessPoll() {
+    return pollCount.incrementAndGet() % FAIRNESS_INTERVAL == 0;
+  }
+}
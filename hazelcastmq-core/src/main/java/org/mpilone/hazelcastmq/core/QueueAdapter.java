@@ -0,0 +1,77 @@
+package org.mpilone.hazelcastmq.core;
+
+import java.util.Collection;
+
+import com.hazelcast.core.IQueue;
+import com.hazelcast.core.TransactionalQueue;
+
+/**
+ * The narrow set of queue operations used internally by HazelcastMQ. Hazelcast
+ * doesn't offer a common interface for {@link IQueue} and
+ * {@link TransactionalQueue} so an adapter implementation exists for each,
+ * allowing producers and consumers to work with either.
+ *
+ * @author mpilone
+ */
+interface QueueAdapter {
+
+  /**
+   * Returns the name of the underlying Hazelcast queue.
+   *
+   * @return the queue name
+   */
+  String getName();
+
+  /**
+   * Inserts the item into the queue if possible without waiting.
+   *
+   * @param item the item to insert
+   *
+   * @return true if the item was added, false if the queue is full
+   */
+  boolean offer(Object item);
+
+  /**
+   * Retrieves and removes the head of the queue without waiting.
+   *
+   * @return the head of the queue or null if the queue is empty
+   */
+  Object poll();
+
+  /**
+   * Removes up to the given number of items from the queue without waiting
+   * and adds them to the given collection.
+   *
+   * @param items the collection to add the items to
+   * @param max the maximum number of items to remove
+   *
+   * @return the number of items removed
+   */
+  int drainTo(Collection<Object> items, int max);
+
+  /**
+   * Adds all the items to the queue in a single bulk operation. Callers must
+   * check {@link #remainingCapacity()} first because Hazelcast will silently
+   * add only the items that fit in a bounded queue.
+   *
+   * @param items the items to add
+   *
+   * @return true if the queue changed
+   *
+   * @throws UnsupportedOperationException if the queue doesn't support bulk
+   * writes
+   */
+  boolean addAll(Collection<Object> items);
+
+  /**
+   * Returns the number of items the queue can accept without blocking.
+   *
+   * @return the remaining capacity or 0 if it cannot be determined
+   */
+  int remainingCapacity();
+
+  /**
+   * Destroys the underlying Hazelcast queue.
+   */
+  void destroy();
+}
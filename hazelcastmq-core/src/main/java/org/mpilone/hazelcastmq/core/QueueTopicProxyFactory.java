@@ -5,6 +5,7 @@ import static java.lang.String.format;
 import java.lang.reflect.InvocationHandler;
 import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.ArrayBlockingQueue;
@@ -185,6 +186,10 @@ public class QueueTopicProxyFactory {
             ArrayBlockingQueue.class.getMethod("poll", long.class,
                 TimeUnit.class));
         METHOD_MAP.put("clear_0", ArrayBlockingQueue.class.getMethod("clear"));
+        METHOD_MAP.put("drainTo_1", ArrayBlockingQueue.class.getMethod(
+            "drainTo", Collection.class));
+        METHOD_MAP.put("drainTo_2", ArrayBlockingQueue.class.getMethod(
+            "drainTo", Collection.class, int.class));
 
       }
       catch (NoSuchMethodException ex) {
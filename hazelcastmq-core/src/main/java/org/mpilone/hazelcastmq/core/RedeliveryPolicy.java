@@ -0,0 +1,210 @@
+package org.mpilone.hazelcastmq.core;
+
+/**
+ * <p>
+ * The policy applied when a {@link HazelcastMQMessageListener} fails to
+ * process a message by throwing an exception or when a message received in a
+ * client acknowledge mode is redelivered. A failed message is not retried
+ * immediately. It is held in the distributed in-flight map for a redelivery
+ * delay that grows with each attempt and then returned to its queue so the
+ * dispatcher is free to serve other consumers in the meantime. Once a message
+ * has been delivered the maximum number of times it is moved to the dead
+ * letter destination, or discarded if there is none, rather than being
+ * redelivered again.
+ * </p>
+ * <p>
+ * A failed topic message is not published to the topic again because that
+ * would deliver it to every subscriber. Instead it is returned to the buffer
+ * of the subscriber that failed after the same redelivery delay and is moved
+ * to the dead letter destination once it has been delivered the maximum
+ * number of times. A topic message waiting for redelivery is held in the
+ * memory of the subscribing member and is lost if the consumer is closed.
+ * </p>
+ * <p>
+ * Refer to {@link HazelcastMQConfig#getRedeliveryPolicy()} and
+ * {@link HazelcastMQConfig#getRedeliveryPolicies()}.
+ * </p>
+ *
+ * @author mpilone
+ */
+public class RedeliveryPolicy {
+
+  private int maxDeliveries = 5;
+  private long redeliveryDelay = 1000;
+  private double backoffMultiplier = 2.0;
+  private long maxRedeliveryDelay = 60000;
+  private String deadLetterDestination;
+
+  /**
+   * Constructs the policy with the following defaults:
+   * <ul>
+   * <li>maxDeliveries: 5</li>
+   * <li>redeliveryDelay: 1000</li>
+   * <li>backoffMultiplier: 2.0</li>
+   * <li>maxRedeliveryDelay: 60000</li>
+   * <li>deadLetterDestination: null (discard)</li>
+   * </ul>
+   */
+  public RedeliveryPolicy() {
+  }
+
+  /**
+   * Constructs the policy with the given maximum number of deliveries and
+   * dead letter destination and the following defaults:
+   * <ul>
+   * <li>redeliveryDelay: 1000</li>
+   * <li>backoffMultiplier: 2.0</li>
+   * <li>maxRedeliveryDelay: 60000</li>
+   * </ul>
+   *
+   * @param maxDeliveries the maximum number of times a message is delivered
+   * @param deadLetterDestination the destination that undeliverable messages
+   * are moved to or null to discard them
+   */
+  public RedeliveryPolicy(int maxDeliveries, String deadLetterDestination) {
+    this.maxDeliveries = maxDeliveries;
+    this.deadLetterDestination = deadLetterDestination;
+  }
+
+  /**
+   * Returns the maximum number of times a message is delivered, including the
+   * first delivery, before it is moved to the dead letter destination. A value
+   * of 0 or less allows unlimited deliveries. The default is 5.
+   *
+   * @return the maximum number of deliveries
+   */
+  public int getMaxDeliveries() {
+    return maxDeliveries;
+  }
+
+  /**
+   * Sets the maximum number of times a message is delivered, including the
+   * first delivery, before it is moved to the dead letter destination.
+   *
+   * @param maxDeliveries the maximum number of deliveries or 0 for unlimited
+   */
+  public void setMaxDeliveries(int maxDeliveries) {
+    this.maxDeliveries = maxDeliveries;
+  }
+
+  /**
+   * Returns the delay in milliseconds before the first redelivery of a failed
+   * message. The default is 1000.
+   *
+   * @return the initial redelivery delay in milliseconds
+   */
+  public long getRedeliveryDelay() {
+    return redeliveryDelay;
+  }
+
+  /**
+   * Sets the delay in milliseconds before the first redelivery of a failed
+   * message. The delay is a minimum because redeliveries are detected
+   * periodically by the in-flight sweeper.
+   *
+   * @param redeliveryDelay the initial redelivery delay in milliseconds
+   */
+  public void setRedeliveryDelay(long redeliveryDelay) {
+    this.redeliveryDelay = redeliveryDelay;
+  }
+
+  /**
+   * Returns the multiplier applied to the redelivery delay after each failed
+   * delivery. The default is 2.0.
+   *
+   * @return the backoff multiplier
+   */
+  public double getBackoffMultiplier() {
+    return backoffMultiplier;
+  }
+
+  /**
+   * Sets the multiplier applied to the redelivery delay after each failed
+   * delivery. A value of 1 or less results in a constant delay.
+   *
+   * @param backoffMultiplier the backoff multiplier
+   */
+  public void setBackoffMultiplier(double backoffMultiplier) {
+    this.backoffMultiplier = backoffMultiplier;
+  }
+
+  /**
+   * Returns the maximum delay in milliseconds between redeliveries. The
+   * default is 60000.
+   *
+   * @return the maximum redelivery delay in milliseconds
+   */
+  public long getMaxRedeliveryDelay() {
+    return maxRedeliveryDelay;
+  }
+
+  /**
+   * Sets the maximum delay in milliseconds between redeliveries.
+   *
+   * @param maxRedeliveryDelay the maximum redelivery delay in milliseconds
+   */
+  public void setMaxRedeliveryDelay(long maxRedeliveryDelay) {
+    this.maxRedeliveryDelay = maxRedeliveryDelay;
+  }
+
+  /**
+   * Returns the destination that messages are moved to once they have been
+   * delivered the maximum number of times. The default is null so the
+   * messages are discarded.
+   *
+   * @return the dead letter destination or null
+   */
+  public String getDeadLetterDestination() {
+    return deadLetterDestination;
+  }
+
+  /**
+   * Sets the destination that messages are moved to once they have been
+   * delivered the maximum number of times. Dead letter messages have the
+   * {@link Headers#ORIGINAL_DESTINATION} header set to the destination they
+   * failed on.
+   *
+   * @param deadLetterDestination the dead letter destination or null to
+   * discard the messages
+   */
+  public void setDeadLetterDestination(String deadLetterDestination) {
+    this.deadLetterDestination = deadLetterDestination;
+  }
+
+  /**
+   * Returns the delay in milliseconds before a message that failed on the
+   * given delivery is redelivered.
+   *
+   * @param deliveryCount the delivery that failed, starting at 1
+   *
+   * @return the redelivery delay in milliseconds
+   */
+  public long getRedeliveryDelay(int deliveryCount) {
+    double delay = redeliveryDelay;
+    if (backoffMultiplier > 1) {
+      delay *= Math.pow(backoffMultiplier, Math.max(0, deliveryCount - 1));
+    }
+
+    return (long) Math.min(delay, maxRedeliveryDelay);
+  }
+
+  /**
+   * Returns true if a message that has been delivered the given number of
+   * times may be delivered again.
+   *
+   * @param deliveryCount the number of times the message has been delivered
+   *
+   * @return true if the message may be redelivered
+   */
+  public boolean isRedeliverable(int deliveryCount) {
+    return maxDeliveries <= 0 || deliveryCount < maxDeliveries;
+  }
+
+  @Override
+  public String toString() {
+    return "RedeliveryPolicy{" + "maxDeliveries=" + maxDeliveries
+        + ", redeliveryDelay=" + redeliveryDelay + ", backoffMultiplier="
+        + backoffMultiplier + ", maxRedeliveryDelay=" + maxRedeliveryDelay
+        + ", deadLetterDestination=" + deadLetterDestination + '}';
+  }
+}
@@ -0,0 +1,898 @@
+package org.mpilone.hazelcastmq.core;
+
+import static java.lang.String.format;
+
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A recursive descent parser that compiles a JMS/SQL-92 message selector
+ * expression into a tree of {@link Expression}s. The supported grammar, from
+ * lowest to highest precedence, is:
+ * <pre>
+ * or         := and (OR and)*
+ * and        := not (AND not)*
+ * not        := NOT not | predicate
+ * predicate  := sum [comparison]
+ * comparison := (= | &lt;&gt; | &lt; | &lt;= | &gt; | &gt;=) sum
+ *             | [NOT] BETWEEN sum AND sum
+ *             | [NOT] IN '(' string (, string)* ')'
+ *             | [NOT] LIKE string [ESCAPE string]
+ *             | IS [NOT] NULL
+ * sum        := product ((+ | -) product)*
+ * product    := unary ((* | /) unary)*
+ * unary      := (+ | -) unary | primary
+ * primary    := literal | identifier | '(' or ')'
+ * </pre>
+ * Keywords are case insensitive. Evaluation uses three-valued logic where null
+ * represents an unknown value.
+ *
+ * @author mpilone
+ */
+class SelectorParser {
+
+  /**
+   * The keywords of the grammar which cannot be used as identifiers.
+   */
+  private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+      "NOT", "AND", "OR", "BETWEEN", "LIKE", "ESCAPE", "IN", "IS", "NULL",
+      "TRUE", "FALSE"));
+
+  /**
+   * The selector expression being parsed.
+   */
+  private final String expression;
+
+  /**
+   * The mapper of identifiers to header names or null to use the identifiers
+   * as header names.
+   */
+  private final MessageSelector.IdentifierMapper mapper;
+
+  /**
+   * The tokens of the expression.
+   */
+  private final List<Token> tokens;
+
+  /**
+   * The index of the next token to consume.
+   */
+  private int index;
+
+  /**
+   * Constructs the parser and tokenizes the expression.
+   *
+   * @param expression the selector expression to parse
+   * @param mapper the mapper of identifiers to header names or null
+   */
+  public SelectorParser(String expression,
+      MessageSelector.IdentifierMapper mapper) {
+    this.expression = expression;
+    this.mapper = mapper;
+    this.tokens = tokenize();
+  }
+
+  /**
+   * Parses the entire expression.
+   *
+   * @return the root of the predicate tree
+   * @throws HazelcastMQException.InvalidSelectorException if the expression is
+   * invalid
+   */
+  public Expression parse() {
+    if (tokens.size() == 1) {
+      throw error("Empty selector", 0);
+    }
+
+    Expression root = asBoolean(parseOr(), 0);
+
+    if (peek().type != TokenType.END) {
+      throw error("Unexpected token", peek().position);
+    }
+
+    return root;
+  }
+
+  private Expression parseOr() {
+    int position = peek().position;
+    Expression left = parseAnd();
+    while (acceptKeyword("OR")) {
+      left = asBoolean(left, position);
+      position = peek().position;
+      left = new OrExpression((BooleanExpression) left, asBoolean(parseAnd(),
+          position));
+    }
+    return left;
+  }
+
+  private Expression parseAnd() {
+    int position = peek().position;
+    Expression left = parseNot();
+    while (acceptKeyword("AND")) {
+      left = asBoolean(left, position);
+      position = peek().position;
+      left = new AndExpression((BooleanExpression) left, asBoolean(parseNot(),
+          position));
+    }
+    return left;
+  }
+
+  private Expression parseNot() {
+    if (acceptKeyword("NOT")) {
+      int position = peek().position;
+      return new NotExpression(asBoolean(parseNot(), position));
+    }
+    return parsePredicate();
+  }
+
+  private Expression parsePredicate() {
+    Expression left = parseSum();
+
+    Token token = peek();
+    if (token.type == TokenType.OPERATOR && isComparison(token.text)) {
+      index++;
+      return new ComparisonExpression(token.text, left, parseSum());
+    }
+
+    if (acceptKeyword("IS")) {
+      boolean negate = acceptKeyword("NOT");
+      expectKeyword("NULL");
+      return new IsNullExpression(left, negate);
+    }
+
+    boolean negate = acceptKeyword("NOT");
+
+    if (acceptKeyword("BETWEEN")) {
+      Expression lower = parseSum();
+      expectKeyword("AND");
+      Expression upper = parseSum();
+      return negateIf(negate, new AndExpression(new ComparisonExpression(">=",
+          left, lower), new ComparisonExpression("<=", left, upper)));
+    }
+    else if (acceptKeyword("IN")) {
+      expectOperator("(");
+      Set<String> values = new HashSet<>();
+      do {
+        values.add(expectString());
+      }
+      while (acceptOperator(","));
+      expectOperator(")");
+      return negateIf(negate, new InExpression(left, values));
+    }
+    else if (acceptKeyword("LIKE")) {
+      String pattern = expectString();
+      Character escape = null;
+      if (acceptKeyword("ESCAPE")) {
+        int position = peek().position;
+        String escapeText = expectString();
+        if (escapeText.length() != 1) {
+          throw error("Escape must be a single character", position);
+        }
+        escape = escapeText.charAt(0);
+      }
+      return negateIf(negate, new LikeExpression(left, toRegex(pattern,
+          escape)));
+    }
+    else if (negate) {
+      throw error("Expected BETWEEN, IN, or LIKE", peek().position);
+    }
+
+    return left;
+  }
+
+  private Expression parseSum() {
+    Expression left = parseProduct();
+    while (peek().type == TokenType.OPERATOR && (peek().text.equals("+")
+        || peek().text.equals("-"))) {
+      String op = next().text;
+      left = new ArithmeticExpression(op.charAt(0), left, parseProduct());
+    }
+    return left;
+  }
+
+  private Expression parseProduct() {
+    Expression left = parseUnary();
+    while (peek().type == TokenType.OPERATOR && (peek().text.equals("*")
+        || peek().text.equals("/"))) {
+      String op = next().text;
+      left = new ArithmeticExpression(op.charAt(0), left, parseUnary());
+    }
+    return left;
+  }
+
+  private Expression parseUnary() {
+    if (acceptOperator("-")) {
+      Expression operand = parseUnary();
+      if (operand instanceof LiteralExpression) {
+        // Fold negative literals so Long.MIN_VALUE can be expressed.
+        Object value = ((LiteralExpression) operand).value;
+        if (value instanceof Long) {
+          return new LiteralExpression(-(Long) value);
+        }
+        else if (value instanceof Double) {
+          return new LiteralExpression(-(Double) value);
+        }
+      }
+      return new ArithmeticExpression('-', new LiteralExpression(0L),
+          operand);
+    }
+    else if (acceptOperator("+")) {
+      return parseUnary();
+    }
+    return parsePrimary();
+  }
+
+  private Expression parsePrimary() {
+    Token token = next();
+
+    switch (token.type) {
+      case STRING:
+        return new LiteralExpression(token.text);
+
+      case NUMBER:
+        return new LiteralExpression(parseNumber(token));
+
+      case IDENTIFIER:
+        String name = mapper == null ? token.text : mapper.toHeaderName(
+            token.text);
+        return new IdentifierExpression(name);
+
+      case KEYWORD:
+        if (token.text.equals("TRUE")) {
+          return new LiteralExpression(Boolean.TRUE);
+        }
+        else if (token.text.equals("FALSE")) {
+          return new LiteralExpression(Boolean.FALSE);
+        }
+        break;
+
+      case OPERATOR:
+        if (token.text.equals("(")) {
+          Expression expr = parseOr();
+          expectOperator(")");
+          return expr;
+        }
+        break;
+
+      default:
+        break;
+    }
+
+    throw error("Unexpected token", token.position);
+  }
+
+  /**
+   * Parses a numeric literal into a Long or Double.
+   *
+   * @param token the numeric token
+   *
+   * @return the number
+   */
+  private Object parseNumber(Token token) {
+    String text = token.text;
+    char last = Character.toUpperCase(text.charAt(text.length() - 1));
+
+    try {
+      if (last == 'L') {
+        return Long.parseLong(text.substring(0, text.length() - 1));
+      }
+      else if (last == 'F' || last == 'D' || text.contains(".") || text.
+          contains("e") || text.contains("E")) {
+        return Double.parseDouble(text);
+      }
+      else {
+        return Long.parseLong(text);
+      }
+    }
+    catch (NumberFormatException ex) {
+      throw error("Invalid number", token.position);
+    }
+  }
+
+  /**
+   * Converts a LIKE pattern into an equivalent regular expression.
+   *
+   * @param pattern the LIKE pattern
+   * @param escape the escape character or null
+   *
+   * @return the compiled regular expression
+   */
+  private static Pattern toRegex(String pattern, Character escape) {
+    StringBuilder regex = new StringBuilder(pattern.length() + 8);
+    StringBuilder literal = new StringBuilder();
+
+    for (int i = 0; i < pattern.length(); ++i) {
+      char c = pattern.charAt(i);
+
+      if (escape != null && c == escape && i + 1 < pattern.length()) {
+        literal.append(pattern.charAt(++i));
+      }
+      else if (c == '%' || c == '_') {
+        if (literal.length() > 0) {
+          regex.append(Pattern.quote(literal.toString()));
+          literal.setLength(0);
+        }
+        regex.append(c == '%' ? ".*" : ".");
+      }
+      else {
+        literal.append(c);
+      }
+    }
+
+    if (literal.length() > 0) {
+      regex.append(Pattern.quote(literal.toString()));
+    }
+
+    return Pattern.compile(regex.toString(), Pattern.DOTALL);
+  }
+
+  private static boolean isComparison(String op) {
+    return op.equals("=") || op.equals("<>") || op.equals("<") || op.equals(
+        "<=") || op.equals(">") || op.equals(">=");
+  }
+
+  /**
+   * Returns the expression as a conditional expression. A boolean identifier
+   * or literal is wrapped so its value is evaluated as a boolean while any
+   * other non-conditional expression is rejected.
+   *
+   * @param expr the expression to convert
+   * @param position the position of the expression in the selector
+   *
+   * @return the boolean expression
+   */
+  private BooleanExpression asBoolean(Expression expr, int position) {
+    if (expr instanceof BooleanExpression) {
+      return (BooleanExpression) expr;
+    }
+    else if (expr instanceof IdentifierExpression
+        || (expr instanceof LiteralExpression
+        && ((LiteralExpression) expr).value instanceof Boolean)) {
+      return new BooleanValueExpression(expr);
+    }
+    throw error("Expected a conditional expression", position);
+  }
+
+  private static BooleanExpression negateIf(boolean negate,
+      BooleanExpression expr) {
+    return negate ? new NotExpression(expr) : expr;
+  }
+
+  private Token peek() {
+    return tokens.get(index);
+  }
+
+  private Token next() {
+    Token token = tokens.get(index);
+    if (token.type != TokenType.END) {
+      index++;
+    }
+    return token;
+  }
+
+  private boolean acceptKeyword(String keyword) {
+    if (peek().type == TokenType.KEYWORD && peek().text.equals(keyword)) {
+      index++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expectKeyword(String keyword) {
+    if (!acceptKeyword(keyword)) {
+      throw error("Expected " + keyword, peek().position);
+    }
+  }
+
+  private boolean acceptOperator(String op) {
+    if (peek().type == TokenType.OPERATOR && peek().text.equals(op)) {
+      index++;
+      return true;
+    }
+    return false;
+  }
+
+  private void expectOperator(String op) {
+    if (!acceptOperator(op)) {
+      throw error("Expected '" + op + "'", peek().position);
+    }
+  }
+
+  private String expectString() {
+    Token token = next();
+    if (token.type != TokenType.STRING) {
+      throw error("Expected a string literal", token.position);
+    }
+    return token.text;
+  }
+
+  private HazelcastMQException.InvalidSelectorException error(String message,
+      int position) {
+    return new HazelcastMQException.InvalidSelectorException(format(
+        "%s at position [%d] in message selector [%s].", message, position,
+        expression));
+  }
+
+  /**
+   * Splits the expression into tokens. The last token is always an
+   * {@link TokenType#END} token.
+   *
+   * @return the list of tokens
+   */
+  private List<Token> tokenize() {
+    List<Token> result = new ArrayList<>();
+    int length = expression == null ? 0 : expression.length();
+    int pos = 0;
+
+    while (pos < length) {
+      char c = expression.charAt(pos);
+      int start = pos;
+
+      if (Character.isWhitespace(c)) {
+        pos++;
+      }
+      else if (c == '\'') {
+        StringBuilder sb = new StringBuilder();
+        pos++;
+        while (true) {
+          if (pos >= length) {
+            throw error("Unterminated string literal", start);
+          }
+          char sc = expression.charAt(pos++);
+          if (sc == '\'') {
+            if (pos < length && expression.charAt(pos) == '\'') {
+              sb.append('\'');
+              pos++;
+            }
+            else {
+              break;
+            }
+          }
+          else {
+            sb.append(sc);
+          }
+        }
+        result.add(new Token(TokenType.STRING, sb.toString(), start));
+      }
+      else if (Character.isDigit(c) || (c == '.' && pos + 1 < length
+          && Character.isDigit(expression.charAt(pos + 1)))) {
+        while (pos < length && (Character.isDigit(expression.charAt(pos))
+            || expression.charAt(pos) == '.')) {
+          pos++;
+        }
+        if (pos < length && Character.toUpperCase(expression.charAt(pos))
+            == 'E') {
+          pos++;
+          if (pos < length && (expression.charAt(pos) == '+' || expression.
+              charAt(pos) == '-')) {
+            pos++;
+          }
+          while (pos < length && Character.isDigit(expression.charAt(pos))) {
+            pos++;
+          }
+        }
+        if (pos < length && "LlFfDd".indexOf(expression.charAt(pos)) >= 0) {
+          pos++;
+        }
+        result.add(new Token(TokenType.NUMBER, expression.substring(start,
+            pos), start));
+      }
+      else if (Character.isJavaIdentifierStart(c)) {
+        while (pos < length && Character.isJavaIdentifierPart(expression.
+            charAt(pos))) {
+          pos++;
+        }
+        String word = expression.substring(start, pos);
+        String upper = word.toUpperCase(Locale.ENGLISH);
+        if (KEYWORDS.contains(upper)) {
+          result.add(new Token(TokenType.KEYWORD, upper, start));
+        }
+        else {
+          result.add(new Token(TokenType.IDENTIFIER, word, start));
+        }
+      }
+      else if (c == '<' || c == '>') {
+        pos++;
+        if (pos < length && (expression.charAt(pos) == '='
+            || (c == '<' && expression.charAt(pos) == '>'))) {
+          pos++;
+        }
+        result.add(new Token(TokenType.OPERATOR, expression.substring(start,
+            pos), start));
+      }
+      else if ("=+-*/(),".indexOf(c) >= 0) {
+        pos++;
+        result.add(new Token(TokenType.OPERATOR, String.valueOf(c), start));
+      }
+      else {
+        throw error(format("Unexpected character '%c'", c), start);
+      }
+    }
+
+    result.add(new Token(TokenType.END, "", length));
+    return result;
+  }
+
+  /**
+   * Converts the given value to a number if possible.
+   *
+   * @param value the value to convert
+   *
+   * @return a Long or Double or null if the value isn't numeric
+   */
+  private static Number toNumber(Object value) {
+    if (value instanceof Number) {
+      return (Number) value;
+    }
+    else if (value instanceof String) {
+      String text = ((String) value).trim();
+      try {
+        return Long.parseLong(text);
+      }
+      catch (NumberFormatException ex) {
+        try {
+          return Double.parseDouble(text);
+        }
+        catch (NumberFormatException ex2) {
+          return null;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Converts the given value to a boolean if possible.
+   *
+   * @param value the value to convert
+   *
+   * @return the boolean or null if the value isn't a boolean
+   */
+  private static Boolean toBoolean(Object value) {
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    else if (value instanceof String) {
+      String text = ((String) value).trim();
+      if (text.equalsIgnoreCase("true")) {
+        return Boolean.TRUE;
+      }
+      else if (text.equalsIgnoreCase("false")) {
+        return Boolean.FALSE;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The types of tokens in an expression.
+   */
+  private enum TokenType {
+
+    STRING,
+    NUMBER,
+    IDENTIFIER,
+    KEYWORD,
+    OPERATOR,
+    END
+  }
+
+  /**
+   * A single token in an expression.
+   */
+  private static class Token {
+
+    private final TokenType type;
+    private final String text;
+    private final int position;
+
+    public Token(TokenType type, String text, int position) {
+      this.type = type;
+      this.text = text;
+      this.position = position;
+    }
+  }
+
+  /**
+   * A node in the compiled predicate tree.
+   */
+  interface Expression {
+
+    /**
+     * Evaluates the expression against the given headers.
+     *
+     * @param headers the message headers
+     *
+     * @return the value of the expression which is a String, Long, Double,
+     * Boolean, or null if the value is unknown
+     */
+    Object evaluate(Headers headers);
+  }
+
+  /**
+   * A node that evaluates to a Boolean or null if unknown.
+   */
+  private interface BooleanExpression extends Expression {
+  }
+
+  private static class LiteralExpression implements Expression {
+
+    private final Object value;
+
+    public LiteralExpression(Object value) {
+      this.value = value;
+    }
+
+    @Override
+    public Object evaluate(Headers headers) {
+      return value;
+    }
+  }
+
+  private static class IdentifierExpression implements Expression {
+
+    private final String headerName;
+
+    public IdentifierExpression(String headerName) {
+      this.headerName = headerName;
+    }
+
+    @Override
+    public Object evaluate(Headers headers) {
+      return headers.get(headerName);
+    }
+  }
+
+  private static class BooleanValueExpression implements BooleanExpression {
+
+    private final Expression operand;
+
+    public BooleanValueExpression(Expression operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    public Object evaluate(Headers headers) {
+      return toBoolean(operand.evaluate(headers));
+    }
+  }
+
+  private static class AndExpression implements BooleanExpression {
+
+    private final BooleanExpression left;
+    private final BooleanExpression right;
+
+    public AndExpression(BooleanExpression left, BooleanExpression right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public Object evaluate(Headers headers) {
+      Object l = left.evaluate(headers);
+      if (Boolean.FALSE.equals(l)) {
+        return Boolean.FALSE;
+      }
+
+      Object r = right.evaluate(headers);
+      if (Boolean.FALSE.equals(r)) {
+        return Boolean.FALSE;
+      }
+
+      return l == null || r == null ? null : Boolean.TRUE;
+    }
+  }
+
+  private static class OrExpression implements BooleanExpression {
+
+    private final BooleanExpression left;
+    private final BooleanExpression right;
+
+    public OrExpression(BooleanExpression left, BooleanExpression right) {
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public Object evaluate(Headers headers) {
+      Object l = left.evaluate(headers);
+      if (Boolean.TRUE.equals(l)) {
+        return Boolean.TRUE;
+      }
+
+      Object r = right.evaluate(headers);
+      if (Boolean.TRUE.equals(r)) {
+        return Boolean.TRUE;
+      }
+
+      return l == null || r == null ? null : Boolean.FALSE;
+    }
+  }
+
+  private static class NotExpression implements BooleanExpression {
+
+    private final BooleanExpression operand;
+
+    public NotExpression(BooleanExpression operand) {
+      this.operand = operand;
+    }
+
+    @Override
+    public Object evaluate(Headers headers) {
+      Object value = operand.evaluate(headers);
+      return value == null ? null : !((Boolean) value);
+    }
+  }
+
+  private static class ComparisonExpression implements BooleanExpression {
+
+    private final String op;
+    private final Expression left;
+    private final Expression right;
+
+    public ComparisonExpression(String op, Expression left, Expression right) {
+      this.op = op;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public Object evaluate(Headers headers) {
+      Object l = left.evaluate(headers);
+      Object r = right.evaluate(headers);
+
+      if (l == null || r == null) {
+        return null;
+      }
+
+      int result;
+      if (l instanceof Boolean || r instanceof Boolean) {
+        Boolean lb = toBoolean(l);
+        Boolean rb = toBoolean(r);
+        if (lb == null || rb == null || !(op.equals("=") || op.equals("<>"))) {
+          return null;
+        }
+        result = lb.equals(rb) ? 0 : 1;
+      }
+      else if (l instanceof Number || r instanceof Number) {
+        Number ln = toNumber(l);
+        Number rn = toNumber(r);
+        if (ln == null || rn == null) {
+          return null;
+        }
+        result = compareNumbers(ln, rn);
+      }
+      else {
+        // Strings only support equality.
+        if (!(op.equals("=") || op.equals("<>"))) {
+          return null;
+        }
+        result = l.equals(r) ? 0 : 1;
+      }
+
+      switch (op) {
+        case "=":
+          return result == 0;
+        case "<>":
+          return result != 0;
+        case "<":
+          return result < 0;
+        case "<=":
+          return result <= 0;
+        case ">":
+          return result > 0;
+        default:
+          return result >= 0;
+      }
+    }
+
+    private static int compareNumbers(Number l, Number r) {
+      if (l instanceof Long && r instanceof Long) {
+        return Long.compare(l.longValue(), r.longValue());
+      }
+      return Double.compare(l.doubleValue(), r.doubleValue());
+    }
+  }
+
+  private static class ArithmeticExpression implements Expression {
+
+    private final char op;
+    private final Expression left;
+    private final Expression right;
+
+    public ArithmeticExpression(char op, Expression left, Expression right) {
+      this.op = op;
+      this.left = left;
+      this.right = right;
+    }
+
+    @Override
+    public Object evaluate(Headers headers) {
+      Number l = toNumber(left.evaluate(headers));
+      Number r = toNumber(right.evaluate(headers));
+
+      if (l == null || r == null) {
+        return null;
+      }
+
+      if (l instanceof Long && r instanceof Long) {
+        long lv = l.longValue();
+        long rv = r.longValue();
+        switch (op) {
+          case '+':
+            return lv + rv;
+          case '-':
+            return lv - rv;
+          case '*':
+            return lv * rv;
+          default:
+            return rv == 0 ? null : lv / rv;
+        }
+      }
+
+      double lv = l.doubleValue();
+      double rv = r.doubleValue();
+      switch (op) {
+        case '+':
+          return lv + rv;
+        case '-':
+          return lv - rv;
+        case '*':
+          return lv * rv;
+        default:
+          return lv / rv;
+      }
+    }
+  }
+
+  private static class IsNullExpression implements BooleanExpression {
+
+    private final Expression operand;
+    private final boolean negate;
+
+    public IsNullExpression(Expression operand, boolean negate) {
+      this.operand = operand;
+      this.negate = negate;
+    }
+
+    @Override
+    public Object evaluate(Headers headers) {
+      return (operand.evaluate(headers) == null) != negate;
+    }
+  }
+
+  private static class InExpression implements BooleanExpression {
+
+    private final Expression operand;
+    private final Set<String> values;
+
+    public InExpression(Expression operand, Set<String> values) {
+      this.operand = operand;
+      this.values = values;
+    }
+
+    @Override
+    public Object evaluate(Headers headers) {
+      Object value = operand.evaluate(headers);
+      return value instanceof String ? values.contains(value) : null;
+    }
+  }
+
+  private static class LikeExpression implements BooleanExpression {
+
+    private final Expression operand;
+    private final Pattern pattern;
+
+    public LikeExpression(Expression operand, Pattern pattern) {
+      this.operand = operand;
+      this.pattern = pattern;
+    }
+
+    @Override
+    public Object evaluate(Headers headers) {
+      Object value = operand.evaluate(headers);
+      return value instanceof String ? pattern.matcher((String) value).
+          matches() : null;
+    }
+  }
+}
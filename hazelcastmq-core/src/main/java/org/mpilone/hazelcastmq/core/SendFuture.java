@@ -0,0 +1,130 @@
+package org.mpilone.hazelcastmq.core;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import com.hazelcast.core.ExecutionCallback;
+import com.hazelcast.core.ICompletableFuture;
+
+/**
+ * <p>
+ * The future returned by an asynchronous send operation. The future completes
+ * when the message has been accepted by the destination or fails with the
+ * exception raised during the send.
+ * </p>
+ * <p>
+ * Callbacks registered with {@link #andThen(com.hazelcast.core.ExecutionCallback)}
+ * are executed on the given executor or the default executor if none is
+ * given. If the future is already complete when a callback is registered, the
+ * callback is immediately submitted for execution.
+ * </p>
+ *
+ * @author mpilone
+ */
+class SendFuture extends FutureTask<Void> implements ICompletableFuture<Void> {
+
+  /**
+   * The executor used for callbacks when no executor is specified.
+   */
+  private final Executor defaultExecutor;
+
+  /**
+   * The semaphore permit to release on completion or null if the send is not
+   * holding a permit.
+   */
+  private final Semaphore inFlightPermits;
+
+  /**
+   * The callbacks waiting for completion. Guarded by this.
+   */
+  private List<Map.Entry<ExecutionCallback<Void>, Executor>> callbacks;
+
+  /**
+   * Constructs the future which will execute the given send operation when
+   * run.
+   *
+   * @param sendTask the send operation
+   * @param defaultExecutor the executor used for callbacks when no executor is
+   * specified
+   * @param inFlightPermits the semaphore to release a permit to on completion
+   * or null
+   */
+  public SendFuture(Callable<Void> sendTask, Executor defaultExecutor,
+      Semaphore inFlightPermits) {
+    super(sendTask);
+
+    this.defaultExecutor = defaultExecutor;
+    this.inFlightPermits = inFlightPermits;
+    this.callbacks = new ArrayList<>(1);
+  }
+
+  @Override
+  public void andThen(ExecutionCallback<Void> callback) {
+    andThen(callback, defaultExecutor);
+  }
+
+  @Override
+  public void andThen(ExecutionCallback<Void> callback, Executor executor) {
+    synchronized (this) {
+      if (callbacks != null) {
+        callbacks.add(new AbstractMap.SimpleImmutableEntry<>(callback,
+            executor));
+        return;
+      }
+    }
+
+    notifyCallback(callback, executor);
+  }
+
+  /**
+   * Completes the future with the given exception without running the send
+   * operation.
+   *
+   * @param ex the exception that caused the send to fail
+   */
+  void fail(Throwable ex) {
+    setException(ex);
+  }
+
+  @Override
+  protected void done() {
+    if (inFlightPermits != null) {
+      inFlightPermits.release();
+    }
+
+    List<Map.Entry<ExecutionCallback<Void>, Executor>> pending;
+    synchronized (this) {
+      pending = callbacks;
+      callbacks = null;
+    }
+
+    for (Map.Entry<ExecutionCallback<Void>, Executor> entry : pending) {
+      notifyCallback(entry.getKey(), entry.getValue());
+    }
+  }
+
+  /**
+   * Submits the notification of the given callback to the executor. The
+   * future must be complete.
+   *
+   * @param callback the callback to notify
+   * @param executor the executor to notify the callback in
+   */
+  private void notifyCallback(final ExecutionCallback<Void> callback,
+      Executor executor) {
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          callback.onResponse(get());
+        }
+        catch (ExecutionException ex) {
+          callback.onFailure(ex.getCause());
+        }
+        catch (InterruptedException | CancellationException ex) {
+          callback.onFailure(ex);
+        }
+      }
+    });
+  }
+}
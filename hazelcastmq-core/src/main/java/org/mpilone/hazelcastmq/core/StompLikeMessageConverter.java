@@ -4,6 +4,7 @@ import static java.lang.String.format;
 import static org.mpilone.hazelcastmq.core.HazelcastMQConstants.UTF_8;
 
 import java.io.*;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
 
 /**
@@ -55,15 +56,14 @@ public class StompLikeMessageConverter implements MessageConverter {
     HazelcastMQMessage hzMessage = message;
     marshalHeaders(hzMessage.getHeaders(), outstream);
 
-    byte[] body = message.getBody();
-    if (body != null) {
+    if (message.getBodyBuffer() != null) {
       write(outstream, HEADER_CONTENT_LENGTH);
       outstream.write(':');
-      writeLine(outstream, String.valueOf(body.length));
+      writeLine(outstream, String.valueOf(message.getBodyLength()));
 
       // Blank line to start the body.
       outstream.write(NEWLINE);
-      outstream.write(body);
+      message.writeBody(new DataOutputStream(outstream));
     }
     else {
       outstream.write(NEWLINE);
@@ -158,9 +158,12 @@ public class StompLikeMessageConverter implements MessageConverter {
       }
     }
 
-    // Read the body bytes.
-    byte[] body = new byte[contentLength];
-    byteBuf.get(body);
+    // Slice the body bytes rather than copying them. The buffers are cast to
+    // Buffer so the covariant overrides added in JDK 9 aren't linked, which
+    // would fail on a Java 7 or 8 runtime.
+    ByteBuffer body = byteBuf.slice();
+    ((Buffer) body).limit(contentLength);
+    ((Buffer) byteBuf).position(byteBuf.position() + contentLength);
 
     // The last character should be the null character.
     int b = byteBuf.get();
@@ -177,7 +180,7 @@ public class StompLikeMessageConverter implements MessageConverter {
 
   private String readLine(ByteBuffer byteBuf) {
 
-    byteBuf.mark();
+    ((Buffer) byteBuf).mark();
 
     int length = 0;
     boolean found = false;
@@ -188,13 +191,13 @@ public class StompLikeMessageConverter implements MessageConverter {
 
     String line;
     if (found) {
-      byteBuf.reset();
-      byteBuf.limit(byteBuf.position() + length - 1);
+      ((Buffer) byteBuf).reset();
+      ((Buffer) byteBuf).limit(byteBuf.position() + length - 1);
       line = UTF_8.decode(byteBuf.slice()).toString();
 
       // Restore the limit and skip past the newline character.
-      byteBuf.limit(byteBuf.capacity());
-      byteBuf.position(byteBuf.position() + length);
+      ((Buffer) byteBuf).limit(byteBuf.capacity());
+      ((Buffer) byteBuf).position(byteBuf.position() + length);
     }
     else {
       line = "";
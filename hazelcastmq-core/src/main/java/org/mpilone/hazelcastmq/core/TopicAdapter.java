@@ -0,0 +1,33 @@
+package org.mpilone.hazelcastmq.core;
+
+import com.hazelcast.core.ITopic;
+
+/**
+ * The narrow set of topic operations used internally by HazelcastMQ to write
+ * to a topic. Hazelcast doesn't support transactional topics so an adapter
+ * implementation exists for direct publishing to an {@link ITopic} and for
+ * transactional publishing through a relay queue.
+ *
+ * @author mpilone
+ */
+interface TopicAdapter {
+
+  /**
+   * Returns the name of the underlying Hazelcast topic.
+   *
+   * @return the topic name
+   */
+  String getName();
+
+  /**
+   * Publishes the item to the topic.
+   *
+   * @param item the item to publish
+   */
+  void publish(Object item);
+
+  /**
+   * Destroys the underlying Hazelcast topic.
+   */
+  void destroy();
+}
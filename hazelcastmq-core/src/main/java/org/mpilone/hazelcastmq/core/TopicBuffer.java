@@ -0,0 +1,299 @@
+package org.mpilone.hazelcastmq.core;
+
+import static java.lang.String.format;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.hazelcast.core.IQueue;
+import com.hazelcast.logging.ILogger;
+import com.hazelcast.logging.Logger;
+
+/**
+ * <p>
+ * The in-memory buffer of messages received by a topic consumer. Messages are
+ * added by the Hazelcast topic listener thread and removed by the consumer.
+ * When the buffer is full, the configured
+ * {@link HazelcastMQConfig.TopicOverflowPolicy} determines what happens to the
+ * message.
+ * </p>
+ * <p>
+ * When spilling, messages that don't fit in memory are written to a Hazelcast
+ * queue owned by the buffer. Once a message has been spilled, all following
+ * messages are also spilled until the spill queue is drained so that message
+ * order is maintained. The spill queue is destroyed when the buffer is
+ * closed. If the member dies before the buffer is closed, the spill queue is
+ * orphaned in the cluster and must be destroyed manually.
+ * </p>
+ *
+ * @author mpilone
+ */
+class TopicBuffer implements TopicBufferStats {
+
+  /**
+   * The log for this class.
+   */
+  private final static ILogger log = Logger.getLogger(TopicBuffer.class);
+
+  /**
+   * The name of the topic being buffered, used for logging.
+   */
+  private final String topicName;
+
+  /**
+   * The in-memory buffer.
+   */
+  private final ArrayBlockingQueue<Object> buffer;
+
+  /**
+   * The overflow policy applied when the in-memory buffer is full.
+   */
+  private final HazelcastMQConfig.TopicOverflowPolicy overflowPolicy;
+
+  /**
+   * The maximum time in milliseconds to block when using the
+   * {@link HazelcastMQConfig.TopicOverflowPolicy#BLOCK} policy.
+   */
+  private final long blockTimeout;
+
+  /**
+   * The Hazelcast queue that messages are spilled to or null if the policy is
+   * not {@link HazelcastMQConfig.TopicOverflowPolicy#SPILL}.
+   */
+  private final IQueue<Object> spillQueue;
+
+  /**
+   * The number of messages in the spill queue. The buffer is the only reader
+   * and writer of the spill queue so the count can be tracked locally rather
+   * than asking the cluster.
+   */
+  private final AtomicInteger spilledCount;
+
+  /**
+   * The total number of dropped messages.
+   */
+  private final AtomicLong droppedCount;
+
+  /**
+   * The total number of messages filtered before being buffered.
+   */
+  private final AtomicLong filteredCount;
+
+  /**
+   * The largest number of messages buffered at one time.
+   */
+  private final AtomicInteger highWaterMark;
+
+  /**
+   * The flag which indicates if messages are currently being dropped. Used to
+   * log a single warning when dropping starts rather than one per message.
+   */
+  private volatile boolean dropping;
+
+  /**
+   * Constructs the buffer.
+   *
+   * @param topicName the name of the topic being buffered
+   * @param capacity the capacity of the in-memory buffer
+   * @param overflowPolicy the overflow policy
+   * @param blockTimeout the maximum time in milliseconds to block when using
+   * the {@link HazelcastMQConfig.TopicOverflowPolicy#BLOCK} policy
+   * @param spillQueue the Hazelcast queue to spill to when using the
+   * {@link HazelcastMQConfig.TopicOverflowPolicy#SPILL} policy, otherwise null
+   */
+  public TopicBuffer(String topicName, int capacity,
+      HazelcastMQConfig.TopicOverflowPolicy overflowPolicy, long blockTimeout,
+      IQueue<Object> spillQueue) {
+    this.topicName = topicName;
+    this.buffer = new ArrayBlockingQueue<>(capacity);
+    this.overflowPolicy = overflowPolicy;
+    this.blockTimeout = blockTimeout;
+    this.spillQueue = spillQueue;
+    this.spilledCount = new AtomicInteger();
+    this.droppedCount = new AtomicLong();
+    this.filteredCount = new AtomicLong();
+    this.highWaterMark = new AtomicInteger();
+  }
+
+  /**
+   * Adds a message to the buffer, applying the overflow policy if the buffer
+   * is full.
+   *
+   * @param msgData the raw message data
+   *
+   * @return true if the message was buffered, false if it was dropped
+   */
+  public boolean offer(Object msgData) {
+    boolean buffered;
+    boolean evicted = false;
+
+    switch (overflowPolicy) {
+      case DROP_OLDEST:
+        while (!buffer.offer(msgData)) {
+          if (buffer.poll() != null) {
+            evicted = true;
+            onDropped();
+          }
+        }
+        buffered = true;
+        break;
+
+      case BLOCK:
+        try {
+          buffered = buffer.offer(msgData, blockTimeout, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ex) {
+          // Restore the interrupt for the event thread and drop the message.
+          Thread.currentThread().interrupt();
+          buffered = false;
+        }
+        break;
+
+      case SPILL:
+        // Once we start spilling we must keep spilling until the spill queue
+        // is drained or messages would be delivered out of order.
+        if (spilledCount.get() == 0 && buffer.offer(msgData)) {
+          buffered = true;
+        }
+        else {
+          buffered = spillQueue.offer(msgData);
+          if (buffered) {
+            spilledCount.incrementAndGet();
+          }
+        }
+        break;
+
+      default:
+        buffered = buffer.offer(msgData);
+        break;
+    }
+
+    if (buffered) {
+      dropping = evicted;
+      updateHighWaterMark();
+    }
+    else {
+      onDropped();
+    }
+
+    return buffered;
+  }
+
+  /**
+   * Records a message that was filtered by the consumer rather than offered to
+   * the buffer.
+   */
+  public void onFiltered() {
+    filteredCount.incrementAndGet();
+  }
+
+  /**
+   * Removes the oldest message from the buffer.
+   *
+   * @return the raw message data or null if the buffer is empty
+   */
+  public Object poll() {
+    Object msgData = buffer.poll();
+
+    if (msgData == null && spilledCount.get() > 0) {
+      msgData = spillQueue.poll();
+      if (msgData != null) {
+        spilledCount.decrementAndGet();
+      }
+    }
+
+    return msgData;
+  }
+
+  /**
+   * Removes up to the given number of messages from the buffer, oldest first.
+   *
+   * @param data the collection to add the raw message data to
+   * @param max the maximum number of messages to remove
+   *
+   * @return the number of messages removed
+   */
+  public int drainTo(Collection<Object> data, int max) {
+    int count = buffer.drainTo(data, max);
+
+    Object msgData;
+    while (count < max && spilledCount.get() > 0
+        && (msgData = spillQueue.poll()) != null) {
+      spilledCount.decrementAndGet();
+      data.add(msgData);
+      count++;
+    }
+
+    return count;
+  }
+
+  /**
+   * Clears the buffer and destroys the spill queue if there is one.
+   */
+  public void close() {
+    buffer.clear();
+
+    if (spillQueue != null) {
+      spillQueue.destroy();
+      spilledCount.set(0);
+    }
+  }
+
+  @Override
+  public int getBufferedCount() {
+    return buffer.size() + spilledCount.get();
+  }
+
+  @Override
+  public int getSpilledCount() {
+    return spilledCount.get();
+  }
+
+  @Override
+  public long getDroppedCount() {
+    return droppedCount.get();
+  }
+
+  @Override
+  public long getFilteredCount() {
+    return filteredCount.get();
+  }
+
+  @Override
+  public int getHighWaterMark() {
+    return highWaterMark.get();
+  }
+
+  /**
+   * Records a dropped message and logs a warning if this is the first drop
+   * since a message was last buffered.
+   */
+  private void onDropped() {
+    droppedCount.incrementAndGet();
+
+    if (!dropping) {
+      dropping = true;
+      log.warning(format("In-memory message buffer full for topic [%s]. "
+          + "Messages will be lost. Consider increasing the speed of "
+          + "the consumer or the message buffer.", topicName));
+    }
+  }
+
+  /**
+   * Updates the high-water mark with the current buffered count if it is
+   * larger.
+   */
+  private void updateHighWaterMark() {
+    int count = getBufferedCount();
+    int mark;
+
+    while (count > (mark = highWaterMark.get())) {
+      if (highWaterMark.compareAndSet(mark, count)) {
+        break;
+      }
+    }
+  }
+}
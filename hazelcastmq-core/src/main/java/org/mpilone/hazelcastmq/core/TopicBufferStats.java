@@ -0,0 +1,54 @@
+package org.mpilone.hazelcastmq.core;
+
+/**
+ * Statistics about the buffer of a topic consumer. Topic messages are buffered
+ * in memory, up to {@link HazelcastMQConfig#getTopicMaxMessageCount()}, until
+ * they are consumed. The statistics can be used to size the buffer and to
+ * select an appropriate
+ * {@link HazelcastMQConfig.TopicOverflowPolicy overflow policy}.
+ *
+ * @author mpilone
+ */
+public interface TopicBufferStats {
+
+  /**
+   * Returns the number of messages currently buffered, including any messages
+   * spilled to a Hazelcast queue.
+   *
+   * @return the number of buffered messages
+   */
+  int getBufferedCount();
+
+  /**
+   * Returns the number of messages currently spilled to a Hazelcast queue.
+   * This value will always be 0 unless the
+   * {@link HazelcastMQConfig.TopicOverflowPolicy#SPILL} policy is used.
+   *
+   * @return the number of spilled messages
+   */
+  int getSpilledCount();
+
+  /**
+   * Returns the total number of messages dropped because the buffer was full.
+   *
+   * @return the number of dropped messages
+   */
+  long getDroppedCount();
+
+  /**
+   * Returns the total number of messages discarded because they didn't match
+   * the consumer's {@link MessageSelector}. Filtered messages are never
+   * buffered.
+   *
+   * @return the number of filtered messages
+   */
+  long getFilteredCount();
+
+  /**
+   * Returns the largest number of messages that have been buffered at one
+   * time, including any messages spilled to a Hazelcast queue.
+   *
+   * @return the buffer high-water mark
+   */
+  int getHighWaterMark();
+}
@@ -0,0 +1,73 @@
+package org.mpilone.hazelcastmq.core;
+
+import java.util.Collection;
+
+import com.hazelcast.core.TransactionalQueue;
+
+/**
+ * A {@link QueueAdapter} for a Hazelcast {@link TransactionalQueue}.
+ * Transactional queues have no bulk operations so drains are performed with
+ * repeated polls and bulk writes are not supported.
+ *
+ * @author mpilone
+ */
+class TransactionalQueueAdapter implements QueueAdapter {
+
+  /**
+   * The queue being adapted.
+   */
+  private final TransactionalQueue<Object> queue;
+
+  /**
+   * Constructs the adapter.
+   *
+   * @param queue the queue to adapt
+   */
+  public TransactionalQueueAdapter(TransactionalQueue<Object> queue) {
+    this.queue = queue;
+  }
+
+  @Override
+  public String getName() {
+    return queue.getName();
+  }
+
+  @Override
+  public boolean offer(Object item) {
+    return queue.offer(item);
+  }
+
+  @Override
+  public Object poll() {
+    return queue.poll();
+  }
+
+  @Override
+  public int drainTo(Collection<Object> items, int max) {
+    int count = 0;
+
+    Object item;
+    while (count < max && (item = queue.poll()) != null) {
+      items.add(item);
+      count++;
+    }
+
+    return count;
+  }
+
+  @Override
+  public boolean addAll(Collection<Object> items) {
+    throw new UnsupportedOperationException(
+        "Transactional queues do not support bulk writes.");
+  }
+
+  @Override
+  public int remainingCapacity() {
+    return 0;
+  }
+
+  @Override
+  public void destroy() {
+    queue.destroy();
+  }
+}
@@ -0,0 +1,59 @@
+package org.mpilone.hazelcastmq.core;
+
+import static java.lang.String.format;
+
+import com.hazelcast.core.ITopic;
+import com.hazelcast.core.TransactionalQueue;
+
+/**
+ * A {@link TopicAdapter} that simulates a transactional topic. Hazelcast
+ * doesn't support transactional topics so published items are offered to a
+ * transactional relay queue and relayed to the actual topic once the
+ * transaction commits. All other operations are applied to the actual topic.
+ *
+ * @author mpilone
+ */
+class TransactionalTopicAdapter implements TopicAdapter {
+
+  /**
+   * The transactional relay queue that published items are offered to.
+   */
+  private final TransactionalQueue<Object> relayQueue;
+
+  /**
+   * The actual topic.
+   */
+  private final ITopic<Object> topic;
+
+  /**
+   * Constructs the adapter.
+   *
+   * @param relayQueue the transactional relay queue that published items are
+   * offered to
+   * @param topic the actual topic
+   */
+  public TransactionalTopicAdapter(TransactionalQueue<Object> relayQueue,
+      ITopic<Object> topic) {
+    this.relayQueue = relayQueue;
+    this.topic = topic;
+  }
+
+  @Override
+  public String getName() {
+    return topic.getName();
+  }
+
+  @Override
+  public void publish(Object item) {
+    if (!relayQueue.offer(item)) {
+      throw new HazelcastMQException(format(
+          "Failed to publish to topic [%s]. Relay queue is full.", topic.
+          getName()));
+    }
+  }
+
+  @Override
+  public void destroy() {
+    topic.destroy();
+  }
+}
@@ -0,0 +1,157 @@
+package org.mpilone.hazelcastmq.core;
+
+import static org.junit.Assert.*;
+import static org.mpilone.hazelcastmq.core.HazelcastMQConstants.UTF_8;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Test case for the {@link BinaryMessageConverter}.
+ *
+ * @author mpilone
+ */
+public class BinaryMessageConverterTestCase {
+
+  private final BinaryMessageConverter converter =
+      new BinaryMessageConverter();
+
+  /**
+   * Tests that standard and literal header names and non-ASCII values survive
+   * a round trip.
+   */
+  @Test
+  public void testRoundTrip_Headers() {
+    HazelcastMQMessage msg = new HazelcastMQMessage();
+    msg.setDestination("/queue/café");
+    msg.setContentType("text/plain; charset=UTF-8");
+    msg.setId("id-1");
+    msg.getHeaders().put("x-custom", "plain");
+    msg.getHeaders().put("größe", "日本語");
+    msg.getHeaders().put("emoji", "smile 😀 and 🎉");
+    msg.getHeaders().put("empty", "");
+    msg.getHeaders().put("null-value", null);
+
+    HazelcastMQMessage result = roundTrip(msg);
+
+    assertEquals(msg.getHeaders().getHeaderMap(), result.getHeaders().
+        getHeaderMap());
+  }
+
+  /**
+   * Tests that single headers can be read before the headers are decoded and
+   * that the headers can still be modified afterwards.
+   */
+  @Test
+  public void testGet_Lazy() {
+    HazelcastMQMessage msg = new HazelcastMQMessage();
+    msg.setDestination("/queue/foo");
+    msg.getHeaders().put(Headers.EXPIRATION, "12345");
+    msg.getHeaders().put("x-custom", "😀");
+    msg.getHeaders().put("x-custom-2", "value 2");
+    msg.getHeaders().put("null-value", null);
+
+    HazelcastMQMessage result = roundTrip(msg);
+    Headers headers = result.getHeaders();
+
+    assertEquals(12345, result.getExpiration());
+    assertEquals("/queue/foo", headers.get(Headers.DESTINATION));
+    assertEquals("😀", headers.get("x-custom"));
+    assertEquals("value 2", headers.get("x-custom-2"));
+    assertNull(headers.get("null-value"));
+    assertNull(headers.get("x-custom-3"));
+    assertNull(headers.get(Headers.REPLY_TO));
+
+    headers.put("x-custom-3", "value 3");
+    headers.remove("x-custom");
+    assertEquals("value 3", headers.get("x-custom-3"));
+    assertNull(headers.get("x-custom"));
+    assertEquals("/queue/foo", headers.get(Headers.DESTINATION));
+    assertEquals(5, headers.getHeaderNames().size());
+  }
+
+  /**
+   * Tests that unpaired surrogates are replaced the same way as
+   * {@link String#getBytes(java.nio.charset.Charset)}.
+   */
+  @Test
+  public void testRoundTrip_UnpairedSurrogate() {
+    String value = "a\uD800b\uDC00c";
+
+    HazelcastMQMessage msg = new HazelcastMQMessage();
+    msg.getHeaders().put("x-custom", value);
+
+    HazelcastMQMessage result = roundTrip(msg);
+
+    assertEquals(new String(value.getBytes(UTF_8), UTF_8), result.
+        getHeaders().get("x-custom"));
+  }
+
+  /**
+   * Tests that null, empty, and non-ASCII bodies survive a round trip.
+   */
+  @Test
+  public void testRoundTrip_Body() {
+    HazelcastMQMessage msg = new HazelcastMQMessage();
+    assertNull(roundTrip(msg).getBody());
+
+    msg.setBody(new byte[0]);
+    HazelcastMQMessage result = roundTrip(msg);
+    assertNotNull(result.getBody());
+    assertEquals(0, result.getBodyLength());
+
+    String body = "héllo 世界 😀";
+    msg.setBody(body);
+    assertEquals(body, roundTrip(msg).getBodyAsString());
+  }
+
+  /**
+   * Tests that many headers and large values, which need multi-byte lengths,
+   * survive a round trip.
+   */
+  @Test
+  public void testRoundTrip_Large() {
+    char[] chars = new char[20000];
+    Arrays.fill(chars, 'é');
+    String largeValue = new String(chars);
+
+    HazelcastMQMessage msg = new HazelcastMQMessage();
+    for (int i = 0; i < 200; ++i) {
+      msg.getHeaders().put("header-" + i, "value-" + i);
+    }
+    msg.getHeaders().put("large", largeValue);
+    byte[] body = new byte[70000];
+    for (int i = 0; i < body.length; ++i) {
+      body[i] = (byte) i;
+    }
+    msg.setBody(body);
+
+    HazelcastMQMessage result = roundTrip(msg);
+
+    assertEquals("value-199", result.getHeaders().get("header-199"));
+    assertEquals(largeValue, result.getHeaders().get("large"));
+    assertEquals(msg.getHeaders().getHeaderMap(), result.getHeaders().
+        getHeaderMap());
+    assertArrayEquals(body, result.getBody());
+  }
+
+  /**
+   * Tests that data not written by the converter is rejected.
+   */
+  @Test(expected = HazelcastMQException.class)
+  public void testToMessage_Invalid() {
+    converter.toMessage(new byte[]{1, 2, 3});
+  }
+
+  /**
+   * Converts the given message to data and back.
+   *
+   * @param msg the message to convert
+   *
+   * @return the converted message
+   */
+  private HazelcastMQMessage roundTrip(HazelcastMQMessage msg) {
+    return converter.toMessage(converter.fromMessage(msg));
+  }
+}
@@ -0,0 +1,207 @@
+package org.mpilone.hazelcastmq.core;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+
+import org.junit.*;
+
+import com.hazelcast.core.HazelcastInstance;
+
+/**
+ * Test case for the {@link CompressingMessageConverter} and its use by
+ * producers and consumers.
+ *
+ * @author mpilone
+ */
+public class CompressingMessageConverterTestCase {
+
+  private static final String BODY =
+      "This is a compressible body. This is a compressible body.";
+
+  private static HazelcastInstance hzInstance;
+
+  private HazelcastMQInstance mqInstance;
+
+  @BeforeClass
+  public static void startHazelcast() {
+    hzInstance = HazelcastTestSupport.newHazelcastInstance();
+  }
+
+  @AfterClass
+  public static void stopHazelcast() {
+    hzInstance.shutdown();
+  }
+
+  @Before
+  public void startHazelcastMQ() {
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    config.setCompressionCodec(new DeflateCompressionCodec());
+    config.setCompressionThreshold(10);
+
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+  }
+
+  @After
+  public void stopHazelcastMQ() {
+    mqInstance.shutdown();
+  }
+
+  /**
+   * Tests that a body above the threshold is compressed and restored by the
+   * converter.
+   */
+  @Test
+  public void testConvert() {
+    CompressingMessageConverter converter = new CompressingMessageConverter(
+        new NoOpMessageConverter(), new DeflateCompressionCodec(), 10, 1024);
+
+    HazelcastMQMessage msg = new HazelcastMQMessage();
+    msg.setBody(BODY);
+
+    HazelcastMQMessage compressed = (HazelcastMQMessage) converter.fromMessage(
+        msg);
+    assertEquals("deflate", compressed.getHeaders().get(Headers.COMPRESSION));
+    assertEquals(String.valueOf(BODY.length()), compressed.getHeaders().get(
+        Headers.COMPRESSION_LENGTH));
+    assertTrue(compressed.getBodyLength() < BODY.length());
+
+    // The original message isn't modified.
+    assertNull(msg.getHeaders().get(Headers.COMPRESSION));
+    assertEquals(BODY, msg.getBodyAsString());
+
+    HazelcastMQMessage actual = converter.toMessage(compressed);
+    assertNull(actual.getHeaders().get(Headers.COMPRESSION));
+    assertNull(actual.getHeaders().get(Headers.COMPRESSION_LENGTH));
+    assertEquals(BODY, actual.getBodyAsString());
+  }
+
+  /**
+   * Tests that a body that decompresses to more bytes than its recorded
+   * length is rejected rather than decompressed.
+   */
+  @Test(expected = HazelcastMQException.class)
+  public void testConvert_ExpandsPastLength() {
+    HazelcastMQMessage compressed = newBomb(1024 * 1024);
+    compressed.getHeaders().put(Headers.COMPRESSION_LENGTH, "100");
+
+    newLimitedConverter().toMessage(compressed);
+  }
+
+  /**
+   * Tests that a body with a recorded length over the maximum is rejected
+   * before it is decompressed.
+   */
+  @Test(expected = HazelcastMQException.class)
+  public void testConvert_OverMaximum() {
+    HazelcastMQMessage compressed = newBomb(1024 * 1024);
+    compressed.getHeaders().put(Headers.COMPRESSION_LENGTH, String.valueOf(
+        1024 * 1024));
+
+    newLimitedConverter().toMessage(compressed);
+  }
+
+  /**
+   * Tests that a compressed body without a recorded length is rejected.
+   */
+  @Test(expected = HazelcastMQException.class)
+  public void testConvert_MissingLength() {
+    newLimitedConverter().toMessage(newBomb(100));
+  }
+
+  /**
+   * Tests that a body that decompresses to fewer bytes than its recorded
+   * length is rejected.
+   */
+  @Test(expected = HazelcastMQException.class)
+  public void testConvert_Truncated() {
+    HazelcastMQMessage compressed = newBomb(100);
+    compressed.getHeaders().put(Headers.COMPRESSION_LENGTH, "200");
+
+    newLimitedConverter().toMessage(compressed);
+  }
+
+  /**
+   * Creates a converter that doesn't compress and limits decompressed bodies
+   * to 64 KiB.
+   *
+   * @return the new converter
+   */
+  private static CompressingMessageConverter newLimitedConverter() {
+    return new CompressingMessageConverter(new NoOpMessageConverter(),
+        new DeflateCompressionCodec(), Integer.MAX_VALUE, 64 * 1024);
+  }
+
+  /**
+   * Creates a message marked as compressed with a body of the given number
+   * of compressed zeros and no recorded length.
+   *
+   * @param length the decompressed length of the body
+   *
+   * @return the new message
+   */
+  private static HazelcastMQMessage newBomb(int length) {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (DeflaterOutputStream deflater = new DeflaterOutputStream(out)) {
+      deflater.write(new byte[length]);
+    }
+    catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+
+    HazelcastMQMessage msg = new HazelcastMQMessage();
+    msg.getHeaders().put(Headers.COMPRESSION, DeflateCompressionCodec.NAME);
+    msg.setBody(out.toByteArray());
+    return msg;
+  }
+
+  /**
+   * Tests that a compressed message received from a queue with the default
+   * no-op converter is decompressed.
+   */
+  @Test
+  public void testReceive_Queue() {
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      HazelcastMQConsumer consumer = context.createConsumer(
+          "/queue/compress.test");
+
+      context.createProducer().send("/queue/compress.test", BODY);
+
+      HazelcastMQMessage msg = consumer.receive(2, TimeUnit.SECONDS);
+      assertNotNull(msg);
+      assertNull(msg.getHeaders().get(Headers.COMPRESSION));
+      assertEquals(BODY, msg.getBodyAsString());
+    }
+  }
+
+  /**
+   * Tests that a compressed message received from a topic by a consumer with a
+   * selector is decompressed.
+   */
+  @Test
+  public void testReceive_TopicWithSelector() {
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      HazelcastMQConsumer consumer = context.createConsumer(
+          "/topic/compress.test", "color = 'red'");
+
+      HazelcastMQMessage msg = new HazelcastMQMessage();
+      msg.getHeaders().put("color", "blue");
+      msg.setBody("blue " + BODY);
+      context.createProducer().send("/topic/compress.test", msg);
+
+      msg = new HazelcastMQMessage();
+      msg.getHeaders().put("color", "red");
+      msg.setBody(BODY);
+      context.createProducer().send("/topic/compress.test", msg);
+
+      msg = consumer.receive(2, TimeUnit.SECONDS);
+      assertNotNull(msg);
+      assertEquals("red", msg.getHeaders().get("color"));
+      assertNull(msg.getHeaders().get(Headers.COMPRESSION));
+      assertEquals(BODY, msg.getBodyAsString());
+      assertNull(consumer.receiveNoWait());
+    }
+  }
+}
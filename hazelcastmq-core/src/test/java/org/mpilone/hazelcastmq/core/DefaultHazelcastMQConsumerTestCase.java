@@ -0,0 +1,316 @@
+package org.mpilone.hazelcastmq.core;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.*;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IQueue;
+
+/**
+ * Test case for the {@link DefaultHazelcastMQConsumer}.
+ *
+ * @author mpilone
+ */
+public class DefaultHazelcastMQConsumerTestCase {
+
+  private static HazelcastInstance hzInstance;
+
+  private HazelcastMQInstance mqInstance;
+
+  @BeforeClass
+  public static void startHazelcast() {
+    hzInstance = HazelcastTestSupport.newHazelcastInstance();
+  }
+
+  @AfterClass
+  public static void stopHazelcast() {
+    hzInstance.shutdown();
+  }
+
+  @After
+  public void stopHazelcastMQ() {
+    if (mqInstance != null) {
+      mqInstance.shutdown();
+    }
+  }
+
+  /**
+   * Tests that a consumer with a selector only receives matching messages
+   * from a queue and leaves the others in place.
+   */
+  @Test
+  public void testReceive_QueueSelector() {
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(new HazelcastMQConfig(
+        hzInstance));
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/selector.test";
+      HazelcastMQConsumer consumer = context.createConsumer(destination,
+          "color = 'red'");
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      producer.send(newMessage("blue", "blue 1"));
+      producer.send(newMessage("red", "red 1"));
+      producer.send(newMessage("blue", "blue 2"));
+
+      HazelcastMQMessage msg = consumer.receive(2, TimeUnit.SECONDS);
+      assertNotNull(msg);
+      assertEquals("red 1", msg.getBodyAsString());
+      assertNull(consumer.receiveNoWait());
+
+      HazelcastMQConsumer allConsumer = context.createConsumer(destination);
+      assertEquals("blue 1", allConsumer.receiveNoWait().getBodyAsString());
+      assertEquals("blue 2", allConsumer.receiveNoWait().getBodyAsString());
+    }
+  }
+
+  /**
+   * Tests that a consumer with a selector receives matching messages that
+   * were on the queue before it was created, behind non-matching messages and
+   * beyond the index capacity.
+   */
+  @Test
+  public void testReceive_QueueSelectorIndexCapacity() {
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    config.setSelectorIndexCapacity(2);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/selector.capacity.test";
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      for (int i = 0; i < 50; ++i) {
+        producer.send(newMessage("blue", "blue " + i));
+      }
+      for (int i = 0; i < 5; ++i) {
+        producer.send(newMessage("red", "red " + i));
+      }
+
+      HazelcastMQConsumer consumer = context.createConsumer(destination,
+          "color = 'red'");
+
+      // Matches that arrive while the index is full are found by a rescan.
+      producer.send(newMessage("red", "red 5"));
+
+      for (int i = 0; i < 6; ++i) {
+        HazelcastMQMessage msg = consumer.receiveNoWait();
+        assertNotNull(msg);
+        assertEquals("red " + i, msg.getBodyAsString());
+      }
+      assertNull(consumer.receiveNoWait());
+      assertEquals(50, hzInstance.getQueue("selector.capacity.test").size());
+    }
+  }
+
+  /**
+   * Tests that a consumer with a selector and a message listener is only
+   * dispatched matching messages and that messages taken by another consumer
+   * are skipped.
+   */
+  @Test
+  public void testReceive_QueueSelectorListener() throws InterruptedException {
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(new HazelcastMQConfig(
+        hzInstance));
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/selector.listener.test";
+      HazelcastMQConsumer allConsumer = context.createConsumer(destination);
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      producer.send(newMessage("red", "red 0"));
+
+      // The consumer indexes the first red message but it is taken first.
+      HazelcastMQConsumer consumer = context.createConsumer(destination,
+          "color = 'red'");
+      assertEquals("red 0", allConsumer.receiveNoWait().getBodyAsString());
+
+      final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+      consumer.setMessageListener(new HazelcastMQMessageListener() {
+        @Override
+        public void onMessage(HazelcastMQMessage msg) {
+          received.add(msg.getBodyAsString());
+        }
+      });
+
+      for (int i = 1; i <= 3; ++i) {
+        producer.send(newMessage("blue", "blue " + i));
+        producer.send(newMessage("red", "red " + i));
+      }
+
+      for (int i = 1; i <= 3; ++i) {
+        assertEquals("red " + i, received.poll(2, TimeUnit.SECONDS));
+      }
+      assertNull(received.poll(200, TimeUnit.MILLISECONDS));
+      assertEquals(3, hzInstance.getQueue("selector.listener.test").size());
+    }
+  }
+
+  /**
+   * Tests that a compressed message selected from a queue is decompressed
+   * once it is received.
+   */
+  @Test
+  public void testReceive_QueueSelectorCompressed() {
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    config.setCompressionCodec(new DeflateCompressionCodec());
+    config.setCompressionThreshold(10);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    String body = "This is a compressible body. This is a compressible body.";
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/selector.compress.test";
+      HazelcastMQConsumer consumer = context.createConsumer(destination,
+          "color = 'red'");
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      producer.send(newMessage("blue", "blue " + body));
+      producer.send(newMessage("red", body));
+
+      HazelcastMQMessage msg = consumer.receive(2, TimeUnit.SECONDS);
+      assertNotNull(msg);
+      assertNull(msg.getHeaders().get(Headers.COMPRESSION));
+      assertEquals(body, msg.getBodyAsString());
+    }
+  }
+
+  /**
+   * Tests that a consumer of a priority queue receives the messages of the
+   * highest level first and the messages of each level in order.
+   */
+  @Test
+  public void testReceive_PriorityHighestFirst() {
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    String destination = "/queue/priority.order.test";
+    config.getPriorityLevels().put(destination, 3);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      HazelcastMQProducer producer = context.createProducer(destination);
+      for (int i = 0; i < 3; ++i) {
+        for (int priority = 0; priority < 3; ++priority) {
+          producer.send(newPriorityMessage(priority, i));
+        }
+      }
+
+      HazelcastMQConsumer consumer = context.createConsumer(destination);
+      for (int priority = 2; priority >= 0; --priority) {
+        for (int i = 0; i < 3; ++i) {
+          assertEquals(priority + "-" + i, consumer.receiveNoWait().
+              getBodyAsString());
+        }
+      }
+      assertNull(consumer.receiveNoWait());
+    }
+  }
+
+  /**
+   * Tests that the lowest level of a priority queue still makes progress while
+   * a producer keeps the highest level busy.
+   */
+  @Test
+  public void testReceive_PriorityStarvation() throws InterruptedException {
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    final String destination = "/queue/priority.starve.test";
+    config.getPriorityLevels().put(destination, 2);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    final int lowCount = 20;
+    final int highBacklog = 50;
+    final AtomicBoolean running = new AtomicBoolean(true);
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      HazelcastMQProducer producer = context.createProducer(destination);
+      for (int i = 0; i < lowCount; ++i) {
+        producer.send(newPriorityMessage(0, i));
+      }
+      for (int i = 0; i < highBacklog; ++i) {
+        producer.send(newPriorityMessage(1, i));
+      }
+
+      // Keep the high level topped up from another context.
+      Thread highProducer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try (HazelcastMQContext producerContext = mqInstance.
+              createContext()) {
+            HazelcastMQProducer highSender = producerContext.createProducer(
+                destination);
+            IQueue<Object> highQueue = hzInstance.getQueue(
+                PriorityQueueAdapter.getLevelQueueName(
+                    "priority.starve.test", 1));
+
+            int i = highBacklog;
+            while (running.get()) {
+              if (highQueue.size() < highBacklog) {
+                highSender.send(newPriorityMessage(1, i++));
+              }
+            }
+          }
+        }
+      });
+      highProducer.start();
+
+      try {
+        // Every 10th poll drains the lowest level first so all the low
+        // messages arrive within 10 polls each even though the high level is
+        // never empty.
+        HazelcastMQConsumer consumer = context.createConsumer(destination);
+        int lowReceived = 0;
+        for (int i = 0; i < lowCount * 10; ++i) {
+          HazelcastMQMessage msg = consumer.receive(2, TimeUnit.SECONDS);
+          assertNotNull(msg);
+
+          if (msg.getBodyAsString().startsWith("0-")) {
+            assertEquals("0-" + lowReceived, msg.getBodyAsString());
+            lowReceived++;
+          }
+        }
+
+        assertEquals(lowCount, lowReceived);
+        assertTrue(hzInstance.getQueue(PriorityQueueAdapter.getLevelQueueName(
+            "priority.starve.test", 1)).size() > 0);
+      }
+      finally {
+        running.set(false);
+        highProducer.join(5000);
+      }
+    }
+  }
+
+  /**
+   * Creates a new message with the given priority and a body of the priority
+   * and sequence number.
+   *
+   * @param priority the message priority
+   * @param sequence the sequence number of the message within its priority
+   *
+   * @return the new message
+   */
+  private static HazelcastMQMessage newPriorityMessage(int priority,
+      int sequence) {
+    HazelcastMQMessage msg = new HazelcastMQMessage();
+    msg.setPriority(priority);
+    msg.setBody(priority + "-" + sequence);
+    return msg;
+  }
+
+  /**
+   * Creates a new message with the given color header and body.
+   *
+   * @param color the value of the color header
+   * @param body the message body
+   *
+   * @return the new message
+   */
+  private static HazelcastMQMessage newMessage(String color, String body) {
+    HazelcastMQMessage msg = new HazelcastMQMessage();
+    msg.getHeaders().put("color", color);
+    msg.setBody(body);
+    return msg;
+  }
+}
@@ -0,0 +1,409 @@
+package org.mpilone.hazelcastmq.core;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.lang.reflect.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import com.hazelcast.core.HazelcastInstance;
+
+/**
+ * Test case for the acknowledgement and redelivery of messages by the
+ * {@link DefaultHazelcastMQContext}.
+ *
+ * @author mpilone
+ */
+public class DefaultHazelcastMQContextTestCase {
+
+  private static HazelcastInstance hzInstance;
+
+  private HazelcastMQInstance mqInstance;
+
+  @BeforeClass
+  public static void startHazelcast() {
+    hzInstance = HazelcastTestSupport.newHazelcastInstance();
+  }
+
+  @AfterClass
+  public static void stopHazelcast() {
+    hzInstance.shutdown();
+  }
+
+  @After
+  public void stopHazelcastMQ() {
+    if (mqInstance != null) {
+      mqInstance.shutdown();
+    }
+  }
+
+  /**
+   * Tests that messages received in client acknowledge mode are held in flight
+   * rather than in the queue until they are acknowledged.
+   */
+  @Test
+  public void testAcknowledge_Client() {
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(newConfig(
+        HazelcastMQConfig.AcknowledgeMode.CLIENT, 30000));
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/ack.client.test";
+      HazelcastMQConsumer consumer = context.createConsumer(destination);
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      producer.send("message 1");
+      producer.send("message 2");
+      producer.send("message 3");
+
+      HazelcastMQMessage msg = consumer.receive(2, TimeUnit.SECONDS);
+      assertNotNull(msg);
+      assertNotNull(msg.getHeaders().get(Headers.ACKNOWLEDGE_ID));
+      assertNotNull(consumer.receiveNoWait());
+
+      assertEquals(1, hzInstance.getQueue("ack.client.test").size());
+      assertEquals(2, countInFlight(destination));
+
+      context.acknowledge();
+      assertEquals(0, countInFlight(destination));
+      assertEquals(1, hzInstance.getQueue("ack.client.test").size());
+    }
+  }
+
+  /**
+   * Tests that messages received by a consumer with a selector in client
+   * acknowledge mode are held in flight until they are acknowledged.
+   */
+  @Test
+  public void testAcknowledge_ClientSelector() {
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(newConfig(
+        HazelcastMQConfig.AcknowledgeMode.CLIENT, 30000));
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/ack.selector.test";
+      HazelcastMQConsumer consumer = context.createConsumer(destination,
+          "color = 'red'");
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      HazelcastMQMessage blue = new HazelcastMQMessage();
+      blue.getHeaders().put("color", "blue");
+      producer.send(blue);
+      HazelcastMQMessage red = new HazelcastMQMessage();
+      red.getHeaders().put("color", "red");
+      producer.send(red);
+
+      HazelcastMQMessage msg = consumer.receive(2, TimeUnit.SECONDS);
+      assertNotNull(msg);
+      assertEquals("red", msg.getHeaders().get("color"));
+      assertEquals(1, countInFlight(destination));
+      assertEquals(1, hzInstance.getQueue("ack.selector.test").size());
+
+      context.acknowledge();
+      assertEquals(0, countInFlight(destination));
+    }
+  }
+
+  /**
+   * Tests that a single receive in client acknowledge mode doesn't use a
+   * transaction and that a batch receive puts all of its messages in flight
+   * with one transaction.
+   */
+  @Test
+  public void testAcknowledge_ClientTransactions() {
+    final AtomicInteger txnCount = new AtomicInteger();
+    HazelcastInstance countingInstance = (HazelcastInstance) Proxy.
+        newProxyInstance(HazelcastInstance.class.getClassLoader(),
+            new Class<?>[]{HazelcastInstance.class}, new InvocationHandler() {
+              @Override
+              public Object invoke(Object proxy, Method method, Object[] args)
+                  throws Throwable {
+                if (method.getName().equals("newTransactionContext")) {
+                  txnCount.incrementAndGet();
+                }
+
+                try {
+                  return method.invoke(hzInstance, args);
+                }
+                catch (InvocationTargetException ex) {
+                  throw ex.getCause();
+                }
+              }
+            });
+
+    HazelcastMQConfig config = new HazelcastMQConfig(countingInstance);
+    config.setAcknowledgeMode(HazelcastMQConfig.AcknowledgeMode.CLIENT);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/ack.txn.test";
+      HazelcastMQConsumer consumer = context.createConsumer(destination);
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      for (int i = 0; i < 101; ++i) {
+        producer.send("message " + i);
+      }
+
+      txnCount.set(0);
+      assertNotNull(consumer.receiveNoWait());
+      assertEquals(0, txnCount.get());
+      assertEquals(1, countInFlight(destination));
+
+      List<HazelcastMQMessage> msgs = consumer.receiveBatchNoWait(100);
+      assertEquals(100, msgs.size());
+      assertEquals(1, txnCount.get());
+      assertEquals(101, countInFlight(destination));
+      for (HazelcastMQMessage msg : msgs) {
+        assertNotNull(msg.getHeaders().get(Headers.ACKNOWLEDGE_ID));
+      }
+
+      context.acknowledge();
+      assertEquals(0, countInFlight(destination));
+    }
+  }
+
+  /**
+   * Tests that only the given message is acknowledged in individual
+   * acknowledge mode.
+   */
+  @Test
+  public void testAcknowledge_Individual() {
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(newConfig(
+        HazelcastMQConfig.AcknowledgeMode.INDIVIDUAL, 30000));
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/ack.individual.test";
+      HazelcastMQConsumer consumer = context.createConsumer(destination);
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      producer.send("message 1");
+      producer.send("message 2");
+
+      HazelcastMQMessage msg1 = consumer.receive(2, TimeUnit.SECONDS);
+      HazelcastMQMessage msg2 = consumer.receive(2, TimeUnit.SECONDS);
+      assertEquals(2, countInFlight(destination));
+
+      context.acknowledge(msg2);
+      assertEquals(1, countInFlight(destination));
+      assertTrue(hzInstance.getMap(InFlightMessageSweeper.IN_FLIGHT_MAP_NAME).
+          containsKey(msg1.getHeaders().get(Headers.ACKNOWLEDGE_ID)));
+
+      context.acknowledge(msg1);
+      assertEquals(0, countInFlight(destination));
+    }
+  }
+
+  /**
+   * Tests that recovering the context immediately returns unacknowledged
+   * messages to their queue marked as redelivered.
+   */
+  @Test
+  public void testRecover() {
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(newConfig(
+        HazelcastMQConfig.AcknowledgeMode.CLIENT, 30000));
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/ack.recover.test";
+      HazelcastMQConsumer consumer = context.createConsumer(destination);
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      producer.send("message 1");
+
+      HazelcastMQMessage msg = consumer.receive(2, TimeUnit.SECONDS);
+      assertNotNull(msg);
+      assertNull(msg.getHeaders().get(Headers.REDELIVERED));
+
+      context.recover();
+      assertEquals(0, countInFlight(destination));
+
+      msg = consumer.receiveNoWait();
+      assertNotNull(msg);
+      assertEquals("message 1", msg.getBodyAsString());
+      assertEquals("true", msg.getHeaders().get(Headers.REDELIVERED));
+      assertEquals("2", msg.getHeaders().get(Headers.DELIVERY_COUNT));
+
+      context.acknowledge();
+      assertEquals(0, countInFlight(destination));
+      assertNull(consumer.receiveNoWait());
+    }
+  }
+
+  /**
+   * Tests that an unacknowledged message is redelivered by the in-flight
+   * sweeper once the acknowledge timeout passes.
+   */
+  @Test
+  public void testRedeliver_Timeout() {
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(newConfig(
+        HazelcastMQConfig.AcknowledgeMode.CLIENT, 500));
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/ack.timeout.test";
+      HazelcastMQConsumer consumer = context.createConsumer(destination);
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      producer.send("message 1");
+
+      HazelcastMQMessage msg = consumer.receive(2, TimeUnit.SECONDS);
+      assertNotNull(msg);
+      assertNull(consumer.receiveNoWait());
+
+      msg = consumer.receive(5, TimeUnit.SECONDS);
+      assertNotNull(msg);
+      assertEquals("message 1", msg.getBodyAsString());
+      assertEquals("true", msg.getHeaders().get(Headers.REDELIVERED));
+      assertEquals("2", msg.getHeaders().get(Headers.DELIVERY_COUNT));
+
+      context.acknowledge();
+      assertEquals(0, countInFlight(destination));
+    }
+  }
+
+  /**
+   * Tests that a queue message that fails in a listener is redelivered after
+   * a growing delay and moved to the dead letter destination once it has been
+   * delivered the maximum number of times.
+   */
+  @Test
+  public void testDeliveryFailed_QueueDeadLetter() {
+    // The short acknowledge timeout makes the sweeper run every 100 ms.
+    HazelcastMQConfig config = newConfig(
+        HazelcastMQConfig.AcknowledgeMode.AUTO, 400);
+    RedeliveryPolicy policy = new RedeliveryPolicy(3,
+        "/queue/failed.queue.dlq");
+    policy.setRedeliveryDelay(200);
+    policy.setBackoffMultiplier(2.0);
+    config.setRedeliveryPolicy(policy);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/failed.queue.test";
+      FailingListener listener = new FailingListener();
+      context.createConsumer(destination).setMessageListener(listener);
+
+      context.createProducer(destination).send("message 1");
+
+      HazelcastMQMessage msg = context.createConsumer(
+          "/queue/failed.queue.dlq").receive(10, TimeUnit.SECONDS);
+      assertNotNull(msg);
+      assertEquals("message 1", msg.getBodyAsString());
+      assertEquals(destination, msg.getHeaders().get(
+          Headers.ORIGINAL_DESTINATION));
+      assertEquals("3", msg.getHeaders().get(Headers.DELIVERY_COUNT));
+
+      // Delivered the maximum number of times with a growing delay.
+      List<Long> times = listener.getTimes();
+      assertEquals(3, times.size());
+      assertTrue(times.get(1) - times.get(0) >= 200);
+      assertTrue(times.get(2) - times.get(1) >= 400);
+      assertEquals(0, countInFlight(destination));
+    }
+  }
+
+  /**
+   * Tests that a topic message that fails in a listener is redelivered to the
+   * same subscriber only after a growing delay and moved to the dead letter
+   * destination once it has been delivered the maximum number of times.
+   */
+  @Test
+  public void testDeliveryFailed_TopicDeadLetter() {
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    RedeliveryPolicy policy = new RedeliveryPolicy(3,
+        "/queue/failed.topic.dlq");
+    policy.setRedeliveryDelay(200);
+    policy.setBackoffMultiplier(2.0);
+    config.setRedeliveryPolicy(policy);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/topic/failed.topic.test";
+      FailingListener listener = new FailingListener();
+      context.createConsumer(destination).setMessageListener(listener);
+      HazelcastMQConsumer subscriber = context.createConsumer(destination);
+
+      context.createProducer(destination).send("message 1");
+
+      HazelcastMQMessage msg = context.createConsumer(
+          "/queue/failed.topic.dlq").receive(10, TimeUnit.SECONDS);
+      assertNotNull(msg);
+      assertEquals("message 1", msg.getBodyAsString());
+      assertEquals(destination, msg.getHeaders().get(
+          Headers.ORIGINAL_DESTINATION));
+      assertEquals("3", msg.getHeaders().get(Headers.DELIVERY_COUNT));
+
+      // Delivered the maximum number of times with a growing delay.
+      List<Long> times = listener.getTimes();
+      assertEquals(3, times.size());
+      assertTrue(times.get(1) - times.get(0) >= 200);
+      assertTrue(times.get(2) - times.get(1) >= 400);
+
+      // The other subscriber only received the original publish.
+      msg = subscriber.receiveNoWait();
+      assertNotNull(msg);
+      assertNull(msg.getHeaders().get(Headers.REDELIVERED));
+      assertNull(subscriber.receiveNoWait());
+    }
+  }
+
+  /**
+   * Creates a new configuration with the given acknowledge mode and timeout.
+   *
+   * @param acknowledgeMode the default acknowledge mode
+   * @param acknowledgeTimeout the acknowledge timeout in milliseconds
+   *
+   * @return the new configuration
+   */
+  private static HazelcastMQConfig newConfig(
+      HazelcastMQConfig.AcknowledgeMode acknowledgeMode,
+      long acknowledgeTimeout) {
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    config.setAcknowledgeMode(acknowledgeMode);
+    config.setAcknowledgeTimeout(acknowledgeTimeout);
+    return config;
+  }
+
+  /**
+   * Returns the number of in-flight messages received from the given
+   * destination.
+   *
+   * @param destination the destination
+   *
+   * @return the number of in-flight messages
+   */
+  private static int countInFlight(String destination) {
+    int count = 0;
+    for (Object key : hzInstance.getMap(
+        InFlightMessageSweeper.IN_FLIGHT_MAP_NAME).keySet()) {
+      if (destination.equals(InFlightMessageSweeper.getDestination(
+          (String) key))) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * A listener that fails to process every message and records the time of
+   * each delivery.
+   */
+  private static class FailingListener implements HazelcastMQMessageListener {
+
+    private final List<Long> times = new CopyOnWriteArrayList<>();
+
+    @Override
+    public void onMessage(HazelcastMQMessage msg) {
+      times.add(System.currentTimeMillis());
+      throw new IllegalStateException("Failed to process message.");
+    }
+
+    /**
+     * Returns the times of the deliveries so far.
+     *
+     * @return the delivery times in milliseconds
+     */
+    public List<Long> getTimes() {
+      return new ArrayList<>(times);
+    }
+  }
+}
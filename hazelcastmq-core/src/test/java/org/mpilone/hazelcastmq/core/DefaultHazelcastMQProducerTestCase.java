@@ -0,0 +1,365 @@
+package org.mpilone.hazelcastmq.core;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.config.QueueConfig;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.ICompletableFuture;
+
+/**
+ * Test case for the {@link DefaultHazelcastMQProducer}.
+ *
+ * @author mpilone
+ */
+public class DefaultHazelcastMQProducerTestCase {
+
+  private static HazelcastInstance hzInstance;
+
+  private HazelcastMQInstance mqInstance;
+
+  @BeforeClass
+  public static void startHazelcast() {
+    Config config = HazelcastTestSupport.newConfig();
+
+    QueueConfig queueConfig = new QueueConfig();
+    queueConfig.setName("batch.bounded.*");
+    queueConfig.setMaxSize(3);
+    config.addQueueConfig(queueConfig);
+
+    hzInstance = Hazelcast.newHazelcastInstance(config);
+  }
+
+  @AfterClass
+  public static void stopHazelcast() {
+    hzInstance.shutdown();
+  }
+
+  @After
+  public void stopHazelcastMQ() {
+    if (mqInstance != null) {
+      mqInstance.shutdown();
+    }
+  }
+
+  /**
+   * Tests that a batch larger than a single bulk write is sent to an
+   * unbounded queue in order.
+   */
+  @Test
+  public void testSendBatch_Unbounded() {
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(new HazelcastMQConfig(
+        hzInstance));
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/batch.unbounded.test";
+      int msgCount = 1200;
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      producer.send(newMessages(msgCount));
+      producer.send(newMessages(1));
+      assertEquals(msgCount + 1, hzInstance.getQueue("batch.unbounded.test").
+          size());
+
+      HazelcastMQConsumer consumer = context.createConsumer(destination);
+      for (int i = 0; i < msgCount; ++i) {
+        assertEquals("message " + i, consumer.receiveNoWait().
+            getBodyAsString());
+      }
+    }
+  }
+
+  /**
+   * Tests that the messages of a batch that don't fit in a bounded queue are
+   * reported as failures while the rest are sent.
+   */
+  @Test
+  public void testSendBatch_Bounded() {
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(new HazelcastMQConfig(
+        hzInstance));
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/batch.bounded.test";
+      List<HazelcastMQMessage> msgs = newMessages(5);
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      try {
+        producer.send(msgs);
+        fail("Expected a batch send exception.");
+      }
+      catch (HazelcastMQException.BatchSendException ex) {
+        assertEquals(new HashSet<>(msgs.subList(3, 5)), ex.getFailures().
+            keySet());
+      }
+
+      assertEquals(3, hzInstance.getQueue("batch.bounded.test").size());
+    }
+  }
+
+  /**
+   * Tests that a batch is sent to a bounded queue in a transaction and
+   * failures are reported the same way as outside of a transaction.
+   */
+  @Test
+  public void testSendBatch_BoundedTransacted() {
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(new HazelcastMQConfig(
+        hzInstance));
+
+    try (HazelcastMQContext context = mqInstance.createContext(true)) {
+      String destination = "/queue/batch.bounded.txn.test";
+      List<HazelcastMQMessage> msgs = newMessages(4);
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      try {
+        producer.send(msgs);
+        fail("Expected a batch send exception.");
+      }
+      catch (HazelcastMQException.BatchSendException ex) {
+        assertEquals(Collections.singleton(msgs.get(3)), ex.getFailures().
+            keySet());
+      }
+
+      context.commit();
+      assertEquals(3, hzInstance.getQueue("batch.bounded.txn.test").size());
+    }
+  }
+
+  /**
+   * Tests that a batch is sent to a priority queue using the priority of each
+   * message.
+   */
+  @Test
+  public void testSendBatch_Priority() {
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    String destination = "/queue/batch.priority.test";
+    config.getPriorityLevels().put(destination, 3);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      List<HazelcastMQMessage> msgs = newMessages(3);
+      msgs.get(1).setPriority(2);
+      msgs.get(2).setPriority(1);
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      producer.send(msgs);
+
+      HazelcastMQConsumer consumer = context.createConsumer(destination);
+      assertEquals("message 1", consumer.receiveNoWait().getBodyAsString());
+      assertEquals("message 2", consumer.receiveNoWait().getBodyAsString());
+      assertEquals("message 0", consumer.receiveNoWait().getBodyAsString());
+    }
+  }
+
+  /**
+   * Tests that a batch is published to a topic.
+   */
+  @Test
+  public void testSendBatch_Topic() {
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(new HazelcastMQConfig(
+        hzInstance));
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/topic/batch.topic.test";
+      HazelcastMQConsumer consumer = context.createConsumer(destination);
+
+      HazelcastMQProducer producer = context.createProducer(destination);
+      producer.send(newMessages(3));
+
+      for (int i = 0; i < 3; ++i) {
+        HazelcastMQMessage msg = consumer.receive(2, TimeUnit.SECONDS);
+        assertNotNull(msg);
+        assertEquals("message " + i, msg.getBodyAsString());
+      }
+    }
+  }
+
+  /**
+   * Tests that the asynchronous sends of a producer are written by a single
+   * task in the order they were made and that sends aren't limited by
+   * default.
+   */
+  @Test
+  public void testSendAsync_Order() throws Exception {
+    PausableExecutor executor = new PausableExecutor();
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    config.setExecutor(executor);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/async.order.test";
+      int msgCount = 2000;
+      List<ICompletableFuture<Void>> futures = new ArrayList<>(msgCount);
+
+      executor.pause();
+      HazelcastMQProducer producer = context.createProducer(destination);
+      for (HazelcastMQMessage msg : newMessages(msgCount)) {
+        futures.add(producer.sendAsync(msg));
+      }
+
+      // All the sends are written by a single task.
+      assertEquals(1, executor.resume());
+
+      for (ICompletableFuture<Void> future : futures) {
+        future.get(5, TimeUnit.SECONDS);
+      }
+
+      HazelcastMQConsumer consumer = context.createConsumer(destination);
+      for (int i = 0; i < msgCount; ++i) {
+        assertEquals("message " + i, consumer.receiveNoWait().
+            getBodyAsString());
+      }
+    }
+    finally {
+      mqInstance.shutdown();
+      mqInstance = null;
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Tests that an asynchronous send over the in-flight limit fails
+   * immediately rather than blocking and that permits are returned when sends
+   * complete.
+   */
+  @Test
+  public void testSendAsync_PermitLimit() throws Exception {
+    PausableExecutor executor = new PausableExecutor();
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    config.setExecutor(executor);
+    config.setMaxAsyncSendsInFlight(2);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      String destination = "/queue/async.limit.test";
+
+      executor.pause();
+      HazelcastMQProducer producer = context.createProducer(destination);
+      ICompletableFuture<Void> future1 = producer.sendAsync(newMessages(1).
+          get(0));
+      ICompletableFuture<Void> future2 = producer.sendAsync(newMessages(1).
+          get(0));
+      ICompletableFuture<Void> future3 = producer.sendAsync(newMessages(1).
+          get(0));
+
+      assertFalse(future1.isDone());
+      assertFalse(future2.isDone());
+      assertTrue(future3.isDone());
+      try {
+        future3.get();
+        fail("Expected the send over the limit to fail.");
+      }
+      catch (ExecutionException ex) {
+        assertTrue(ex.getCause() instanceof HazelcastMQException);
+      }
+
+      executor.resume();
+      future1.get(5, TimeUnit.SECONDS);
+      future2.get(5, TimeUnit.SECONDS);
+
+      // The permits are released as the sends complete.
+      producer.sendAsync(newMessages(1).get(0)).get(5, TimeUnit.SECONDS);
+      assertEquals(3, hzInstance.getQueue("async.limit.test").size());
+    }
+    finally {
+      mqInstance.shutdown();
+      mqInstance = null;
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Creates new messages with sequentially numbered bodies.
+   *
+   * @param count the number of messages to create
+   *
+   * @return the new messages
+   */
+  private static List<HazelcastMQMessage> newMessages(int count) {
+    List<HazelcastMQMessage> msgs = new ArrayList<>(count);
+    for (int i = 0; i < count; ++i) {
+      HazelcastMQMessage msg = new HazelcastMQMessage();
+      msg.setBody("message " + i);
+      msgs.add(msg);
+    }
+    return msgs;
+  }
+
+  /**
+   * An executor that can hold submitted tasks until it is resumed.
+   */
+  private static class PausableExecutor extends AbstractExecutorService {
+
+    private final ExecutorService delegate = Executors.newCachedThreadPool();
+    private final List<Runnable> held = new ArrayList<>();
+    private boolean paused;
+
+    /**
+     * Holds all tasks submitted from now on until the executor is resumed.
+     */
+    public synchronized void pause() {
+      paused = true;
+    }
+
+    /**
+     * Runs all the held tasks and stops holding new tasks.
+     *
+     * @return the number of tasks that were held
+     */
+    public int resume() {
+      List<Runnable> tasks;
+      synchronized (this) {
+        paused = false;
+        tasks = new ArrayList<>(held);
+        held.clear();
+      }
+
+      for (Runnable task : tasks) {
+        delegate.execute(task);
+      }
+      return tasks.size();
+    }
+
+    @Override
+    public void execute(Runnable command) {
+      synchronized (this) {
+        if (paused) {
+          held.add(command);
+          return;
+        }
+      }
+      delegate.execute(command);
+    }
+
+    @Override
+    public void shutdown() {
+      delegate.shutdown();
+    }
+
+    @Override
+    public List<Runnable> shutdownNow() {
+      return delegate.shutdownNow();
+    }
+
+    @Override
+    public boolean isShutdown() {
+      return delegate.isShutdown();
+    }
+
+    @Override
+    public boolean isTerminated() {
+      return delegate.isTerminated();
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws
+        InterruptedException {
+      return delegate.awaitTermination(timeout, unit);
+    }
+  }
+}
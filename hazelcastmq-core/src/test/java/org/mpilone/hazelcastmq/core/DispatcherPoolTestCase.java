@@ -0,0 +1,169 @@
+package org.mpilone.hazelcastmq.core;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import com.hazelcast.core.HazelcastInstance;
+
+/**
+ * Test case for the {@link DispatcherPool} and the
+ * {@link HazelcastMQConfig.ContextDispatchStrategy#POOLED_THREAD} dispatch
+ * strategy.
+ *
+ * @author mpilone
+ */
+public class DispatcherPoolTestCase {
+
+  private static HazelcastInstance hzInstance;
+
+  private HazelcastMQInstance mqInstance;
+
+  @BeforeClass
+  public static void startHazelcast() {
+    hzInstance = HazelcastTestSupport.newHazelcastInstance();
+  }
+
+  @AfterClass
+  public static void stopHazelcast() {
+    hzInstance.shutdown();
+  }
+
+  @After
+  public void stopHazelcastMQ() {
+    if (mqInstance != null) {
+      mqInstance.shutdown();
+    }
+  }
+
+  /**
+   * Tests that messages are dispatched to the listeners of more contexts than
+   * there are pool threads and that dispatch for each context is serial.
+   */
+  @Test
+  public void testDispatch_PooledThread() throws InterruptedException {
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    config.setContextDispatchStrategy(
+        HazelcastMQConfig.ContextDispatchStrategy.POOLED_THREAD);
+    config.setDispatchPoolSize(2);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    int contextCount = 4;
+    int msgCount = 50;
+    CountDownLatch latch = new CountDownLatch(contextCount * msgCount);
+    List<SerialListener> listeners = new ArrayList<>();
+    List<HazelcastMQContext> contexts = new ArrayList<>();
+
+    try {
+      for (int i = 0; i < contextCount; ++i) {
+        String destination = "/queue/pooled.dispatch.test." + i;
+
+        HazelcastMQContext context = mqInstance.createContext();
+        contexts.add(context);
+
+        SerialListener listener = new SerialListener(latch);
+        listeners.add(listener);
+        context.createConsumer(destination).setMessageListener(listener);
+
+        HazelcastMQProducer producer = context.createProducer(destination);
+        for (int j = 0; j < msgCount; ++j) {
+          producer.send("message " + j);
+        }
+      }
+
+      assertTrue(latch.await(10, TimeUnit.SECONDS));
+
+      for (SerialListener listener : listeners) {
+        assertEquals(msgCount, listener.received.get());
+        assertFalse(listener.overlapped);
+      }
+    }
+    finally {
+      for (HazelcastMQContext context : contexts) {
+        context.close();
+      }
+    }
+  }
+
+  /**
+   * Tests that a worker stops when its thread is interrupted so the executor
+   * can terminate.
+   */
+  @Test
+  public void testWorker_Interrupted() throws InterruptedException {
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    DispatcherPool pool = new DispatcherPool(2, executor);
+
+    final CountDownLatch ran = new CountDownLatch(1);
+    pool.acquire().schedule(new Runnable() {
+      @Override
+      public void run() {
+        ran.countDown();
+      }
+    });
+    assertTrue(ran.await(2, TimeUnit.SECONDS));
+
+    executor.shutdownNow();
+    assertTrue(executor.awaitTermination(2, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Tests that the dispatcher pool isn't recreated after the instance is
+   * shutdown.
+   */
+  @Test
+  public void testGetDispatcherPool_AfterShutdown() {
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    config.setContextDispatchStrategy(
+        HazelcastMQConfig.ContextDispatchStrategy.POOLED_THREAD);
+    DefaultHazelcastMQInstance instance = new DefaultHazelcastMQInstance(
+        config);
+
+    assertNotNull(instance.getDispatcherPool());
+    instance.shutdown();
+
+    try {
+      instance.getDispatcherPool();
+      fail("Expected the dispatcher pool to be unavailable after shutdown.");
+    }
+    catch (HazelcastMQException ex) {
+      // expected
+    }
+  }
+
+  /**
+   * A listener that counts the messages received and records if it was ever
+   * called concurrently.
+   */
+  private static class SerialListener implements HazelcastMQMessageListener {
+
+    private final CountDownLatch latch;
+    private final AtomicInteger active = new AtomicInteger();
+    private final AtomicInteger received = new AtomicInteger();
+    private volatile boolean overlapped;
+
+    /**
+     * Constructs the listener.
+     *
+     * @param latch the latch to count down for each message
+     */
+    public SerialListener(CountDownLatch latch) {
+      this.latch = latch;
+    }
+
+    @Override
+    public void onMessage(HazelcastMQMessage msg) {
+      if (active.incrementAndGet() > 1) {
+        overlapped = true;
+      }
+
+      received.incrementAndGet();
+      active.decrementAndGet();
+      latch.countDown();
+    }
+  }
+}
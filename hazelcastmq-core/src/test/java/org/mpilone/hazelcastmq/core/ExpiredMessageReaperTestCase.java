@@ -0,0 +1,137 @@
+package org.mpilone.hazelcastmq.core;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.*;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IQueue;
+
+/**
+ * Test case for the {@link ExpiredMessageReaper} and expiry destinations.
+ *
+ * @author mpilone
+ */
+public class ExpiredMessageReaperTestCase {
+
+  private static HazelcastInstance hzInstance;
+
+  private HazelcastMQInstance mqInstance;
+
+  @BeforeClass
+  public static void startHazelcast() {
+    hzInstance = HazelcastTestSupport.newHazelcastInstance();
+  }
+
+  @AfterClass
+  public static void stopHazelcast() {
+    hzInstance.shutdown();
+  }
+
+  @After
+  public void stopHazelcastMQ() {
+    if (mqInstance != null) {
+      mqInstance.shutdown();
+    }
+  }
+
+  /**
+   * Tests that the reaper moves expired messages from the head of an idle
+   * queue to the expiry destination and stops at the first live message.
+   */
+  @Test
+  public void testReap_ExpiryDestination() throws InterruptedException {
+    String destination = "/queue/reap.expiry.test";
+    String expiryDestination = "/queue/reap.expiry.dlq";
+
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    config.setExpiryReaperPeriod(100);
+    config.getExpiryDestinations().put(destination, expiryDestination);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      HazelcastMQProducer producer = context.createProducer(destination);
+      producer.send(newMessage("expired 1"), 50);
+      producer.send(newMessage("expired 2"), 50);
+      producer.send(newMessage("live"));
+      producer.send(newMessage("expired 3"), 50);
+
+      IQueue<Object> queue = hzInstance.getQueue("reap.expiry.test");
+      assertTrue(awaitSize(queue, 2));
+
+      // The message behind the live message is left for the consumer.
+      HazelcastMQConsumer consumer = context.createConsumer(destination);
+      assertEquals("live", consumer.receiveNoWait().getBodyAsString());
+
+      HazelcastMQConsumer expiryConsumer = context.createConsumer(
+          expiryDestination);
+      for (int i = 1; i <= 2; ++i) {
+        HazelcastMQMessage msg = expiryConsumer.receive(2, TimeUnit.SECONDS);
+        assertNotNull(msg);
+        assertEquals("expired " + i, msg.getBodyAsString());
+        assertEquals(destination, msg.getHeaders().get(
+            Headers.ORIGINAL_DESTINATION));
+        assertNull(msg.getHeaders().get(Headers.EXPIRATION));
+      }
+    }
+  }
+
+  /**
+   * Tests that the reaper discards expired messages from a queue without an
+   * expiry destination.
+   */
+  @Test
+  public void testReap_Discard() throws InterruptedException {
+    String destination = "/queue/reap.discard.test";
+
+    HazelcastMQConfig config = new HazelcastMQConfig(hzInstance);
+    config.setExpiryReaperPeriod(100);
+    mqInstance = HazelcastMQ.newHazelcastMQInstance(config);
+
+    try (HazelcastMQContext context = mqInstance.createContext()) {
+      HazelcastMQProducer producer = context.createProducer(destination);
+      for (int i = 0; i < 10; ++i) {
+        producer.send(newMessage("expired " + i), 50);
+      }
+
+      assertTrue(awaitSize(hzInstance.getQueue("reap.discard.test"), 0));
+    }
+  }
+
+  /**
+   * Creates a new message with the given body.
+   *
+   * @param body the message body
+   *
+   * @return the new message
+   */
+  private static HazelcastMQMessage newMessage(String body) {
+    HazelcastMQMessage msg = new HazelcastMQMessage();
+    msg.setBody(body);
+    return msg;
+  }
+
+  /**
+   * Waits up to 5 seconds for the given queue to reach the given size.
+   *
+   * @param queue the queue to check
+   * @param size the expected size
+   *
+   * @return true if the queue reached the size
+   *
+   * @throws InterruptedException if interrupted while waiting
+   */
+  private static boolean awaitSize(IQueue<Object> queue, int size) throws
+      InterruptedException {
+    long deadline = System.currentTimeMillis() + 5000;
+    while (queue.size() != size) {
+      if (System.currentTimeMillis() > deadline) {
+        return false;
+      }
+      Thread.sleep(50);
+    }
+    return true;
+  }
+}
@@ -0,0 +1,45 @@
+package org.mpilone.hazelcastmq.core;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+
+/**
+ * Support methods for test cases that require a running Hazelcast instance.
+ *
+ * @author mpilone
+ */
+class HazelcastTestSupport {
+
+  /**
+   * Hidden constructor for the utility class.
+   */
+  private HazelcastTestSupport() {
+  }
+
+  /**
+   * Creates a new, standalone Hazelcast instance that will not join any other
+   * member on the network.
+   *
+   * @return the new instance
+   */
+  static HazelcastInstance newHazelcastInstance() {
+    return Hazelcast.newHazelcastInstance(newConfig());
+  }
+
+  /**
+   * Creates a new configuration for a standalone Hazelcast instance that will
+   * not join any other member on the network.
+   *
+   * @return the new configuration
+   */
+  static Config newConfig() {
+    Config config = new Config();
+    config.setProperty("hazelcast.logging.type", "none");
+    config.setProperty("hazelcast.phone.home.enabled", "false");
+    config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+    config.getNetworkConfig().getJoin().getTcpIpConfig().setEnabled(false);
+
+    return config;
+  }
+}
@@ -0,0 +1,249 @@
+package org.mpilone.hazelcastmq.core;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test case for the {@link MessageSelector} and the {@link SelectorParser}.
+ *
+ * @author mpilone
+ */
+public class MessageSelectorTestCase {
+
+  /**
+   * Tests that AND binds tighter than OR, NOT binds tighter than AND, and
+   * parentheses override both.
+   */
+  @Test
+  public void testPrecedence() {
+    Headers headers = headers("a", "1", "b", "2", "c", "3");
+
+    assertTrue(matches("a = 1 OR b = 0 AND c = 0", headers));
+    assertFalse(matches("(a = 1 OR b = 0) AND c = 0", headers));
+    assertFalse(matches("NOT a = 1 AND b = 2", headers));
+    assertTrue(matches("NOT (a = 1 AND b = 0)", headers));
+    assertTrue(matches("a + b * c = 7", headers));
+    assertTrue(matches("(a + b) * c = 9", headers));
+    assertTrue(matches("-a + c = 2", headers));
+    assertTrue(matches("c - b - a = 0", headers));
+    assertTrue(matches("c / b * 2 = 2", headers));
+  }
+
+  /**
+   * Tests keywords in mixed case and string literals with escaped quotes.
+   */
+  @Test
+  public void testKeywordsAndStrings() {
+    Headers headers = headers("name", "O'Brien", "flag", "true");
+
+    assertTrue(matches("name = 'O''Brien'", headers));
+    assertTrue(matches("name = 'O''Brien' and Flag is null", headers));
+    assertTrue(matches("flag = TRUE", headers));
+    assertTrue(matches("flag", headers));
+    assertFalse(matches("NOT flag", headers));
+  }
+
+  /**
+   * Tests LIKE patterns with wildcards, escapes, and regular expression
+   * characters that must be matched literally.
+   */
+  @Test
+  public void testLike() {
+    Headers headers = headers("code", "AB_12%.x", "path", "a.b*c");
+
+    assertTrue(matches("code LIKE 'AB%'", headers));
+    assertTrue(matches("code LIKE 'A__12%'", headers));
+    assertFalse(matches("code LIKE 'AB'", headers));
+    assertTrue(matches("code LIKE 'AB\\_12\\%.x' ESCAPE '\\'", headers));
+    assertFalse(matches("code LIKE 'AB\\_13%' ESCAPE '\\'", headers));
+    assertTrue(matches("code LIKE 'AB!_%' ESCAPE '!'", headers));
+    assertFalse(matches("code LIKE 'ABC!_%' ESCAPE '!'", headers));
+    assertTrue(matches("path LIKE 'a.b*c'", headers));
+    assertFalse(matches("path LIKE 'aXb*c'", headers));
+    assertTrue(matches("code NOT LIKE 'X%'", headers));
+
+    // Unknown when the header is missing.
+    assertFalse(matches("missing LIKE '%'", headers));
+    assertFalse(matches("missing NOT LIKE '%'", headers));
+  }
+
+  /**
+   * Tests IN and NOT IN lists.
+   */
+  @Test
+  public void testIn() {
+    Headers headers = headers("region", "us");
+
+    assertTrue(matches("region IN ('us', 'ca')", headers));
+    assertFalse(matches("region IN ('mx')", headers));
+    assertTrue(matches("region NOT IN ('mx', 'uk')", headers));
+    assertFalse(matches("region NOT IN ('us')", headers));
+
+    // Unknown when the header is missing.
+    assertFalse(matches("missing IN ('us')", headers));
+    assertFalse(matches("missing NOT IN ('us')", headers));
+  }
+
+  /**
+   * Tests BETWEEN and NOT BETWEEN including the bounds.
+   */
+  @Test
+  public void testBetween() {
+    Headers headers = headers("amount", "10", "price", "2.5");
+
+    assertTrue(matches("amount BETWEEN 10 AND 20", headers));
+    assertTrue(matches("amount BETWEEN 1 AND 10", headers));
+    assertFalse(matches("amount BETWEEN 11 AND 20", headers));
+    assertTrue(matches("amount NOT BETWEEN 11 AND 20", headers));
+    assertTrue(matches("price BETWEEN 2 AND 3", headers));
+    assertTrue(matches("amount BETWEEN price * 4 AND price * 4", headers));
+
+    // Unknown when the header is missing.
+    assertFalse(matches("missing BETWEEN 1 AND 2", headers));
+    assertFalse(matches("missing NOT BETWEEN 1 AND 2", headers));
+  }
+
+  /**
+   * Tests IS NULL and IS NOT NULL.
+   */
+  @Test
+  public void testIsNull() {
+    Headers headers = headers("present", "x");
+
+    assertTrue(matches("missing IS NULL", headers));
+    assertFalse(matches("missing IS NOT NULL", headers));
+    assertFalse(matches("present IS NULL", headers));
+    assertTrue(matches("present IS NOT NULL", headers));
+  }
+
+  /**
+   * Tests the three-valued logic of AND, OR, and NOT with unknown operands.
+   */
+  @Test
+  public void testThreeValuedLogic() {
+    Headers headers = headers("a", "1");
+
+    // unknown AND false is false, unknown AND true is unknown.
+    assertFalse(matches("missing = 1 AND a = 1", headers));
+    assertTrue(matches("NOT (missing = 1 AND a = 2)", headers));
+    assertFalse(matches("NOT (missing = 1 AND a = 1)", headers));
+
+    // unknown OR true is true, unknown OR false is unknown.
+    assertTrue(matches("missing = 1 OR a = 1", headers));
+    assertFalse(matches("missing = 1 OR a = 2", headers));
+    assertFalse(matches("NOT (missing = 1 OR a = 2)", headers));
+
+    // NOT unknown is unknown.
+    assertFalse(matches("NOT missing = 1", headers));
+    assertFalse(matches("missing <> 1", headers));
+  }
+
+  /**
+   * Tests that header values are compared numerically against numbers and as
+   * strings against strings.
+   */
+  @Test
+  public void testNumericAndStringComparison() {
+    Headers headers = headers("n", "10", "d", "1.5", "s", "abc", "l", "007");
+
+    // Numeric comparison of string header values.
+    assertTrue(matches("n > 9", headers));
+    assertTrue(matches("n = 10.0", headers));
+    assertTrue(matches("l = 7", headers));
+    assertTrue(matches("d < 2", headers));
+    assertTrue(matches("d = 1.5", headers));
+    assertTrue(matches("n >= 10 AND n <= 10 AND n <> 11", headers));
+
+    // String comparison is exact and only supports equality.
+    assertTrue(matches("n = '10'", headers));
+    assertFalse(matches("l = '7'", headers));
+    assertTrue(matches("s = 'abc'", headers));
+    assertTrue(matches("s <> 'abd'", headers));
+    assertFalse(matches("s > 'abb'", headers));
+
+    // A value that isn't a number is unknown in a numeric comparison.
+    assertFalse(matches("s = 1", headers));
+    assertFalse(matches("s <> 1", headers));
+
+    // Integer division by zero is unknown.
+    assertFalse(matches("n / 0 = 1", headers));
+    assertFalse(matches("n / 0 <> 1", headers));
+  }
+
+  /**
+   * Tests that identifiers are mapped to header names by the mapper.
+   */
+  @Test
+  public void testIdentifierMapper() {
+    MessageSelector selector = MessageSelector.compile("color = 'red'",
+        new MessageSelector.IdentifierMapper() {
+          @Override
+          public String toHeaderName(String identifier) {
+            return "prop-" + identifier;
+          }
+        });
+
+    assertTrue(selector.matches(headers("prop-color", "red")));
+    assertFalse(selector.matches(headers("color", "red")));
+  }
+
+  /**
+   * Tests that invalid expressions are rejected.
+   */
+  @Test
+  public void testInvalid() {
+    assertInvalid("");
+    assertInvalid("a =");
+    assertInvalid("a = 'unterminated");
+    assertInvalid("(a = 1");
+    assertInvalid("a = 1 b = 2");
+    assertInvalid("a + 1");
+    assertInvalid("a IN (1, 2)");
+    assertInvalid("a LIKE 'x' ESCAPE 'ab'");
+    assertInvalid("a NOT = 1");
+    assertInvalid("a = #");
+  }
+
+  /**
+   * Returns true if the given expression matches the headers.
+   *
+   * @param expression the selector expression
+   * @param headers the headers to match
+   *
+   * @return true if the headers match
+   */
+  private static boolean matches(String expression, Headers headers) {
+    return MessageSelector.compile(expression).matches(headers);
+  }
+
+  /**
+   * Asserts that compiling the given expression fails.
+   *
+   * @param expression the selector expression
+   */
+  private static void assertInvalid(String expression) {
+    try {
+      MessageSelector.compile(expression);
+      fail("Expected an invalid selector: " + expression);
+    }
+    catch (HazelcastMQException.InvalidSelectorException ex) {
+      // expected
+    }
+  }
+
+  /**
+   * Creates headers from the given name and value pairs.
+   *
+   * @param namesAndValues the alternating header names and values
+   *
+   * @return the new headers
+   */
+  private static Headers headers(String... namesAndValues) {
+    Headers headers = new DefaultHeaders();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      headers.put(namesAndValues[i], namesAndValues[i + 1]);
+    }
+    return headers;
+  }
+}
@@ -0,0 +1,64 @@
+package org.mpilone.hazelcastmq.core;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Test case for the {@link RedeliveryPolicy}.
+ *
+ * @author mpilone
+ */
+public class RedeliveryPolicyTestCase {
+
+  /**
+   * Tests that the redelivery delay grows by the backoff multiplier with each
+   * failed delivery up to the maximum delay.
+   */
+  @Test
+  public void testGetRedeliveryDelay_Backoff() {
+    RedeliveryPolicy policy = new RedeliveryPolicy();
+    policy.setRedeliveryDelay(100);
+    policy.setBackoffMultiplier(3.0);
+    policy.setMaxRedeliveryDelay(2000);
+
+    assertEquals(100, policy.getRedeliveryDelay(1));
+    assertEquals(300, policy.getRedeliveryDelay(2));
+    assertEquals(900, policy.getRedeliveryDelay(3));
+    assertEquals(2000, policy.getRedeliveryDelay(4));
+    assertEquals(2000, policy.getRedeliveryDelay(100));
+  }
+
+  /**
+   * Tests that the redelivery delay is constant if the backoff multiplier is
+   * 1 or less.
+   */
+  @Test
+  public void testGetRedeliveryDelay_NoBackoff() {
+    RedeliveryPolicy policy = new RedeliveryPolicy();
+    policy.setRedeliveryDelay(500);
+    policy.setBackoffMultiplier(1.0);
+
+    assertEquals(500, policy.getRedeliveryDelay(1));
+    assertEquals(500, policy.getRedeliveryDelay(10));
+
+    policy.setBackoffMultiplier(0.5);
+    assertEquals(500, policy.getRedeliveryDelay(10));
+  }
+
+  /**
+   * Tests that a message is redeliverable until it has been delivered the
+   * maximum number of times.
+   */
+  @Test
+  public void testIsRedeliverable() {
+    RedeliveryPolicy policy = new RedeliveryPolicy(3, null);
+
+    assertTrue(policy.isRedeliverable(1));
+    assertTrue(policy.isRedeliverable(2));
+    assertFalse(policy.isRedeliverable(3));
+
+    policy.setMaxDeliveries(0);
+    assertTrue(policy.isRedeliverable(1000));
+  }
+}
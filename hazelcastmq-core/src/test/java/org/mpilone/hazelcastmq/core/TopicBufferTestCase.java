@@ -0,0 +1,115 @@
+package org.mpilone.hazelcastmq.core;
+
+import static org.junit.Assert.*;
+
+import org.junit.*;
+
+import com.hazelcast.core.DistributedObject;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.core.IQueue;
+
+/**
+ * Test case for the {@link TopicBuffer} overflow policies.
+ *
+ * @author mpilone
+ */
+public class TopicBufferTestCase {
+
+  private static HazelcastInstance hzInstance;
+
+  @BeforeClass
+  public static void startHazelcast() {
+    hzInstance = HazelcastTestSupport.newHazelcastInstance();
+  }
+
+  @AfterClass
+  public static void stopHazelcast() {
+    hzInstance.shutdown();
+  }
+
+  /**
+   * Tests that a blocked offer gives up after the block timeout and drops the
+   * message.
+   */
+  @Test
+  public void testOffer_BlockTimeout() {
+    TopicBuffer buffer = new TopicBuffer("block.test", 1,
+        HazelcastMQConfig.TopicOverflowPolicy.BLOCK, 200, null);
+
+    assertTrue(buffer.offer("message 1"));
+
+    long start = System.currentTimeMillis();
+    assertFalse(buffer.offer("message 2"));
+    assertTrue(System.currentTimeMillis() - start >= 200);
+
+    assertEquals(1, buffer.getBufferedCount());
+    assertEquals(1, buffer.getDroppedCount());
+    assertEquals("message 1", buffer.poll());
+  }
+
+  /**
+   * Tests that an interrupted blocked offer drops the message and restores
+   * the interrupt.
+   */
+  @Test
+  public void testOffer_BlockInterrupted() {
+    TopicBuffer buffer = new TopicBuffer("block.interrupt.test", 1,
+        HazelcastMQConfig.TopicOverflowPolicy.BLOCK, 10000, null);
+
+    assertTrue(buffer.offer("message 1"));
+
+    Thread.currentThread().interrupt();
+    try {
+      assertFalse(buffer.offer("message 2"));
+      assertTrue(Thread.currentThread().isInterrupted());
+    }
+    finally {
+      Thread.interrupted();
+    }
+    assertEquals(1, buffer.getDroppedCount());
+  }
+
+  /**
+   * Tests that spilled messages are delivered in order and that the spill
+   * queue is destroyed when the buffer is closed.
+   */
+  @Test
+  public void testOffer_Spill() {
+    String spillName = "hazelcastmq.topic-spill.test";
+    IQueue<Object> spillQueue = hzInstance.getQueue(spillName);
+    TopicBuffer buffer = new TopicBuffer("spill.test", 2,
+        HazelcastMQConfig.TopicOverflowPolicy.SPILL, 0, spillQueue);
+
+    for (int i = 0; i < 5; ++i) {
+      assertTrue(buffer.offer("message " + i));
+    }
+    assertEquals(3, buffer.getSpilledCount());
+    assertEquals(3, spillQueue.size());
+
+    for (int i = 0; i < 5; ++i) {
+      assertEquals("message " + i, buffer.poll());
+    }
+    assertNull(buffer.poll());
+
+    buffer.offer("message 5");
+    buffer.close();
+    assertFalse(isDistributedObject(spillName));
+  }
+
+  /**
+   * Returns true if a distributed object with the given name exists in the
+   * cluster.
+   *
+   * @param name the name of the object
+   *
+   * @return true if the object exists
+   */
+  private static boolean isDistributedObject(String name) {
+    for (DistributedObject obj : hzInstance.getDistributedObjects()) {
+      if (name.equals(obj.getName())) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
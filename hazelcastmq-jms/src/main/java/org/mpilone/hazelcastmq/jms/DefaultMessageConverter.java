@@ -9,6 +9,7 @@ import javax.jms.*;
 
 import org.mpilone.hazelcastmq.core.HazelcastMQMessage;
 import org.mpilone.hazelcastmq.core.Headers;
+import org.mpilone.hazelcastmq.core.MessageSelector;
 
 /**
  * A message converter that uses a STOMP (http://stomp.github.com/) like message
@@ -16,10 +17,16 @@ import org.mpilone.hazelcastmq.core.Headers;
  * While not the most efficient format, its plain text nature allows for easy
  * monitoring, inspection, and debugging during transport. An alternate, binary
  * implementation may be available in the future.
+ * <p>
+ * The converter also maps JMS message selector identifiers to the MQ headers
+ * that hold the JMS headers and properties so selectors can be evaluated
+ * directly against the MQ message headers.
+ * </p>
  * 
  * @author mpilone
  */
-public class DefaultMessageConverter implements MessageConverter {
+public class DefaultMessageConverter implements MessageConverter,
+    MessageSelector.IdentifierMapper {
 
   private static final String CONTENT_TYPE_TEXT = "text/plain";
 
@@ -29,6 +36,8 @@ public class DefaultMessageConverter implements MessageConverter {
 
   private static final String MQ_HEADER_JMS_PROPERTY_PREFIX = "jms-property-";
 
+  private static final String JMSX_DELIVERY_COUNT = "JMSXDeliveryCount";
+
   /**
    * The UTF-8 character set used for all conversions.
    */
@@ -61,6 +70,9 @@ public class DefaultMessageConverter implements MessageConverter {
           jmsMsg.getJMSCorrelationID());
     }
 
+    // Route by priority if the destination is a priority queue.
+    mqMsg.setPriority(jmsMsg.getJMSPriority());
+
     byte[] body = new byte[0];
 
     if (message instanceof HazelcastMQJmsTextMessage) {
@@ -92,6 +104,24 @@ public class DefaultMessageConverter implements MessageConverter {
     return mqMsg;
   }
 
+  @Override
+  public String toHeaderName(String name) {
+    // Redelivery is tracked in core headers rather than JMS headers.
+    if (name.equals(HazelcastMQJmsMessage.HEADER_JMS_REDELIVERED)) {
+      return Headers.REDELIVERED;
+    }
+    else if (name.equals(JMSX_DELIVERY_COUNT)) {
+      return Headers.DELIVERY_COUNT;
+    }
+    // JMSX names are JMS defined properties rather than headers.
+    else if (name.startsWith("JMS") && !name.startsWith("JMSX")) {
+      return MQ_HEADER_JMS_HEADER_PREFIX + name;
+    }
+    else {
+      return MQ_HEADER_JMS_PROPERTY_PREFIX + name;
+    }
+  }
+
   /*
    * (non-Javadoc)
    * 
@@ -162,6 +192,14 @@ public class DefaultMessageConverter implements MessageConverter {
       else if (headerName.equals(Headers.MESSAGE_ID)) {
         jmsMsg.setJMSMessageID("ID:" + headerValue);
       }
+
+      else if (headerName.equals(Headers.REDELIVERED)) {
+        jmsMsg.setJMSRedelivered(Boolean.parseBoolean(headerValue));
+      }
+
+      else if (headerName.equals(Headers.DELIVERY_COUNT)) {
+        jmsMsg.getProperties().put(JMSX_DELIVERY_COUNT, headerValue);
+      }
     }
 
     return jmsMsg;
@@ -113,9 +113,8 @@ class HazelcastMQJmsConnection implements Connection {
   @Override
   public Session createSession(boolean transacted, int acknowledgeMode)
       throws JMSException {
-    // acknowledgeMode isn't supported.
-
-    HazelcastMQJmsSession session = new HazelcastMQJmsSession(this, transacted);
+    HazelcastMQJmsSession session = new HazelcastMQJmsSession(this, transacted,
+        acknowledgeMode);
     sessionMap.put(session.getId(), session);
 
     if (active) {
@@ -34,6 +34,12 @@ abstract class HazelcastMQJmsMessage implements Message {
    */
   private final Map<String, String> headers;
 
+  /**
+   * The session that consumed the message if the session is using
+   * {@link Session#CLIENT_ACKNOWLEDGE}, otherwise null.
+   */
+  private transient HazelcastMQJmsSession acknowledgeSession;
+
   /**
    * Constructs a message with no headers or properties.
    */
@@ -44,7 +50,19 @@ abstract class HazelcastMQJmsMessage implements Message {
 
   @Override
   public void acknowledge() throws JMSException {
-    // no op
+    if (acknowledgeSession != null) {
+      acknowledgeSession.acknowledge();
+    }
+  }
+
+  /**
+   * Sets the session that will be used to acknowledge the message when
+   * {@link #acknowledge()} is called.
+   *
+   * @param session the session that consumed the message
+   */
+  void setAcknowledgeSession(HazelcastMQJmsSession session) {
+    this.acknowledgeSession = session;
   }
 
   @Override
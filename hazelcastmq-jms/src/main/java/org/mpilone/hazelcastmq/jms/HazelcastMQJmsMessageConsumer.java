@@ -30,7 +30,7 @@ abstract class HazelcastMQJmsMessageConsumer implements MessageConsumer {
     public void onMessage(HazelcastMQMessage mqMsg) {
 
       try {
-        Message msg = messageMarshaller.toJmsMessage(mqMsg);
+        Message msg = toJmsMessage(mqMsg);
 
         if (messageListener != null) {
           messageListener.onMessage(msg);
@@ -94,8 +94,7 @@ abstract class HazelcastMQJmsMessageConsumer implements MessageConsumer {
    * @param destination
    *          the destination from which to consume
    * @param messageSelector
-   *          the message selector to filter incoming messages (currently not
-   *          supported)
+   *          the message selector used to filter incoming messages or null
    * @throws JMSException
    */
   public HazelcastMQJmsMessageConsumer(HazelcastMQConsumer mqConsumer,
@@ -169,7 +168,7 @@ abstract class HazelcastMQJmsMessageConsumer implements MessageConsumer {
         TimeUnit.MILLISECONDS);
 
     if (mqMsg != null) {
-      return messageMarshaller.toJmsMessage(mqMsg);
+      return toJmsMessage(mqMsg);
     }
     else {
       return null;
@@ -186,7 +185,7 @@ abstract class HazelcastMQJmsMessageConsumer implements MessageConsumer {
     HazelcastMQMessage mqMsg = mqConsumer.receiveNoWait();
 
     if (mqMsg != null) {
-      return messageMarshaller.toJmsMessage(mqMsg);
+      return toJmsMessage(mqMsg);
     }
     else {
       return null;
@@ -203,10 +202,31 @@ abstract class HazelcastMQJmsMessageConsumer implements MessageConsumer {
     HazelcastMQMessage mqMsg = mqConsumer.receive();
 
     if (mqMsg != null) {
-      return messageMarshaller.toJmsMessage(mqMsg);
+      return toJmsMessage(mqMsg);
     }
     else {
       return null;
     }
   }
+
+  /**
+   * Converts the received MQ message to a JMS message and associates it with
+   * the session so it can be acknowledged if the session is using
+   * {@link Session#CLIENT_ACKNOWLEDGE}.
+   *
+   * @param mqMsg the MQ message to convert
+   *
+   * @return the JMS message
+   * @throws JMSException if there is a problem converting the message
+   */
+  private Message toJmsMessage(HazelcastMQMessage mqMsg) throws JMSException {
+    Message msg = messageMarshaller.toJmsMessage(mqMsg);
+
+    if (msg instanceof HazelcastMQJmsMessage && session.getAcknowledgeMode()
+        == Session.CLIENT_ACKNOWLEDGE) {
+      ((HazelcastMQJmsMessage) msg).setAcknowledgeSession(session);
+    }
+
+    return msg;
+  }
 }
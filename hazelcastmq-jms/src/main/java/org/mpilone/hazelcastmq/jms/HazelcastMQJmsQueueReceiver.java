@@ -26,7 +26,24 @@ class HazelcastMQJmsQueueReceiver extends HazelcastMQJmsMessageConsumer
   public HazelcastMQJmsQueueReceiver(HazelcastMQConsumer mqConsumer,
       HazelcastMQJmsSession session, HazelcastMQJmsQueue queue)
       throws JMSException {
-    super(mqConsumer, session, queue);
+    this(mqConsumer, session, queue, null);
+  }
+
+  /**
+   * Constructs the receiver which will consume from the given queue.
+   * 
+   * @param session
+   *          the parent session
+   * @param queue
+   *          the queue from which to consume
+   * @param messageSelector
+   *          the message selector used to filter incoming messages or null
+   * @throws JMSException
+   */
+  public HazelcastMQJmsQueueReceiver(HazelcastMQConsumer mqConsumer,
+      HazelcastMQJmsSession session, HazelcastMQJmsQueue queue,
+      String messageSelector) throws JMSException {
+    super(mqConsumer, session, queue, messageSelector);
   }
 
   /*
@@ -40,6 +40,11 @@ class HazelcastMQJmsSession implements Session {
    */
   private final HazelcastMQContext mqContext;
 
+  /**
+   * The JMS acknowledge mode of the session if not transacted.
+   */
+  private final int acknowledgeMode;
+
   /**
    * Constructs the session.
    * 
@@ -47,9 +52,13 @@ class HazelcastMQJmsSession implements Session {
    *          the parent connection
    * @param transacted
    *          true for transactional sending, false otherwise
+   * @param acknowledgeMode
+   *          the JMS acknowledge mode if not transacted. Only
+   *          {@link Session#CLIENT_ACKNOWLEDGE} changes the behavior from
+   *          {@link Session#AUTO_ACKNOWLEDGE}.
    */
   public HazelcastMQJmsSession(HazelcastMQJmsConnection connection,
-      boolean transacted) {
+      boolean transacted, int acknowledgeMode) {
     this.connection = connection;
 
     HazelcastMQJmsConfig config = this.connection.getConfig();
@@ -57,6 +66,16 @@ class HazelcastMQJmsSession implements Session {
     this.mqContext = config.getHazelcastMQInstance().createContext(transacted);
 
     mqContext.setAutoStart(false);
+
+    // DUPS_OK_ACKNOWLEDGE is handled as AUTO_ACKNOWLEDGE.
+    if (!transacted && acknowledgeMode == CLIENT_ACKNOWLEDGE) {
+      this.acknowledgeMode = CLIENT_ACKNOWLEDGE;
+      mqContext.setAcknowledgeMode(HazelcastMQConfig.AcknowledgeMode.CLIENT);
+    }
+    else {
+      this.acknowledgeMode = AUTO_ACKNOWLEDGE;
+      mqContext.setAcknowledgeMode(HazelcastMQConfig.AcknowledgeMode.AUTO);
+    }
   }
 
   /**
@@ -101,40 +120,60 @@ class HazelcastMQJmsSession implements Session {
   @Override
   public MessageConsumer createConsumer(Destination destination)
       throws JMSException {
+    return createConsumer(destination, (String) null);
+  }
+
+  @Override
+  public MessageConsumer createConsumer(Destination destination,
+      String messageSelector) throws JMSException {
+
+    // An empty selector is the same as no selector per the JMS specification.
+    if (messageSelector != null && messageSelector.trim().isEmpty()) {
+      messageSelector = null;
+    }
+
+    MessageSelector mqSelector = null;
+    if (messageSelector != null) {
+      // A converter that stores JMS headers and properties under different MQ
+      // header names maps the selector identifiers to those names.
+      MessageConverter converter = getConfig().getMessageConverter();
+      MessageSelector.IdentifierMapper mapper =
+          converter instanceof MessageSelector.IdentifierMapper
+          ? (MessageSelector.IdentifierMapper) converter : null;
+
+      try {
+        mqSelector = MessageSelector.compile(messageSelector, mapper);
+      }
+      catch (HazelcastMQException.InvalidSelectorException ex) {
+        InvalidSelectorException jmsEx = new InvalidSelectorException(ex.
+            getMessage());
+        jmsEx.initCause(ex);
+        throw jmsEx;
+      }
+    }
 
     HazelcastMQJmsMessageConsumer consumer = null;
 
     if (destination instanceof HazelcastMQJmsTopic) {
       HazelcastMQJmsTopic topic = (HazelcastMQJmsTopic) destination;
       HazelcastMQConsumer mqConsumer = mqContext.createConsumer(topic
-          .getMqName());
+          .getMqName(), mqSelector);
 
-      consumer = new HazelcastMQJmsTopicSubscriber(mqConsumer, this, topic);
+      consumer = new HazelcastMQJmsTopicSubscriber(mqConsumer, this, topic,
+          messageSelector);
     }
     else {
       HazelcastMQJmsQueue queue = (HazelcastMQJmsQueue) destination;
       HazelcastMQConsumer mqConsumer = mqContext.createConsumer(queue
-          .getMqName());
+          .getMqName(), mqSelector);
 
-      consumer = new HazelcastMQJmsQueueReceiver(mqConsumer, this, queue);
+      consumer = new HazelcastMQJmsQueueReceiver(mqConsumer, this, queue,
+          messageSelector);
     }
 
     return consumer;
   }
 
-  @Override
-  public MessageConsumer createConsumer(Destination destination,
-      String messageSelector) throws JMSException {
-
-    if (messageSelector != null) {
-      throw new UnsupportedOperationException(format(
-          "Creating consumer with selector [%s] but "
-              + "selectors are not currently supported.", messageSelector));
-    }
-
-    return createConsumer(destination);
-  }
-
   @Override
   public MessageConsumer createConsumer(Destination destination,
       String messageSelector, boolean noLocal) throws JMSException {
@@ -233,7 +272,7 @@ class HazelcastMQJmsSession implements Session {
       return SESSION_TRANSACTED;
     }
     else {
-      return AUTO_ACKNOWLEDGE;
+      return acknowledgeMode;
     }
   }
 
@@ -249,7 +288,15 @@ class HazelcastMQJmsSession implements Session {
 
   @Override
   public void recover() throws JMSException {
-    // no op
+    mqContext.recover();
+  }
+
+  /**
+   * Acknowledges all messages consumed by the session if the session is using
+   * {@link Session#CLIENT_ACKNOWLEDGE}.
+   */
+  void acknowledge() {
+    mqContext.acknowledge();
   }
 
   @Override
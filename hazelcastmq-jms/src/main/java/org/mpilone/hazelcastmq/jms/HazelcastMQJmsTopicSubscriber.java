@@ -26,7 +26,24 @@ class HazelcastMQJmsTopicSubscriber extends HazelcastMQJmsMessageConsumer
   public HazelcastMQJmsTopicSubscriber(HazelcastMQConsumer mqConsumer,
       HazelcastMQJmsSession session, HazelcastMQJmsTopic topic)
       throws JMSException {
-    super(mqConsumer, session, topic);
+    this(mqConsumer, session, topic, null);
+  }
+
+  /**
+   * Constructs the subscriber which will consume from the given topic.
+   * 
+   * @param session
+   *          the parent session
+   * @param topic
+   *          the topic from which to consume
+   * @param messageSelector
+   *          the message selector used to filter incoming messages or null
+   * @throws JMSException
+   */
+  public HazelcastMQJmsTopicSubscriber(HazelcastMQConsumer mqConsumer,
+      HazelcastMQJmsSession session, HazelcastMQJmsTopic topic,
+      String messageSelector) throws JMSException {
+    super(mqConsumer, session, topic, messageSelector);
   }
 
   /*
@@ -9,7 +9,9 @@ import org.mpilone.yeti.FrameBuilder;
 /**
  * Converts a STOMP Frame to and from a {@link HazelcastMQMessage}. This
  * implementation simply does a 1 to 1 copy of the headers and body from a frame
- * to a message.
+ * to a message. A body held in a buffer, such as a streamed body, is not
+ * copied. The message body is a view of the frame's buffer so the message must
+ * be sent before the frame is released.
   *
  * @author mpilone
  */
@@ -38,7 +40,12 @@ public class DefaultFrameConverter implements FrameConverter {
       msg.getHeaders().put(name, value);
     }
 
-    msg.setBody(frame.getBody());
+    if (frame.isBodyBuffered()) {
+      msg.setBody(frame.getBodyBuffer().nioBuffer());
+    }
+    else {
+      msg.setBody(frame.getBody());
+    }
 
     return msg;
   }
@@ -46,6 +46,9 @@ public class DefaultHazelcastMQStompInstance implements HazelcastMQStompInstance
         this.config.getMaxFrameSize(),
         this.config.getPort(),
         new HazelcastMQStompletFactory());
+    this.stompServer.setMaxStreamedBodySize(config.getMaxStreamedBodySize());
+    this.stompServer.setMaxWriteBatchFrames(config.getMaxWriteBatchFrames());
+    this.stompServer.setMaxWriteBatchBytes(config.getMaxWriteBatchBytes());
 
     try {
       // Bind and start to accept incoming connections.
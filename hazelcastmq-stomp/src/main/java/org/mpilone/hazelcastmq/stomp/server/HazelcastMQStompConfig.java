@@ -2,6 +2,7 @@ package org.mpilone.hazelcastmq.stomp.server;
 
 import org.mpilone.hazelcastmq.core.HazelcastMQInstance;
 import org.mpilone.yeti.StompFrameDecoder;
+import org.mpilone.yeti.StompletFrameHandler;
 
 /**
  * The configuration of the STOMP server.
@@ -11,6 +12,9 @@ import org.mpilone.yeti.StompFrameDecoder;
 public class HazelcastMQStompConfig {
 
   private int maxFrameSize;
+  private int maxStreamedBodySize;
+  private int maxWriteBatchFrames;
+  private int maxWriteBatchBytes;
   private int port;
   private HazelcastMQInstance hazelcastMQInstance;
   private FrameConverter frameConverter;
@@ -31,6 +35,12 @@ public class HazelcastMQStompConfig {
    * <li>frameConverter: {@link DefaultFrameConverter}</li>
    * <li>frameDebugEnabled: false</li>
    * <li>maxFrameSize: {@link StompFrameDecoder#DEFAULT_MAX_FRAME_SIZE}</li>
+   * <li>maxStreamedBodySize:
+   * {@link StompFrameDecoder#DEFAULT_MAX_STREAMED_BODY_SIZE}</li>
+   * <li>maxWriteBatchFrames:
+   * {@link StompletFrameHandler#DEFAULT_MAX_WRITE_BATCH_FRAMES}</li>
+   * <li>maxWriteBatchBytes:
+   * {@link StompletFrameHandler#DEFAULT_MAX_WRITE_BATCH_BYTES}</li>
    * </ul>
    * 
    * @param mqInstance the HzMq instance to use for all message consumers and
@@ -42,6 +52,9 @@ public class HazelcastMQStompConfig {
     frameConverter = new DefaultFrameConverter();
     port = 8032;
     maxFrameSize = StompFrameDecoder.DEFAULT_MAX_FRAME_SIZE;
+    maxStreamedBodySize = StompFrameDecoder.DEFAULT_MAX_STREAMED_BODY_SIZE;
+    maxWriteBatchFrames = StompletFrameHandler.DEFAULT_MAX_WRITE_BATCH_FRAMES;
+    maxWriteBatchBytes = StompletFrameHandler.DEFAULT_MAX_WRITE_BATCH_BYTES;
   }
 
   /**
@@ -64,6 +77,75 @@ public class HazelcastMQStompConfig {
     return maxFrameSize;
   }
 
+  /**
+   * Sets the maximum size in bytes of a SEND body that is streamed into a
+   * direct buffer when its content-length exceeds the maximum frame size. A
+   * streamed body is passed to HazelcastMQ as a buffer without being copied
+   * onto the heap so large messages can be sent without raising the maximum
+   * frame size of every connection. A value of 0 disables streaming.
+   *
+   * @param maxStreamedBodySize the maximum streamed body size in bytes or 0 to
+   * disable streaming
+   */
+  public void setMaxStreamedBodySize(int maxStreamedBodySize) {
+    this.maxStreamedBodySize = maxStreamedBodySize;
+  }
+
+  /**
+   * Returns the maximum size in bytes of a SEND body that is streamed into a
+   * direct buffer when its content-length exceeds the maximum frame size.
+   *
+   * @return the maximum streamed body size in bytes or 0 if streaming is
+   * disabled
+   */
+  public int getMaxStreamedBodySize() {
+    return maxStreamedBodySize;
+  }
+
+  /**
+   * Sets the maximum number of frames written to a client connection before
+   * it is flushed. Frames such as the messages dispatched to a subscription
+   * are written without being flushed and flushed together once the burst of
+   * writes ends so a fast consumer receives many messages per network write.
+   *
+   * @param maxWriteBatchFrames the maximum number of frames per flush or 1 to
+   * flush every frame
+   */
+  public void setMaxWriteBatchFrames(int maxWriteBatchFrames) {
+    this.maxWriteBatchFrames = maxWriteBatchFrames;
+  }
+
+  /**
+   * Returns the maximum number of frames written to a client connection
+   * before it is flushed.
+   *
+   * @return the maximum number of frames per flush
+   */
+  public int getMaxWriteBatchFrames() {
+    return maxWriteBatchFrames;
+  }
+
+  /**
+   * Sets the maximum number of body bytes written to a client connection
+   * before it is flushed. This limits the amount of data held back from the
+   * client when large messages are dispatched in a burst.
+   *
+   * @param maxWriteBatchBytes the maximum number of body bytes per flush
+   */
+  public void setMaxWriteBatchBytes(int maxWriteBatchBytes) {
+    this.maxWriteBatchBytes = maxWriteBatchBytes;
+  }
+
+  /**
+   * Returns the maximum number of body bytes written to a client connection
+   * before it is flushed.
+   *
+   * @return the maximum number of body bytes per flush
+   */
+  public int getMaxWriteBatchBytes() {
+    return maxWriteBatchBytes;
+  }
+
   /**
    * Sets the port to which the server will bind to listen for incoming
    * connections.
@@ -246,7 +246,10 @@ class HazelcastMQStomplet extends ConnectDisconnectStomplet {
     // Create the producer.
     HazelcastMQProducer producer = context.createProducer();
 
-    // Convert and send the message.
+    // Convert and send the message. A streamed body is passed through as a
+    // view of the frame's direct buffer rather than being copied onto the heap.
+    // The send serializes the message before returning so the buffer is no
+    // longer needed when the frame is released after this method.
     producer.send(destName, config.getFrameConverter().fromFrame(frame));
 
     writeOptionalReceipt(frame, res.getFrameChannel());
@@ -2,13 +2,27 @@ package org.mpilone.yeti;
 
 import java.nio.charset.Charset;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.util.ReferenceCounted;
+
 /**
+ * <p>
  * A STOMP frame as defined by the specification. Frames are immutable and
  * should be constructed (or duplicated) using a {@link FrameBuilder}.
-  *
+ * </p>
+ * <p>
+ * The body of a frame is normally a byte array. Large bodies may instead be
+ * held in a reference counted {@link ByteBuf}, such as the direct buffers
+ * created by the {@link StompFrameDecoder} for streamed bodies, so they never
+ * have to be copied onto the heap. The reference count of the frame is the
+ * reference count of its body buffer, or always 1 for a frame without one, so
+ * the frame is released by Netty handlers in the same way as a buffer.
+ * </p>
+ *
  * @author mpilone
  */
-public class Frame {
+public class Frame implements ReferenceCounted {
 
   /**
    * The frame command.
@@ -21,10 +35,17 @@ public class Frame {
   private final Headers headers;
 
   /**
-   * The body of the frame or null if there was no body.
+   * The body of the frame or null if there was no body or the body is a
+   * buffer.
    */
   private final byte[] body;
 
+  /**
+   * The body of the frame as a reference counted buffer or null if there was
+   * no body or the body is an array.
+   */
+  private final ByteBuf bodyBuffer;
+
   /**
    * Constructs the frame.
    *
@@ -33,6 +54,32 @@ public class Frame {
    * @param body the optional body
    */
   public Frame(Command command, Headers headers, byte[] body) {
+    this(command, headers, body, null);
+  }
+
+  /**
+   * Constructs the frame with a body held in a reference counted buffer. The
+   * frame takes ownership of the buffer and it will be released when the frame
+   * is released.
+   *
+   * @param command the required frame command
+   * @param headers the optional headers
+   * @param body the optional body buffer
+   */
+  public Frame(Command command, Headers headers, ByteBuf body) {
+    this(command, headers, null, body);
+  }
+
+  /**
+   * Constructs the frame.
+   *
+   * @param command the required frame command
+   * @param headers the optional headers
+   * @param body the optional body array
+   * @param bodyBuffer the optional body buffer
+   */
+  private Frame(Command command, Headers headers, byte[] body,
+      ByteBuf bodyBuffer) {
     if (command == null) {
       throw new IllegalArgumentException("A command is required for all "
           + "STOMP frames.");
@@ -41,6 +88,7 @@ public class Frame {
     this.command = command;
     this.headers = headers == null ? new DefaultHeaders() : headers;
     this.body = body;
+    this.bodyBuffer = bodyBuffer;
   }
 
   /**
@@ -63,14 +111,69 @@ public class Frame {
     return headers;
   }
   /**
-   * Returns the body of the frame, or null if there is no body.
+   * Returns the body of the frame, or null if there is no body. If the body is
+   * held in a buffer, it is copied into a new array on every call so
+   * {@link #getBodyBuffer()} should be used for large bodies.
    * 
    * @return the body of the frame
    */
   public byte[] getBody() {
+    if (bodyBuffer != null) {
+      byte[] data = new byte[bodyBuffer.readableBytes()];
+      bodyBuffer.getBytes(bodyBuffer.readerIndex(), data);
+      return data;
+    }
+
     return body;
   }
 
+  /**
+   * Returns the body of the frame as a buffer, or null if there is no body.
+   * The body is not copied. The returned buffer has independent indexes but
+   * shares the content and the reference count of the frame's body so it is
+   * only valid until the frame is released.
+   *
+   * @return the body of the frame as a buffer
+   */
+  public ByteBuf getBodyBuffer() {
+    if (bodyBuffer != null) {
+      return bodyBuffer.duplicate();
+    }
+    else if (body != null) {
+      return Unpooled.wrappedBuffer(body);
+    }
+    else {
+      return null;
+    }
+  }
+
+  /**
+   * Returns true if the body of the frame is held in a reference counted
+   * buffer rather than an array.
+   *
+   * @return true if the body is a buffer
+   */
+  public boolean isBodyBuffered() {
+    return bodyBuffer != null;
+  }
+
+  /**
+   * Returns the length of the body in bytes.
+   *
+   * @return the length of the body or 0 if there is no body
+   */
+  public int getBodyLength() {
+    if (bodyBuffer != null) {
+      return bodyBuffer.readableBytes();
+    }
+    else if (body != null) {
+      return body.length;
+    }
+    else {
+      return 0;
+    }
+  }
+
   /**
    * Returns the body as a String using the character set encoding in the
    * content-type header or UTF-8 if no character set is specified in the
@@ -106,7 +209,10 @@ public class Frame {
    * @return the body as a string or null
    */
   public String getBodyAsString(Charset charset) {
-    if (body != null) {
+    if (bodyBuffer != null) {
+      return bodyBuffer.toString(charset);
+    }
+    else if (body != null) {
       return new String(body, charset);
     }
     else {
@@ -114,9 +220,41 @@ public class Frame {
     }
   }
 
+  @Override
+  public int refCnt() {
+    return bodyBuffer == null ? 1 : bodyBuffer.refCnt();
+  }
+
+  @Override
+  public Frame retain() {
+    if (bodyBuffer != null) {
+      bodyBuffer.retain();
+    }
+    return this;
+  }
+
+  @Override
+  public Frame retain(int increment) {
+    if (bodyBuffer != null) {
+      bodyBuffer.retain(increment);
+    }
+    return this;
+  }
+
+  @Override
+  public boolean release() {
+    return bodyBuffer != null && bodyBuffer.release();
+  }
+
+  @Override
+  public boolean release(int decrement) {
+    return bodyBuffer != null && bodyBuffer.release(decrement);
+  }
+
   @Override
   public String toString() {
     return "Frame{" + "command=" + command + ", headers=" + headers + ", body="
-        + (body != null ? body.length + " bytes" : "null") + '}';
+        + (body != null || bodyBuffer != null ? getBodyLength() + " bytes"
+        : "null") + '}';
   }
 }
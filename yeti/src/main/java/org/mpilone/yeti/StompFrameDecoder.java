@@ -3,31 +3,89 @@ package org.mpilone.yeti;
 import static java.lang.String.format;
 import static org.mpilone.yeti.StompConstants.*;
 
+import java.util.Arrays;
 import java.util.List;
 
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.ByteBufProcessor;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.*;
 
 /**
+ * <p>
  * A STOMP frame decoder that processes raw bytes into {@link Frame} instances.
+ * </p>
+ * <p>
+ * The decoder never scans the same bytes twice when a frame arrives in
+ * multiple reads. The position of a partially received line is remembered
+ * between reads and body bytes are moved out of the input buffer as they
+ * arrive, into a {@link CompositeByteBuf} when the body spans multiple reads,
+ * so a large body without a content-length header is scanned for the
+ * terminating NULL character only once.
+ * </p>
+ * <p>
+ * Bodies larger than the maximum frame size can optionally be streamed. If a
+ * maximum streamed body size is set and the content-length header of a frame
+ * would exceed the maximum frame size, the body is read as it arrives into a
+ * single pooled direct buffer of exactly the content length rather than a
+ * heap array. The frame is emitted with the buffer as its body (see
+ * {@link Frame#getBodyBuffer()}) and must be released once it has been
+ * processed, which the {@link StompletFrameHandler} does automatically. This
+ * allows large messages on a connection without raising the maximum frame
+ * size, which also limits the headers and bodies without a content-length.
+ * </p>
  *
  * @author mpilone
  */
-public class StompFrameDecoder extends ReplayingDecoder<StompFrameDecoder.DecoderState> {
+public class StompFrameDecoder extends ByteToMessageDecoder {
 
   /**
    * The default maximum frame size in bytes. The default value is 128 KiB.
    */
   public static final int DEFAULT_MAX_FRAME_SIZE = 128 * 1024;
 
-  private int totalDecodedByteCount;
-  private int currentDecodedByteCount;
+  /**
+   * The default maximum streamed body size in bytes. The default value is 0
+   * which disables body streaming.
+   */
+  public static final int DEFAULT_MAX_STREAMED_BODY_SIZE = 0;
+
+  /**
+   * The well-known header names indexed by their length. Header names decoded
+   * from a frame are matched against this table so the common names are
+   * shared, interned instances rather than new strings for every frame.
+   */
+  private static final String[][] KNOWN_HEADER_NAMES = buildKnownHeaderNames(
+      Headers.CONTENT_TYPE, Headers.CONTENT_LENGTH, Headers.DESTINATION,
+      Headers.RECEIPT, Headers.RECEIPT_ID, Headers.ID, Headers.ACK,
+      Headers.TRANSACTION, Headers.VERSION, Headers.ACCEPT_VERSION,
+      Headers.HOST, Headers.LOGIN, Headers.PASSCODE, Headers.HEART_BEAT,
+      Headers.SESSION, Headers.SERVER, Headers.MESSAGE_ID,
+      Headers.SUBSCRIPTION, Headers.MESSAGE);
+
+  /**
+   * A processor that finds the colon separating a header name and value.
+   */
+  private static final ByteBufProcessor FIND_COLON = new ByteBufProcessor() {
+    @Override
+    public boolean process(byte value) throws Exception {
+      return value != COLON_CHAR;
+    }
+  };
+
+  private DecoderState state;
+  private int frameByteCount;
+  private int scanIndex;
   private Command command;
   private DefaultHeaders headers;
+  private int contentLength;
+  private CompositeByteBuf bodyBuf;
+  private ByteBuf streamedBody;
   private byte[] body;
   private int maxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+  private int maxStreamedBodySize = DEFAULT_MAX_STREAMED_BODY_SIZE;
+  private final HeaderUnescaper headerUnescaper = new HeaderUnescaper();
 
   /**
    * A "magic" header that indicates that the frame was poorly formatted. If set
@@ -51,9 +109,22 @@ public class StompFrameDecoder extends ReplayingDecoder<StompFrameDecoder.Decode
    * @param maxFrameSize the maximum size of a single FRAME
    */
   public StompFrameDecoder(int maxFrameSize) {
-    super(DecoderState.READ_CONTROL_CHARS);
+    this(maxFrameSize, DEFAULT_MAX_STREAMED_BODY_SIZE);
+  }
 
+  /**
+   * Constructs the decoder with the given maximum frame size and maximum
+   * streamed body size.
+   *
+   * @param maxFrameSize the maximum size of a single FRAME
+   * @param maxStreamedBodySize the maximum size of a body with a
+   * content-length that is streamed into a direct buffer when it exceeds the
+   * maximum frame size or 0 to disable streaming
+   */
+  public StompFrameDecoder(int maxFrameSize, int maxStreamedBodySize) {
     this.maxFrameSize = maxFrameSize;
+    this.maxStreamedBodySize = maxStreamedBodySize;
+    this.state = DecoderState.READ_CONTROL_CHARS;
     reset();
   }
 
@@ -61,67 +132,72 @@ public class StompFrameDecoder extends ReplayingDecoder<StompFrameDecoder.Decode
   protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
       throws Exception {
 
-    DecoderState nextState;
+    DecoderState lastState;
+    int lastReadableBytes;
+
+    // Keep decoding as long as progress is being made. A state change doesn't
+    // always consume bytes so the loop can't be left to the caller.
+    do {
+      lastState = state;
+      lastReadableBytes = in.readableBytes();
+
+      try {
+        switch (state) {
+          case READ_CONTROL_CHARS:
+            state = readControlChars(in);
+            break;
+
+          case READ_COMMAND:
+            state = readCommand(in);
+            break;
+
+          case READ_HEADERS:
+            state = readHeaders(in);
+            break;
+
+          case READ_BODY:
+            state = readBody(ctx, in);
+            if (state != DecoderState.READ_BODY) {
+              // Found the end of the body. Build the frame and reset.
+              out.add(buildFrame());
+              reset();
+            }
+            break;
+
+          case DISCARD_FRAME:
+            state = readAndDiscard(in);
+            if (state != DecoderState.DISCARD_FRAME) {
+              reset();
+            }
+            break;
 
-    // Reset the bytes read for this single decode pass.
-    currentDecodedByteCount = 0;
-
-    try {
-      switch (state()) {
-        case READ_CONTROL_CHARS:
-          nextState = readControlChars(in);
-          checkpoint(nextState);
-          break;
-
-        case READ_COMMAND:
-          nextState = readCommand(in);
-          checkpoint(nextState);
-          break;
-
-        case READ_HEADERS:
-          nextState = readHeaders(in);
-          checkpoint(nextState);
-          break;
-
-        case READ_BODY:
-          nextState = readBody(in);
-          if (nextState != DecoderState.READ_BODY) {
-            // Found the end of the body. Build the frame and reset.
-            out.add(buildFrame());
-            reset();
-          }
-          checkpoint(nextState);
-          break;
-
-        case DISCARD_FRAME:
-          nextState = readAndDiscard(in);
-          if (nextState != DecoderState.DISCARD_FRAME) {
-            reset();
-          }
-          checkpoint(nextState);
-          break;
-
-        default:
-          // This should never happen unless there is a bug in the decoder.
-          throw new IllegalStateException("Unknown state: " + state());
+          default:
+            // This should never happen unless there is a bug in the decoder.
+            throw new IllegalStateException("Unknown state: " + state);
+        }
+      }
+      catch (CorruptedFrameException | TooLongFrameException ex) {
+        out.add(buildFrame(ex));
+        reset();
+        state = DecoderState.DISCARD_FRAME;
       }
-
-      totalDecodedByteCount += currentDecodedByteCount;
-    }
-    catch (CorruptedFrameException | TooLongFrameException ex) {
-      out.add(buildFrame(ex));
-      reset();
-      checkpoint(DecoderState.DISCARD_FRAME);
     }
+    while (state != lastState || in.readableBytes() != lastReadableBytes);
+  }
+
+  @Override
+  protected void handlerRemoved0(ChannelHandlerContext ctx) throws Exception {
+    // Release any partially accumulated body.
+    reset();
+    super.handlerRemoved0(ctx);
   }
 
   /**
    * <p>
-   * Reads a single line of UTF-8 text from the stream and returns once an EOL
-   * is found. STOMP defines the EOL as a new line character with an optional
-   * leading carriage return character. The EOL character(s) will be removed
-   * from the returned data. If no EOL character is found, this method does not
-   * read any data from the input buffer.
+   * Finds the next EOL in the input buffer starting from the position where
+   * the previous search for the current line stopped. STOMP defines the EOL
+   * as a new line character with an optional leading carriage return
+   * character. No data is read from the input buffer.
    * </p>
    * <p>
    * This method checks for too long frames.
@@ -129,106 +205,183 @@ public class StompFrameDecoder extends ReplayingDecoder<StompFrameDecoder.Decode
    *
    * @param in the input buffer to read from
    *
-   * @return the next decoder state or null if no EOL is available in the buffer
+   * @return the index of the line feed character or -1 if no EOL is available
+   * in the buffer
    */
-  private String readLine(ByteBuf in) {
-
-    int bytesToRead;
-    byte[] data = null;
-    int bytesToSkip;
-
-    if ((bytesToRead = in.bytesBefore((byte) LINE_FEED_CHAR)) > -1) {
-      // Found the line feed.
-      bytesToSkip = 1;
-
-      // Check (and ignore) optional carriage return.
-      if (bytesToRead > 0 && in.getByte(bytesToRead - 1) == CARRIAGE_RETURN_CHAR) {
-        bytesToSkip++;
-        bytesToRead--;
-      }
-
-      // Check that the bytes we're about to read will not exceed the
-      // max frame size.
-      checkTooLongFrame(bytesToRead);
+  private int findEndOfLine(ByteBuf in) {
 
-      data = new byte[bytesToRead];
-      in.readBytes(data);
-      in.skipBytes(bytesToSkip);
+    int index = in.forEachByte(in.readerIndex() + scanIndex, in.
+        readableBytes() - scanIndex, ByteBufProcessor.FIND_LF);
 
-      // Count the bytes read.
-      currentDecodedByteCount += bytesToRead;
+    if (index == -1) {
+      // No line feed. Remember how far we scanned and make sure we're not
+      // buffering more than the max frame size.
+      scanIndex = in.readableBytes();
+      checkTooLongFrame(scanIndex);
     }
     else {
-      // No line feed. Make sure we're not buffering more than the max
-      // frame size.
-      checkTooLongFrame(in.readableBytes());
+      scanIndex = 0;
     }
 
-    if (data != null) {
-      return new String(data, StompConstants.UTF_8);
-    }
-    else {
-      return null;
+    return index;
+  }
+
+  /**
+   * Returns the index of the end of the line with the given line feed index,
+   * excluding the optional carriage return.
+   *
+   * @param in the input buffer
+   * @param eol the index of the line feed character
+   *
+   * @return the index of the first byte of the EOL
+   */
+  private static int getEndOfLineContent(ByteBuf in, int eol) {
+    if (eol > in.readerIndex() && in.getByte(eol - 1) == CARRIAGE_RETURN_CHAR) {
+      return eol - 1;
     }
+
+    return eol;
   }
 
   /**
    * Reads the body of the frame using the content-length header if available.
+   * Available body bytes are always consumed from the input buffer. If the
+   * whole body is available at once it is read directly into the body array,
+   * otherwise the bytes are accumulated in a composite buffer until the end of
+   * the body arrives.
    *
+   * @param ctx the channel handler context used to allocate buffers
    * @param in the input buffer to read from
    *
    * @return the next decoder state
    */
-  private DecoderState readBody(ByteBuf in) {
+  private DecoderState readBody(ChannelHandlerContext ctx, ByteBuf in) {
 
     int bytesToRead;
-    DecoderState nextState = DecoderState.READ_BODY;
+    boolean complete;
+
+    // See if the body should be streamed.
+    if (streamedBody != null || (contentLength > -1 && maxStreamedBodySize > 0
+        && frameByteCount + contentLength > maxFrameSize)) {
+      return readStreamedBody(ctx, in);
+    }
 
     // See if we have a content-length header.
-    if (headers.getHeaderNames().contains(Headers.CONTENT_LENGTH)) {
-      // Read the number of bytes specified in the content-length header.
-      bytesToRead = Integer.valueOf(headers.get(Headers.CONTENT_LENGTH));
+    if (contentLength > -1) {
+      // Read the number of bytes remaining from the content-length header.
+      int remaining = contentLength - (bodyBuf == null ? 0 : bodyBuf.
+          readableBytes());
 
-      // If we don't have enough bytes yet we won't try to read anything.
-      if (in.readableBytes() < bytesToRead + 1) {
-        bytesToRead = -1;
-      }
+      // Make sure the body is less than the max frame size before buffering
+      // any of it.
+      checkTooLongFrame(remaining);
+
+      bytesToRead = Math.min(remaining, in.readableBytes());
+      complete = bytesToRead == remaining && in.readableBytes() > remaining;
     }
     else {
       bytesToRead = in.bytesBefore((byte) NULL_CHAR);
-    }
+      complete = bytesToRead > -1;
 
-    // Make sure the buffer or the number of bytes to read is less than
-    // the max frame size.
-    checkTooLongFrame(bytesToRead == -1 ? in.readableBytes() : bytesToRead);
+      if (!complete) {
+        bytesToRead = in.readableBytes();
+      }
 
-    // We want to avoid creating a new byte[] for the body for each call if the 
-    // full body isn't available yet. Therefore we'll simply not read anything
-    // if we don't have all the data we need yet.
-    if (bytesToRead > -1) {
+      checkTooLongFrame(bytesToRead);
+    }
 
-      // An empty body is valid. If so, we'll just leave the body null
-      // in the frame.
+    if (complete && bodyBuf == null) {
+      // The whole body is available so there is no need to accumulate it.
+      // An empty body is valid. If so, we'll just leave the body null in the
+      // frame.
       if (bytesToRead > 0) {
-        byte[] data = new byte[bytesToRead];
-        in.readBytes(data, 0, data.length);
-        body = data;
+        body = new byte[bytesToRead];
+        in.readBytes(body);
+      }
+    }
+    else if (bytesToRead > 0) {
+      if (bodyBuf == null) {
+        bodyBuf = ctx.alloc().compositeBuffer(Integer.MAX_VALUE);
       }
 
-      // Sanity check that the frame ends appropriately.
-      if (in.readByte() != NULL_CHAR) {
-        throw new CorruptedFrameException("Frame must end with NULL character.");
+      bodyBuf.addComponent(in.readBytes(bytesToRead));
+      bodyBuf.writerIndex(bodyBuf.writerIndex() + bytesToRead);
+    }
+
+    frameByteCount += bytesToRead;
+
+    if (!complete) {
+      return DecoderState.READ_BODY;
+    }
+
+    if (bodyBuf != null) {
+      body = new byte[bodyBuf.readableBytes()];
+      bodyBuf.readBytes(body);
+      bodyBuf.release();
+      bodyBuf = null;
+    }
+
+    // Sanity check that the frame ends appropriately.
+    if (in.readByte() != NULL_CHAR) {
+      throw new CorruptedFrameException("Frame must end with NULL character.");
+    }
+
+    return DecoderState.READ_CONTROL_CHARS;
+  }
+
+  /**
+   * Reads a body that exceeds the maximum frame size into a direct buffer of
+   * exactly the content length. Available body bytes are always consumed from
+   * the input buffer.
+   *
+   * @param ctx the channel handler context used to allocate buffers
+   * @param in the input buffer to read from
+   *
+   * @return the next decoder state
+   */
+  private DecoderState readStreamedBody(ChannelHandlerContext ctx, ByteBuf in) {
+
+    if (streamedBody == null) {
+      if (contentLength > maxStreamedBodySize) {
+        throw new TooLongFrameException(format(
+            "Body size [%d] is larger than the maximum streamed body size "
+            + "[%d]. Decoding will be aborted.", contentLength,
+            maxStreamedBodySize));
       }
 
-      currentDecodedByteCount += bytesToRead;
-      nextState = DecoderState.READ_CONTROL_CHARS;
+      streamedBody = ctx.alloc().directBuffer(contentLength, contentLength);
     }
 
-    return nextState;
+    int bytesToRead = Math.min(streamedBody.writableBytes(), in.
+        readableBytes());
+    if (bytesToRead > 0) {
+      in.readBytes(streamedBody, bytesToRead);
+    }
+
+    if (streamedBody.isWritable() || !in.isReadable()) {
+      return DecoderState.READ_BODY;
+    }
+
+    // Sanity check that the frame ends appropriately.
+    if (in.readByte() != NULL_CHAR) {
+      throw new CorruptedFrameException("Frame must end with NULL character.");
+    }
+
+    return DecoderState.READ_CONTROL_CHARS;
   }
 
   /**
+   * <p>
    * Reads the headers of the frame if available.
+   * </p>
+   * <p>
+   * Each header line is scanned in place in the input buffer rather than
+   * being copied into a line string and split. Well-known header names are
+   * resolved from {@link #KNOWN_HEADER_NAMES} without decoding and other names
+   * and values are unescaped and decoded in a single pass. Each complete
+   * header line is consumed as soon as it is read so a partial frame doesn't
+   * cause the headers already read to be decoded again.
+   * </p>
    *
    * @param in the input buffer to read from
    *
@@ -237,51 +390,130 @@ public class StompFrameDecoder extends ReplayingDecoder<StompFrameDecoder.Decode
   private DecoderState readHeaders(ByteBuf in) {
 
     DecoderState nextState = DecoderState.READ_HEADERS;
-    String line;
 
     // Read as long as we haven't reached the end of the headers (i.e.
     // the next state) and we have full lines to read.
-    while (nextState == DecoderState.READ_HEADERS && (line = readLine(in))
-        != null) {
+    while (nextState == DecoderState.READ_HEADERS) {
+      int eol = findEndOfLine(in);
+      if (eol == -1) {
+        break;
+      }
+
+      // Check (and ignore) optional carriage return.
+      int start = in.readerIndex();
+      int end = getEndOfLineContent(in, eol);
 
-      if (line.isEmpty()) {
+      // Check that the line will not exceed the max frame size.
+      int length = end - start;
+      checkTooLongFrame(length);
+
+      if (length == 0) {
         nextState = DecoderState.READ_BODY;
       }
       else {
-        int pos = line.indexOf(COLON_CHAR);
-        if (pos > 0) {
-          String key = line.substring(0, pos);
-
-          // The spec defines that only the first occurrance of a header
-          // should be preserved in a single frame.
-          if (!headers.getHeaderNames().contains(key)) {
-
-            // Move past the colon delimiter.
-            pos++;
-
-            // Extract the value and decode header value as per the spec. Is
-            // there a faster way to do this than a bunch of individual
-            // replaces?
-            String value = pos >= line.length() ? null : line.substring(pos).
-                replace(OCTET_92_92, OCTET_92)
-                .replace(OCTET_92_99, OCTET_58)
-                .replace(OCTET_92_110, OCTET_10)
-                .replace(OCTET_92_114, OCTET_13);
-
-            headers.put(key, value);
-          }
-        }
-        else {
+        int colon = in.forEachByte(start, length, FIND_COLON);
+        if (colon == -1 || colon == start) {
           // Invalid frame. A header must contain a ':'.
           throw new CorruptedFrameException("Header must contain a name and "
               + "value separated by a colon character.");
         }
+
+        String key = decodeHeaderName(in, start, colon - start);
+
+        // The spec defines that only the first occurrance of a header
+        // should be preserved in a single frame.
+        if (!headers.containsKey(key)) {
+
+          // Extract the value and decode header value as per the spec.
+          String value = colon + 1 == end ? null : decodeHeaderValue(in,
+              colon + 1, end - colon - 1);
+
+          if (key == Headers.CONTENT_LENGTH) {
+            contentLength = parseContentLength(value);
+          }
+
+          headers.put(key, value);
+        }
       }
+
+      // Move past the line and the EOL.
+      in.readerIndex(eol + 1);
+      frameByteCount += length;
     }
 
     return nextState;
   }
 
+  /**
+   * Decodes the header name in the given range of the input buffer. If the
+   * name is one of the {@link #KNOWN_HEADER_NAMES}, the shared name instance
+   * is returned.
+   *
+   * @param in the input buffer to read from
+   * @param index the index of the first byte of the name
+   * @param length the length of the name in bytes
+   *
+   * @return the header name
+   */
+  private String decodeHeaderName(ByteBuf in, int index, int length) {
+    if (length < KNOWN_HEADER_NAMES.length && KNOWN_HEADER_NAMES[length]
+        != null) {
+      for (String name : KNOWN_HEADER_NAMES[length]) {
+        int i = 0;
+        while (i < length && in.getByte(index + i) == name.charAt(i)) {
+          i++;
+        }
+
+        if (i == length) {
+          return name;
+        }
+      }
+    }
+
+    // Header names are escaped the same way as values.
+    return decodeHeaderValue(in, index, length);
+  }
+
+  /**
+   * Decodes the header value in the given range of the input buffer, replacing
+   * the escaped octets as defined in {@link StompConstants} in a single pass.
+   *
+   * @param in the input buffer to read from
+   * @param index the index of the first byte of the value
+   * @param length the length of the value in bytes
+   *
+   * @return the decoded value
+   */
+  private String decodeHeaderValue(ByteBuf in, int index, int length) {
+    headerUnescaper.reset(length);
+    in.forEachByte(index, length, headerUnescaper);
+    return headerUnescaper.toString();
+  }
+
+  /**
+   * Parses the value of the content-length header.
+   *
+   * @param value the header value
+   *
+   * @return the content length in bytes
+   * @throws CorruptedFrameException if the value is not a valid length
+   */
+  private static int parseContentLength(String value) throws
+      CorruptedFrameException {
+    try {
+      int length = Integer.parseInt(value);
+      if (length >= 0) {
+        return length;
+      }
+    }
+    catch (NumberFormatException ex) {
+      // Fall through to the exception below.
+    }
+
+    throw new CorruptedFrameException(format("Invalid content-length header "
+        + "value [%s].", value));
+  }
+
   /**
    * Reads the optional EOL (and other control characters) that are permitted
    * between the end of one frame and the start of the next frame. When a
@@ -289,7 +521,7 @@ public class StompFrameDecoder extends ReplayingDecoder<StompFrameDecoder.Decode
    *
    * @param in the input buffer to read from
    *
-   * @return the next decoder state or null if no checkpoint should be set
+   * @return the next decoder state
    */
   private DecoderState readControlChars(ByteBuf in) {
 
@@ -338,15 +570,27 @@ public class StompFrameDecoder extends ReplayingDecoder<StompFrameDecoder.Decode
    */
   private DecoderState readCommand(ByteBuf in) {
 
-    DecoderState nextState = DecoderState.READ_COMMAND;
-    String line = readLine(in);
+    int eol = findEndOfLine(in);
+    if (eol == -1) {
+      return DecoderState.READ_COMMAND;
+    }
+
+    int start = in.readerIndex();
+    int length = getEndOfLineContent(in, eol) - start;
+    checkTooLongFrame(length);
+
+    String line = in.toString(start, length, UTF_8);
+    in.readerIndex(eol + 1);
+    frameByteCount += length;
 
-    if (line != null) {
+    try {
       command = Command.valueOf(line);
-      nextState = DecoderState.READ_HEADERS;
+    }
+    catch (IllegalArgumentException ex) {
+      throw new CorruptedFrameException(format("Unknown command [%s].", line));
     }
 
-    return nextState;
+    return DecoderState.READ_HEADERS;
   }
 
   /**
@@ -356,9 +600,20 @@ public class StompFrameDecoder extends ReplayingDecoder<StompFrameDecoder.Decode
     // Reset to the inital state.
     command = null;
     headers = new DefaultHeaders();
+    contentLength = -1;
     body = null;
-    currentDecodedByteCount = 0;
-    totalDecodedByteCount = 0;
+    frameByteCount = 0;
+    scanIndex = 0;
+
+    if (bodyBuf != null) {
+      bodyBuf.release();
+      bodyBuf = null;
+    }
+
+    if (streamedBody != null) {
+      streamedBody.release();
+      streamedBody = null;
+    }
   }
 
   /**
@@ -390,6 +645,13 @@ public class StompFrameDecoder extends ReplayingDecoder<StompFrameDecoder.Decode
    * @return the new frame
    */
   private Frame buildFrame() {
+    if (streamedBody != null) {
+      // The frame takes ownership of the streamed body.
+      Frame frame = new Frame(command, headers, streamedBody);
+      streamedBody = null;
+      return frame;
+    }
+
     return new Frame(command, headers, body);
   }
 
@@ -429,8 +691,7 @@ public class StompFrameDecoder extends ReplayingDecoder<StompFrameDecoder.Decode
   /**
    * Checks if the current frame is too long and generates a
    * {@link TooLongFrameException} if decoding should stop. The total compared
-   * is the sum of the {@code expectedToRead},
-   * {@link #totalDecodedByteCount}, {@link #currentDecodedByteCount}.
+   * is the sum of the {@code expectedToRead} and {@link #frameByteCount}.
    *
    * @param expectedToRead the number of bytes expected to be read in the
    * current frame
@@ -441,7 +702,7 @@ public class StompFrameDecoder extends ReplayingDecoder<StompFrameDecoder.Decode
   private void checkTooLongFrame(int expectedToRead) throws
       TooLongFrameException {
 
-    int total = expectedToRead + totalDecodedByteCount + currentDecodedByteCount;
+    int total = expectedToRead + frameByteCount;
 
     if (total > maxFrameSize) {
       throw new TooLongFrameException(format(
@@ -450,6 +711,108 @@ public class StompFrameDecoder extends ReplayingDecoder<StompFrameDecoder.Decode
     }
   }
 
+  /**
+   * Builds the table of well-known header names indexed by name length.
+   *
+   * @param names the well-known header names
+   *
+   * @return the header names indexed by length
+   */
+  private static String[][] buildKnownHeaderNames(String... names) {
+    int maxLength = 0;
+    for (String name : names) {
+      maxLength = Math.max(maxLength, name.length());
+    }
+
+    String[][] table = new String[maxLength + 1][];
+    for (String name : names) {
+      String[] bucket = table[name.length()];
+      bucket = bucket == null ? new String[1] : Arrays.copyOf(bucket,
+          bucket.length + 1);
+      bucket[bucket.length - 1] = name;
+      table[name.length()] = bucket;
+    }
+
+    return table;
+  }
+
+  /**
+   * A byte processor that copies header bytes into a reusable array while
+   * replacing escaped octets. The escape character is a single byte that never
+   * appears in a multi-byte UTF-8 sequence so the bytes can be unescaped
+   * before they are decoded.
+   */
+  private static class HeaderUnescaper implements ByteBufProcessor {
+
+    private byte[] data = new byte[256];
+    private int length;
+    private boolean escaped;
+
+    /**
+     * Resets the processor to unescape a new header of up to the given number
+     * of bytes.
+     *
+     * @param capacity the number of bytes in the escaped header
+     */
+    public void reset(int capacity) {
+      if (data.length < capacity) {
+        data = new byte[Math.max(capacity, data.length * 2)];
+      }
+      length = 0;
+      escaped = false;
+    }
+
+    @Override
+    public boolean process(byte value) throws Exception {
+      if (escaped) {
+        escaped = false;
+
+        switch (value) {
+          case 92:
+            data[length++] = 92;
+            break;
+
+          case 99:
+            data[length++] = 58;
+            break;
+
+          case 110:
+            data[length++] = 10;
+            break;
+
+          case 114:
+            data[length++] = 13;
+            break;
+
+          default:
+            // Not a known escape sequence so leave it as is.
+            data[length++] = 92;
+            data[length++] = value;
+            break;
+        }
+      }
+      else if (value == 92) {
+        escaped = true;
+      }
+      else {
+        data[length++] = value;
+      }
+
+      return true;
+    }
+
+    @Override
+    public String toString() {
+      if (escaped) {
+        // A trailing escape character is left as is.
+        data[length++] = 92;
+        escaped = false;
+      }
+
+      return new String(data, 0, length, UTF_8);
+    }
+  }
+
   /**
    * The various frame parsing states when decoding a STOMP frame.
    */
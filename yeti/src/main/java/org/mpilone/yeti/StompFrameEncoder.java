@@ -2,23 +2,87 @@ package org.mpilone.yeti;
 
 import static org.mpilone.yeti.StompConstants.*;
 
-import io.netty.buffer.ByteBuf;
+import java.util.*;
+
+import io.netty.buffer.*;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.handler.codec.MessageToByteEncoder;
+import io.netty.handler.codec.MessageToMessageEncoder;
 
 /**
+ * <p>
  * A STOMP frame encoder that converts {@link Frame} instances to raw bytes. The
  * actual encoding is done via the {@link #encodeFrame(org.mpilone.yeti.Frame, io.netty.buffer.ByteBuf, boolean)
  * } method which may be used directly to encode a frame to bytes without
  * sending it over the wire.
+ * </p>
+ * <p>
+ * The encoded size of a frame is computed before it is written so each frame
+ * is encoded into a single direct buffer from the channel's allocator that
+ * never grows mid-frame. The bytes of the command names and well-known header
+ * names are cached and header values are escaped and UTF-8 encoded directly
+ * into the buffer in a single pass. A body held in a buffer (see
+ * {@link Frame#getBodyBuffer()}) is written to the channel as is rather than
+ * being copied.
+ * </p>
+ * <p>
+ * When the same frame is sent to many channels, it can be encoded once with
+ * {@link #encode(org.mpilone.yeti.Frame, io.netty.buffer.ByteBufAllocator)}
+ * and a retained duplicate of the encoded buffer written to each channel.
+ * Encoded buffers pass through this encoder untouched. The frame must be
+ * identical for every recipient so per subscription headers prevent reuse.
+ * </p>
  *
  * @author mpilone
  */
-public class StompFrameEncoder extends MessageToByteEncoder<Frame> {
+public class StompFrameEncoder extends MessageToMessageEncoder<Frame> {
+
+  /**
+   * The encoded command names followed by a line feed indexed by the ordinal
+   * of the command.
+   */
+  private static final byte[][] COMMAND_BYTES;
+
+  /**
+   * The encoded well-known header names followed by a colon.
+   */
+  private static final Map<String, byte[]> HEADER_NAME_BYTES;
+
+  /**
+   * The encoded content-length header name followed by a colon.
+   */
+  private static final byte[] CONTENT_LENGTH_BYTES;
+
+  /**
+   * A shared buffer containing the NULL character that terminates a frame
+   * with a buffered body.
+   */
+  private static final ByteBuf NULL_TERMINATOR = Unpooled.unreleasableBuffer(
+      Unpooled.directBuffer(1, 1).writeByte(NULL_CHAR));
+
+  static {
+    Command[] commands = Command.values();
+    COMMAND_BYTES = new byte[commands.length][];
+    for (Command command : commands) {
+      COMMAND_BYTES[command.ordinal()] = (command.name() + LINE_FEED_CHAR).
+          getBytes(UTF_8);
+    }
+
+    HEADER_NAME_BYTES = new HashMap<>();
+    for (String name : Arrays.asList(Headers.CONTENT_TYPE,
+        Headers.CONTENT_LENGTH, Headers.DESTINATION, Headers.RECEIPT,
+        Headers.RECEIPT_ID, Headers.ID, Headers.ACK, Headers.TRANSACTION,
+        Headers.VERSION, Headers.ACCEPT_VERSION, Headers.HOST, Headers.LOGIN,
+        Headers.PASSCODE, Headers.HEART_BEAT, Headers.SESSION, Headers.SERVER,
+        Headers.MESSAGE_ID, Headers.SUBSCRIPTION, Headers.MESSAGE)) {
+      HEADER_NAME_BYTES.put(name, (name + COLON_CHAR).getBytes(UTF_8));
+    }
+
+    CONTENT_LENGTH_BYTES = HEADER_NAME_BYTES.get(Headers.CONTENT_LENGTH);
+  }
 
   @Override
-  protected void encode(ChannelHandlerContext ctx, Frame frame, ByteBuf out)
-      throws Exception {
+  protected void encode(ChannelHandlerContext ctx, Frame frame,
+      List<Object> out) throws Exception {
 
     // Some sanity checks before we serialize the frame.
     if (frame == null || frame.getCommand() == null) {
@@ -26,7 +90,38 @@ public class StompFrameEncoder extends MessageToByteEncoder<Frame> {
           "A frame command is required for all frames.");
     }
 
+    if (frame.isBodyBuffered()) {
+      // Write the command and headers followed by the body buffer itself. The
+      // body is retained because the frame is released after encoding.
+      ByteBuf body = frame.getBodyBuffer();
+      ByteBuf head = ctx.alloc().directBuffer(getEncodedSize(frame, false)
+          - body.readableBytes());
+      encodeHead(frame, body, head);
+
+      out.add(head);
+      out.add(body.retain());
+      out.add(NULL_TERMINATOR.duplicate());
+    }
+    else {
+      out.add(encode(frame, ctx.alloc()));
+    }
+  }
+
+  /**
+   * Encodes the given frame, including the null terminator, into a new direct
+   * buffer of exactly the encoded size. The buffer can be written to multiple
+   * channels by writing a retained duplicate to each and releasing the
+   * original when done.
+   *
+   * @param frame the frame to encode
+   * @param alloc the allocator for the buffer
+   *
+   * @return the encoded frame
+   */
+  public static ByteBuf encode(Frame frame, ByteBufAllocator alloc) {
+    ByteBuf out = alloc.directBuffer(getEncodedSize(frame, true));
     encodeFrame(frame, out, true);
+    return out;
   }
 
   /**
@@ -38,50 +133,248 @@ public class StompFrameEncoder extends MessageToByteEncoder<Frame> {
    * false to not include it
    */
   public static void encodeFrame(Frame frame, ByteBuf out, boolean nullTerminate) {
+    // Make sure the buffer only grows once if at all.
+    out.ensureWritable(getEncodedSize(frame, nullTerminate));
+
+    ByteBuf body = frame.getBodyBuffer();
+    encodeHead(frame, body, out);
+
+    // Write the body.
+    if (body != null) {
+      out.writeBytes(body);
+    }
+
+    if (nullTerminate) {
+      // Finally the terminator.
+      out.writeByte(NULL_CHAR);
+    }
+  }
+
+  /**
+   * Encodes the command, headers, and the blank line that separates the
+   * headers from the body.
+   *
+   * @param frame the frame to encode
+   * @param body the body of the frame or null
+   * @param out the output byte buffer
+   */
+  private static void encodeHead(Frame frame, ByteBuf body, ByteBuf out) {
     // Write the command
-    out.writeBytes(frame.getCommand().name().getBytes(UTF_8));
-    out.writeByte(LINE_FEED_CHAR);
+    out.writeBytes(COMMAND_BYTES[frame.getCommand().ordinal()]);
 
-    // log.debug("Wrote command: " + frame.getCommand());
     // Write the headers
-    for (String key : frame.getHeaders().getHeaderNames()) {
-      String value = frame.getHeaders().get(key);
-
-      // Encode header value as per the specification.
-      value = value.replace(OCTET_92, OCTET_92_92);
-      value = value.replace(OCTET_58, OCTET_92_99);
-      value = value.replace(OCTET_10, OCTET_92_110);
-      value = value.replace(OCTET_13, OCTET_92_114);
-
-      out.writeBytes(key.getBytes(UTF_8));
-      out.writeByte(COLON_CHAR);
-      out.writeBytes(value.getBytes(UTF_8));
+    Map<String, String> headers = frame.getHeaders().getHeaderMap();
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      byte[] name = HEADER_NAME_BYTES.get(header.getKey());
+      if (name != null) {
+        out.writeBytes(name);
+      }
+      else {
+        writeEscaped(header.getKey(), out);
+        out.writeByte(COLON_CHAR);
+      }
+
+      writeEscaped(header.getValue(), out);
       out.writeByte(LINE_FEED_CHAR);
     }
-    // log.debug("Wrote headers: " + frame.getHeaders());
 
     // If we have a body and we don't have a content-length header, write one.
-    if (frame.getBody() != null
-        && !frame.getHeaders().getHeaderNames().contains(Headers.CONTENT_LENGTH)) {
-      out.writeBytes(Headers.CONTENT_LENGTH.getBytes(UTF_8));
-      out.writeByte(COLON_CHAR);
-      out.writeBytes(String.valueOf(frame.getBody().length).getBytes(UTF_8));
+    if (body != null && !headers.containsKey(Headers.CONTENT_LENGTH)) {
+      out.writeBytes(CONTENT_LENGTH_BYTES);
+      writeDecimal(body.readableBytes(), out);
       out.writeByte(LINE_FEED_CHAR);
     }
 
     // Blank line to separate headers from the body.
     out.writeByte(LINE_FEED_CHAR);
+  }
 
-    // Write the body.
-    if (frame.getBody() != null) {
-      out.writeBytes(frame.getBody());
+  /**
+   * Returns the exact number of bytes needed to encode the given frame.
+   *
+   * @param frame the frame to encode
+   * @param nullTerminate true to include the null terminator
+   *
+   * @return the encoded size in bytes
+   */
+  static int getEncodedSize(Frame frame, boolean nullTerminate) {
+    int size = COMMAND_BYTES[frame.getCommand().ordinal()].length;
+
+    Map<String, String> headers = frame.getHeaders().getHeaderMap();
+    for (Map.Entry<String, String> header : headers.entrySet()) {
+      byte[] name = HEADER_NAME_BYTES.get(header.getKey());
+      size += name != null ? name.length : getEscapedLength(header.getKey())
+          + 1;
+      size += getEscapedLength(header.getValue()) + 1;
     }
-    // log.debug("Wrote body: " + frame.getBody());
 
-    if (nullTerminate) {
-      // Finally the terminator.
-      out.writeByte(NULL_CHAR);
+    if (frame.isBodyBuffered() || frame.getBody() != null) {
+      int bodyLength = frame.getBodyLength();
+      if (!headers.containsKey(Headers.CONTENT_LENGTH)) {
+        size += CONTENT_LENGTH_BYTES.length + getDecimalLength(bodyLength) + 1;
+      }
+      size += bodyLength;
+    }
+
+    // The blank line and the optional terminator.
+    return size + (nullTerminate ? 2 : 1);
+  }
+
+  /**
+   * Writes the given header name or value UTF-8 encoded and escaped as per
+   * the specification. A null value is written as an empty string.
+   *
+   * @param value the value to write
+   * @param out the output byte buffer
+   */
+  private static void writeEscaped(String value, ByteBuf out) {
+    if (value == null) {
+      return;
+    }
+
+    int length = value.length();
+    for (int i = 0; i < length; ++i) {
+      char c = value.charAt(i);
+
+      switch (c) {
+        case '\\':
+          out.writeByte('\\');
+          out.writeByte('\\');
+          break;
+
+        case COLON_CHAR:
+          out.writeByte('\\');
+          out.writeByte('c');
+          break;
+
+        case LINE_FEED_CHAR:
+          out.writeByte('\\');
+          out.writeByte('n');
+          break;
+
+        case CARRIAGE_RETURN_CHAR:
+          out.writeByte('\\');
+          out.writeByte('r');
+          break;
+
+        default:
+          if (c < 0x80) {
+            out.writeByte(c);
+          }
+          else if (c < 0x800) {
+            out.writeByte(0xc0 | (c >> 6));
+            out.writeByte(0x80 | (c & 0x3f));
+          }
+          else if (Character.isSurrogate(c)) {
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.
+                isLowSurrogate(value.charAt(i + 1))) {
+              int codePoint = Character.toCodePoint(c, value.charAt(++i));
+              out.writeByte(0xf0 | (codePoint >> 18));
+              out.writeByte(0x80 | ((codePoint >> 12) & 0x3f));
+              out.writeByte(0x80 | ((codePoint >> 6) & 0x3f));
+              out.writeByte(0x80 | (codePoint & 0x3f));
+            }
+            else {
+              // Malformed surrogate so use the same replacement as
+              // String.getBytes.
+              out.writeByte('?');
+            }
+          }
+          else {
+            out.writeByte(0xe0 | (c >> 12));
+            out.writeByte(0x80 | ((c >> 6) & 0x3f));
+            out.writeByte(0x80 | (c & 0x3f));
+          }
+          break;
+      }
+    }
+  }
+
+  /**
+   * Returns the number of bytes written by
+   * {@link #writeEscaped(java.lang.String, io.netty.buffer.ByteBuf)} for the
+   * given value.
+   *
+   * @param value the value to measure
+   *
+   * @return the escaped and encoded length in bytes
+   */
+  private static int getEscapedLength(String value) {
+    if (value == null) {
+      return 0;
+    }
+
+    int length = value.length();
+    int size = 0;
+    for (int i = 0; i < length; ++i) {
+      char c = value.charAt(i);
+
+      switch (c) {
+        case '\\':
+        case COLON_CHAR:
+        case LINE_FEED_CHAR:
+        case CARRIAGE_RETURN_CHAR:
+          size += 2;
+          break;
+
+        default:
+          if (c < 0x80) {
+            size += 1;
+          }
+          else if (c < 0x800) {
+            size += 2;
+          }
+          else if (Character.isSurrogate(c)) {
+            if (Character.isHighSurrogate(c) && i + 1 < length && Character.
+                isLowSurrogate(value.charAt(i + 1))) {
+              i++;
+              size += 4;
+            }
+            else {
+              size += 1;
+            }
+          }
+          else {
+            size += 3;
+          }
+          break;
+      }
+    }
+
+    return size;
+  }
+
+  /**
+   * Writes the given non-negative number as decimal digits.
+   *
+   * @param value the value to write
+   * @param out the output byte buffer
+   */
+  private static void writeDecimal(int value, ByteBuf out) {
+    int index = out.writerIndex() + getDecimalLength(value);
+    out.writerIndex(index);
+
+    do {
+      out.setByte(--index, '0' + (value % 10));
+      value /= 10;
+    }
+    while (value > 0);
+  }
+
+  /**
+   * Returns the number of decimal digits in the given non-negative number.
+   *
+   * @param value the value to measure
+   *
+   * @return the number of digits
+   */
+  private static int getDecimalLength(int value) {
+    int length = 1;
+    while (value >= 10) {
+      value /= 10;
+      length++;
     }
+    return length;
   }
 
 }
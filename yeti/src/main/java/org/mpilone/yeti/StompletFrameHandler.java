@@ -3,11 +3,13 @@ package org.mpilone.yeti;
 
 import static org.mpilone.yeti.StompConstants.UTF_8;
 
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import io.netty.buffer.*;
 import io.netty.channel.*;
 import io.netty.handler.timeout.*;
+import io.netty.util.ReferenceCountUtil;
 
 /**
  * <p>
@@ -24,26 +26,87 @@ import io.netty.handler.timeout.*;
  * used in the frame otherwise a generic "Internal Server Error" message will be
  * used.
  * </p>
+ * <p>
+ * Frames written by the stomplet are not flushed individually. A single flush
+ * is scheduled on the channel's event loop behind the written frames so a
+ * burst of frames, such as a subscription draining queued messages, is
+ * flushed once when the burst ends rather than once per frame. The channel is
+ * also flushed as soon as the maximum number of frames or body bytes has been
+ * written without a flush.
+ * </p>
  *
  * @author mpilone
  */
 public class StompletFrameHandler extends SimpleChannelInboundHandler<Frame> {
 
+  /**
+   * The default maximum number of frames written to the channel before it is
+   * flushed.
+   */
+  public static final int DEFAULT_MAX_WRITE_BATCH_FRAMES = 64;
+
+  /**
+   * The default maximum number of body bytes written to the channel before it
+   * is flushed.
+   */
+  public static final int DEFAULT_MAX_WRITE_BATCH_BYTES = 64 * 1024;
+
   /**
    * The stomplet that all frames will be delegated to.
    */
   private final Stomplet stomplet;
 
+  /**
+   * The maximum number of frames written to the channel before it is flushed.
+   */
+  private final int maxWriteBatchFrames;
+
+  /**
+   * The maximum number of body bytes written to the channel before it is
+   * flushed.
+   */
+  private final int maxWriteBatchBytes;
+
+  /**
+   * The frame channel shared by all the responses of the channel.
+   */
+  private BatchingFrameChannel frameChannel;
+
   /**
    * Constructs the handler which will delegate all frame handling to the
-   * Stomplet.
+   * Stomplet. Writes are batched with the
+   * {@link #DEFAULT_MAX_WRITE_BATCH_FRAMES} and
+   * {@link #DEFAULT_MAX_WRITE_BATCH_BYTES} limits.
    *
    * @param stomplet the stomp that will service all requests
    */
   public StompletFrameHandler(Stomplet stomplet) {
+    this(stomplet, DEFAULT_MAX_WRITE_BATCH_FRAMES,
+        DEFAULT_MAX_WRITE_BATCH_BYTES);
+  }
+
+  /**
+   * Constructs the handler which will delegate all frame handling to the
+   * Stomplet.
+   *
+   * @param stomplet the stomp that will service all requests
+   * @param maxWriteBatchFrames the maximum number of frames written before the
+   * channel is flushed or 1 to flush every frame
+   * @param maxWriteBatchBytes the maximum number of body bytes written before
+   * the channel is flushed
+   */
+  public StompletFrameHandler(Stomplet stomplet, int maxWriteBatchFrames,
+      int maxWriteBatchBytes) {
     super(Frame.class, true);
 
     this.stomplet = stomplet;
+    this.maxWriteBatchFrames = maxWriteBatchFrames;
+    this.maxWriteBatchBytes = maxWriteBatchBytes;
+  }
+
+  @Override
+  public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+    frameChannel = new BatchingFrameChannel(ctx.channel());
   }
 
   @Override
@@ -51,10 +114,12 @@ public class StompletFrameHandler extends SimpleChannelInboundHandler<Frame> {
       Exception {
 
     StompletRequestImpl req = new StompletRequestImpl(msg);
-    StompletResponseImpl res = new StompletResponseImpl(ctx.channel());
+    StompletResponseImpl res = new StompletResponseImpl(frameChannel);
     stomplet.service(req, res);
 
     if (res.isFinalResponse()) {
+      // Closing doesn't flush so make sure the final frames are sent.
+      frameChannel.flush();
       ctx.close();
     }
   }
@@ -85,6 +150,12 @@ public class StompletFrameHandler extends SimpleChannelInboundHandler<Frame> {
       out.writeBytes("----------------\n".getBytes(UTF_8));
       Frame frame = clientEx.getFrame();
       if (frame != null) {
+        // A buffered body may already have been released after the frame was
+        // serviced.
+        if (frame.refCnt() == 0) {
+          frame = new Frame(frame.getCommand(), frame.getHeaders(),
+              (byte[]) null);
+        }
         StompFrameEncoder.encodeFrame(frame, out, false);
       }
 
@@ -244,6 +315,102 @@ public class StompletFrameHandler extends SimpleChannelInboundHandler<Frame> {
     }
   }
 
+  /**
+   * A writable frame channel that writes frames without flushing them and
+   * schedules a single flush on the channel's event loop. Frames written from
+   * other threads, such as a subscription dispatcher, are handed to the event
+   * loop so the flush is always queued behind every frame written before it
+   * and all the frames written while the event loop is busy share one flush.
+   */
+  private class BatchingFrameChannel implements Stomplet.WritableFrameChannel,
+      Runnable {
+
+    private final Channel channel;
+
+    // The following are only accessed on the event loop.
+    private int pendingFrames;
+    private long pendingBytes;
+    private boolean flushScheduled;
+
+    /**
+     * Constructs the frame channel which will operate on the given channel.
+     *
+     * @param channel the underlying channel
+     */
+    public BatchingFrameChannel(Channel channel) {
+      this.channel = channel;
+    }
+
+    @Override
+    public void write(final Frame frame) {
+      if (maxWriteBatchFrames <= 1) {
+        channel.writeAndFlush(frame);
+        return;
+      }
+
+      EventLoop eventLoop = channel.eventLoop();
+      if (eventLoop.inEventLoop()) {
+        batchWrite(frame);
+      }
+      else {
+        try {
+          eventLoop.execute(new Runnable() {
+            @Override
+            public void run() {
+              batchWrite(frame);
+            }
+          });
+        }
+        catch (RejectedExecutionException ex) {
+          // The event loop is shutting down so the frame can't be written.
+          ReferenceCountUtil.release(frame);
+        }
+      }
+    }
+
+    /**
+     * Writes the frame on the event loop, flushing the channel if a batch
+     * limit has been reached or scheduling a flush otherwise.
+     *
+     * @param frame the frame to write
+     */
+    private void batchWrite(Frame frame) {
+      // The body length must be read before the frame is released by the
+      // encoder.
+      pendingFrames++;
+      pendingBytes += frame.getBodyLength();
+      channel.write(frame);
+
+      if (pendingFrames >= maxWriteBatchFrames
+          || pendingBytes >= maxWriteBatchBytes) {
+        flush();
+      }
+      else if (!flushScheduled) {
+        flushScheduled = true;
+        channel.eventLoop().execute(this);
+      }
+    }
+
+    /**
+     * Flushes all the frames written to the channel. This method must be
+     * called on the event loop.
+     */
+    public void flush() {
+      pendingFrames = 0;
+      pendingBytes = 0;
+      channel.flush();
+    }
+
+    @Override
+    public void run() {
+      flushScheduled = false;
+
+      if (pendingFrames > 0) {
+        flush();
+      }
+    }
+  }
+
   /**
    * The implementation of the stomplet response.
    */
@@ -253,18 +420,13 @@ public class StompletFrameHandler extends SimpleChannelInboundHandler<Frame> {
     private final Stomplet.WritableFrameChannel writableFrameChannel;
 
     /**
-     * Constructs the response which will operate on the given channel.
+     * Constructs the response which will write to the given frame channel.
      *
-     * @param channel the underlying channel
+     * @param writableFrameChannel the frame channel of the connection
      */
-    public StompletResponseImpl(final Channel channel) {
-      this.writableFrameChannel = new Stomplet.WritableFrameChannel() {
-
-        @Override
-        public void write(Frame frame) {
-          channel.writeAndFlush(frame);
-        }
-      };
+    public StompletResponseImpl(
+        Stomplet.WritableFrameChannel writableFrameChannel) {
+      this.writableFrameChannel = writableFrameChannel;
     }
 
     @Override
@@ -8,6 +8,7 @@ import java.util.concurrent.*;
 import org.mpilone.yeti.*;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
@@ -145,6 +146,7 @@ public class StompClient {
     b.group(workerGroup);
     b.channel(NioSocketChannel.class);
     b.option(ChannelOption.SO_KEEPALIVE, true);
+    b.option(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
     b.handler(createHandler());
 
     // Start the client.
@@ -5,6 +5,7 @@ package org.mpilone.yeti.server;
 import org.mpilone.yeti.*;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.*;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
@@ -38,6 +39,12 @@ public class StompServer {
   private final StompletFactory stompletFactory;
   private final int port;
   private final int maxFrameSize;
+  private int maxStreamedBodySize =
+      StompFrameDecoder.DEFAULT_MAX_STREAMED_BODY_SIZE;
+  private int maxWriteBatchFrames =
+      StompletFrameHandler.DEFAULT_MAX_WRITE_BATCH_FRAMES;
+  private int maxWriteBatchBytes =
+      StompletFrameHandler.DEFAULT_MAX_WRITE_BATCH_BYTES;
 
   /**
    * Constructs the server which will bind on the given port and use the
@@ -65,6 +72,76 @@ public class StompServer {
     this.maxFrameSize = maxFrameSize;
   }
 
+  /**
+   * Sets the maximum size in bytes of a body that is streamed into a direct
+   * buffer when it exceeds the maximum frame size. The default is
+   * {@link StompFrameDecoder#DEFAULT_MAX_STREAMED_BODY_SIZE} which disables
+   * streaming. The size must be set before the server is started.
+   *
+   * @param maxStreamedBodySize the maximum streamed body size in bytes or 0 to
+   * disable streaming
+   */
+  public void setMaxStreamedBodySize(int maxStreamedBodySize) {
+    this.maxStreamedBodySize = maxStreamedBodySize;
+  }
+
+  /**
+   * Returns the maximum size in bytes of a body that is streamed into a direct
+   * buffer when it exceeds the maximum frame size.
+   *
+   * @return the maximum streamed body size in bytes or 0 if streaming is
+   * disabled
+   */
+  public int getMaxStreamedBodySize() {
+    return maxStreamedBodySize;
+  }
+
+  /**
+   * Sets the maximum number of frames written to a client connection before
+   * it is flushed. Frames are otherwise flushed together once a burst of
+   * writes ends. The default is
+   * {@link StompletFrameHandler#DEFAULT_MAX_WRITE_BATCH_FRAMES}. The value must
+   * be set before the server is started.
+   *
+   * @param maxWriteBatchFrames the maximum number of frames per flush or 1 to
+   * flush every frame
+   */
+  public void setMaxWriteBatchFrames(int maxWriteBatchFrames) {
+    this.maxWriteBatchFrames = maxWriteBatchFrames;
+  }
+
+  /**
+   * Returns the maximum number of frames written to a client connection
+   * before it is flushed.
+   *
+   * @return the maximum number of frames per flush
+   */
+  public int getMaxWriteBatchFrames() {
+    return maxWriteBatchFrames;
+  }
+
+  /**
+   * Sets the maximum number of body bytes written to a client connection
+   * before it is flushed. The default is
+   * {@link StompletFrameHandler#DEFAULT_MAX_WRITE_BATCH_BYTES}. The value must
+   * be set before the server is started.
+   *
+   * @param maxWriteBatchBytes the maximum number of body bytes per flush
+   */
+  public void setMaxWriteBatchBytes(int maxWriteBatchBytes) {
+    this.maxWriteBatchBytes = maxWriteBatchBytes;
+  }
+
+  /**
+   * Returns the maximum number of body bytes written to a client connection
+   * before it is flushed.
+   *
+   * @return the maximum number of body bytes per flush
+   */
+  public int getMaxWriteBatchBytes() {
+    return maxWriteBatchBytes;
+  }
+
   /**
    * Starts the server, blocking until fully initialized and bound.
    *
@@ -79,7 +156,8 @@ public class StompServer {
         .channel(NioServerSocketChannel.class)
         .childHandler(createChildHandler())
         .option(ChannelOption.SO_BACKLOG, 128)
-        .childOption(ChannelOption.SO_KEEPALIVE, true);
+        .childOption(ChannelOption.SO_KEEPALIVE, true)
+        .childOption(ChannelOption.ALLOCATOR, PooledByteBufAllocator.DEFAULT);
 
     // Bind and start to accept incoming connections.
     ChannelFuture f = b.bind(port).sync();
@@ -122,7 +200,7 @@ public class StompServer {
       @Override
       public void initChannel(SocketChannel ch) throws Exception {
         ch.pipeline().addLast(StompFrameDecoder.class.getName(),
-            new StompFrameDecoder(maxFrameSize));
+            new StompFrameDecoder(maxFrameSize, maxStreamedBodySize));
         ch.pipeline().addLast(StompFrameEncoder.class.getName(),
             new StompFrameEncoder());
           ch.pipeline().addLast(FrameDebugHandler.class.getName(),
@@ -130,7 +208,8 @@ public class StompServer {
 
         // Create a new stomplet instance for each client connection.
         ch.pipeline().addLast(StompletFrameHandler.class.getName(),
-            new StompletFrameHandler(stompletFactory.createStomplet()));
+            new StompletFrameHandler(stompletFactory.createStomplet(),
+                maxWriteBatchFrames, maxWriteBatchBytes));
       }
     };
   }
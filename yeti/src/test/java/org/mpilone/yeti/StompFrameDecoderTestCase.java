@@ -339,4 +339,233 @@ public class StompFrameDecoderTestCase {
     assertTrue(actualFrame.getHeaders().getHeaderNames().contains("header3"));
   }
 
+  /**
+   * Tests decoding a frame with escaped header values, CRLF line endings, and
+   * repeated headers.
+   */
+  @Test
+  public void testDecodeFrame_EscapedHeaders() {
+
+    EmbeddedChannel ec = new EmbeddedChannel(new StompFrameDecoder());
+
+    ByteBuf buf = Unpooled.buffer();
+    buf.writeBytes(Command.SEND.name().getBytes(UTF_8));
+    buf.writeByte(CARRIAGE_RETURN_CHAR);
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeBytes("header1:a\\b\\cc\\nd\\re\\".getBytes(UTF_8));
+    buf.writeByte(CARRIAGE_RETURN_CHAR);
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeBytes("header1:ignored".getBytes(UTF_8));
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeBytes("header\\c2:caf\u00e9:value".getBytes(UTF_8));
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeBytes("header3:".getBytes(UTF_8));
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeByte(NULL_CHAR);
+    ec.writeInbound(buf);
+
+    Frame actualFrame = (Frame) ec.readInbound();
+    assertNotNull(actualFrame);
+    assertEquals(Command.SEND, actualFrame.getCommand());
+    assertEquals(3, actualFrame.getHeaders().getHeaderNames().size());
+    assertEquals("a\\b:c\nd\re\\", actualFrame.getHeaders().get("header1"));
+    assertEquals("caf\u00e9:value", actualFrame.getHeaders().get("header:2"));
+    assertNull(actualFrame.getHeaders().get("header3"));
+    assertTrue(actualFrame.getHeaders().getHeaderNames().contains("header3"));
+  }
+
+  /**
+   * Tests that well-known header names are decoded to the shared constant
+   * instances.
+   */
+  @Test
+  public void testDecodeFrame_KnownHeaderNames() {
+
+    EmbeddedChannel ec = new EmbeddedChannel(new StompFrameDecoder());
+
+    ByteBuf buf = Unpooled.buffer();
+    buf.writeBytes(Command.SEND.name().getBytes(UTF_8));
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeBytes((Headers.DESTINATION + ":/queue/foo").getBytes(UTF_8));
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeBytes((Headers.RECEIPT + ":1").getBytes(UTF_8));
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeBytes((Headers.CONTENT_LENGTH + ":3").getBytes(UTF_8));
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeBytes("abc".getBytes(UTF_8));
+    buf.writeByte(NULL_CHAR);
+    ec.writeInbound(buf);
+
+    Frame actualFrame = (Frame) ec.readInbound();
+    assertNotNull(actualFrame);
+    for (String name : actualFrame.getHeaders().getHeaderNames()) {
+      if (name.equals(Headers.DESTINATION)) {
+        assertSame(Headers.DESTINATION, name);
+      }
+      else if (name.equals(Headers.RECEIPT)) {
+        assertSame(Headers.RECEIPT, name);
+      }
+      else {
+        assertSame(Headers.CONTENT_LENGTH, name);
+      }
+    }
+    assertEquals("/queue/foo", actualFrame.getHeaders().get(
+        Headers.DESTINATION));
+    assertArrayEquals("abc".getBytes(UTF_8), actualFrame.getBody());
+  }
+
+  /**
+   * Tests decoding a frame with an invalid content length header.
+   */
+  @Test
+  public void testDecodeFrame_InvalidContentLength() {
+
+    EmbeddedChannel ec = new EmbeddedChannel(new StompFrameDecoder());
+
+    ByteBuf buf = Unpooled.buffer();
+    buf.writeBytes(Command.SEND.name().getBytes(UTF_8));
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeBytes((Headers.CONTENT_LENGTH + ":abc").getBytes(UTF_8));
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeByte(LINE_FEED_CHAR);
+    buf.writeByte(NULL_CHAR);
+    ec.writeInbound(buf);
+
+    Frame actualFrame = (Frame) ec.readInbound();
+    assertNotNull(actualFrame);
+    assertNotNull(actualFrame.getHeaders().get(
+        StompFrameDecoder.HEADER_BAD_REQUEST));
+  }
+
+  /**
+   * Tests decoding frames when the bodies arrive in many small writes, with and
+   * without a content length header.
+   */
+  @Test
+  public void testDecodeFrame_SplitBody() {
+
+    EmbeddedChannel ec = new EmbeddedChannel(new StompFrameDecoder());
+
+    byte[] body = new byte[64 * 1024];
+    for (int i = 0; i < body.length; ++i) {
+      body[i] = (byte) ('a' + (i % 26));
+    }
+
+    for (boolean contentLength : new boolean[]{false, true}) {
+      ByteBuf buf = Unpooled.buffer();
+      buf.writeBytes(Command.SEND.name().getBytes(UTF_8));
+      buf.writeByte(LINE_FEED_CHAR);
+      if (contentLength) {
+        buf.writeBytes((Headers.CONTENT_LENGTH + ":" + body.length).getBytes(
+            UTF_8));
+        buf.writeByte(LINE_FEED_CHAR);
+      }
+      buf.writeByte(LINE_FEED_CHAR);
+      buf.writeBytes(body);
+      buf.writeByte(NULL_CHAR);
+
+      while (buf.isReadable()) {
+        assertNull(ec.readInbound());
+        ec.writeInbound(buf.readBytes(Math.min(1000, buf.readableBytes())));
+      }
+
+      Frame actualFrame = (Frame) ec.readInbound();
+      assertNotNull(actualFrame);
+      assertNull(actualFrame.getHeaders().get(
+          StompFrameDecoder.HEADER_BAD_REQUEST));
+      assertArrayEquals(body, actualFrame.getBody());
+    }
+  }
+
+  /**
+   * Tests decoding multiple frames that arrive one byte at a time.
+   */
+  @Test
+  public void testDecodeFrame_SingleBytes() {
+
+    EmbeddedChannel ec = new EmbeddedChannel(new StompFrameDecoder());
+
+    ByteBuf buf = Unpooled.buffer();
+    for (int i = 0; i < 2; ++i) {
+      buf.writeBytes(Command.SEND.name().getBytes(UTF_8));
+      buf.writeByte(CARRIAGE_RETURN_CHAR);
+      buf.writeByte(LINE_FEED_CHAR);
+      buf.writeBytes(("header1:value" + i).getBytes(UTF_8));
+      buf.writeByte(LINE_FEED_CHAR);
+      buf.writeBytes((Headers.CONTENT_LENGTH + ":5").getBytes(UTF_8));
+      buf.writeByte(LINE_FEED_CHAR);
+      buf.writeByte(LINE_FEED_CHAR);
+      buf.writeBytes(("body" + i).getBytes(UTF_8));
+      buf.writeByte(NULL_CHAR);
+      buf.writeByte(LINE_FEED_CHAR);
+    }
+
+    while (buf.isReadable()) {
+      ec.writeInbound(buf.readBytes(1));
+    }
+
+    for (int i = 0; i < 2; ++i) {
+      Frame actualFrame = (Frame) ec.readInbound();
+      assertNotNull(actualFrame);
+      assertEquals(Command.SEND, actualFrame.getCommand());
+      assertEquals("value" + i, actualFrame.getHeaders().get("header1"));
+      assertEquals("body" + i, actualFrame.getBodyAsString());
+    }
+    assertNull(ec.readInbound());
+  }
+
+  /**
+   * Tests decoding a frame with a body larger than the maximum frame size when
+   * body streaming is enabled.
+   */
+  @Test
+  public void testDecodeFrame_StreamedBody() {
+
+    int maxFrameSize = 2 * 1024;
+
+    EmbeddedChannel ec = new EmbeddedChannel(new StompFrameDecoder(
+        maxFrameSize, 16 * maxFrameSize));
+
+    byte[] body = new byte[8 * maxFrameSize];
+    for (int i = 0; i < body.length; ++i) {
+      body[i] = (byte) i;
+    }
+
+    for (int length : new int[]{body.length, 32 * maxFrameSize}) {
+      ByteBuf buf = Unpooled.buffer();
+      buf.writeBytes(Command.SEND.name().getBytes(UTF_8));
+      buf.writeByte(LINE_FEED_CHAR);
+      buf.writeBytes((Headers.CONTENT_LENGTH + ":" + length).getBytes(UTF_8));
+      buf.writeByte(LINE_FEED_CHAR);
+      buf.writeByte(LINE_FEED_CHAR);
+      buf.writeBytes(body);
+      buf.writeByte(NULL_CHAR);
+
+      while (buf.isReadable()) {
+        ec.writeInbound(buf.readBytes(Math.min(1000, buf.readableBytes())));
+      }
+    }
+
+    // The first frame is streamed.
+    Frame actualFrame = (Frame) ec.readInbound();
+    assertNotNull(actualFrame);
+    assertNull(actualFrame.getHeaders().get(
+        StompFrameDecoder.HEADER_BAD_REQUEST));
+    assertTrue(actualFrame.isBodyBuffered());
+    assertTrue(actualFrame.getBodyBuffer().isDirect());
+    assertEquals(body.length, actualFrame.getBodyLength());
+    assertArrayEquals(body, actualFrame.getBody());
+    assertTrue(actualFrame.release());
+    assertEquals(0, actualFrame.refCnt());
+
+    // The second frame is larger than the maximum streamed body size.
+    actualFrame = (Frame) ec.readInbound();
+    assertNotNull(actualFrame);
+    assertNotNull(actualFrame.getHeaders().get(
+        StompFrameDecoder.HEADER_BAD_REQUEST));
+    assertFalse(actualFrame.isBodyBuffered());
+  }
+
 }
@@ -0,0 +1,115 @@
+package org.mpilone.yeti;
+
+import static org.junit.Assert.*;
+import static org.mpilone.yeti.StompConstants.*;
+
+import org.junit.Test;
+
+import io.netty.buffer.*;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Test case for the {@link StompFrameEncoder}.
+ *
+ * @author mpilone
+ */
+public class StompFrameEncoderTestCase {
+
+  /**
+   * Tests encoding a frame with headers that must be escaped and UTF-8
+   * encoded and decoding it again.
+   */
+  @Test
+  public void testEncodeFrame_EscapedHeaders() {
+
+    String value = "a\\b:c\nd\re caf\u00e9 \u20ac \ud83d\ude00";
+
+    Frame frame = FrameBuilder.send("/queue/foo", "This is the body.").header(
+        "header1", value).header("header:2", "value2").build();
+
+    EmbeddedChannel ec = new EmbeddedChannel(new StompFrameEncoder());
+    ec.writeOutbound(frame);
+
+    ByteBuf buf = (ByteBuf) ec.readOutbound();
+    assertNotNull(buf);
+    assertTrue(buf.isDirect());
+    assertEquals(buf.capacity(), buf.readableBytes());
+
+    Frame actualFrame = decode(buf);
+    assertEquals(Command.SEND, actualFrame.getCommand());
+    assertEquals(value, actualFrame.getHeaders().get("header1"));
+    assertEquals("value2", actualFrame.getHeaders().get("header:2"));
+    assertEquals("/queue/foo", actualFrame.getHeaders().get(
+        Headers.DESTINATION));
+    assertEquals("This is the body.", actualFrame.getBodyAsString());
+  }
+
+  /**
+   * Tests that a buffered body is written to the channel without being copied.
+   */
+  @Test
+  public void testEncodeFrame_BufferedBody() {
+
+    ByteBuf body = Unpooled.directBuffer().writeBytes("This is the body.".
+        getBytes(UTF_8));
+    Frame frame = new Frame(Command.SEND, null, body);
+
+    EmbeddedChannel ec = new EmbeddedChannel(new StompFrameEncoder());
+    ec.writeOutbound(frame);
+
+    ByteBuf head = (ByteBuf) ec.readOutbound();
+    ByteBuf actualBody = (ByteBuf) ec.readOutbound();
+    ByteBuf tail = (ByteBuf) ec.readOutbound();
+    assertNotNull(tail);
+    assertNull(ec.readOutbound());
+
+    // The body is still referenced by the channel after the frame is released
+    // and the written component is a view of the body rather than a copy.
+    assertEquals(1, body.refCnt());
+    assertSame(body, actualBody.unwrap());
+
+    Frame actualFrame = decode(Unpooled.wrappedBuffer(head, actualBody, tail));
+    assertEquals("17", actualFrame.getHeaders().get(Headers.CONTENT_LENGTH));
+    assertEquals("This is the body.", actualFrame.getBodyAsString());
+    assertEquals(0, body.refCnt());
+  }
+
+  /**
+   * Tests that a pre-encoded frame can be written to multiple channels.
+   */
+  @Test
+  public void testEncode_Reuse() {
+
+    Frame frame = FrameBuilder.send("/topic/foo", "This is the body.").build();
+    ByteBuf encoded = StompFrameEncoder.encode(frame,
+        PooledByteBufAllocator.DEFAULT);
+    assertEquals(encoded.capacity(), encoded.readableBytes());
+
+    for (int i = 0; i < 2; ++i) {
+      EmbeddedChannel ec = new EmbeddedChannel(new StompFrameEncoder());
+      ec.writeOutbound(encoded.duplicate().retain());
+
+      Frame actualFrame = decode((ByteBuf) ec.readOutbound());
+      assertEquals("This is the body.", actualFrame.getBodyAsString());
+    }
+
+    assertTrue(encoded.release());
+  }
+
+  /**
+   * Decodes a single frame from the given buffer and releases the buffer.
+   *
+   * @param buf the buffer to decode
+   *
+   * @return the decoded frame
+   */
+  private Frame decode(ByteBuf buf) {
+    EmbeddedChannel ec = new EmbeddedChannel(new StompFrameDecoder());
+    ec.writeInbound(buf);
+
+    Frame frame = (Frame) ec.readInbound();
+    assertNotNull(frame);
+    assertNull(frame.getHeaders().get(StompFrameDecoder.HEADER_BAD_REQUEST));
+    return frame;
+  }
+}
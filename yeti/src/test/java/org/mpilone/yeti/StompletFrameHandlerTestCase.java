@@ -0,0 +1,150 @@
+package org.mpilone.yeti;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import io.netty.channel.*;
+import io.netty.channel.embedded.EmbeddedChannel;
+
+/**
+ * Test case for the {@link StompletFrameHandler}.
+ *
+ * @author mpilone
+ */
+public class StompletFrameHandlerTestCase {
+
+  /**
+   * Tests that all the frames written while servicing a request are flushed
+   * once.
+   */
+  @Test
+  public void testWrite_SingleFlush() {
+
+    FlushCounter counter = new FlushCounter();
+    EmbeddedChannel ec = new EmbeddedChannel(counter, new StompletFrameHandler(
+        new WritingStomplet(10, 100)));
+    ec.writeInbound(FrameBuilder.send("/queue/foo", "request").build());
+
+    assertEquals(1, counter.flushes);
+    assertEquals(10, readFrames(ec));
+  }
+
+  /**
+   * Tests that the channel is flushed when the maximum number of frames has
+   * been written.
+   */
+  @Test
+  public void testWrite_FrameLimit() {
+
+    FlushCounter counter = new FlushCounter();
+    EmbeddedChannel ec = new EmbeddedChannel(counter, new StompletFrameHandler(
+        new WritingStomplet(10, 100), 4, Integer.MAX_VALUE));
+    ec.writeInbound(FrameBuilder.send("/queue/foo", "request").build());
+
+    // Flushed after frames 4 and 8 and once more for the last 2.
+    assertEquals(3, counter.flushes);
+    assertEquals(10, readFrames(ec));
+  }
+
+  /**
+   * Tests that the channel is flushed when the maximum number of body bytes
+   * has been written.
+   */
+  @Test
+  public void testWrite_ByteLimit() {
+
+    FlushCounter counter = new FlushCounter();
+    EmbeddedChannel ec = new EmbeddedChannel(counter, new StompletFrameHandler(
+        new WritingStomplet(10, 100), 64, 250));
+    ec.writeInbound(FrameBuilder.send("/queue/foo", "request").build());
+
+    // Flushed after frames 3, 6, and 9 and once more for the last one.
+    assertEquals(4, counter.flushes);
+    assertEquals(10, readFrames(ec));
+  }
+
+  /**
+   * Tests that every frame is flushed when the maximum number of frames is 1.
+   */
+  @Test
+  public void testWrite_NoBatching() {
+
+    FlushCounter counter = new FlushCounter();
+    EmbeddedChannel ec = new EmbeddedChannel(counter, new StompletFrameHandler(
+        new WritingStomplet(10, 100), 1, Integer.MAX_VALUE));
+    ec.writeInbound(FrameBuilder.send("/queue/foo", "request").build());
+
+    assertEquals(10, counter.flushes);
+    assertEquals(10, readFrames(ec));
+  }
+
+  /**
+   * Reads and releases all the frames written to the channel.
+   *
+   * @param ec the channel to read from
+   *
+   * @return the number of frames read
+   */
+  private int readFrames(EmbeddedChannel ec) {
+    int count = 0;
+    Object msg;
+    while ((msg = ec.readOutbound()) != null) {
+      assertTrue(msg instanceof Frame);
+      ((Frame) msg).release();
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * An outbound handler that counts the number of flushes.
+   */
+  private static class FlushCounter extends ChannelOutboundHandlerAdapter {
+
+    private int flushes;
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception {
+      flushes++;
+      super.flush(ctx);
+    }
+  }
+
+  /**
+   * A stomplet that writes a number of MESSAGE frames for every request.
+   */
+  private static class WritingStomplet implements Stomplet {
+
+    private final int frameCount;
+    private final int bodyLength;
+
+    /**
+     * Constructs the stomplet.
+     *
+     * @param frameCount the number of frames to write per request
+     * @param bodyLength the length of the body of each frame
+     */
+    public WritingStomplet(int frameCount, int bodyLength) {
+      this.frameCount = frameCount;
+      this.bodyLength = bodyLength;
+    }
+
+    @Override
+    public void init(StompletContext context) {
+    }
+
+    @Override
+    public void service(StompletRequest req, StompletResponse res) throws
+        Exception {
+      for (int i = 0; i < frameCount; ++i) {
+        res.getFrameChannel().write(FrameBuilder.command(Command.MESSAGE).body(
+            new byte[bodyLength]).build());
+      }
+    }
+
+    @Override
+    public void destroy() {
+    }
+  }
+}